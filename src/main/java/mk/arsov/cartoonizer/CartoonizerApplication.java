@@ -1,8 +1,186 @@
 package mk.arsov.cartoonizer;
 
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import mk.arsov.cartoonizer.cache.StageCache;
+import mk.arsov.cartoonizer.config.BatchConfiguration;
+import mk.arsov.cartoonizer.config.ProcessingPlan;
+import mk.arsov.cartoonizer.config.ProcessingPlanLoader;
+import mk.arsov.cartoonizer.config.ServerConfiguration;
+import mk.arsov.cartoonizer.pipeline.BatchProcessor;
+import mk.arsov.cartoonizer.pipeline.BatchResult;
+import mk.arsov.cartoonizer.pipeline.CartoonizerPipeline;
+import mk.arsov.cartoonizer.pipeline.FrameDiffProcessor;
+import mk.arsov.cartoonizer.pipeline.FrameSequenceProcessor;
+import mk.arsov.cartoonizer.pipeline.PipelineResult;
+import mk.arsov.cartoonizer.pipeline.TiledProcessor;
+import mk.arsov.cartoonizer.server.CartoonizerServer;
+import mk.arsov.cartoonizer.util.ImageUtils;
+import mk.arsov.cartoonizer.util.ParallelExecutor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Command line cartoonizer.
+ *
+ * Usage: CartoonizerApplication &lt;input image&gt; &lt;output png&gt; [configuration yml] [--tile n]
+ *
+ * With --tile the image is read, calculated and written in tiles of n pixels, for images too large for the memory.
+ *
+ * or, for all images in a directory:
+ *
+ * CartoonizerApplication --batch &lt;input directory&gt; &lt;output directory&gt; [configuration yml]
+ *     [--decoders n] [--workers n] [--encoders n] [--queue n]
+ *
+ * or, for the frames of a video, in the order of their names:
+ *
+ * CartoonizerApplication --sequence &lt;input directory&gt; &lt;output directory&gt; [configuration yml] [--frame-diff]
+ *
+ * With --frame-diff only the regions around the changes from the previous frame are calculated, for frames
+ * which change only in some places.
+ *
+ * or, as http service:
+ *
+ * CartoonizerApplication --server [configuration yml] [--port n] [--workers n] [--queue n]
+ *
+ * Without a configuration file, application.yml from the classpath is used. The options override
+ * the values in {@link BatchConfiguration} and {@link ServerConfiguration}.
+ */
 public class CartoonizerApplication {
 
-    public static void main(String[] args) {
+    private static final Logger logger = LoggerFactory.getLogger(CartoonizerApplication.class);
+
+    private static final String USAGE = "Usage: CartoonizerApplication <input image> <output png> [configuration yml]"
+        + " [--tile n]\n"
+        + "       CartoonizerApplication --batch <input directory> <output directory> [configuration yml]"
+        + " [--decoders n] [--workers n] [--encoders n] [--queue n]\n"
+        + "       CartoonizerApplication --sequence <input directory> <output directory> [configuration yml]"
+        + " [--frame-diff]\n"
+        + "       CartoonizerApplication --server [configuration yml] [--port n] [--workers n] [--queue n]";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean batch = false;
+        boolean sequence = false;
+        boolean frameDiff = false;
+        boolean server = false;
+        int port = ServerConfiguration.PORT;
+        int decodeThreads = BatchConfiguration.DECODE_THREADS;
+        int encodeThreads = BatchConfiguration.ENCODE_THREADS;
+        Integer computeThreads = null;
+        Integer queueCapacity = null;
+        Integer tileSize = null;
+
+        final List<String> arguments = new ArrayList<String>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("--batch".equals(args[i])) {
+                    batch = true;
+                } else if ("--sequence".equals(args[i])) {
+                    sequence = true;
+                } else if ("--frame-diff".equals(args[i])) {
+                    frameDiff = true;
+                } else if ("--server".equals(args[i])) {
+                    server = true;
+                } else if ("--port".equals(args[i])) {
+                    port = Integer.parseInt(args[++i]);
+                } else if ("--decoders".equals(args[i])) {
+                    decodeThreads = Integer.parseInt(args[++i]);
+                } else if ("--workers".equals(args[i])) {
+                    computeThreads = Integer.parseInt(args[++i]);
+                } else if ("--encoders".equals(args[i])) {
+                    encodeThreads = Integer.parseInt(args[++i]);
+                } else if ("--tile".equals(args[i])) {
+                    tileSize = Integer.parseInt(args[++i]);
+                } else if ("--queue".equals(args[i])) {
+                    queueCapacity = Integer.parseInt(args[++i]);
+                } else {
+                    arguments.add(args[i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            usage();
+        }
+        if (server) {
+            if (batch || sequence || frameDiff || (tileSize != null) || (arguments.size() > 1)) {
+                usage();
+            }
+        } else if ((arguments.size() < 2) || (arguments.size() > 3) || (batch && sequence)
+                || ((batch || sequence) && (tileSize != null)) || (frameDiff && !sequence)) {
+            usage();
+        }
+
+        final int configurationIndex = server ? 0 : 2;
+        final ProcessingPlan plan = arguments.size() > configurationIndex
+            ? ProcessingPlanLoader.load(new File(arguments.get(configurationIndex))) : ProcessingPlanLoader.loadDefault();
+        ParallelExecutor.setDefault(ParallelExecutor.fromConfiguration(plan.getThreads(), plan.getRowsPerTask()));
+
+        if (server) {
+            final CartoonizerServer cartoonizerServer = new CartoonizerServer(plan, new StageCache(), port,
+                computeThreads != null ? computeThreads : ServerConfiguration.COMPUTE_THREADS,
+                queueCapacity != null ? queueCapacity : ServerConfiguration.QUEUE_CAPACITY,
+                ServerConfiguration.MAX_UPLOAD_BYTES, ServerConfiguration.MAX_PIXELS, ServerConfiguration.TIMEOUT_SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(cartoonizerServer::stop));
+            cartoonizerServer.start();
+            return;
+        }
+
+        final CartoonizerPipeline pipeline = new CartoonizerPipeline(plan);
+        if (batch) {
+            final BatchResult result = new BatchProcessor(pipeline, decodeThreads,
+                computeThreads != null ? computeThreads : BatchConfiguration.COMPUTE_THREADS, encodeThreads,
+                queueCapacity != null ? queueCapacity : BatchConfiguration.QUEUE_CAPACITY)
+                .process(new File(arguments.get(0)), new File(arguments.get(1)));
+            System.out.println(result);
+            if (result.getFailed() > 0) {
+                System.exit(2);
+            }
+            return;
+        }
+
+        if (frameDiff) {
+            final FrameDiffProcessor frameDiffProcessor = new FrameDiffProcessor(pipeline);
+            frameDiffProcessor.process(new File(arguments.get(0)), new File(arguments.get(1)));
+            System.out.println(frameDiffProcessor.getFullFrames() + " frames calculated whole, "
+                + frameDiffProcessor.getIncrementalFrames() + " in the changed regions");
+            return;
+        }
+
+        if (sequence) {
+            final FrameSequenceProcessor sequenceProcessor = new FrameSequenceProcessor(pipeline);
+            sequenceProcessor.process(new File(arguments.get(0)), new File(arguments.get(1)));
+            System.out.println(sequenceProcessor.getWarmFrames() + " frames continued from the previous frame, "
+                + sequenceProcessor.getColdFrames() + " started from the beginning");
+            return;
+        }
+
+        if (tileSize != null) {
+            logger.info("Cartoonizing {} in tiles", arguments.get(0));
+            new TiledProcessor(pipeline, tileSize).process(new File(arguments.get(0)), new File(arguments.get(1)));
+            return;
+        }
+
+        final BufferedImage sourceImage = ImageIO.read(new File(arguments.get(0)));
+        if (sourceImage == null) {
+            System.err.println("Cannot read image " + arguments.get(0));
+            System.exit(1);
+        }
+
+        logger.info("Cartoonizing {}", arguments.get(0));
+        final PipelineResult result = pipeline.process(sourceImage);
+        ImageUtils.saveImage(result.getImage(), arguments.get(1));
+    }
 
+    private static void usage() {
+        System.err.println(USAGE);
+        System.exit(1);
     }
 }
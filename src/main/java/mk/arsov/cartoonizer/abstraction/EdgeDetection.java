@@ -1,14 +1,24 @@
 package mk.arsov.cartoonizer.abstraction;
 
-import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import mk.arsov.cartoonizer.config.BlurConfiguration;
+import mk.arsov.cartoonizer.config.EdgeTangentFlowConfiguration;
+import mk.arsov.cartoonizer.config.ProcessingPlan;
 import mk.arsov.cartoonizer.lineintegralconvolution.LineConvolutionCalculator;
 import mk.arsov.cartoonizer.lineintegralconvolution.SobelGradient;
+import mk.arsov.cartoonizer.lineintegralconvolution.SobelPlanes;
+import mk.arsov.cartoonizer.lineintegralconvolution.StreamlineTable;
+import mk.arsov.cartoonizer.util.BlurMode;
 import mk.arsov.cartoonizer.util.FlowUtils;
+import mk.arsov.cartoonizer.util.GradientStencilTable;
+import mk.arsov.cartoonizer.util.ImagePlane;
 import mk.arsov.cartoonizer.util.ImageUtils;
+import mk.arsov.cartoonizer.util.KernelPlan;
+import mk.arsov.cartoonizer.util.ParallelExecutor;
+import mk.arsov.cartoonizer.util.VectorField;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,83 +56,388 @@ public class EdgeDetection {
 
         logger.info("Running edge detection");
         BufferedImage blurredImage = ImageUtils.blur(sourceImage, blurKernelRadius, blurSigma);
-        BufferedImage edgeImage = new BufferedImage(sourceImage.getWidth(), sourceImage.getHeight(),
-            BufferedImage.TYPE_3BYTE_BGR);
 
-        final Point2D.Double[][] tangentVectors = sobelGradient.calculateTangentVectorField(blurredImage);
-        final Point2D.Double[][] etfVectors = edgeTangentFlow.calculate(tangentVectors, etfIterations, etfKernelRadius);
+        // the gradient magnitude from the sobel pass is reused by the etf
+        final SobelPlanes sobelPlanes = sobelGradient.calculatePlanes(blurredImage);
+        final VectorField etfVectors = edgeTangentFlow.calculate(sobelPlanes.getTangentVectorField(),
+            sobelPlanes.getMagnitude(), etfIterations, etfKernelRadius, EdgeTangentFlowConfiguration.MODE);
+
+        // the etf doesn't change between iterations, so the streamlines are traced only once
+        final StreamlineTable streamlines =
+            lineConvolutionCalculator.createStreamlineTable(etfVectors, licKernelLength, licRoundoff);
+        final GradientStencilTable gradientStencils = FlowUtils.createGradientStencilTable(etfVectors, t);
+
+        return calculate(sourceImage, streamlines, gradientStencils, iterations, sigmaM, sigmaC, sigmaS, ro,
+            licKernelLength, t, tau, blurKernelRadius, blurSigma);
+    }
+
+    /**
+     * Calculate edge pixels along an already calculated edge tangent flow, for example shared
+     * with the region smoothing. The source image is modified, the edges from each iteration
+     * are drawn on it.
+     *
+     * @param sourceImage the image on which edge detection is applied
+     * @param streamlines line segments along the etf vectors, at least s points in each direction
+     * @param gradientStencils points in the gradient direction, at least t points in each direction
+     * @param s length of the line segments along the flow, in one direction
+     * @param t length of the line segments in the gradient direction, in one direction
+     * @return image showing only the edges from the source image
+     */
+    public BufferedImage calculate(BufferedImage sourceImage, final StreamlineTable streamlines,
+            final GradientStencilTable gradientStencils,
+            final int iterations, final double sigmaM, final double sigmaC, final double sigmaS,
+            final double ro, final int s, final int t, final double tau,
+            final int blurKernelRadius, final double blurSigma) {
+
+        // weights along the gradient and the flow direction are the same in every iteration
+        return calculate(sourceImage, streamlines, gradientStencils, null, iterations,
+            KernelPlan.differenceOfGaussians(sigmaC, sigmaS, ro, t), KernelPlan.gaussian(sigmaM, s), tau,
+            blurKernelRadius, blurSigma, BlurConfiguration.MODE);
+    }
+
+    /**
+     * Calculate edge pixels with all parameters and weights from the processing plan.
+     *
+     * @param sourceImage the image on which edge detection is applied, it is not modified
+     * @param plan the processing plan
+     * @return image showing only the edges from the source image
+     */
+    public BufferedImage calculate(final BufferedImage sourceImage, final ProcessingPlan plan) {
+        logger.info("Running edge detection");
+        final BufferedImage blurredImage =
+            ImageUtils.blur(sourceImage, plan.getBlurKernelRadius(), plan.getBlurSigma(), plan.getBlurMode());
+
+        final SobelPlanes sobelPlanes = sobelGradient.calculatePlanes(blurredImage);
+        final VectorField etfVectors = edgeTangentFlow.calculate(sobelPlanes.getTangentVectorField(),
+            sobelPlanes.getMagnitude(), Double.NaN, plan);
+
+        return calculate(ImageUtils.copy(sourceImage),
+            lineConvolutionCalculator.createStreamlineTable(etfVectors, plan.getFdogS(), plan.getLicRoundoff()),
+            FlowUtils.createGradientStencilTable(etfVectors, plan.getFdogT()), plan);
+    }
+
+    /**
+     * Calculate edge pixels along an already calculated edge tangent flow, with all parameters and weights
+     * from the processing plan. The source image is modified, the edges from each iteration are drawn on it.
+     *
+     * @param sourceImage the image on which edge detection is applied
+     * @param streamlines line segments along the etf vectors, at least the plan's S points in each direction
+     * @param gradientStencils points in the gradient direction, at least the plan's T points in each direction
+     * @param plan the processing plan
+     * @return image showing only the edges from the source image
+     */
+    public BufferedImage calculate(final BufferedImage sourceImage, final StreamlineTable streamlines,
+            final GradientStencilTable gradientStencils, final ProcessingPlan plan) {
+        return calculate(sourceImage, streamlines, gradientStencils, null, plan);
+    }
+
+    /**
+     * The response of the first iteration, He(x) before the threshold. It depends only on the source image,
+     * the flow and the weights, not on tau or the number of iterations, so it can be shared by calculations
+     * which differ only in those.
+     *
+     * @param sourceImage the image on which edge detection is applied, it is not modified
+     * @param streamlines line segments along the etf vectors, at least the plan's S points in each direction
+     * @param gradientStencils points in the gradient direction, at least the plan's T points in each direction
+     * @param plan the processing plan
+     * @return values of He(x) for each point in the image, by row and column
+     */
+    public double[][] calculateResponse(final BufferedImage sourceImage, final StreamlineTable streamlines,
+            final GradientStencilTable gradientStencils, final ProcessingPlan plan) {
+        return calculateHexIntegral(streamlines, calculateHgxIntegral(sourceImage, gradientStencils, plan.getDogPlan()),
+            plan.getFdogFlowPlan());
+    }
+
+    /**
+     * Calculate edge pixels from an already calculated response of the first iteration, with all parameters
+     * and weights from the processing plan. The source image is modified, the edges from each iteration are
+     * drawn on it.
+     *
+     * @param sourceImage the image on which edge detection is applied
+     * @param streamlines line segments along the etf vectors, at least the plan's S points in each direction
+     * @param gradientStencils points in the gradient direction, at least the plan's T points in each direction
+     * @param response the response of the first iteration from {@link #calculateResponse}, null to calculate it
+     * @param plan the processing plan
+     * @return image showing only the edges from the source image
+     */
+    public BufferedImage calculate(final BufferedImage sourceImage, final StreamlineTable streamlines,
+            final GradientStencilTable gradientStencils, final double[][] response, final ProcessingPlan plan) {
+        if (plan.getFdogMode() == FdogMode.INCREMENTAL) {
+            return calculateIncremental(sourceImage, streamlines, gradientStencils, response, plan.getFdogIterations(),
+                plan.getDogPlan(), plan.getFdogFlowPlan(), plan.getFdogTau());
+        }
+        return calculate(sourceImage, streamlines, gradientStencils, response, plan.getFdogIterations(),
+            plan.getDogPlan(), plan.getFdogFlowPlan(), plan.getFdogTau(), plan.getBlurKernelRadius(),
+            plan.getBlurSigma(), plan.getBlurMode());
+    }
+
+    /**
+     * Calculate edge pixels along an already calculated edge tangent flow, with precomputed weights.
+     *
+     * @param sourceImage the image on which edge detection is applied, the edges are drawn on it
+     * @param streamlines line segments along the etf vectors
+     * @param gradientStencils points in the gradient direction
+     * @param response He(x) of the first iteration, null to calculate it
+     * @param dogPlan difference of gaussians weights in the gradient direction
+     * @param flowPlan gaussian weights along the flow
+     * @return image showing only the edges from the source image
+     */
+    private BufferedImage calculate(BufferedImage sourceImage, final StreamlineTable streamlines,
+            final GradientStencilTable gradientStencils, final double[][] response, final int iterations,
+            final KernelPlan dogPlan,
+            final KernelPlan flowPlan, final double tau, final int blurKernelRadius, final double blurSigma,
+            final BlurMode blurMode) {
+
+        final int width = sourceImage.getWidth();
+        final BufferedImage edgeImage = ImagePlane.createGray(width, sourceImage.getHeight());
+        final byte[] edges = ImagePlane.grayData(edgeImage);
 
         for (int iteration = 0; iteration < iterations; iteration++) {
             logger.info("Edge detection iteration {}/{}", iteration, iterations);
 
-            final double[][] immediateIntegralValues = this.calculateHgxIntegral(sourceImage, etfVectors, sigmaC, sigmaS, ro, t);
-            final double[][] integralValues = this.calculateHexIntegral(etfVectors, immediateIntegralValues, sigmaM, licKernelLength, licRoundoff);
+            final double[][] integralValues;
+            if ((iteration == 0) && (response != null)) {
+                integralValues = response;
+            } else {
+                final double[][] immediateIntegralValues = this.calculateHgxIntegral(sourceImage, gradientStencils, dogPlan);
+                integralValues = this.calculateHexIntegral(streamlines, immediateIntegralValues, flowPlan);
+            }
 
-            for (int i = 0; i < integralValues.length; i++) {
-                for (int j = 0; j < integralValues[0].length; j++) {
-                    final int edgeValue = this.thresholdedValue(integralValues[i][j], tau);
-                    edgeImage.setRGB(j, i, edgeValue * 16777215);
+            final ParallelExecutor executor = ParallelExecutor.getDefault();
+            executor.forEachRow(integralValues.length, (fromRow, toRow) -> {
+                for (int i = fromRow; i < toRow; i++) {
+                    for (int j = 0; j < width; j++) {
+                        final int edgeValue = this.thresholdedValue(integralValues[i][j], tau);
+                        edges[i * width + j] = (byte) (edgeValue * 255);
+                    }
+                }
+            });
+
+            // combine images, the grayscale intermediates are written directly
+            final BufferedImage combinedImage = sourceImage;
+            final byte[] combined = ImagePlane.isGray(combinedImage) ? ImagePlane.grayData(combinedImage) : null;
+            executor.forEachRow(edgeImage.getHeight(), (fromRow, toRow) -> {
+                for (int i = fromRow; i < toRow; i++) {
+                    for (int j = 0; j < width; j++) {
+                        if (edges[i * width + j] == 0) {
+                            if (combined != null) {
+                                combined[i * width + j] = 0;
+                            } else {
+                                combinedImage.setRGB(j, i, 0);
+                            }
+                        }
+                    }
                 }
+            });
+
+            // blur image, for the next iteration
+            if (iteration < iterations - 1) {
+                sourceImage = ImageUtils.blur(sourceImage, blurKernelRadius, blurSigma, blurMode);
             }
+        }
 
-            // combine images
-            final Raster edgeRaster = edgeImage.getData();
-            for (int i = 0; i < edgeImage.getHeight(); i++) {
-                for (int j = 0; j < edgeImage.getWidth(); j++) {
-                    if (edgeRaster.getSample(j, i, 0) == 0) {
-                        sourceImage.setRGB(j, i, 0);
+        return edgeImage;
+    }
+
+    /**
+     * Calculate edge pixels in {@link FdogMode#INCREMENTAL} mode. The edges of each iteration are drawn on the
+     * source image, and in the next iteration Hg(x) is calculated again only for the pixels whose gradient segment
+     * reaches a new edge pixel, He(x) only for the pixels whose line segment reaches a changed Hg(x), and only the
+     * changed He(x) are thresholded again. The other values stay the same, so the result is the same as calculating
+     * all pixels again on the source image with the edges drawn on it. It is not the same as in
+     * {@link FdogMode#EXACT} mode, which blurs the image again between the iterations, see
+     * {@link FdogMode#INCREMENTAL} for the difference.
+     *
+     * @param sourceImage the image on which edge detection is applied, the edges are drawn on it
+     * @param streamlines line segments along the etf vectors
+     * @param gradientStencils points in the gradient direction
+     * @param response He(x) of the first iteration, null to calculate it, it is not modified
+     * @param iterations the largest number of iterations, fewer when an iteration finds no new edge pixels
+     * @param dogPlan difference of gaussians weights in the gradient direction
+     * @param flowPlan gaussian weights along the flow
+     * @param tau the threshold
+     * @return image showing only the edges from the source image
+     */
+    private BufferedImage calculateIncremental(final BufferedImage sourceImage, final StreamlineTable streamlines,
+            final GradientStencilTable gradientStencils, final double[][] response, final int iterations,
+            final KernelPlan dogPlan, final KernelPlan flowPlan, final double tau) {
+        final int width = sourceImage.getWidth();
+        final int height = sourceImage.getHeight();
+        final BufferedImage edgeImage = ImagePlane.createGray(width, height);
+        final byte[] edges = ImagePlane.grayData(edgeImage);
+
+        // Hg(x) is kept only to find the values which changed in the next iteration, the response is
+        // shared, so the values of the next iterations are written into a copy of it
+        final double[][] hgxValues = ((response == null) || (iterations > 1))
+            ? this.calculateHgxIntegral(sourceImage, gradientStencils, dogPlan) : null;
+        final double[][] hexValues;
+        if (response == null) {
+            hexValues = this.calculateHexIntegral(streamlines, hgxValues, flowPlan);
+        } else if (iterations > 1) {
+            hexValues = new double[height][];
+            for (int i = 0; i < height; i++) {
+                hexValues[i] = response[i].clone();
+            }
+        } else {
+            hexValues = response;
+        }
+
+        // the edges are drawn into the samples, which are the data of a grayscale image, or a copy of them
+        final boolean direct = ImagePlane.isGray(sourceImage);
+        final byte[] samples = direct ? ImagePlane.grayData(sourceImage) : ImagePlane.band(sourceImage, 0);
+        final boolean[] changedSamples = new boolean[width * height];
+        final boolean[] changedHgx = new boolean[width * height];
+        final boolean[] changedHex = new boolean[width * height];
+        Arrays.fill(changedHex, true);
+        // the new image is black, only the changed pixels are drawn
+        final boolean[] edgePixels = new boolean[width * height];
+        Arrays.fill(edgePixels, true);
+        final double[] dogWeights = dogPlan.getWeights();
+        final double[] flowWeights = flowPlan.getWeights();
+        final ParallelExecutor executor = ParallelExecutor.getDefault();
+
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            logger.info("Edge detection iteration {}/{}", iteration, iterations);
+
+            if (iteration > 0) {
+                executor.forEachRow(height, (fromRow, toRow) -> {
+                    for (int i = fromRow; i < toRow; i++) {
+                        for (int j = 0; j < width; j++) {
+                            final int pixelIndex = i * width + j;
+                            changedHgx[pixelIndex] = false;
+                            if (reaches(gradientStencils, pixelIndex, dogPlan.getLength(), changedSamples)) {
+                                final double value = hgxValue(samples, gradientStencils, pixelIndex, dogWeights,
+                                    dogPlan.getLength());
+                                changedHgx[pixelIndex] = (value != hgxValues[i][j]);
+                                hgxValues[i][j] = value;
+                            }
+                        }
                     }
-                }
+                });
+
+                executor.forEachRow(height, (fromRow, toRow) -> {
+                    for (int i = fromRow; i < toRow; i++) {
+                        for (int j = 0; j < width; j++) {
+                            final int pixelIndex = i * width + j;
+                            changedHex[pixelIndex] = false;
+                            if (reaches(streamlines, pixelIndex, flowPlan.getLength(), changedHgx)) {
+                                final double value = hexValue(hgxValues, streamlines, pixelIndex, flowWeights,
+                                    flowPlan.getLength(), width);
+                                changedHex[pixelIndex] = (value != hexValues[i][j]);
+                                hexValues[i][j] = value;
+                            }
+                        }
+                    }
+                });
             }
 
-            // blur image
-            sourceImage = ImageUtils.blur(sourceImage, blurKernelRadius, blurSigma);
+            // threshold the changed values, and draw the new edge pixels on the source image
+            final AtomicInteger newEdges = new AtomicInteger();
+            executor.forEachRow(height, (fromRow, toRow) -> {
+                int rowEdges = 0;
+                for (int i = fromRow; i < toRow; i++) {
+                    for (int j = 0; j < width; j++) {
+                        final int pixelIndex = i * width + j;
+                        if (!changedHex[pixelIndex]) {
+                            changedSamples[pixelIndex] = false;
+                            continue;
+                        }
+
+                        final int edgeValue = this.thresholdedValue(hexValues[i][j], tau);
+                        if ((edgeValue == 0) != edgePixels[pixelIndex]) {
+                            edges[pixelIndex] = (byte) (edgeValue * 255);
+                            edgePixels[pixelIndex] = (edgeValue == 0);
+                        }
+
+                        changedSamples[pixelIndex] = (edgeValue == 0) && (samples[pixelIndex] != 0);
+                        if (changedSamples[pixelIndex]) {
+                            samples[pixelIndex] = 0;
+                            if (!direct) {
+                                sourceImage.setRGB(j, i, 0);
+                            }
+                            rowEdges++;
+                        }
+                    }
+                }
+                newEdges.addAndGet(rowEdges);
+            });
+
+            if (newEdges.get() == 0) {
+                logger.info("No new edge pixels, the next iterations give the same edges");
+                break;
+            }
         }
 
         return edgeImage;
     }
 
+    /**
+     * Whether any point of the gradient segment of the pixel is marked.
+     *
+     * @param gradientStencils points in the gradient direction
+     * @param pixelIndex the pixel
+     * @param t largest number of points
+     * @param marked the marked pixels
+     * @return true if the segment reaches a marked pixel
+     */
+    private static boolean reaches(final GradientStencilTable gradientStencils, final int pixelIndex, final int t,
+            final boolean[] marked) {
+        final int length = gradientStencils.getLength(pixelIndex, t);
+        for (int k = 0; k < length; k++) {
+            if (marked[gradientStencils.getPointIndex(pixelIndex, k)]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Whether any point of the line segment along the flow of the pixel is marked.
+     *
+     * @param streamlines line segments along the etf vectors
+     * @param pixelIndex the pixel
+     * @param s largest number of points
+     * @param marked the marked pixels
+     * @return true if the segment reaches a marked pixel
+     */
+    private static boolean reaches(final StreamlineTable streamlines, final int pixelIndex, final int s,
+            final boolean[] marked) {
+        final int length = streamlines.getLength(pixelIndex, s);
+        for (int k = 0; k < length; k++) {
+            if (marked[streamlines.getPointIndex(pixelIndex, k)]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Calculate Hg(x) integral for each point in the image.
      *
      * @param sourceImage source image
-     * @param tangentVectors array of tangent vectors for each point in the image
-     * @param sigmaC
-     * @param sigmaS
-     * @param ro
+     * @param gradientStencils points in the gradient direction for each point in the image
+     * @param dogPlan difference of gaussians weights, it's length is the length of the segments
+     *        in gradient direction, at most the length of the stencils
      * @return array with values of integral Hg(x) for each point in the image
      */
     protected double[][] calculateHgxIntegral(final BufferedImage sourceImage,
-            final Point2D.Double[][] tangentVectors, final double sigmaC, final double sigmaS, final double ro, final int t) {
+            final GradientStencilTable gradientStencils, final KernelPlan dogPlan) {
         logger.info("Starting calculation of Hg(x) values for image with size {}, {}", sourceImage.getWidth(), sourceImage.getHeight());
-        double[][] result = new double[sourceImage.getHeight()][sourceImage.getWidth()];
-        ArrayList<Point2D.Double> points;
-
-        double integralValue = 0;
-
-        Raster raster = sourceImage.getData();
-        for (int i = 0; i < sourceImage.getHeight(); i++) {
-            for (int j = 0; j < sourceImage.getWidth(); j++) {
-                final Point2D.Double x = new Point2D.Double(j, i);
-                final Point2D.Double gradientVector = new Point2D.Double(tangentVectors[i][j].getY(),
-                    -tangentVectors[i][j].getX());
-                points = FlowUtils.calculateGradientPoints(x, gradientVector, sourceImage.getWidth(),
-                    sourceImage.getHeight(), t);
-
-                integralValue = 0;
-                for (int k = 0; k < points.size(); k++) {
-                    final Point2D.Double point = points.get(k);
-                    final int xCoord = (int) point.getX();
-                    final int yCoord = (int) point.getY();
-
-                    int parameter = k % 2 == 0 ? -((k + 1) / 2) : ((k + 1) / 2);
-                    integralValue += raster.getSample(xCoord, yCoord, 0)
-                        * FlowUtils.calculateDog(parameter, sigmaC, sigmaS, ro);
+        final int width = sourceImage.getWidth();
+        final double[][] result = new double[sourceImage.getHeight()][width];
+
+        final double[] weights = dogPlan.getWeights();
+        final int t = dogPlan.getLength();
+        final byte[] samples = ImagePlane.band(sourceImage, 0);
+        ParallelExecutor.getDefault().forEachRow(sourceImage.getHeight(), (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                for (int j = 0; j < width; j++) {
+                    result[i][j] = hgxValue(samples, gradientStencils, i * width + j, weights, t);
                 }
-
-                result[i][j] = integralValue;
             }
-        }
+        });
 
         return result;
     }
@@ -130,45 +445,76 @@ public class EdgeDetection {
     /**
      * Calculate He(x) integral from edge detection for the entire image.
      *
-     * @param etfVectors etf vectors for each point in the image
+     * @param streamlines line segments along the etf vectors for each point in the image
      * @param immediateIntegralValues the matrix with the immediate integral values for each point
-     * @param sigmaM
-     * @param licKernelLength
-     * @param licRoundoff
+     * @param flowPlan gaussian weights along the line segments
      * @return values of the final integral for each point in the image
      */
-    protected double[][] calculateHexIntegral(final Point2D.Double[][] etfVectors,
-            final double[][] immediateIntegralValues, final double sigmaM,
-            final int licKernelLength, final double licRoundoff) {
+    protected double[][] calculateHexIntegral(final StreamlineTable streamlines,
+            final double[][] immediateIntegralValues, final KernelPlan flowPlan) {
+
+        final int width = streamlines.getWidth();
+        final double[] weights = flowPlan.getWeights();
 
         // final values
-        double[][] integralValues = new double[etfVectors.length][etfVectors[0].length];
+        final double[][] integralValues = new double[streamlines.getHeight()][width];
 
-        double integralValue = 0;
-        for (int i = 0; i < etfVectors.length; i++) {
-            for (int j = 0; j < etfVectors[0].length; j++) {
-                final Point2D.Double centerPoint = new Point2D.Double(j, i);
-                ArrayList<Point2D.Double> lineSegmentPoints = lineConvolutionCalculator.getLineSegmentPoints(
-                    etfVectors, centerPoint, licKernelLength, licRoundoff);
+        ParallelExecutor.getDefault().forEachRow(streamlines.getHeight(), (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                for (int j = 0; j < width; j++) {
+                    integralValues[i][j] = hexValue(immediateIntegralValues, streamlines, i * width + j, weights,
+                        flowPlan.getLength(), width);
+                }
+            }
+        });
+
+        return integralValues;
+    }
 
-                // calculate the final integral
-                integralValue = 0;
+    /**
+     * Hg(x) of one pixel, the samples along the gradient segment weighted by the difference of gaussians.
+     *
+     * @param samples the image samples, by row, read as unsigned bytes
+     * @param gradientStencils points in the gradient direction
+     * @param pixelIndex the pixel
+     * @param weights difference of gaussians weights
+     * @param t largest number of points
+     * @return the value of the integral
+     */
+    private static double hgxValue(final byte[] samples, final GradientStencilTable gradientStencils, final int pixelIndex,
+            final double[] weights, final int t) {
+        final int length = gradientStencils.getLength(pixelIndex, t);
 
-                for (int k = 0; k < lineSegmentPoints.size(); k++) {
-                    final Point2D.Double point = lineSegmentPoints.get(k);
+        double integralValue = 0;
+        for (int k = 0; k < length; k++) {
+            integralValue += (samples[gradientStencils.getPointIndex(pixelIndex, k)] & 0xff) * weights[k];
+        }
 
-                    // the index of the point in the line segment (-S, S)
-                    int parameter = k % 2 == 0 ? -((k + 1) / 2) : ((k + 1) / 2);
+        return integralValue;
+    }
 
-                    integralValue += FlowUtils.calculateGausian(parameter, sigmaM)
-                        * immediateIntegralValues[(int) point.getY()][(int) point.getX()];
-                }
+    /**
+     * He(x) of one pixel, the Hg(x) values along the line segment weighted by the gaussian.
+     *
+     * @param immediateIntegralValues Hg(x) values for each point in the image
+     * @param streamlines line segments along the etf vectors
+     * @param pixelIndex the pixel
+     * @param weights gaussian weights along the line segment
+     * @param s largest number of points
+     * @param width width of the image
+     * @return the value of the integral
+     */
+    private static double hexValue(final double[][] immediateIntegralValues, final StreamlineTable streamlines,
+            final int pixelIndex, final double[] weights, final int s, final int width) {
+        final int length = streamlines.getLength(pixelIndex, s);
 
-                integralValues[i][j] = integralValue;
-            }
+        double integralValue = 0;
+        for (int k = 0; k < length; k++) {
+            final int pointIndex = streamlines.getPointIndex(pixelIndex, k);
+            integralValue += weights[k] * immediateIntegralValues[pointIndex / width][pointIndex % width];
         }
 
-        return integralValues;
+        return integralValue;
     }
 
     /**
@@ -1,6 +1,13 @@
 package mk.arsov.cartoonizer.abstraction;
 
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+
+import mk.arsov.cartoonizer.config.EdgeTangentFlowConfiguration;
+import mk.arsov.cartoonizer.config.ProcessingPlan;
+import mk.arsov.cartoonizer.util.ParallelExecutor;
+import mk.arsov.cartoonizer.util.VectorField;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,102 +21,619 @@ public class EdgeTangentFlow {
   
     private Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    /**
+     * Calculate the edge tangent flow, using the mode from the configuration.
+     *
+     * @param tangentVectorField the vector field used to calculate ETF
+     * @param numberOfIterations number of iterations for edge detection
+     * @param etfKernelRadius radius of the detection kernel
+     * @return vector field containing the ETF vectors.
+     */
+    public VectorField calculate(final VectorField tangentVectorField, final int numberOfIterations, final int etfKernelRadius) {
+        return calculate(tangentVectorField, numberOfIterations, etfKernelRadius, EdgeTangentFlowConfiguration.MODE);
+    }
+
     /**
      * Calculate the edge tangent flow.
      *
      * @param tangentVectorField the vector field used to calculate ETF
      * @param numberOfIterations number of iterations for edge detection
      * @param etfKernelRadius radius of the detection kernel
+     * @param mode full kernel or separable passes
+     * @return vector field containing the ETF vectors.
+     */
+    public VectorField calculate(final VectorField tangentVectorField, final int numberOfIterations, final int etfKernelRadius,
+            final EtfMode mode) {
+        final int width = tangentVectorField.getWidth();
+        final double[] tangentX = tangentVectorField.getXPlane();
+        final double[] tangentY = tangentVectorField.getYPlane();
+
+        final double[] gradientMagnitude = new double[tangentX.length];
+        ParallelExecutor.getDefault().forEachRow(tangentVectorField.getHeight(), (fromRow, toRow) -> {
+            for (int index = fromRow * width; index < toRow * width; index++) {
+                gradientMagnitude[index] = Math.sqrt(tangentX[index] * tangentX[index] + tangentY[index] * tangentY[index]);
+            }
+        });
+
+        return calculate(tangentVectorField, gradientMagnitude, numberOfIterations, etfKernelRadius, mode);
+    }
+
+    /**
+     * Calculate the edge tangent flow, with already calculated gradient magnitude, for example
+     * from {@link mk.arsov.cartoonizer.lineintegralconvolution.SobelGradient#calculatePlanes}.
+     *
+     * @param tangentVectorField the vector field used to calculate ETF
+     * @param gradientMagnitude length of the tangent vectors, row-major
+     * @param numberOfIterations number of iterations for edge detection
+     * @param etfKernelRadius radius of the detection kernel
+     * @param mode full kernel or separable passes
      * @return vector field containing the ETF vectors.
      */
-    public Point2D.Double[][] calculate(final Point2D.Double[][] tangentVectorField, final int numberOfIterations, final int etfKernelRadius) {
+    public VectorField calculate(final VectorField tangentVectorField, final double[] gradientMagnitude,
+            final int numberOfIterations, final int etfKernelRadius, final EtfMode mode) {
+        return calculate(tangentVectorField, gradientMagnitude, Double.NaN, numberOfIterations, etfKernelRadius, mode);
+    }
+
+    /**
+     * Calculate the edge tangent flow of a part of an image. The gradient magnitude is normalized with the sum
+     * of the magnitudes over the whole image, so the result is the same as in the same part of the edge
+     * tangent flow of the whole image.
+     *
+     * @param tangentVectorField the vector field used to calculate ETF
+     * @param gradientMagnitude length of the tangent vectors, row-major
+     * @param gradientMagnitudeSum sum of the gradient magnitude of the whole image, NaN to use the sum
+     *        of the given gradient magnitude
+     * @param numberOfIterations number of iterations for edge detection
+     * @param etfKernelRadius radius of the detection kernel
+     * @param mode full kernel or separable passes
+     * @return vector field containing the ETF vectors.
+     */
+    public VectorField calculate(final VectorField tangentVectorField, final double[] gradientMagnitude,
+            final double gradientMagnitudeSum, final int numberOfIterations, final int etfKernelRadius,
+            final EtfMode mode) {
+        return calculate(tangentVectorField, gradientMagnitude, gradientMagnitudeSum, numberOfIterations,
+            etfKernelRadius, mode, EdgeTangentFlowConfiguration.PYRAMID_LEVELS,
+            EdgeTangentFlowConfiguration.PYRAMID_REFINEMENT);
+    }
+
+    /**
+     * Calculate the edge tangent flow with the etf parameters of the plan.
+     *
+     * @param tangentVectorField the vector field used to calculate ETF
+     * @param gradientMagnitude length of the tangent vectors, row-major
+     * @param gradientMagnitudeSum sum of the gradient magnitude of the whole image, NaN to use the sum
+     *        of the given gradient magnitude
+     * @param plan the processing plan
+     * @return vector field containing the ETF vectors.
+     */
+    public VectorField calculate(final VectorField tangentVectorField, final double[] gradientMagnitude,
+            final double gradientMagnitudeSum, final ProcessingPlan plan) {
+        return calculate(tangentVectorField, gradientMagnitude, gradientMagnitudeSum, null, plan.getEtfIterations(),
+            plan.getEtfKernelRadius(), plan.getEtfMode(), plan.getEtfPyramidLevels(), plan.getEtfPyramidIterations(),
+            plan.getEtfPyramidRefinement());
+    }
+
+    /**
+     * Calculate the edge tangent flow of a part of an image, with the number of pyramid levels for the
+     * {@link EtfMode#PYRAMID} mode. The iterations on the downsampled levels are taken from
+     * {@link EdgeTangentFlowConfiguration#PYRAMID_ITERATIONS}.
+     *
+     * @param tangentVectorField the vector field used to calculate ETF
+     * @param gradientMagnitude length of the tangent vectors, row-major
+     * @param gradientMagnitudeSum sum of the gradient magnitude of the whole image, NaN to use the sum
+     *        of the given gradient magnitude
+     * @param numberOfIterations number of iterations, in pyramid mode the number of iterations on each of the
+     *        downsampled levels
+     * @param etfKernelRadius radius of the detection kernel
+     * @param mode full kernel, separable passes or pyramid
+     * @param pyramidLevels number of levels of the pyramid, including the full resolution, not used in the other modes
+     * @param pyramidRefinement number of iterations at full resolution in pyramid mode
+     * @return vector field containing the ETF vectors.
+     */
+    public VectorField calculate(final VectorField tangentVectorField, final double[] gradientMagnitude,
+            final double gradientMagnitudeSum, final int numberOfIterations, final int etfKernelRadius,
+            final EtfMode mode, final int pyramidLevels, final int pyramidRefinement) {
+        return calculate(tangentVectorField, gradientMagnitude, gradientMagnitudeSum, null, numberOfIterations,
+            etfKernelRadius, mode, pyramidLevels, configuredPyramidIterations(), pyramidRefinement);
+    }
+
+    /**
+     * The iterations on the downsampled pyramid levels from the configuration.
+     *
+     * @return the iterations, from the half size level
+     */
+    private static int[] configuredPyramidIterations() {
+        final List<Integer> configured = EdgeTangentFlowConfiguration.PYRAMID_ITERATIONS;
+        final int[] iterations = new int[configured.size()];
+        for (int i = 0; i < iterations.length; i++) {
+            iterations[i] = configured.get(i);
+        }
+
+        return iterations;
+    }
+
+    /**
+     * Calculate the edge tangent flow starting from an already calculated field, for example the edge tangent
+     * flow of the previous frame of a video. Each vector of the initial field is added to the own tangent vector
+     * of the pixel, so the moved edges follow the new image, and then only the given number of iterations is
+     * calculated. Far fewer iterations are needed than from the tangent vectors alone, when the images are
+     * similar. The pyramid mode is not used for the warm start, it's iterations are calculated with the full kernel.
+     *
+     * @param tangentVectorField the vector field used to calculate ETF
+     * @param gradientMagnitude length of the tangent vectors, row-major
+     * @param gradientMagnitudeSum sum of the gradient magnitude of the whole image, NaN to use the sum
+     *        of the given gradient magnitude
+     * @param initialField the etf vectors to start from, of the same size as the tangent vectors
+     * @param numberOfIterations number of iterations
+     * @param etfKernelRadius radius of the detection kernel
+     * @param mode full kernel or separable passes
+     * @return vector field containing the ETF vectors.
+     */
+    public VectorField calculate(final VectorField tangentVectorField, final double[] gradientMagnitude,
+            final double gradientMagnitudeSum, final VectorField initialField, final int numberOfIterations,
+            final int etfKernelRadius, final EtfMode mode) {
+        if ((initialField.getWidth() != tangentVectorField.getWidth())
+                || (initialField.getHeight() != tangentVectorField.getHeight())) {
+            throw new IllegalArgumentException("Initial field " + initialField.getWidth() + "x" + initialField.getHeight()
+                + " has not the size of the image " + tangentVectorField.getWidth() + "x" + tangentVectorField.getHeight());
+        }
+
+        return calculate(tangentVectorField, gradientMagnitude, gradientMagnitudeSum, initialField, numberOfIterations,
+            etfKernelRadius, mode, 1, null, 0);
+    }
+
+    /**
+     * Calculate the edge tangent flow, from the tangent vectors or from the initial field.
+     *
+     * @param tangentVectorField the vector field used to calculate ETF
+     * @param gradientMagnitude length of the tangent vectors, row-major
+     * @param gradientMagnitudeSum sum of the gradient magnitude of the whole image, NaN for the own sum
+     * @param initialField the etf vectors to start from, null to start from the tangent vectors
+     * @param numberOfIterations number of iterations
+     * @param etfKernelRadius radius of the detection kernel
+     * @param mode full kernel, separable passes or pyramid
+     * @param pyramidLevels number of levels of the pyramid
+     * @param pyramidIterations number of iterations on each downsampled level from the half size one, null or
+     *        missing levels for numberOfIterations
+     * @param pyramidRefinement number of iterations at full resolution in pyramid mode
+     * @return vector field containing the ETF vectors.
+     */
+    private VectorField calculate(final VectorField tangentVectorField, final double[] gradientMagnitude,
+            final double gradientMagnitudeSum, final VectorField initialField, final int numberOfIterations,
+            final int etfKernelRadius, final EtfMode mode, final int pyramidLevels, final int[] pyramidIterations,
+            final int pyramidRefinement) {
         long etfStartTime = System.currentTimeMillis();
 
+        final int width = tangentVectorField.getWidth();
+        final int height = tangentVectorField.getHeight();
+        final double[] tangentX = tangentVectorField.getXPlane();
+        final double[] tangentY = tangentVectorField.getYPlane();
+
         // Gradient vector field.
-        final double[][] normalizedGradientMagnitude = new double[tangentVectorField.length][tangentVectorField[0].length];
-        final Point2D.Double[][] normalizedTangentVectors = new Point2D.Double[tangentVectorField.length][tangentVectorField[0].length];
+        final double[] normalizedGradientMagnitude = new double[width * height];
+        final double[] normalizedX = new double[width * height];
+        final double[] normalizedY = new double[width * height];
 
         // calculate normalized gradient magnitude field and normalized tangent vectors
-        double gradientMagnitudeSum = 0;
-        for (int i = 0; i < tangentVectorField.length; i++) {
-            for (int j = 0; j < tangentVectorField[0].length; j++) {
-                normalizedGradientMagnitude[i][j] = Math.sqrt(tangentVectorField[i][j].getX() * tangentVectorField[i][j].getX()
-                        + tangentVectorField[i][j].getY() * tangentVectorField[i][j].getY());
-
-                if (normalizedGradientMagnitude[i][j] != 0) {
-                    normalizedTangentVectors[i][j] =
-                            new Point2D.Double(tangentVectorField[i][j].getX() / normalizedGradientMagnitude[i][j],
-                                    tangentVectorField[i][j].getY() / normalizedGradientMagnitude[i][j]);
+        // the magnitudes are summed per row and the row sums are added in row order,
+        // so the sum is the same regardless of the number of threads
+        final ParallelExecutor executor = ParallelExecutor.getDefault();
+        final double partSum = executor.sumRows(height, row -> {
+            double rowSum = 0;
+            for (int index = row * width; index < (row + 1) * width; index++) {
+                normalizedGradientMagnitude[index] = gradientMagnitude[index];
+
+                if (normalizedGradientMagnitude[index] != 0) {
+                    normalizedX[index] = tangentX[index] / normalizedGradientMagnitude[index];
+                    normalizedY[index] = tangentY[index] / normalizedGradientMagnitude[index];
                 } else {
-                    normalizedTangentVectors[i][j] =
-                          new Point2D.Double(tangentVectorField[i][j].getX(), tangentVectorField[i][j].getY());
+                    normalizedX[index] = tangentX[index];
+                    normalizedY[index] = tangentY[index];
                 }
 
-                gradientMagnitudeSum += normalizedGradientMagnitude[i][j];
+                rowSum += normalizedGradientMagnitude[index];
             }
-        }
+            return rowSum;
+        });
 
         // normalize gradient magnitude
-        for (int i = 0; i < tangentVectorField.length; i++) {
-            for (int j = 0; j < tangentVectorField[0].length; j++) {
-                normalizedGradientMagnitude[i][j] = normalizedGradientMagnitude[i][j] / gradientMagnitudeSum;
+        final double magnitudeSum = Double.isNaN(gradientMagnitudeSum) ? partSum : gradientMagnitudeSum;
+        executor.forEachRow(height, (fromRow, toRow) -> {
+            for (int index = fromRow * width; index < toRow * width; index++) {
+                normalizedGradientMagnitude[index] = normalizedGradientMagnitude[index] / magnitudeSum;
             }
+        });
+
+        final VectorField normalizedTangentVectors = new VectorField(width, height, normalizedX, normalizedY);
+        final VectorField result;
+        if (initialField != null) {
+            result = iterate(blend(initialField, tangentVectorField, 0), normalizedGradientMagnitude, numberOfIterations,
+                etfKernelRadius, (mode == EtfMode.PYRAMID) ? EtfMode.EXACT : mode);
+        } else if (mode == EtfMode.PYRAMID) {
+            result = calculatePyramid(tangentVectorField, normalizedTangentVectors, normalizedGradientMagnitude,
+                pyramidLevels, numberOfIterations, pyramidIterations, pyramidRefinement, etfKernelRadius);
+        } else {
+            result = iterate(normalizedTangentVectors, normalizedGradientMagnitude, numberOfIterations,
+                etfKernelRadius, mode);
         }
 
-        double[][] summedVectorX;
-        double[][] summedVectorY;
-        double magnitude = 1;
+        logger.info("ETF calculation ({}{}) finished in {} ms.", new Object[] {mode, (initialField != null) ? ", warm" : "",
+            (System.currentTimeMillis() - etfStartTime)});
+        return result;
+    }
+
+    /**
+     * The ETF iterations at one resolution.
+     *
+     * @param initial the normalized vectors the iterations start from, the buffer is reused
+     * @param normalizedGradientMagnitude normalized gradient magnitude for each pixel, row-major
+     * @param numberOfIterations number of iterations
+     * @param etfKernelRadius radius of the kernel
+     * @param mode full kernel or separable passes
+     * @return the etf vectors
+     */
+    private VectorField iterate(final VectorField initial, final double[] normalizedGradientMagnitude,
+            final int numberOfIterations, final int etfKernelRadius, final EtfMode mode) {
+        // the result of each iteration is written into the second buffer, and the buffers are then swapped
+        VectorField normalizedTangentVectors = initial;
+        VectorField summedVectors = new VectorField(initial.getWidth(), initial.getHeight());
 
         // calculate ETF, in several iterations
         for (int k = 0; k < numberOfIterations; k++) {
             logger.info("ETF iteration {}", k);
-            summedVectorX = new double[tangentVectorField.length][tangentVectorField[0].length];
-            summedVectorY = new double[tangentVectorField.length][tangentVectorField[0].length];
 
-            // for each pixel
-            for (int i = 0; i < tangentVectorField.length; i++) {
-                for (int j = 0; j < tangentVectorField[0].length; j++) {
+            if (mode == EtfMode.SEPARABLE) {
+                // horizontal pass into the second buffer, vertical pass back into the first one
+                smoothAlongLine(normalizedTangentVectors, summedVectors, normalizedGradientMagnitude, etfKernelRadius, 1, 0);
+                smoothAlongLine(summedVectors, normalizedTangentVectors, normalizedGradientMagnitude, etfKernelRadius, 0, 1);
+            } else {
+                smoothInWindow(normalizedTangentVectors, summedVectors, normalizedGradientMagnitude, etfKernelRadius);
+
+                // swap the buffers, the etf vectors become the input for the next iteration
+                final VectorField previous = normalizedTangentVectors;
+                normalizedTangentVectors = summedVectors;
+                summedVectors = previous;
+            }
+        }
+
+        return normalizedTangentVectors;
+    }
+
+    /**
+     * Coarse to fine ETF. The tangent vectors and the normalized gradient magnitude are downsampled by two
+     * in each level, and the coarsest level starts from it's own tangent vectors. The result of each level,
+     * upsampled, is the starting field of the next finer level, so most of the smoothing is done where it is
+     * cheap, and the full resolution only refines it.
+     *
+     * @param tangentVectorField the tangent vectors, not normalized
+     * @param normalizedTangentVectors the normalized tangent vectors at full resolution
+     * @param normalizedGradientMagnitude the normalized gradient magnitude at full resolution
+     * @param levels number of levels, including the full resolution
+     * @param levelIterations number of iterations on the downsampled levels which are not in pyramidIterations
+     * @param pyramidIterations number of iterations on each downsampled level from the half size one, can be null
+     * @param refinementIterations number of iterations at full resolution
+     * @param etfKernelRadius radius of the kernel at full resolution
+     * @return the etf vectors
+     */
+    private VectorField calculatePyramid(final VectorField tangentVectorField,
+            final VectorField normalizedTangentVectors, final double[] normalizedGradientMagnitude, final int levels,
+            final int levelIterations, final int[] pyramidIterations, final int refinementIterations,
+            final int etfKernelRadius) {
+        if (levels < 1) {
+            throw new IllegalArgumentException("Number of pyramid levels should be positive");
+        }
+
+        // the magnitude weighted tangent vectors, so the strong edges keep their direction when downsampled
+        final List<VectorField> tangents = new ArrayList<VectorField>();
+        final List<double[]> magnitudes = new ArrayList<double[]>();
+        tangents.add(tangentVectorField);
+        magnitudes.add(normalizedGradientMagnitude);
+        for (int level = 1; level < levels; level++) {
+            final VectorField finer = tangents.get(level - 1);
+            if ((finer.getWidth() == 1) && (finer.getHeight() == 1)) {
+                break;
+            }
+            tangents.add(downsample(finer));
+            magnitudes.add(downsample(magnitudes.get(level - 1), finer.getWidth(), finer.getHeight()));
+        }
+
+        final int coarsest = tangents.size() - 1;
+        VectorField field = (coarsest == 0) ? normalizedTangentVectors : normalize(tangents.get(coarsest));
+        for (int level = coarsest; level >= 0; level--) {
+            if (level < coarsest) {
+                field = blend(field, tangents.get(level), 1);
+            }
+
+            logger.info("ETF pyramid level {}, {}x{}", new Object[] {level, field.getWidth(), field.getHeight()});
+            final int iterations;
+            if (level == 0) {
+                iterations = refinementIterations;
+            } else if ((pyramidIterations != null) && (level <= pyramidIterations.length)) {
+                iterations = pyramidIterations[level - 1];
+            } else {
+                iterations = levelIterations;
+            }
+            field = iterate(field, magnitudes.get(level), iterations, pyramidKernelRadius(etfKernelRadius, level),
+                EtfMode.EXACT);
+        }
+
+        return field;
+    }
+
+    /**
+     * Sum of the vectors in each 2x2 block, the last row and column of blocks can be smaller.
+     * The tangents on the two sides of a thin line point in opposite directions, so the vectors are
+     * turned to the side of the longest vector in the block before they are added, instead of cancelling out.
+     */
+    private static VectorField downsample(final VectorField field) {
+        final int width = field.getWidth();
+        final int height = field.getHeight();
+        final VectorField result = new VectorField((width + 1) / 2, (height + 1) / 2);
+        for (int i = 0; i < result.getHeight(); i++) {
+            for (int j = 0; j < result.getWidth(); j++) {
+                final int toRow = Math.min(height, i * 2 + 2);
+                final int toColumn = Math.min(width, j * 2 + 2);
+
+                double longestX = 0;
+                double longestY = 0;
+                for (int i1 = i * 2; i1 < toRow; i1++) {
+                    for (int j1 = j * 2; j1 < toColumn; j1++) {
+                        final double x = field.getX(i1, j1);
+                        final double y = field.getY(i1, j1);
+                        if (x * x + y * y > longestX * longestX + longestY * longestY) {
+                            longestX = x;
+                            longestY = y;
+                        }
+                    }
+                }
+
+                double sumX = 0;
+                double sumY = 0;
+                for (int i1 = i * 2; i1 < toRow; i1++) {
+                    for (int j1 = j * 2; j1 < toColumn; j1++) {
+                        final double x = field.getX(i1, j1);
+                        final double y = field.getY(i1, j1);
+                        if (x * longestX + y * longestY < 0) {
+                            sumX -= x;
+                            sumY -= y;
+                        } else {
+                            sumX += x;
+                            sumY += y;
+                        }
+                    }
+                }
+                result.set(i, j, sumX, sumY);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Average of the values in each 2x2 block.
+     */
+    private static double[] downsample(final double[] values, final int width, final int height) {
+        final int resultWidth = (width + 1) / 2;
+        final int resultHeight = (height + 1) / 2;
+        final double[] result = new double[resultWidth * resultHeight];
+        for (int i = 0; i < resultHeight; i++) {
+            for (int j = 0; j < resultWidth; j++) {
+                double sum = 0;
+                int count = 0;
+                for (int i1 = i * 2; i1 < Math.min(height, i * 2 + 2); i1++) {
+                    for (int j1 = j * 2; j1 < Math.min(width, j * 2 + 2); j1++) {
+                        sum += values[i1 * width + j1];
+                        count++;
+                    }
+                }
+                result[i * resultWidth + j] = sum / count;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Unit vectors in the direction of the given vectors, zero vectors stay zero.
+     */
+    private static VectorField normalize(final VectorField field) {
+        final VectorField result = new VectorField(field.getWidth(), field.getHeight());
+        for (int i = 0; i < field.getHeight(); i++) {
+            for (int j = 0; j < field.getWidth(); j++) {
+                final double x = field.getX(i, j);
+                final double y = field.getY(i, j);
+                final double length = Math.sqrt(x * x + y * y);
+                if (length != 0) {
+                    result.set(i, j, x / length, y / length);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The starting field of the iterations, from an already calculated etf. For a finer level of the pyramid each
+     * vector of the coarser level is used for the 2x2 block it was calculated from, for a warm start the vector
+     * of the same pixel is used. The vector is added to the own tangent vector of the pixel, so the details which
+     * are lost in the coarser level, or have moved since the previous frame, are not lost. The vectors are not
+     * interpolated between the blocks, neighbouring etf vectors can point in opposite directions.
+     *
+     * @param coarse the calculated etf vectors
+     * @param tangents the tangent vectors, not normalized
+     * @param shift 1 when the etf vectors are from the coarser level, 0 when they have the size of the tangents
+     * @return the normalized starting vectors
+     */
+    private static VectorField blend(final VectorField coarse, final VectorField tangents, final int shift) {
+        final VectorField result = new VectorField(tangents.getWidth(), tangents.getHeight());
+        for (int i = 0; i < tangents.getHeight(); i++) {
+            for (int j = 0; j < tangents.getWidth(); j++) {
+                final double coarseX = coarse.getX(i >> shift, j >> shift);
+                final double coarseY = coarse.getY(i >> shift, j >> shift);
+
+                double tangentX = tangents.getX(i, j);
+                double tangentY = tangents.getY(i, j);
+                final double tangentLength = Math.sqrt(tangentX * tangentX + tangentY * tangentY);
+                if (tangentLength != 0) {
+                    tangentX /= tangentLength;
+                    tangentY /= tangentLength;
+                }
+                // the tangent on the side of the coarse vector
+                if (tangentX * coarseX + tangentY * coarseY < 0) {
+                    tangentX = -tangentX;
+                    tangentY = -tangentY;
+                }
+
+                final double x = coarseX + tangentX;
+                final double y = coarseY + tangentY;
+                final double length = Math.sqrt(x * x + y * y);
+                if (length != 0) {
+                    result.set(i, j, x / length, y / length);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Radius of the kernel on a level of the pyramid. The radius is scaled with the level, so each iteration
+     * covers about the same part of the image as at full resolution.
+     *
+     * @param etfKernelRadius radius of the kernel at full resolution
+     * @param level the level, 0 for the full resolution
+     * @return the radius in pixels of the level
+     */
+    public static int pyramidKernelRadius(final int etfKernelRadius, final int level) {
+        if (level == 0) {
+            return etfKernelRadius;
+        }
+
+        // with radius 1 the kernel has only the center pixel
+        return Math.max(2, (etfKernelRadius + (1 << level) - 1) >> level);
+    }
+
+    /**
+     * One ETF iteration with the full (2r+1)x(2r+1) kernel, limited to a circle by the "ws" function.
+     *
+     * @param current the etf vectors from the previous iteration
+     * @param summed output, the new etf vectors
+     * @param normalizedGradientMagnitude normalized gradient magnitude for each pixel, row-major
+     * @param etfKernelRadius radius of the kernel
+     */
+    private void smoothInWindow(final VectorField current, final VectorField summed,
+            final double[] normalizedGradientMagnitude, final int etfKernelRadius) {
+        final int width = current.getWidth();
+        final int height = current.getHeight();
+        final double[] currentX = current.getXPlane();
+        final double[] currentY = current.getYPlane();
+        final double[] summedVectorX = summed.getXPlane();
+        final double[] summedVectorY = summed.getYPlane();
+
+        // for each pixel
+        ParallelExecutor.getDefault().forEachRow(height, (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                for (int j = 0; j < width; j++) {
+                    final int centerIndex = i * width + j;
+                    double sumX = 0;
+                    double sumY = 0;
 
                     // for each pixel in the kernel
                     for (int y = i - etfKernelRadius; y < i + etfKernelRadius + 1; y++) {
                         for (int x = j - etfKernelRadius; x < j + etfKernelRadius + 1; x++) {
 
-                            if ((x >= 0) && (y >= 0) && (x < tangentVectorField[0].length) && (y < tangentVectorField.length)) {
+                            if ((x >= 0) && (y >= 0) && (x < width) && (y < height)) {
+                                final int kernelIndex = y * width + x;
+
                                 // fi function is ommited, see comment for wd() method
-                                magnitude =
-//                                        fi(normalizedTangentVectors[i][j], normalizedTangentVectors[y][x]) *
+                                final double magnitude =
                                         ws(j, i, x, y, etfKernelRadius) *
-                                        wm(normalizedGradientMagnitude, j, i, x, y) *
-                                        wd(normalizedTangentVectors[i][j], normalizedTangentVectors[y][x]);
+                                        wm(normalizedGradientMagnitude, centerIndex, kernelIndex) *
+                                        wd(currentX[centerIndex], currentY[centerIndex], currentX[kernelIndex], currentY[kernelIndex]);
 
-                                summedVectorX[i][j] += normalizedTangentVectors[y][x].getX() * magnitude;
-                                summedVectorY[i][j] += normalizedTangentVectors[y][x].getY() * magnitude;
+                                sumX += currentX[kernelIndex] * magnitude;
+                                sumY += currentY[kernelIndex] * magnitude;
                             }
 
                         }
                     }
 
                     // normalize the etf vector
-                    double vectorMagnitude =
-                            Math.sqrt(summedVectorX[i][j] * summedVectorX[i][j] + summedVectorY[i][j] * summedVectorY[i][j]);
+                    double vectorMagnitude = Math.sqrt(sumX * sumX + sumY * sumY);
                     if (vectorMagnitude != 0) {
-                        summedVectorX[i][j] /= vectorMagnitude;
-                        summedVectorY[i][j] /= vectorMagnitude;
+                        sumX /= vectorMagnitude;
+                        sumY /= vectorMagnitude;
                     }
-                }
-            }
 
-            // replace normalizedTangentVectorField with etfVectorField for next iteration
-            for (int ii = 0; ii < tangentVectorField.length; ii++) {
-                for (int jj = 0; jj < tangentVectorField[0].length; jj++) {
-                    normalizedTangentVectors[ii][jj] = new Point2D.Double(summedVectorX[ii][jj], summedVectorY[ii][jj]);
+                    summedVectorX[centerIndex] = sumX;
+                    summedVectorY[centerIndex] = sumY;
                 }
             }
+        });
+    }
 
-        }
+    /**
+     * One pass of the separable ETF, along the rows or along the columns. The kernel is the
+     * one dimensional part of the "ws" circle, the points closer than the radius to the center pixel,
+     * so no distance has to be calculated. The "wm" and "wd" weights are the same as in the full kernel.
+     *
+     * See "Kang, Lee, Chui - Flow-Based Image Abstraction, 2009", chapter 2.2, separable ETF
+     *
+     * @param current the input etf vectors
+     * @param summed output, the etf vectors smoothed along one direction
+     * @param normalizedGradientMagnitude normalized gradient magnitude for each pixel, row-major
+     * @param etfKernelRadius radius of the kernel
+     * @param stepX 1 for the horizontal pass, 0 otherwise
+     * @param stepY 1 for the vertical pass, 0 otherwise
+     */
+    private void smoothAlongLine(final VectorField current, final VectorField summed,
+            final double[] normalizedGradientMagnitude, final int etfKernelRadius, final int stepX, final int stepY) {
+        final int width = current.getWidth();
+        final int height = current.getHeight();
+        final double[] currentX = current.getXPlane();
+        final double[] currentY = current.getYPlane();
+        final double[] summedVectorX = summed.getXPlane();
+        final double[] summedVectorY = summed.getYPlane();
+        final int indexStep = stepY * width + stepX;
 
-        logger.info("ETF calculation finished in {} ms.", (System.currentTimeMillis() - etfStartTime));
-        return normalizedTangentVectors;
+        ParallelExecutor.getDefault().forEachRow(height, (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                for (int j = 0; j < width; j++) {
+                    final int centerIndex = i * width + j;
+                    final double centerX = currentX[centerIndex];
+                    final double centerY = currentY[centerIndex];
+
+                    // the kernel points which are inside of the image, closer than the radius to the center
+                    final int position = stepX * j + stepY * i;
+                    final int size = stepX * width + stepY * height;
+                    final int from = Math.max(-position, -(etfKernelRadius - 1));
+                    final int to = Math.min(size - 1 - position, etfKernelRadius - 1);
+
+                    double sumX = 0;
+                    double sumY = 0;
+                    for (int d = from; d <= to; d++) {
+                        final int kernelIndex = centerIndex + d * indexStep;
+
+                        // fi function is ommited, see comment for wd() method
+                        final double magnitude = wm(normalizedGradientMagnitude, centerIndex, kernelIndex)
+                                * wd(centerX, centerY, currentX[kernelIndex], currentY[kernelIndex]);
+
+                        sumX += currentX[kernelIndex] * magnitude;
+                        sumY += currentY[kernelIndex] * magnitude;
+                    }
+
+                    // normalize the etf vector
+                    final double vectorMagnitude = Math.sqrt(sumX * sumX + sumY * sumY);
+                    if (vectorMagnitude != 0) {
+                        sumX /= vectorMagnitude;
+                        sumY /= vectorMagnitude;
+                    }
+
+                    summedVectorX[centerIndex] = sumX;
+                    summedVectorY[centerIndex] = sumY;
+                }
+            }
+        });
     }
 
     /**
@@ -157,26 +681,26 @@ public class EdgeTangentFlow {
      * function is the same as only using this value as is (without abs.).
      * This cuts about 10% of the time for ETF calculation.
      *
-     * @param x the center pixel
-     * @param y the kernel pixel
+     * @param centerX x component of the vector in the center pixel
+     * @param centerY y component of the vector in the center pixel
+     * @param kernelX x component of the vector in the kernel pixel
+     * @param kernelY y component of the vector in the kernel pixel
      * @return value of "wd" function
      */
-    public double wd(Point2D.Double x, Point2D.Double y) {
-       return x.getX() * y.getX() + x.getY() * y.getY();
+    public double wd(double centerX, double centerY, double kernelX, double kernelY) {
+       return centerX * kernelX + centerY * kernelY;
     }
 
     /**
      * Calculate "wm" function from ETF construction.
      * Wm is the magnitude weight function.
      *
-     * @param gradientField normalized gradient values
-     * @param centerX the x coordinate of the center pixel
-     * @param centerY the y coordinate of the center pixel
-     * @param kernelX the x coordinate of the kernel pixel
-     * @param kernelY the y coordinate of the kernel pixel
+     * @param gradientField normalized gradient values, row-major
+     * @param centerIndex the index of the center pixel
+     * @param kernelIndex the index of the kernel pixel
      * @return value of "wm" function.
      */
-    public double wm(double[][] gradientField, int centerX, int centerY, int kernelX, int kernelY) {
-        return (gradientField[kernelY][kernelX] - gradientField[centerY][centerX] + 1) / 2.0D;
+    public double wm(double[] gradientField, int centerIndex, int kernelIndex) {
+        return (gradientField[kernelIndex] - gradientField[centerIndex] + 1) / 2.0D;
     }
 }
@@ -0,0 +1,25 @@
+package mk.arsov.cartoonizer.abstraction;
+
+/**
+ * Algorithm used for the edge tangent flow iterations.
+ */
+public enum EtfMode {
+
+    /**
+     * Full (2r+1)x(2r+1) kernel limited to a circle of radius r, cost grows with r^2.
+     */
+    EXACT,
+
+    /**
+     * A horizontal and then a vertical one dimensional pass in each iteration, with the same magnitude
+     * and direction weights, cost grows with r. The result is close to, but not the same as EXACT.
+     */
+    SEPARABLE,
+
+    /**
+     * Coarse to fine: the iterations of the full kernel run on images downsampled by 2, 4, ..., each level
+     * starting from the upsampled result of the coarser one, and only the refinement iterations run at full
+     * resolution. The result is close to EXACT, the cost is mostly the refinement iterations.
+     */
+    PYRAMID
+}
@@ -1,16 +1,22 @@
 package mk.arsov.cartoonizer.abstraction;
 
-import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
-import java.util.ArrayList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import mk.arsov.cartoonizer.config.RegionSmoothingConfiguration;
 import mk.arsov.cartoonizer.lineintegralconvolution.LineConvolutionCalculator;
+import mk.arsov.cartoonizer.lineintegralconvolution.StreamlineTable;
+import mk.arsov.cartoonizer.util.FixedPoint;
 import mk.arsov.cartoonizer.util.FlowUtils;
+import mk.arsov.cartoonizer.util.GradientStencilTable;
+import mk.arsov.cartoonizer.util.ImagePlane;
 import mk.arsov.cartoonizer.util.ImageUtils;
+import mk.arsov.cartoonizer.util.KernelPlan;
+import mk.arsov.cartoonizer.util.ParallelExecutor;
+import mk.arsov.cartoonizer.util.RangeWeightTable;
+import mk.arsov.cartoonizer.util.VectorField;
 
 /**
  * Region smoothing with flow-based bilateral filter.
@@ -34,57 +40,151 @@ public class FlowBilateralFilter {
      * @param etfVectors the edge tangent flow vectors
      * @return the image with the edge bilateral filter applied
      */
-    public BufferedImage calculateCex(final BufferedImage sourceImage, final Point2D.Double[][] etfVectors,
+    public BufferedImage calculateCex(final BufferedImage sourceImage, final VectorField etfVectors,
           final int licKernelLength, final double licRoundoff, final double sigmaE, final double re) {
-        logger.info("Running Ce(x) filter");
+        return calculateCex(sourceImage,
+            lineConvolutionCalculator.createStreamlineTable(etfVectors, licKernelLength, licRoundoff), sigmaE, re);
+    }
+
+    /**
+     * Calculate the Ce(x) function along precomputed streamlines.
+     *
+     * @param sourceImage the source image
+     * @param streamlines line segments along the edge tangent flow vectors
+     * @return the image with the edge bilateral filter applied
+     */
+    public BufferedImage calculateCex(final BufferedImage sourceImage, final StreamlineTable streamlines,
+          final double sigmaE, final double re) {
+        return calculateCex(sourceImage, streamlines, streamlines.getKernelLength(), sigmaE, re);
+    }
+
+    /**
+     * Calculate the Ce(x) function along precomputed streamlines, with shorter line segments than the streamlines.
+     *
+     * @param sourceImage the source image
+     * @param streamlines line segments along the edge tangent flow vectors
+     * @param flowSegmentLength length of the segments in one direction, at most the kernel length of the streamlines
+     * @return the image with the edge bilateral filter applied
+     */
+    public BufferedImage calculateCex(final BufferedImage sourceImage, final StreamlineTable streamlines,
+          final int flowSegmentLength, final double sigmaE, final double re) {
+        return calculateCex(sourceImage, streamlines, KernelPlan.gaussian(sigmaE, flowSegmentLength), new RangeWeightTable(re));
+    }
+
+    /**
+     * Calculate the Ce(x) function along precomputed streamlines, with precomputed weights.
+     * The weights are calculated in the mode from {@link RegionSmoothingConfiguration#MODE}.
+     *
+     * @param sourceImage the source image
+     * @param streamlines line segments along the edge tangent flow vectors
+     * @param spatialPlan gaussian weights along the flow, it's length is at most the kernel length of the streamlines
+     * @param rangeWeights gaussian weights of the color space distance
+     * @return the image with the edge bilateral filter applied
+     */
+    public BufferedImage calculateCex(final BufferedImage sourceImage, final StreamlineTable streamlines,
+          final KernelPlan spatialPlan, final RangeWeightTable rangeWeights) {
+        return calculateCex(sourceImage, streamlines, spatialPlan, rangeWeights, RegionSmoothingConfiguration.MODE);
+    }
 
-        Raster raster = sourceImage.getData();
+    /**
+     * Calculate the Ce(x) function along precomputed streamlines, with precomputed weights.
+     *
+     * @param sourceImage the source image
+     * @param streamlines line segments along the edge tangent flow vectors
+     * @param spatialPlan gaussian weights along the flow, it's length is at most the kernel length of the streamlines
+     * @param rangeWeights gaussian weights of the color space distance
+     * @param mode arithmetic of the weights
+     * @return the image with the edge bilateral filter applied
+     */
+    public BufferedImage calculateCex(final BufferedImage sourceImage, final StreamlineTable streamlines,
+          final KernelPlan spatialPlan, final RangeWeightTable rangeWeights, final SmoothingMode mode) {
+        logger.info("Running Ce(x) filter, mode {}", mode);
+
+        final int width = streamlines.getWidth();
+        final int flowSegmentLength = spatialPlan.getLength();
+        final double[] spatialWeights = spatialPlan.getWeights();
+
+        // the rgb values and the color space values are calculated only once for each pixel
+        final byte[] red = ImagePlane.band(sourceImage, 0);
+        final byte[] green = ImagePlane.band(sourceImage, 1);
+        final byte[] blue = ImagePlane.band(sourceImage, 2);
+        final float[][] lab = ImageUtils.toLabPlanes(sourceImage);
 
         // resulting image
-        BufferedImage result =
+        final BufferedImage result =
             new BufferedImage(sourceImage.getWidth(), sourceImage.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-
-        double tRed = 0;
-        double tGreen = 0;
-        double tBlue = 0;
-        for (int i = 0; i < etfVectors.length; i++) {
-            for (int j = 0; j < etfVectors[0].length; j++) {
-                tRed = 0;
-                tGreen = 0;
-                tBlue = 0;
-
-                // rgb values in the center pixel
-                final Point2D.Double centerPoint = new Point2D.Double(j, i);
-                double[] centerRGBArray = {raster.getSample(j, i, 0), raster.getSample(j, i, 1), raster.getSample(j, i, 2)};
-
-                ArrayList<Point2D.Double> lineSegmentPoints = lineConvolutionCalculator.getLineSegmentPoints(
-                    etfVectors, centerPoint, licKernelLength, licRoundoff);
-
-                double totalWeight = 0;
-                for (int k = 0; k < lineSegmentPoints.size(); k++) {
-                    final Point2D.Double point = lineSegmentPoints.get(k);
-                    double[] otherRGBArray = {raster.getSample((int) point.getX(), (int) point.getY(), 0),
-                        raster.getSample((int) point.getX(), (int) point.getY(), 1),
-                        raster.getSample((int) point.getX(), (int) point.getY(), 2)};
-
-                    // the index of the point in the line segment (-S, S)
-                    int parameter = k % 2 == 0 ? -((k + 1) / 2) : ((k + 1) / 2);
-                    double weight = FlowUtils.calculateGausian(parameter, sigmaE)
-                        * FlowUtils.calculateGausian(
-                            calculateColorSpaceDistance(centerRGBArray, otherRGBArray), re);
-
-                    totalWeight += weight;
-                    tRed += raster.getSample((int) point.getX(), (int) point.getY(), 0) * weight;
-                    tGreen += raster.getSample((int) point.getX(), (int) point.getY(), 1) * weight;
-                    tBlue += raster.getSample((int) point.getX(), (int) point.getY(), 2) * weight;
+        final byte[] resultData = ImagePlane.colorData(result);
+
+        // in fixed-point mode the spatial weights are relative to the weight of the center, the first point
+        final boolean fixedPoint = (mode == SmoothingMode.FIXED_POINT);
+        final int[] fixedPointWeights = FixedPoint.toFixedPoint(spatialWeights, 1 / spatialWeights[0]);
+        final short[] fixedPointLab = fixedPoint ? toFixedPointLab(lab) : null;
+
+        ParallelExecutor.getDefault().forEachRow(streamlines.getHeight(), (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                for (int j = 0; j < width; j++) {
+                    double tRed = 0;
+                    double tGreen = 0;
+                    double tBlue = 0;
+
+                    // color space values in the center pixel
+                    final int pixelIndex = i * width + j;
+                    final float centerL = lab[0][pixelIndex];
+                    final float centerA = lab[1][pixelIndex];
+                    final float centerB = lab[2][pixelIndex];
+
+                    final int length = streamlines.getLength(pixelIndex, flowSegmentLength);
+
+                    if (fixedPoint) {
+                        int totalWeight = 0;
+                        int sumRed = 0;
+                        int sumGreen = 0;
+                        int sumBlue = 0;
+                        final int center = pixelIndex * 3;
+                        for (int k = 0; k < length; k++) {
+                            final int pointIndex = streamlines.getPointIndex(pixelIndex, k);
+                            final int point = pointIndex * 3;
+                            final int deltaL = fixedPointLab[point] - fixedPointLab[center];
+                            final int deltaA = fixedPointLab[point + 1] - fixedPointLab[center + 1];
+                            final int deltaB = fixedPointLab[point + 2] - fixedPointLab[center + 2];
+                            final int squaredDistance = deltaL * deltaL + deltaA * deltaA + deltaB * deltaB;
+
+                            final int weight = (fixedPointWeights[k] * rangeWeights.fixedPointWeight(squaredDistance))
+                                >> FixedPoint.FRACTION_BITS;
+                            totalWeight += weight;
+                            sumRed += (red[pointIndex] & 0xff) * weight;
+                            sumGreen += (green[pointIndex] & 0xff) * weight;
+                            sumBlue += (blue[pointIndex] & 0xff) * weight;
+                        }
+
+                        if (totalWeight > 0) {
+                            ImagePlane.setColor(resultData, pixelIndex, sumRed / totalWeight, sumGreen / totalWeight,
+                                sumBlue / totalWeight);
+                        }
+                        continue;
+                    }
+
+                    double totalWeight = 0;
+                    for (int k = 0; k < length; k++) {
+                        final int pointIndex = streamlines.getPointIndex(pixelIndex, k);
+                        final double distance = Math.sqrt(squaredColorDistance(lab, pointIndex, centerL, centerA,
+                            centerB));
+
+                        double weight = spatialWeights[k] * rangeWeights.weight(distance);
+
+                        totalWeight += weight;
+                        tRed += (red[pointIndex] & 0xff) * weight;
+                        tGreen += (green[pointIndex] & 0xff) * weight;
+                        tBlue += (blue[pointIndex] & 0xff) * weight;
+                    }
+
+                    tRed /= totalWeight;
+                    tGreen /= totalWeight;
+                    tBlue /= totalWeight;
+                    ImagePlane.setColor(resultData, pixelIndex, (int) tRed, (int) tGreen, (int) tBlue);
                 }
-
-                tRed /= totalWeight;
-                tGreen /= totalWeight;
-                tBlue /= totalWeight;
-                result.setRGB(j, i, (int) tRed * 256 * 256 + (int) tGreen * 256 + (int) tBlue);
             }
-        }
+        });
 
         return result;
     }
@@ -96,61 +196,183 @@ public class FlowBilateralFilter {
      * @param etfVectors the edge tangent flow vectors
      * @return the image with the gradient direction bilateral filter applied
      */
-    public BufferedImage calculateCgx(final BufferedImage sourceImage, final Point2D.Double[][] etfVectors,
+    public BufferedImage calculateCgx(final BufferedImage sourceImage, final VectorField etfVectors,
             final int gradientSegmentLength, final double sigmaG, final double rg) {
-        logger.info("Running Cg(x) filter");
+        return calculateCgx(sourceImage, FlowUtils.createGradientStencilTable(etfVectors, gradientSegmentLength),
+            gradientSegmentLength, sigmaG, rg);
+    }
 
-        Raster raster = sourceImage.getData();
+    /**
+     * Calculate the Cg(x) function with precomputed points in the gradient direction.
+     *
+     * @param sourceImage the source image
+     * @param gradientStencils points in the gradient direction, normal to the edge tangent flow
+     * @param gradientSegmentLength length of the segments, at most the length of the stencils
+     * @return the image with the gradient direction bilateral filter applied
+     */
+    public BufferedImage calculateCgx(final BufferedImage sourceImage, final GradientStencilTable gradientStencils,
+            final int gradientSegmentLength, final double sigmaG, final double rg) {
+        return calculateCgx(sourceImage, gradientStencils, KernelPlan.gaussian(sigmaG, gradientSegmentLength),
+            new RangeWeightTable(rg));
+    }
+
+    /**
+     * Calculate the Cg(x) function with precomputed points in the gradient direction and precomputed weights.
+     * The weights are calculated in the mode from {@link RegionSmoothingConfiguration#MODE}.
+     *
+     * @param sourceImage the source image
+     * @param gradientStencils points in the gradient direction, normal to the edge tangent flow
+     * @param spatialPlan gaussian weights along the gradient, it's length is at most the length of the stencils
+     * @param rangeWeights gaussian weights of the color space distance
+     * @return the image with the gradient direction bilateral filter applied
+     */
+    public BufferedImage calculateCgx(final BufferedImage sourceImage, final GradientStencilTable gradientStencils,
+            final KernelPlan spatialPlan, final RangeWeightTable rangeWeights) {
+        return calculateCgx(sourceImage, gradientStencils, spatialPlan, rangeWeights, RegionSmoothingConfiguration.MODE);
+    }
+
+    /**
+     * Calculate the Cg(x) function along precomputed points in the gradient direction, with precomputed weights.
+     *
+     * @param sourceImage the source image
+     * @param gradientStencils points in the gradient direction, normal to the edge tangent flow
+     * @param spatialPlan gaussian weights along the gradient, it's length is at most the length of the stencils
+     * @param rangeWeights gaussian weights of the color space distance
+     * @param mode arithmetic of the weights
+     * @return the image with the gradient direction bilateral filter applied
+     */
+    public BufferedImage calculateCgx(final BufferedImage sourceImage, final GradientStencilTable gradientStencils,
+            final KernelPlan spatialPlan, final RangeWeightTable rangeWeights, final SmoothingMode mode) {
+        logger.info("Running Cg(x) filter, mode {}", mode);
+
+        final int width = gradientStencils.getWidth();
+        final int gradientSegmentLength = spatialPlan.getLength();
+        final double[] spatialWeights = spatialPlan.getWeights();
+
+        // the rgb values and the color space values are calculated only once for each pixel
+        final byte[] red = ImagePlane.band(sourceImage, 0);
+        final byte[] green = ImagePlane.band(sourceImage, 1);
+        final byte[] blue = ImagePlane.band(sourceImage, 2);
+        final float[][] lab = ImageUtils.toLabPlanes(sourceImage);
 
         // resulting image
-        BufferedImage result =
+        final BufferedImage result =
             new BufferedImage(sourceImage.getWidth(), sourceImage.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-
-        double tRed = 0;
-        double tGreen = 0;
-        double tBlue = 0;
-        for (int i = 0; i < etfVectors.length; i++) {
-            for (int j = 0; j < etfVectors[0].length; j++) {
-                tRed = 0;
-                tGreen = 0;
-                tBlue = 0;
-
-                // rgb values in the center pixel
-                final Point2D.Double centerPoint = new Point2D.Double(j, i);
-                double[] centerRGBArray = {raster.getSample(j, i, 0), raster.getSample(j, i, 1), raster.getSample(j, i, 2)};
-
-                ArrayList<Point2D.Double> gredientPoints = FlowUtils.calculateGradientPoints(
-                    centerPoint, etfVectors[i][j], sourceImage.getWidth(), sourceImage.getHeight(), gradientSegmentLength);
-
-                double totalWeight = 0;
-                for (int k = 0; k < gredientPoints.size(); k++) {
-                    final Point2D.Double point = gredientPoints.get(k);
-                    double[] otherRGBArray = {raster.getSample((int) point.getX(), (int) point.getY(), 0),
-                        raster.getSample((int) point.getX(), (int) point.getY(), 1),
-                        raster.getSample((int) point.getX(), (int) point.getY(), 2)};
-
-                    // the index of the point in the line segment (-T, T)
-                    int parameter = k % 2 == 0 ? -((k + 1) / 2) : ((k + 1) / 2);
-                    double weight = FlowUtils.calculateGausian(parameter, sigmaG)
-                        * FlowUtils.calculateGausian(
-                            calculateColorSpaceDistance(centerRGBArray, otherRGBArray), rg);
-
-                    totalWeight += weight;
-                    tRed += raster.getSample((int) point.getX(), (int) point.getY(), 0) * weight;
-                    tGreen += raster.getSample((int) point.getX(), (int) point.getY(), 1) * weight;
-                    tBlue += raster.getSample((int) point.getX(), (int) point.getY(), 2) * weight;
+        final byte[] resultData = ImagePlane.colorData(result);
+
+        // in fixed-point mode the spatial weights are relative to the weight of the center, the first point
+        final boolean fixedPoint = (mode == SmoothingMode.FIXED_POINT);
+        final int[] fixedPointWeights = FixedPoint.toFixedPoint(spatialWeights, 1 / spatialWeights[0]);
+        final short[] fixedPointLab = fixedPoint ? toFixedPointLab(lab) : null;
+
+        ParallelExecutor.getDefault().forEachRow(gradientStencils.getHeight(), (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                for (int j = 0; j < width; j++) {
+                    double tRed = 0;
+                    double tGreen = 0;
+                    double tBlue = 0;
+
+                    // color space values in the center pixel
+                    final int pixelIndex = i * width + j;
+                    final float centerL = lab[0][pixelIndex];
+                    final float centerA = lab[1][pixelIndex];
+                    final float centerB = lab[2][pixelIndex];
+
+                    final int length = gradientStencils.getLength(pixelIndex, gradientSegmentLength);
+
+                    if (fixedPoint) {
+                        int totalWeight = 0;
+                        int sumRed = 0;
+                        int sumGreen = 0;
+                        int sumBlue = 0;
+                        final int center = pixelIndex * 3;
+                        for (int k = 0; k < length; k++) {
+                            final int pointIndex = gradientStencils.getPointIndex(pixelIndex, k);
+                            final int point = pointIndex * 3;
+                            final int deltaL = fixedPointLab[point] - fixedPointLab[center];
+                            final int deltaA = fixedPointLab[point + 1] - fixedPointLab[center + 1];
+                            final int deltaB = fixedPointLab[point + 2] - fixedPointLab[center + 2];
+                            final int squaredDistance = deltaL * deltaL + deltaA * deltaA + deltaB * deltaB;
+
+                            final int weight = (fixedPointWeights[k] * rangeWeights.fixedPointWeight(squaredDistance))
+                                >> FixedPoint.FRACTION_BITS;
+                            totalWeight += weight;
+                            sumRed += (red[pointIndex] & 0xff) * weight;
+                            sumGreen += (green[pointIndex] & 0xff) * weight;
+                            sumBlue += (blue[pointIndex] & 0xff) * weight;
+                        }
+
+                        if (totalWeight > 0) {
+                            ImagePlane.setColor(resultData, pixelIndex, sumRed / totalWeight, sumGreen / totalWeight,
+                                sumBlue / totalWeight);
+                        }
+                        continue;
+                    }
+
+                    double totalWeight = 0;
+                    for (int k = 0; k < length; k++) {
+                        final int pointIndex = gradientStencils.getPointIndex(pixelIndex, k);
+                        final double distance = Math.sqrt(squaredColorDistance(lab, pointIndex, centerL, centerA,
+                            centerB));
+
+                        double weight = spatialWeights[k] * rangeWeights.weight(distance);
+
+                        totalWeight += weight;
+                        tRed += (red[pointIndex] & 0xff) * weight;
+                        tGreen += (green[pointIndex] & 0xff) * weight;
+                        tBlue += (blue[pointIndex] & 0xff) * weight;
+                    }
+
+                    tRed /= totalWeight;
+                    tGreen /= totalWeight;
+                    tBlue /= totalWeight;
+                    ImagePlane.setColor(resultData, pixelIndex, (int) tRed, (int) tGreen, (int) tBlue);
                 }
+            }
+        });
+
+        return result;
+    }
 
-                tRed /= totalWeight;
-                tGreen /= totalWeight;
-                tBlue /= totalWeight;
-                result.setRGB(j, i, (int) tRed * 256 * 256 + (int) tGreen * 256 + (int) tBlue);
+    /**
+     * The L, a and b values of each pixel one after another, in fixed-point with
+     * {@link RangeWeightTable#DISTANCE_FRACTION_BITS} fraction bits.
+     *
+     * @param lab the L, a and b planes
+     * @return the interleaved values, 3 for each pixel
+     */
+    private static short[] toFixedPointLab(final float[][] lab) {
+        final float scale = 1 << RangeWeightTable.DISTANCE_FRACTION_BITS;
+        final short[] result = new short[lab[0].length * 3];
+        ParallelExecutor.getDefault().forEachRow(lab[0].length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                result[i * 3] = (short) Math.round(lab[0][i] * scale);
+                result[i * 3 + 1] = (short) Math.round(lab[1][i] * scale);
+                result[i * 3 + 2] = (short) Math.round(lab[2][i] * scale);
             }
-        }
+        });
 
         return result;
     }
 
+    /**
+     * Squared distance in the color space between the center and another point.
+     *
+     * @param lab the L, a and b planes
+     * @param pointIndex the other point
+     * @param centerL L value of the center
+     * @param centerA a value of the center
+     * @param centerB b value of the center
+     * @return the squared distance
+     */
+    private static float squaredColorDistance(final float[][] lab, final int pointIndex, final float centerL,
+            final float centerA, final float centerB) {
+        final float deltaL = lab[0][pointIndex] - centerL;
+        final float deltaA = lab[1][pointIndex] - centerA;
+        final float deltaB = lab[2][pointIndex] - centerB;
+        return deltaL * deltaL + deltaA * deltaA + deltaB * deltaB;
+    }
+
     /**
      * Calculate the color space distance between two points.
      *
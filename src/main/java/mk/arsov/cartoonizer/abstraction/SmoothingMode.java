@@ -0,0 +1,20 @@
+package mk.arsov.cartoonizer.abstraction;
+
+/**
+ * Arithmetic used for the weights of the flow-based bilateral filter.
+ */
+public enum SmoothingMode {
+
+    /**
+     * The weights and the weighted sums of the colors in double.
+     */
+    EXACT,
+
+    /**
+     * The Lab colors, the spatial and the color range weights in fixed-point, the weights relative to the weight
+     * of the center pixel, and the weighted sums of the colors in int. With the default parameters one iteration
+     * is within 2 levels per color channel of EXACT and three iterations within 3 levels, in a few percent of
+     * the pixels; the other pixels are the same.
+     */
+    FIXED_POINT
+}
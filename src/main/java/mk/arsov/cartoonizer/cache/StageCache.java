@@ -0,0 +1,446 @@
+package mk.arsov.cartoonizer.cache;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.imageio.ImageIO;
+
+import mk.arsov.cartoonizer.config.CacheConfiguration;
+import mk.arsov.cartoonizer.io.PlaneFile;
+import mk.arsov.cartoonizer.util.ImagePlane;
+import mk.arsov.cartoonizer.util.VectorField;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content addressed cache of stage results.
+ *
+ * The keys are digests of the content of the source image and of the parameters of a stage and all stages
+ * before it, see {@link #key(Object...)}, so equal keys always mean equal results. The results are kept
+ * in memory, the least recently used ones are dropped when their total size is over the limit. Images and
+ * vector fields can also be written to a directory, and are read from there when they are no longer
+ * in memory.
+ *
+ * When more threads ask for the same missing key, only one of them calculates the result, the others
+ * wait for it. The cached results are shared and must not be modified.
+ */
+public class StageCache {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private static final String IMAGE_SUFFIX = ".png";
+    private static final String VECTOR_FIELD_SUFFIX = PlaneFile.SUFFIX;
+
+    private final long maxMemoryBytes;
+    private final File diskDirectory;
+
+    /** Results in memory in access order, guarded by itself. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long memoryBytes;
+
+    /** Results being calculated, by key. */
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight =
+        new ConcurrentHashMap<String, CompletableFuture<Object>>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create cache with the parameters from the configuration.
+     */
+    public StageCache() {
+        this(CacheConfiguration.MAX_MEMORY_BYTES,
+            CacheConfiguration.DISK_DIRECTORY == null ? null : new File(CacheConfiguration.DISK_DIRECTORY));
+    }
+
+    /**
+     * Create cache.
+     *
+     * @param maxMemoryBytes largest size of the results kept in memory
+     * @param diskDirectory directory for the results on disk, null for memory only cache
+     */
+    public StageCache(final long maxMemoryBytes, final File diskDirectory) {
+        if (maxMemoryBytes < 0) {
+            throw new IllegalArgumentException("Cache size should not be negative");
+        }
+        if ((diskDirectory != null) && !diskDirectory.isDirectory() && !diskDirectory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create cache directory " + diskDirectory);
+        }
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.diskDirectory = diskDirectory;
+    }
+
+    /**
+     * The cached result.
+     *
+     * @param key the key
+     * @param type type of the result
+     * @return the result, or null if it's not in memory or on disk
+     */
+    public <T> T getIfPresent(final String key, final Class<T> type) {
+        final Object value = lookup(key);
+        if (value != null) {
+            hits.incrementAndGet();
+        }
+        return type.cast(value);
+    }
+
+    /**
+     * The cached result, calculated and cached if it's missing. Only one calculation runs for a key at a time,
+     * other threads asking for the same key wait for it's result.
+     *
+     * @param key the key
+     * @param type type of the result
+     * @param calculation calculates the result
+     * @return the result
+     */
+    public <T> T get(final String key, final Class<T> type, final Supplier<? extends T> calculation) {
+        final Object value = lookup(key);
+        if (value != null) {
+            hits.incrementAndGet();
+            return type.cast(value);
+        }
+
+        return type.cast(coalesce(key, () -> {
+            // it could have been finished between the lookup and taking the key
+            Object result = lookup(key);
+            if (result == null) {
+                misses.incrementAndGet();
+                result = calculation.get();
+                put(key, result);
+            } else {
+                hits.incrementAndGet();
+            }
+            return result;
+        }));
+    }
+
+    /**
+     * Run the calculation, or wait for the result of the same calculation if another thread is already
+     * running it. The result is not cached.
+     *
+     * @param key identifies the calculation
+     * @param calculation the calculation
+     * @return the result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T coalesce(final String key, final Supplier<T> calculation) {
+        final CompletableFuture<Object> calculating = new CompletableFuture<Object>();
+        final CompletableFuture<Object> running = inFlight.putIfAbsent(key, calculating);
+        if (running != null) {
+            hits.incrementAndGet();
+            try {
+                return (T) running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        try {
+            final T result = calculation.get();
+            calculating.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            calculating.completeExceptionally(e);
+            throw e;
+        } catch (Error e) {
+            calculating.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, calculating);
+        }
+    }
+
+    /**
+     * Add the result to the cache.
+     *
+     * @param key the key
+     * @param value the result
+     */
+    public void put(final String key, final Object value) {
+        putInMemory(key, value, sizeOf(value));
+        if (diskDirectory != null) {
+            writeToDisk(key, value);
+        }
+    }
+
+    /**
+     * Number of results found in the cache or taken from another thread's calculation.
+     *
+     * @return number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of results which were calculated.
+     *
+     * @return number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Size of the results in memory.
+     *
+     * @return size in bytes
+     */
+    public long getMemoryBytes() {
+        synchronized (entries) {
+            return memoryBytes;
+        }
+    }
+
+    /**
+     * Digest of the parts, used as cache key. The parts are converted to strings, images are digested by
+     * their size, type, palette and the samples of all bands.
+     *
+     * @param parts the parts, for example the key of the previous stage and the parameters of the stage
+     * @return hex encoded sha-256 digest
+     */
+    public static String key(final Object... parts) {
+        final MessageDigest digest = sha256();
+        for (Object part : parts) {
+            if (part instanceof BufferedImage) {
+                update(digest, (BufferedImage) part);
+            } else {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+            }
+            // separator, so that ("ab", "c") and ("a", "bc") are different
+            digest.update((byte) 0);
+        }
+
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private Object lookup(final String key) {
+        synchronized (entries) {
+            final Entry entry = entries.get(key);
+            if (entry != null) {
+                return entry.value;
+            }
+        }
+
+        if (diskDirectory != null) {
+            final Object value = readFromDisk(key);
+            if (value != null) {
+                putInMemory(key, value, sizeOf(value));
+                return value;
+            }
+        }
+
+        return null;
+    }
+
+    private void putInMemory(final String key, final Object value, final long size) {
+        if (size > maxMemoryBytes) {
+            logger.debug("Result {} of {} bytes is too large for the memory cache", key, size);
+            return;
+        }
+
+        synchronized (entries) {
+            final Entry previous = entries.put(key, new Entry(value, size));
+            if (previous != null) {
+                memoryBytes -= previous.size;
+            }
+            memoryBytes += size;
+
+            // the iteration order is from the least recently used
+            final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while ((memoryBytes > maxMemoryBytes) && iterator.hasNext()) {
+                memoryBytes -= iterator.next().getValue().size;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Write the result to the disk directory, only images and vector fields are written.
+     *
+     * @param key the key
+     * @param value the result
+     */
+    private void writeToDisk(final String key, final Object value) {
+        final String suffix;
+        if (value instanceof BufferedImage) {
+            suffix = IMAGE_SUFFIX;
+        } else if (value instanceof VectorField) {
+            suffix = VECTOR_FIELD_SUFFIX;
+        } else {
+            return;
+        }
+
+        final File file = new File(diskDirectory, key + suffix);
+        if (file.exists()) {
+            return;
+        }
+
+        // written under a temporary name and renamed, so the readers never see a partial file
+        final File temporary = new File(diskDirectory, key + suffix + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            if (value instanceof BufferedImage) {
+                if (!ImageIO.write((BufferedImage) value, "PNG", temporary)) {
+                    throw new IOException("No png writer");
+                }
+            } else {
+                PlaneFile.write(temporary, (VectorField) value, Collections.<String, Object>emptyMap());
+            }
+            if (!temporary.renameTo(file) && !file.exists()) {
+                throw new IOException("Cannot rename " + temporary + " to " + file);
+            }
+        } catch (IOException e) {
+            logger.error("Cannot write cached result " + file, e);
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    private Object readFromDisk(final String key) {
+        try {
+            final File image = new File(diskDirectory, key + IMAGE_SUFFIX);
+            if (image.isFile()) {
+                return ImageIO.read(image);
+            }
+            final File vectorField = new File(diskDirectory, key + VECTOR_FIELD_SUFFIX);
+            if (vectorField.isFile()) {
+                return PlaneFile.read(vectorField).toVectorField();
+            }
+        } catch (IOException e) {
+            logger.error("Cannot read cached result " + key, e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Approximate size of a result in memory.
+     *
+     * @param value the result
+     * @return size in bytes
+     */
+    private static long sizeOf(final Object value) {
+        if (value instanceof BufferedImage) {
+            final DataBuffer buffer = ((BufferedImage) value).getRaster().getDataBuffer();
+            return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+        }
+        if (value instanceof VectorField) {
+            final VectorField field = (VectorField) value;
+            return 16L * field.getWidth() * field.getHeight();
+        }
+        if ((value instanceof double[][]) && (((double[][]) value).length > 0)) {
+            final double[][] values = (double[][]) value;
+            return 8L * values.length * values[0].length;
+        }
+
+        // small objects, counted only by their overhead
+        return 64;
+    }
+
+    /**
+     * Digest the size, the type and the samples of each band of the image. The samples are read as they are,
+     * getRGB would convert them with the color model, and for example merges some gray levels of the grayscale
+     * images. The samples of the indexed images are indices, so their palette is digested too.
+     */
+    private static void update(final MessageDigest digest, final BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final Raster raster = image.getRaster();
+        final int bands = raster.getNumBands();
+        digest.update((width + "x" + height + " type " + image.getType() + " bands " + bands)
+            .getBytes(StandardCharsets.UTF_8));
+
+        if (image.getColorModel() instanceof IndexColorModel) {
+            final IndexColorModel colorModel = (IndexColorModel) image.getColorModel();
+            final int[] palette = new int[colorModel.getMapSize()];
+            colorModel.getRGBs(palette);
+            final byte[] bytes = new byte[palette.length * 4];
+            for (int i = 0; i < palette.length; i++) {
+                bytes[i * 4] = (byte) (palette[i] >> 24);
+                bytes[i * 4 + 1] = (byte) (palette[i] >> 16);
+                bytes[i * 4 + 2] = (byte) (palette[i] >> 8);
+                bytes[i * 4 + 3] = (byte) palette[i];
+            }
+            digest.update((" palette " + palette.length).getBytes(StandardCharsets.UTF_8));
+            digest.update(bytes);
+        }
+
+        boolean byteSamples = true;
+        for (int sampleSize : raster.getSampleModel().getSampleSize()) {
+            byteSamples &= (sampleSize <= 8);
+        }
+
+        for (int band = 0; band < bands; band++) {
+            if (byteSamples) {
+                digest.update(ImagePlane.band(image, band));
+                continue;
+            }
+
+            // wider samples, digested as 4 bytes each
+            final int[] row = new int[width];
+            final byte[] bytes = new byte[width * 4];
+            for (int i = 0; i < height; i++) {
+                raster.getSamples(raster.getMinX(), raster.getMinY() + i, width, 1, band, row);
+                for (int j = 0; j < width; j++) {
+                    bytes[j * 4] = (byte) (row[j] >> 24);
+                    bytes[j * 4 + 1] = (byte) (row[j] >> 16);
+                    bytes[j * 4 + 2] = (byte) (row[j] >> 8);
+                    bytes[j * 4 + 3] = (byte) row[j];
+                }
+                digest.update(bytes);
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every java runtime has sha-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A result in memory with it's size.
+     */
+    private static final class Entry {
+
+        private final Object value;
+        private final long size;
+
+        private Entry(final Object value, final long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
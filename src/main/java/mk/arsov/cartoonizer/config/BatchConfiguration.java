@@ -0,0 +1,28 @@
+package mk.arsov.cartoonizer.config;
+
+/**
+ * Batch processing parameters.
+ */
+public class BatchConfiguration {
+
+    /**
+     * Number of threads reading and decoding the source images.
+     */
+    public static int DECODE_THREADS = 2;
+
+    /**
+     * Number of images cartoonized at the same time. Each image is already calculated on all processors,
+     * more than one image overlaps the parts of the pipeline which don't use all of them.
+     */
+    public static int COMPUTE_THREADS = 2;
+
+    /**
+     * Number of threads encoding and writing the png images.
+     */
+    public static int ENCODE_THREADS = 2;
+
+    /**
+     * Number of images waiting between two phases, limits the memory used by decoded and finished images.
+     */
+    public static int QUEUE_CAPACITY = 4;
+}
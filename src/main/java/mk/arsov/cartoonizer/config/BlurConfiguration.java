@@ -1,5 +1,7 @@
 package mk.arsov.cartoonizer.config;
 
+import mk.arsov.cartoonizer.util.BlurMode;
+
 /**
  * Gaussian blur parameters.
  */
@@ -14,4 +16,11 @@ public class BlurConfiguration {
      * The kernel radius, the dimensions of the kernel will be: radius * 2 + 1
      */
     public static int KERNEL_RADIUS = 9;
+
+    /**
+     * The blur algorithm: full 2D kernel, separable 1D passes, recursive gaussian
+     * whose cost does not depend on the kernel size, or separable passes in fixed-point
+     * arithmetic, within one gray level of separable.
+     */
+    public static BlurMode MODE = BlurMode.SEPARABLE;
 }
@@ -0,0 +1,17 @@
+package mk.arsov.cartoonizer.config;
+
+/**
+ * Stage cache parameters.
+ */
+public class CacheConfiguration {
+
+    /**
+     * Largest size of the cached results kept in memory, in bytes.
+     */
+    public static long MAX_MEMORY_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Directory for the cached results on disk, no disk cache if null.
+     */
+    public static String DISK_DIRECTORY = null;
+}
@@ -1,5 +1,7 @@
 package mk.arsov.cartoonizer.config;
 
+import mk.arsov.cartoonizer.abstraction.FdogMode;
+
 /**
  * Edge detection parameters (Flow based difference of Gausians).
  */
@@ -12,6 +14,11 @@ public class EdgeDetectionConfiguration {
      */
     public static int ITERATIONS = 3;
 
+    /**
+     * The algorithm for the iterations after the first one.
+     */
+    public static FdogMode MODE = FdogMode.EXACT;
+
     /**
      * Determines the length of the line segments, S.
      * */
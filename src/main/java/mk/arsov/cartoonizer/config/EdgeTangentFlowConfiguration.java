@@ -1,5 +1,10 @@
 package mk.arsov.cartoonizer.config;
 
+import java.util.Collections;
+import java.util.List;
+
+import mk.arsov.cartoonizer.abstraction.EtfMode;
+
 /**
  * Edge tangent flow parameters.
  */
@@ -14,4 +19,28 @@ public class EdgeTangentFlowConfiguration {
      * Number of iterations while creating the ETF.
      * */
     public static int NUMBER_OF_ITERATIONS = 3;
+
+    /**
+     * The ETF algorithm: exact full kernel, separable horizontal and vertical passes
+     * whose cost grows only linearly with the kernel radius, or coarse to fine pyramid.
+     */
+    public static EtfMode MODE = EtfMode.EXACT;
+
+    /**
+     * Number of levels in pyramid mode, including the full resolution. Each level is half the size of the
+     * previous one, and gets the iterations from PYRAMID_ITERATIONS.
+     */
+    public static int PYRAMID_LEVELS = 3;
+
+    /**
+     * Number of iterations on each downsampled level in pyramid mode, from the half size level to the coarsest
+     * one. The levels without a value get NUMBER_OF_ITERATIONS iterations, values past the coarsest level
+     * are not used.
+     */
+    public static List<Integer> PYRAMID_ITERATIONS = Collections.emptyList();
+
+    /**
+     * Number of iterations at full resolution in pyramid mode.
+     */
+    public static int PYRAMID_REFINEMENT = 1;
 }
@@ -0,0 +1,33 @@
+package mk.arsov.cartoonizer.config;
+
+/**
+ * Parameters of the incremental calculation of consecutive frames.
+ */
+public class FrameDiffConfiguration {
+
+    /**
+     * Width and height of the blocks compared between the frames. In pyramid mode it is rounded up to a multiple
+     * of the size of the coarsest etf pixels.
+     */
+    public static int BLOCK_SIZE = 16;
+
+    /**
+     * Largest difference of a color component which is not a change. With 0 the result is exactly the same as
+     * the calculation of the whole frame, larger values skip the noise of the camera, but the skipped differences
+     * stay in the result until they add up to more than the threshold.
+     */
+    public static int CHANGE_THRESHOLD = 0;
+
+    /**
+     * Part of the blocks which can change before the whole frame is calculated again, from 0 to 1. The regions
+     * around the changes are recalculated with their halos, for large changes the whole frame is cheaper.
+     */
+    public static double MAX_CHANGED_FRACTION = 0.3;
+
+    /**
+     * Largest relative change of the gradient magnitude sum before the whole frame is calculated again. Until then
+     * the edge tangent flow of the changed regions is normalized with the sum of the last whole frame, so the
+     * unchanged regions stay valid.
+     */
+    public static double SUM_TOLERANCE = 0.05;
+}
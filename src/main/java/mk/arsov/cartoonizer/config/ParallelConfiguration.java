@@ -0,0 +1,17 @@
+package mk.arsov.cartoonizer.config;
+
+/**
+ * Parallel execution parameters.
+ */
+public class ParallelConfiguration {
+
+    /**
+     * Number of threads used for the per-pixel calculations, all available processors if not positive.
+     */
+    public static int THREADS = 0;
+
+    /**
+     * Number of image rows calculated in one task.
+     */
+    public static int ROWS_PER_TASK = 16;
+}
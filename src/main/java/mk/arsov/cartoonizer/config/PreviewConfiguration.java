@@ -0,0 +1,28 @@
+package mk.arsov.cartoonizer.config;
+
+/**
+ * Progressive rendering parameters.
+ */
+public class PreviewConfiguration {
+
+    /**
+     * Time in which the preview should be ready, in milliseconds.
+     */
+    public static long BUDGET_MILLIS = 250;
+
+    /**
+     * Number of resolutions between the preview and the full resolution, each twice the size of the previous one.
+     */
+    public static int INTERMEDIATE_RESOLUTIONS = 1;
+
+    /**
+     * Estimated cartoonization time per pixel in nanoseconds, used for the size of the first previews,
+     * until the real time is measured.
+     */
+    public static double INITIAL_NANOS_PER_PIXEL = 20000;
+
+    /**
+     * Smallest width and height of the preview.
+     */
+    public static int MIN_SIZE = 32;
+}
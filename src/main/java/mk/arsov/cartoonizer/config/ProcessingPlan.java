@@ -0,0 +1,455 @@
+package mk.arsov.cartoonizer.config;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import mk.arsov.cartoonizer.abstraction.EdgeTangentFlow;
+import mk.arsov.cartoonizer.abstraction.EtfMode;
+import mk.arsov.cartoonizer.abstraction.FdogMode;
+import mk.arsov.cartoonizer.abstraction.SmoothingMode;
+import mk.arsov.cartoonizer.util.BlurMode;
+import mk.arsov.cartoonizer.util.KernelPlan;
+import mk.arsov.cartoonizer.util.RangeWeightTable;
+
+/**
+ * All parameters of the cartoonization, together with the data derived from them: the kernel lengths
+ * set to "auto", the kernel weights and the color distance weights.
+ *
+ * Plans are immutable and are created only by {@link ProcessingPlanLoader}, which keeps the recently used
+ * plans, so the same plan can be shared by any number of threads and images.
+ * The kernel weights returned by the plan must not be modified.
+ */
+public final class ProcessingPlan {
+
+    /** Value of a kernel length parameter which is derived from the sigma of the kernel. */
+    public static final String AUTO = "auto";
+
+    /** The resolved parameters, "section.key" to value. */
+    private final Map<String, Object> parameters;
+
+    private final double blurSigma;
+    private final int blurKernelRadius;
+    private final BlurMode blurMode;
+
+    private final int licKernelLength;
+    private final double licRoundoff;
+
+    private final int etfKernelRadius;
+    private final int etfIterations;
+    private final EtfMode etfMode;
+    private final int etfPyramidLevels;
+    private final int[] etfPyramidIterations;
+    private final int etfPyramidRefinement;
+
+    private final int fdogIterations;
+    private final FdogMode fdogMode;
+    private final double fdogSigmaM;
+    private final double fdogSigmaC;
+    private final double fdogSigmaS;
+    private final double fdogRo;
+    private final int fdogT;
+    private final int fdogS;
+    private final double fdogTau;
+
+    private final int fblIterations;
+    private final SmoothingMode fblMode;
+    private final double fblSigmaE;
+    private final double fblRe;
+    private final int fblS;
+    private final double fblSigmaG;
+    private final double fblRg;
+    private final int fblT;
+
+    private final int threads;
+    private final int rowsPerTask;
+
+    private final KernelPlan dogPlan;
+    private final KernelPlan fdogFlowPlan;
+    private final KernelPlan fblFlowPlan;
+    private final KernelPlan fblGradientPlan;
+    private final RangeWeightTable flowRangeWeights;
+    private final RangeWeightTable gradientRangeWeights;
+
+    /**
+     * Create plan from resolved parameters, see {@link ProcessingPlanLoader}.
+     *
+     * @param parameters all parameters, with kernel lengths either integers or {@link #AUTO}
+     */
+    ProcessingPlan(final Map<String, Object> parameters) {
+        this.parameters = Collections.unmodifiableMap(new LinkedHashMap<String, Object>(parameters));
+        final double epsilon = doubleValue("kernel.epsilon");
+
+        this.blurSigma = doubleValue("blur.sigma");
+        this.blurKernelRadius = lengthValue("blur.kernelRadius", blurSigma, epsilon);
+        this.blurMode = (BlurMode) parameters.get("blur.mode");
+
+        this.licKernelLength = intValue("lic.kernelLength");
+        this.licRoundoff = doubleValue("lic.roundoff");
+
+        this.etfKernelRadius = intValue("etf.kernelRadius");
+        this.etfIterations = intValue("etf.numberofiterations");
+        this.etfMode = (EtfMode) parameters.get("etf.mode");
+        this.etfPyramidLevels = intValue("etf.pyramidLevels");
+        this.etfPyramidRefinement = intValue("etf.pyramidRefinement");
+        if (etfPyramidLevels < 1) {
+            throw new IllegalArgumentException("Invalid value " + etfPyramidLevels
+                + " for configuration parameter etf.pyramidLevels");
+        }
+        final List<?> pyramidIterations = (List<?>) parameters.get("etf.pyramidIterations");
+        this.etfPyramidIterations = new int[etfPyramidLevels - 1];
+        for (int level = 1; level < etfPyramidLevels; level++) {
+            etfPyramidIterations[level - 1] = (level <= pyramidIterations.size())
+                ? ((Number) pyramidIterations.get(level - 1)).intValue() : etfIterations;
+        }
+
+        this.fdogIterations = intValue("fdog.iterations");
+        this.fdogMode = (FdogMode) parameters.get("fdog.mode");
+        this.fdogSigmaM = doubleValue("fdog.sigmaM");
+        this.fdogSigmaC = doubleValue("fdog.sigmaC");
+        this.fdogSigmaS = doubleValue("fdog.sigmaS");
+        this.fdogRo = doubleValue("fdog.ro");
+        this.fdogT = lengthValue("fdog.t", fdogSigmaS, epsilon);
+        this.fdogS = lengthValue("fdog.s", fdogSigmaM, epsilon);
+        this.fdogTau = doubleValue("fdog.tau");
+
+        this.fblIterations = intValue("fbl.iterations");
+        this.fblMode = (SmoothingMode) parameters.get("fbl.mode");
+        this.fblSigmaE = doubleValue("fbl.sigmaE");
+        this.fblRe = doubleValue("fbl.re");
+        this.fblS = lengthValue("fbl.s", fblSigmaE, epsilon);
+        this.fblSigmaG = doubleValue("fbl.sigmaG");
+        this.fblRg = doubleValue("fbl.rg");
+        this.fblT = lengthValue("fbl.t", fblSigmaG, epsilon);
+
+        this.threads = intValue("parallel.threads");
+        this.rowsPerTask = intValue("parallel.rowsPerTask");
+
+        this.dogPlan = KernelPlan.differenceOfGaussians(fdogSigmaC, fdogSigmaS, fdogRo, fdogT);
+        this.fdogFlowPlan = KernelPlan.gaussian(fdogSigmaM, fdogS);
+        this.fblFlowPlan = KernelPlan.gaussian(fblSigmaE, fblS);
+        this.fblGradientPlan = KernelPlan.gaussian(fblSigmaG, fblT);
+        this.flowRangeWeights = new RangeWeightTable(fblRe);
+        this.gradientRangeWeights = new RangeWeightTable(fblRg);
+    }
+
+    private int intValue(final String key) {
+        return ((Number) parameters.get(key)).intValue();
+    }
+
+    private double doubleValue(final String key) {
+        return ((Number) parameters.get(key)).doubleValue();
+    }
+
+    private int lengthValue(final String key, final double sigma, final double epsilon) {
+        final Object value = parameters.get(key);
+        if (AUTO.equals(value)) {
+            return KernelPlan.truncatedLength(sigma, epsilon);
+        }
+
+        return ((Number) value).intValue();
+    }
+
+    /**
+     * The resolved parameters of the plan, "section.key" to value, as given in the yaml file or the default value.
+     * Kernel lengths are either integers or {@link #AUTO}. Two plans with equal parameters are the same plan.
+     *
+     * @return unmodifiable map of the parameters
+     */
+    public Map<String, Object> getParameters() {
+        return parameters;
+    }
+
+    public double getBlurSigma() {
+        return blurSigma;
+    }
+
+    public int getBlurKernelRadius() {
+        return blurKernelRadius;
+    }
+
+    public BlurMode getBlurMode() {
+        return blurMode;
+    }
+
+    public int getLicKernelLength() {
+        return licKernelLength;
+    }
+
+    public double getLicRoundoff() {
+        return licRoundoff;
+    }
+
+    public int getEtfKernelRadius() {
+        return etfKernelRadius;
+    }
+
+    public int getEtfIterations() {
+        return etfIterations;
+    }
+
+    public EtfMode getEtfMode() {
+        return etfMode;
+    }
+
+    /**
+     * Number of levels in pyramid mode, including the full resolution.
+     *
+     * @return the number of levels
+     */
+    public int getEtfPyramidLevels() {
+        return etfPyramidLevels;
+    }
+
+    /**
+     * Number of iterations on each downsampled level in pyramid mode, from etf.pyramidIterations, and
+     * {@link #getEtfIterations()} for the levels which are not in it.
+     *
+     * @return the number of iterations of the levels 1 to {@link #getEtfPyramidLevels()} - 1, a copy
+     */
+    public int[] getEtfPyramidIterations() {
+        return etfPyramidIterations.clone();
+    }
+
+    /**
+     * Number of iterations at full resolution in pyramid mode, the other levels get
+     * {@link #getEtfPyramidIterations()}.
+     *
+     * @return the number of iterations
+     */
+    public int getEtfPyramidRefinement() {
+        return etfPyramidRefinement;
+    }
+
+    public int getFdogIterations() {
+        return fdogIterations;
+    }
+
+    public FdogMode getFdogMode() {
+        return fdogMode;
+    }
+
+    public double getFdogSigmaM() {
+        return fdogSigmaM;
+    }
+
+    public double getFdogSigmaC() {
+        return fdogSigmaC;
+    }
+
+    public double getFdogSigmaS() {
+        return fdogSigmaS;
+    }
+
+    public double getFdogRo() {
+        return fdogRo;
+    }
+
+    public int getFdogT() {
+        return fdogT;
+    }
+
+    public int getFdogS() {
+        return fdogS;
+    }
+
+    public double getFdogTau() {
+        return fdogTau;
+    }
+
+    public int getFblIterations() {
+        return fblIterations;
+    }
+
+    public SmoothingMode getFblMode() {
+        return fblMode;
+    }
+
+    public double getFblSigmaE() {
+        return fblSigmaE;
+    }
+
+    public double getFblRe() {
+        return fblRe;
+    }
+
+    public int getFblS() {
+        return fblS;
+    }
+
+    public double getFblSigmaG() {
+        return fblSigmaG;
+    }
+
+    public double getFblRg() {
+        return fblRg;
+    }
+
+    public int getFblT() {
+        return fblT;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getRowsPerTask() {
+        return rowsPerTask;
+    }
+
+    /**
+     * Length of the streamlines shared by the edge detection and the region smoothing.
+     *
+     * @return the longer of the two flow segment lengths
+     */
+    public int getStreamlineLength() {
+        return Math.max(fdogS, fblS);
+    }
+
+    /**
+     * Length of the gradient stencils shared by the edge detection and the region smoothing.
+     *
+     * @return the longer of the two gradient segment lengths
+     */
+    public int getGradientStencilLength() {
+        return Math.max(fdogT, fblT);
+    }
+
+    /**
+     * Largest distance between a pixel of the final image and the source pixels it depends on: the blur
+     * radius and the sobel kernel, the etf radius in each iteration, and then the longer of the edge detection
+     * (the streamline, the gradient segment and the blur again in each iteration) and the region smoothing
+     * (the streamline and the gradient segment in each iteration). A streamline step moves at most a cell
+     * diagonal times the roundoff. With the recursive blur the reach is only approximate.
+     *
+     * In pyramid mode the etf radius of each level is multiplied by the scale of the level, and the reach is
+     * rounded up to a multiple of the size of the coarsest pixels, so a part of the image starting at a multiple
+     * of that size is downsampled the same as the whole image.
+     *
+     * @return the reach in pixels
+     */
+    public int getReach() {
+        final int reach = getGradientReach() + etfReach() + getAbstractionReach();
+        return (reach + getPyramidBlock() - 1) / getPyramidBlock() * getPyramidBlock();
+    }
+
+    /**
+     * Largest distance between a pixel of the sobel gradient and the source pixels it depends on, the blur radius
+     * and the sobel kernel.
+     *
+     * @return the reach in pixels
+     */
+    public int getGradientReach() {
+        return blurKernelRadius + 1;
+    }
+
+    /**
+     * Largest distance between an etf vector and the gradients it depends on. In pyramid mode it is rounded up
+     * to a multiple of the size of the coarsest pixels, like {@link #getReach()}.
+     *
+     * @return the reach in pixels
+     */
+    public int getEtfReach() {
+        return (etfReach() + getPyramidBlock() - 1) / getPyramidBlock() * getPyramidBlock();
+    }
+
+    /**
+     * Largest distance between a pixel of the edges or the smoothed image and the etf vectors and source pixels
+     * it depends on, the longer of the edge detection and the region smoothing.
+     *
+     * @return the reach in pixels
+     */
+    public int getAbstractionReach() {
+        final int edgeReach = fdogIterations * (streamlineReach(fdogS) + fdogT + blurKernelRadius);
+        final int smoothingReach = fblIterations * (streamlineReach(fblS) + fblT);
+        return Math.max(edgeReach, smoothingReach);
+    }
+
+    /**
+     * Size of the coarsest pixels of the etf pyramid, 1 in the other modes. A part of the image starting at
+     * a multiple of it is downsampled the same as the whole image.
+     *
+     * @return the size in pixels
+     */
+    public int getPyramidBlock() {
+        return (etfMode == EtfMode.PYRAMID) ? 1 << (etfPyramidLevels - 1) : 1;
+    }
+
+    private int etfReach() {
+        if (etfMode != EtfMode.PYRAMID) {
+            return etfKernelRadius * etfIterations;
+        }
+
+        // the vectors of a coarser level are copied into blocks of the finer one
+        int reach = etfKernelRadius * etfPyramidRefinement + (1 << (etfPyramidLevels - 1));
+        for (int level = 1; level < etfPyramidLevels; level++) {
+            reach += (EdgeTangentFlow.pyramidKernelRadius(etfKernelRadius, level) << level)
+                * etfPyramidIterations[level - 1];
+        }
+        return reach;
+    }
+
+    private int streamlineReach(final int length) {
+        return (int) Math.ceil(length * Math.sqrt(2) * Math.max(licRoundoff, 1));
+    }
+
+    /**
+     * Difference of gaussians weights for Hg(x).
+     *
+     * @return the plan, of length T
+     */
+    public KernelPlan getDogPlan() {
+        return dogPlan;
+    }
+
+    /**
+     * Gaussian weights along the flow for He(x).
+     *
+     * @return the plan, of length S
+     */
+    public KernelPlan getFdogFlowPlan() {
+        return fdogFlowPlan;
+    }
+
+    /**
+     * Spatial weights along the flow for Ce(x).
+     *
+     * @return the plan, of the region smoothing length S
+     */
+    public KernelPlan getFblFlowPlan() {
+        return fblFlowPlan;
+    }
+
+    /**
+     * Spatial weights along the gradient for Cg(x).
+     *
+     * @return the plan, of the region smoothing length T
+     */
+    public KernelPlan getFblGradientPlan() {
+        return fblGradientPlan;
+    }
+
+    /**
+     * Color distance weights for Ce(x).
+     *
+     * @return the weights for sigma re
+     */
+    public RangeWeightTable getFlowRangeWeights() {
+        return flowRangeWeights;
+    }
+
+    /**
+     * Color distance weights for Cg(x).
+     *
+     * @return the weights for sigma rg
+     */
+    public RangeWeightTable getGradientRangeWeights() {
+        return gradientRangeWeights;
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessingPlan" + parameters;
+    }
+}
@@ -0,0 +1,367 @@
+package mk.arsov.cartoonizer.config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import mk.arsov.cartoonizer.abstraction.EtfMode;
+import mk.arsov.cartoonizer.abstraction.FdogMode;
+import mk.arsov.cartoonizer.abstraction.SmoothingMode;
+import mk.arsov.cartoonizer.util.BlurMode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+/**
+ * Creates {@link ProcessingPlan}s from yaml files in the format of application.yml.
+ *
+ * The file has one section for each group of parameters (blur, lic, etf, fdog, fbl, parallel, kernel).
+ * Parameters which are not in the file get the values from the configuration classes. Kernel lengths
+ * can be set to "auto", and are then the smallest lengths at which the gaussian falls below kernel.epsilon.
+ * The most recently used plans are kept, so loading the same parameters again returns the already calculated
+ * plan. The number of kept plans is bounded, because the server and the parameter sweep create a plan for each
+ * distinct set of parameters they are given.
+ */
+public final class ProcessingPlanLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessingPlanLoader.class);
+
+    /** The configuration on the classpath. */
+    public static final String DEFAULT_RESOURCE = "/application.yml";
+
+    /** Default value of kernel.epsilon. */
+    public static final double DEFAULT_EPSILON = 0.001;
+
+    /** Type of the value of a parameter. */
+    private enum ParameterType {
+        INTEGER, INTEGER_LIST, DOUBLE, LENGTH, BLUR_MODE, ETF_MODE, FDOG_MODE, SMOOTHING_MODE
+    }
+
+    /** The type of each parameter, in the order of application.yml. */
+    private static final Map<String, ParameterType> TYPES = new LinkedHashMap<String, ParameterType>();
+
+    static {
+        TYPES.put("blur.sigma", ParameterType.DOUBLE);
+        TYPES.put("blur.kernelRadius", ParameterType.LENGTH);
+        TYPES.put("blur.mode", ParameterType.BLUR_MODE);
+        TYPES.put("lic.kernelLength", ParameterType.INTEGER);
+        TYPES.put("lic.roundoff", ParameterType.DOUBLE);
+        TYPES.put("etf.kernelRadius", ParameterType.INTEGER);
+        TYPES.put("etf.numberofiterations", ParameterType.INTEGER);
+        TYPES.put("etf.mode", ParameterType.ETF_MODE);
+        TYPES.put("etf.pyramidLevels", ParameterType.INTEGER);
+        TYPES.put("etf.pyramidIterations", ParameterType.INTEGER_LIST);
+        TYPES.put("etf.pyramidRefinement", ParameterType.INTEGER);
+        TYPES.put("fdog.iterations", ParameterType.INTEGER);
+        TYPES.put("fdog.mode", ParameterType.FDOG_MODE);
+        TYPES.put("fdog.sigmaM", ParameterType.DOUBLE);
+        TYPES.put("fdog.sigmaC", ParameterType.DOUBLE);
+        TYPES.put("fdog.sigmaS", ParameterType.DOUBLE);
+        TYPES.put("fdog.ro", ParameterType.DOUBLE);
+        TYPES.put("fdog.t", ParameterType.LENGTH);
+        TYPES.put("fdog.s", ParameterType.LENGTH);
+        TYPES.put("fdog.tau", ParameterType.DOUBLE);
+        TYPES.put("fbl.iterations", ParameterType.INTEGER);
+        TYPES.put("fbl.mode", ParameterType.SMOOTHING_MODE);
+        TYPES.put("fbl.sigmaE", ParameterType.DOUBLE);
+        TYPES.put("fbl.re", ParameterType.DOUBLE);
+        TYPES.put("fbl.s", ParameterType.LENGTH);
+        TYPES.put("fbl.sigmaG", ParameterType.DOUBLE);
+        TYPES.put("fbl.rg", ParameterType.DOUBLE);
+        TYPES.put("fbl.t", ParameterType.LENGTH);
+        TYPES.put("parallel.threads", ParameterType.INTEGER);
+        TYPES.put("parallel.rowsPerTask", ParameterType.INTEGER);
+        TYPES.put("kernel.epsilon", ParameterType.DOUBLE);
+    }
+
+    /** Number of plans kept. */
+    static final int MAX_PLANS = 32;
+
+    /** The most recently used plans, by their resolved parameters, guarded by itself. */
+    private static final Map<Map<String, Object>, ProcessingPlan> PLANS =
+        new LinkedHashMap<Map<String, Object>, ProcessingPlan>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Map<String, Object>, ProcessingPlan> eldest) {
+                return size() > MAX_PLANS;
+            }
+        };
+
+    private ProcessingPlanLoader() {
+
+    }
+
+    /**
+     * Load the plan from application.yml on the classpath.
+     *
+     * @return the plan
+     */
+    public static ProcessingPlan loadDefault() {
+        final InputStream input = ProcessingPlanLoader.class.getResourceAsStream(DEFAULT_RESOURCE);
+        if (input == null) {
+            logger.info("No {} on the classpath, using the default parameters", DEFAULT_RESOURCE);
+            return fromParameters(Collections.<String, Object>emptyMap());
+        }
+
+        try {
+            return load(input);
+        } finally {
+            try {
+                input.close();
+            } catch (IOException e) {
+                logger.info("Cannot close {}", DEFAULT_RESOURCE);
+            }
+        }
+    }
+
+    /**
+     * Load the plan from a yaml file.
+     *
+     * @param file the yaml file
+     * @return the plan
+     * @throws IOException if the file can't be read
+     */
+    public static ProcessingPlan load(final File file) throws IOException {
+        final InputStream input = new FileInputStream(file);
+        try {
+            return load(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Load the plan from yaml.
+     *
+     * @param input the yaml document
+     * @return the plan
+     */
+    public static ProcessingPlan load(final InputStream input) {
+        final Object document = new Yaml(new SafeConstructor(new LoaderOptions())).load(input);
+
+        final Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+        if (document != null) {
+            if (!(document instanceof Map)) {
+                throw new IllegalArgumentException("Configuration should be a map of sections");
+            }
+            for (Map.Entry<?, ?> section : ((Map<?, ?>) document).entrySet()) {
+                if (!(section.getValue() instanceof Map)) {
+                    throw new IllegalArgumentException("Configuration section " + section.getKey() + " should be a map");
+                }
+                for (Map.Entry<?, ?> parameter : ((Map<?, ?>) section.getValue()).entrySet()) {
+                    parameters.put(section.getKey() + "." + parameter.getKey(), parameter.getValue());
+                }
+            }
+        }
+
+        return fromParameters(parameters);
+    }
+
+    /**
+     * Create the plan from parameters given as "section.key" to value, for example "fdog.tau" to 0.5.
+     * Parameters which are not given get the values from the configuration classes.
+     *
+     * @param parameters the parameters
+     * @return the plan, the same instance for equal parameters while it's one of the recently used plans
+     */
+    public static ProcessingPlan fromParameters(final Map<String, ?> parameters) {
+        final Map<String, Object> given = new LinkedHashMap<String, Object>(parameters);
+        final Map<String, Object> defaults = defaults();
+
+        final Map<String, Object> resolved = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, ParameterType> type : TYPES.entrySet()) {
+            final String key = type.getKey();
+            final Object value = given.containsKey(key) ? given.remove(key) : defaults.get(key);
+            resolved.put(key, convert(key, value, type.getValue()));
+        }
+
+        if (!given.isEmpty()) {
+            throw new IllegalArgumentException("Unknown configuration parameters " + given.keySet());
+        }
+
+        synchronized (PLANS) {
+            final ProcessingPlan plan = PLANS.get(resolved);
+            if (plan != null) {
+                return plan;
+            }
+        }
+
+        // the tables of the plan are calculated outside of the lock, a plan created meanwhile by another thread wins
+        final ProcessingPlan created = new ProcessingPlan(resolved);
+        synchronized (PLANS) {
+            final ProcessingPlan plan = PLANS.get(resolved);
+            if (plan != null) {
+                return plan;
+            }
+            PLANS.put(resolved, created);
+        }
+        logger.info("Created {}", created);
+
+        return created;
+    }
+
+    /**
+     * Default values of the parameters, from the configuration classes.
+     *
+     * @return "section.key" to value
+     */
+    private static Map<String, Object> defaults() {
+        final Map<String, Object> defaults = new LinkedHashMap<String, Object>();
+        defaults.put("blur.sigma", BlurConfiguration.SIGMA);
+        defaults.put("blur.kernelRadius", BlurConfiguration.KERNEL_RADIUS);
+        defaults.put("blur.mode", BlurConfiguration.MODE);
+        defaults.put("lic.kernelLength", LineIntegralConvolutionConfiguration.KERNEL_LENGTH);
+        defaults.put("lic.roundoff", LineIntegralConvolutionConfiguration.ROUND_OFF);
+        defaults.put("etf.kernelRadius", EdgeTangentFlowConfiguration.KERNEL_RADIUS);
+        defaults.put("etf.numberofiterations", EdgeTangentFlowConfiguration.NUMBER_OF_ITERATIONS);
+        defaults.put("etf.mode", EdgeTangentFlowConfiguration.MODE);
+        defaults.put("etf.pyramidLevels", EdgeTangentFlowConfiguration.PYRAMID_LEVELS);
+        defaults.put("etf.pyramidIterations", EdgeTangentFlowConfiguration.PYRAMID_ITERATIONS);
+        defaults.put("etf.pyramidRefinement", EdgeTangentFlowConfiguration.PYRAMID_REFINEMENT);
+        defaults.put("fdog.iterations", EdgeDetectionConfiguration.ITERATIONS);
+        defaults.put("fdog.mode", EdgeDetectionConfiguration.MODE);
+        defaults.put("fdog.sigmaM", EdgeDetectionConfiguration.SIGMA_M);
+        defaults.put("fdog.sigmaC", EdgeDetectionConfiguration.SIGMA_C);
+        defaults.put("fdog.sigmaS", EdgeDetectionConfiguration.SIGMA_S);
+        defaults.put("fdog.ro", EdgeDetectionConfiguration.RO);
+        defaults.put("fdog.t", EdgeDetectionConfiguration.T);
+        defaults.put("fdog.s", EdgeDetectionConfiguration.S);
+        defaults.put("fdog.tau", EdgeDetectionConfiguration.TAU);
+        defaults.put("fbl.iterations", RegionSmoothingConfiguration.ITERATIONS);
+        defaults.put("fbl.mode", RegionSmoothingConfiguration.MODE);
+        defaults.put("fbl.sigmaE", RegionSmoothingConfiguration.SIGMA_E);
+        defaults.put("fbl.re", RegionSmoothingConfiguration.RE);
+        defaults.put("fbl.s", RegionSmoothingConfiguration.S);
+        defaults.put("fbl.sigmaG", RegionSmoothingConfiguration.SIGMA_G);
+        defaults.put("fbl.rg", RegionSmoothingConfiguration.RG);
+        defaults.put("fbl.t", RegionSmoothingConfiguration.T);
+        defaults.put("parallel.threads", ParallelConfiguration.THREADS);
+        defaults.put("parallel.rowsPerTask", ParallelConfiguration.ROWS_PER_TASK);
+        defaults.put("kernel.epsilon", DEFAULT_EPSILON);
+
+        return defaults;
+    }
+
+    /**
+     * Convert the parameter value into the type of the parameter.
+     *
+     * @param key the parameter
+     * @param value the value from the yaml file or the default value
+     * @param type the type of the parameter
+     * @return the converted value
+     */
+    private static Object convert(final String key, final Object value, final ParameterType type) {
+        switch (type) {
+            case INTEGER:
+                return integerValue(key, value);
+            case INTEGER_LIST:
+                return integerListValue(key, value);
+            case DOUBLE:
+                if (value instanceof Number) {
+                    return ((Number) value).doubleValue();
+                }
+                break;
+            case LENGTH:
+                if ((value instanceof String) && ProcessingPlan.AUTO.equalsIgnoreCase((String) value)) {
+                    return ProcessingPlan.AUTO;
+                }
+                return integerValue(key, value);
+            case BLUR_MODE:
+                if (value instanceof BlurMode) {
+                    return value;
+                }
+                if (value instanceof String) {
+                    return BlurMode.valueOf(((String) value).toUpperCase(Locale.ENGLISH));
+                }
+                break;
+            case ETF_MODE:
+                if (value instanceof EtfMode) {
+                    return value;
+                }
+                if (value instanceof String) {
+                    return EtfMode.valueOf(((String) value).toUpperCase(Locale.ENGLISH));
+                }
+                break;
+            case FDOG_MODE:
+                if (value instanceof FdogMode) {
+                    return value;
+                }
+                if (value instanceof String) {
+                    return FdogMode.valueOf(((String) value).toUpperCase(Locale.ENGLISH));
+                }
+                break;
+            case SMOOTHING_MODE:
+                if (value instanceof SmoothingMode) {
+                    return value;
+                }
+                if (value instanceof String) {
+                    return SmoothingMode.valueOf(((String) value).toUpperCase(Locale.ENGLISH));
+                }
+                break;
+            default:
+                break;
+        }
+
+        throw new IllegalArgumentException("Invalid value " + value + " for configuration parameter " + key);
+    }
+
+    /**
+     * A list of non-negative integers, given as a list, as a single integer, or as a comma separated string
+     * like the query parameters of the server.
+     *
+     * @param key the parameter
+     * @param value the value
+     * @return unmodifiable list of the integers
+     */
+    private static List<Integer> integerListValue(final String key, final Object value) {
+        final List<?> values;
+        if (value instanceof List) {
+            values = (List<?>) value;
+        } else if ((value instanceof String) && ((String) value).trim().isEmpty()) {
+            values = Collections.emptyList();
+        } else if (value instanceof String) {
+            final List<Object> parsed = new ArrayList<Object>();
+            for (String part : ((String) value).split(",")) {
+                try {
+                    parsed.add(Long.parseLong(part.trim()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value " + value + " for configuration parameter " + key);
+                }
+            }
+            values = parsed;
+        } else {
+            values = Collections.singletonList(value);
+        }
+
+        final List<Integer> result = new ArrayList<Integer>();
+        for (Object element : values) {
+            final Integer integer = integerValue(key, element);
+            if (integer < 0) {
+                throw new IllegalArgumentException("Invalid value " + value + " for configuration parameter " + key);
+            }
+            result.add(integer);
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    private static Integer integerValue(final String key, final Object value) {
+        if (((value instanceof Integer) || (value instanceof Long)) && (((Number) value).intValue() == ((Number) value).longValue())) {
+            return ((Number) value).intValue();
+        }
+
+        throw new IllegalArgumentException("Invalid value " + value + " for configuration parameter " + key);
+    }
+}
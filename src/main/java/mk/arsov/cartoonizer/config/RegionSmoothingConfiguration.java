@@ -1,10 +1,22 @@
 package mk.arsov.cartoonizer.config;
 
+import mk.arsov.cartoonizer.abstraction.SmoothingMode;
+
 /**
  * Region smoothing parameters (Flow based bilateral filter).
  */
 public class RegionSmoothingConfiguration {
 
+    /**
+     * Number of iterations, in each iteration Ce(x) and then Cg(x) is applied to the result of the previous one.
+     */
+    public static int ITERATIONS = 3;
+
+    /**
+     * Arithmetic of the filter weights, exact in double or fixed-point.
+     */
+    public static SmoothingMode MODE = SmoothingMode.EXACT;
+
     /**
      * Determines the kernel size S for the Gaussian along the flow axis
      */
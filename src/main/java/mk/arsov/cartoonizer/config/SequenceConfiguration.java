@@ -0,0 +1,23 @@
+package mk.arsov.cartoonizer.config;
+
+/**
+ * Frame sequence (video) parameters.
+ */
+public class SequenceConfiguration {
+
+    /**
+     * Number of etf iterations of a frame which starts from the edge tangent flow of the previous frame.
+     */
+    public static int WARM_ITERATIONS = 1;
+
+    /**
+     * Mean absolute difference of the grayscale thumbnails of two frames, from 0 to 1, above which the frames
+     * are in different scenes and the edge tangent flow of the second one is calculated from the start.
+     */
+    public static double SCENE_CUT_THRESHOLD = 0.1;
+
+    /**
+     * Width and height of the thumbnails compared for the scene cuts.
+     */
+    public static int THUMBNAIL_SIZE = 32;
+}
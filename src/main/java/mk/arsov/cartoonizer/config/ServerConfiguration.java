@@ -0,0 +1,37 @@
+package mk.arsov.cartoonizer.config;
+
+/**
+ * Http server parameters.
+ */
+public class ServerConfiguration {
+
+    /**
+     * Port on which the server listens.
+     */
+    public static int PORT = 8080;
+
+    /**
+     * Number of images cartoonized at the same time.
+     */
+    public static int COMPUTE_THREADS = 2;
+
+    /**
+     * Number of requests waiting for a compute thread, further requests are rejected with 503.
+     */
+    public static int QUEUE_CAPACITY = 8;
+
+    /**
+     * Largest accepted image upload in bytes.
+     */
+    public static int MAX_UPLOAD_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Largest accepted number of pixels of the image, checked before the image is decoded.
+     */
+    public static long MAX_PIXELS = 16 * 1024 * 1024;
+
+    /**
+     * Seconds a request waits for it's image, then it's answered with 503.
+     */
+    public static long TIMEOUT_SECONDS = 300;
+}
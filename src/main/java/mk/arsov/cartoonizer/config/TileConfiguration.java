@@ -0,0 +1,14 @@
+package mk.arsov.cartoonizer.config;
+
+/**
+ * Tiled processing parameters.
+ */
+public class TileConfiguration {
+
+    /**
+     * Width and height of the tiles, without the halo around them. Larger tiles need more memory, smaller
+     * tiles spend more time on the halo. In pyramid mode it is rounded up to a multiple of the size of the
+     * coarsest etf pixels.
+     */
+    public static int TILE_SIZE = 1024;
+}
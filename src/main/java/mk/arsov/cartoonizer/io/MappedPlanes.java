@@ -0,0 +1,128 @@
+package mk.arsov.cartoonizer.io;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Map;
+
+import mk.arsov.cartoonizer.util.VectorField;
+
+/**
+ * Planes of a {@link PlaneFile}, mapped into memory.
+ *
+ * The buffers returned by the getters read the values straight from the mapped file. The conversions
+ * into arrays and vector fields copy the values once, in bulk.
+ */
+public class MappedPlanes {
+
+    private final PlaneFile.ElementType elementType;
+    private final int width;
+    private final int height;
+    private final Map<String, String> parameters;
+    private final ByteBuffer[] components;
+
+    MappedPlanes(final PlaneFile.ElementType elementType, final int width, final int height,
+            final Map<String, String> parameters, final ByteBuffer[] components) {
+        this.elementType = elementType;
+        this.width = width;
+        this.height = height;
+        this.parameters = parameters;
+        this.components = components;
+    }
+
+    public PlaneFile.ElementType getElementType() {
+        return elementType;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Number of planes in the file.
+     *
+     * @return the number of planes
+     */
+    public int getComponents() {
+        return components.length;
+    }
+
+    /**
+     * Parameters written with the planes.
+     *
+     * @return unmodifiable map of the parameters
+     */
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * View of a double plane, without copying.
+     *
+     * @param component index of the plane
+     * @return read only buffer with width * height values, row-major
+     */
+    public DoubleBuffer getDoubleBuffer(final int component) {
+        checkType(PlaneFile.ElementType.DOUBLE);
+        return components[component].duplicate().order(components[component].order()).asDoubleBuffer()
+            .asReadOnlyBuffer();
+    }
+
+    /**
+     * View of a float plane, without copying.
+     *
+     * @param component index of the plane
+     * @return read only buffer with width * height values, row-major
+     */
+    public FloatBuffer getFloatBuffer(final int component) {
+        checkType(PlaneFile.ElementType.FLOAT);
+        return components[component].duplicate().order(components[component].order()).asFloatBuffer()
+            .asReadOnlyBuffer();
+    }
+
+    /**
+     * Copy of a double plane.
+     *
+     * @param component index of the plane
+     * @return the values, row-major
+     */
+    public double[] toDoubleArray(final int component) {
+        final double[] values = new double[width * height];
+        getDoubleBuffer(component).get(values);
+        return values;
+    }
+
+    /**
+     * Copy of a float plane.
+     *
+     * @param component index of the plane
+     * @return the values, row-major
+     */
+    public float[] toFloatArray(final int component) {
+        final float[] values = new float[width * height];
+        getFloatBuffer(component).get(values);
+        return values;
+    }
+
+    /**
+     * Copy of the planes as a vector field, the first plane are the x components and the second the y components.
+     *
+     * @return the vector field
+     */
+    public VectorField toVectorField() {
+        if (components.length != 2) {
+            throw new IllegalStateException("Vector field needs 2 planes, the file has " + components.length);
+        }
+        return new VectorField(width, height, toDoubleArray(0), toDoubleArray(1));
+    }
+
+    private void checkType(final PlaneFile.ElementType type) {
+        if (elementType != type) {
+            throw new IllegalStateException("Planes are of type " + elementType + ", not " + type);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package mk.arsov.cartoonizer.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import mk.arsov.cartoonizer.util.VectorField;
+
+/**
+ * Binary format for vector fields and other per-pixel planes, read and written through memory mapped files.
+ *
+ * The file starts with a header, all numbers little endian:
+ * <pre>
+ *   magic         4 bytes, "CPLN"
+ *   version       int, 1
+ *   element type  int, 0 for double, 1 for float
+ *   width         int
+ *   height        int
+ *   components    int, number of planes, 2 for a vector field (x and y)
+ *   parameters    int length and utf-8 text with "key=value" lines, for example the parameters the planes were
+ *                 calculated with
+ *   padding       up to a multiple of 8 bytes
+ * </pre>
+ * followed by the components one after the other, each of them width * height elements in row-major order.
+ * When reading, each component is a view on the mapped file, so nothing is copied until the values are needed.
+ */
+public final class PlaneFile {
+
+    /** Usual extension of the plane files. */
+    public static final String SUFFIX = ".planes";
+
+    static final int MAGIC = 0x4E4C5043;
+    static final int VERSION = 1;
+
+    /** Type of the elements of the planes. */
+    public enum ElementType {
+        DOUBLE(8), FLOAT(4);
+
+        private final int size;
+
+        private ElementType(final int size) {
+            this.size = size;
+        }
+
+        public int getSize() {
+            return size;
+        }
+    }
+
+    private PlaneFile() {
+
+    }
+
+    /**
+     * Write a vector field, the x components as the first plane and the y components as the second.
+     *
+     * @param file the file
+     * @param field the vector field
+     * @param parameters parameters to keep with the field, can be empty
+     * @throws IOException if the file can't be written
+     */
+    public static void write(final File file, final VectorField field, final Map<String, ?> parameters)
+            throws IOException {
+        write(file, field.getWidth(), field.getHeight(), new double[][] {field.getXPlane(), field.getYPlane()},
+            parameters);
+    }
+
+    /**
+     * Write double planes.
+     *
+     * @param file the file
+     * @param width the width of the planes
+     * @param height the height of the planes
+     * @param components the planes, row-major, of length width * height
+     * @param parameters parameters to keep with the planes, can be empty
+     * @throws IOException if the file can't be written
+     */
+    public static void write(final File file, final int width, final int height, final double[][] components,
+            final Map<String, ?> parameters) throws IOException {
+        for (double[] component : components) {
+            checkLength(component.length, width, height);
+        }
+
+        final RandomAccessFile output = create(file, ElementType.DOUBLE, width, height, components.length, parameters);
+        try {
+            final long dataOffset = output.length();
+            final long componentSize = (long) width * height * ElementType.DOUBLE.getSize();
+            output.setLength(dataOffset + componentSize * components.length);
+            for (int c = 0; c < components.length; c++) {
+                map(output.getChannel(), FileChannel.MapMode.READ_WRITE, dataOffset + c * componentSize, componentSize)
+                    .asDoubleBuffer().put(components[c]);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Write float planes.
+     *
+     * @param file the file
+     * @param width the width of the planes
+     * @param height the height of the planes
+     * @param components the planes, row-major, of length width * height
+     * @param parameters parameters to keep with the planes, can be empty
+     * @throws IOException if the file can't be written
+     */
+    public static void write(final File file, final int width, final int height, final float[][] components,
+            final Map<String, ?> parameters) throws IOException {
+        for (float[] component : components) {
+            checkLength(component.length, width, height);
+        }
+
+        final RandomAccessFile output = create(file, ElementType.FLOAT, width, height, components.length, parameters);
+        try {
+            final long dataOffset = output.length();
+            final long componentSize = (long) width * height * ElementType.FLOAT.getSize();
+            output.setLength(dataOffset + componentSize * components.length);
+            for (int c = 0; c < components.length; c++) {
+                map(output.getChannel(), FileChannel.MapMode.READ_WRITE, dataOffset + c * componentSize, componentSize)
+                    .asFloatBuffer().put(components[c]);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Map the planes in the file.
+     *
+     * @param file the file
+     * @return the mapped planes
+     * @throws IOException if the file can't be read or is not a plane file
+     */
+    public static MappedPlanes read(final File file) throws IOException {
+        final RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = input.getChannel();
+            final ByteBuffer header = ByteBuffer.allocate(28).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0, file);
+            header.flip();
+
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a plane file");
+            }
+            final int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of plane file " + file);
+            }
+            final int elementType = header.getInt();
+            if ((elementType < 0) || (elementType >= ElementType.values().length)) {
+                throw new IOException("Unknown element type " + elementType + " in plane file " + file);
+            }
+            final ElementType type = ElementType.values()[elementType];
+            final int width = header.getInt();
+            final int height = header.getInt();
+            final int components = header.getInt();
+            final int parametersLength = header.getInt();
+            if ((width < 0) || (height < 0) || (components < 0) || (parametersLength < 0)) {
+                throw new IOException("Invalid header of plane file " + file);
+            }
+
+            final ByteBuffer parametersText = ByteBuffer.allocate(parametersLength);
+            readFully(channel, parametersText, 28, file);
+            final Map<String, String> parameters =
+                parseParameters(new String(parametersText.array(), StandardCharsets.UTF_8));
+
+            final long dataOffset = align(28L + parametersLength);
+            final long componentSize = (long) width * height * type.getSize();
+            if (channel.size() < dataOffset + componentSize * components) {
+                throw new IOException("Plane file " + file + " is truncated");
+            }
+
+            final ByteBuffer[] data = new ByteBuffer[components];
+            for (int c = 0; c < components; c++) {
+                data[c] = map(channel, FileChannel.MapMode.READ_ONLY, dataOffset + c * componentSize, componentSize);
+            }
+
+            // the mappings stay valid after the file is closed
+            return new MappedPlanes(type, width, height, parameters, data);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Create the file and write the header.
+     *
+     * @return the open file, positioned after the header
+     */
+    private static RandomAccessFile create(final File file, final ElementType type, final int width, final int height,
+            final int components, final Map<String, ?> parameters) throws IOException {
+        final byte[] parametersText = formatParameters(parameters).getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer header = ByteBuffer.allocate((int) align(28L + parametersText.length))
+            .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(type.ordinal()).putInt(width).putInt(height).putInt(components)
+            .putInt(parametersText.length).put(parametersText);
+        header.clear();
+
+        final RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.setLength(0);
+            output.getChannel().write(header, 0);
+            output.setLength(header.capacity());
+        } catch (IOException e) {
+            output.close();
+            throw e;
+        }
+        return output;
+    }
+
+    private static ByteBuffer map(final FileChannel channel, final FileChannel.MapMode mode, final long offset,
+            final long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Plane of " + size + " bytes is too large to be mapped");
+        }
+        final MappedByteBuffer buffer = channel.map(mode, offset, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position,
+            final File file) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Plane file " + file + " is truncated");
+            }
+        }
+    }
+
+    private static void checkLength(final int length, final int width, final int height) {
+        if (length != width * height) {
+            throw new IllegalArgumentException("Plane does not match size " + width + "x" + height);
+        }
+    }
+
+    private static long align(final long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    static String formatParameters(final Map<String, ?> parameters) {
+        final StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, ?> parameter : parameters.entrySet()) {
+            final String key = parameter.getKey();
+            final String value = String.valueOf(parameter.getValue());
+            if ((key.indexOf('=') >= 0) || (key.indexOf('\n') >= 0) || (value.indexOf('\n') >= 0)) {
+                throw new IllegalArgumentException("Invalid parameter " + key + "=" + value);
+            }
+            text.append(key).append('=').append(value).append('\n');
+        }
+
+        return text.toString();
+    }
+
+    static Map<String, String> parseParameters(final String text) {
+        final Map<String, String> parameters = new LinkedHashMap<String, String>();
+        for (String line : text.split("\n")) {
+            final int equals = line.indexOf('=');
+            if (equals > 0) {
+                parameters.put(line.substring(0, equals), line.substring(equals + 1));
+            }
+        }
+
+        return Collections.unmodifiableMap(parameters);
+    }
+}
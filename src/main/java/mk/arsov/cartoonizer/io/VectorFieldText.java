@@ -0,0 +1,121 @@
+package mk.arsov.cartoonizer.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import mk.arsov.cartoonizer.util.VectorField;
+
+/**
+ * Text format of vector fields, one line for each row of the field with "x y" pairs separated by ";",
+ * for example "-35.0 -45.0;-57.0 -19.0;-69.0 -17.0". Kept for the existing files, the {@link PlaneFile}
+ * format is smaller and faster to load.
+ */
+public final class VectorFieldText {
+
+    private VectorFieldText() {
+
+    }
+
+    /**
+     * Read a vector field from a text file.
+     *
+     * @param file the file
+     * @return the vector field
+     * @throws IOException if the file can't be read or the format is wrong
+     */
+    public static VectorField read(final File file) throws IOException {
+        final Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+        try {
+            return read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Read a vector field in the text format.
+     *
+     * @param reader the text
+     * @return the vector field
+     * @throws IOException if the text can't be read or the format is wrong
+     */
+    public static VectorField read(final Reader reader) throws IOException {
+        final BufferedReader lines = new BufferedReader(reader);
+        final List<double[]> rows = new ArrayList<double[]>();
+        int width = -1;
+
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            final String[] vectors = line.split(";");
+            if ((width >= 0) && (vectors.length != width)) {
+                throw new IOException("Row " + rows.size() + " has " + vectors.length + " vectors instead of " + width);
+            }
+            width = vectors.length;
+
+            final double[] row = new double[width * 2];
+            for (int j = 0; j < width; j++) {
+                final String[] components = vectors[j].trim().split("\\s+");
+                if (components.length != 2) {
+                    throw new IOException("Invalid vector \"" + vectors[j] + "\" in row " + rows.size());
+                }
+                try {
+                    row[j * 2] = Double.parseDouble(components[0]);
+                    row[j * 2 + 1] = Double.parseDouble(components[1]);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid vector \"" + vectors[j] + "\" in row " + rows.size());
+                }
+            }
+            rows.add(row);
+        }
+
+        final VectorField field = new VectorField(Math.max(width, 0), rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            for (int j = 0; j < width; j++) {
+                field.set(i, j, rows.get(i)[j * 2], rows.get(i)[j * 2 + 1]);
+            }
+        }
+
+        return field;
+    }
+
+    /**
+     * Write a vector field in the text format.
+     *
+     * @param file the file
+     * @param field the vector field
+     * @throws IOException if the file can't be written
+     */
+    public static void write(final File file, final VectorField field) throws IOException {
+        final PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        try {
+            for (int i = 0; i < field.getHeight(); i++) {
+                for (int j = 0; j < field.getWidth(); j++) {
+                    if (j > 0) {
+                        out.print(';');
+                    }
+                    out.print(field.getX(i, j) + " " + field.getY(i, j));
+                }
+                out.println();
+            }
+            if (out.checkError()) {
+                throw new IOException("Cannot write vector field to " + file);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
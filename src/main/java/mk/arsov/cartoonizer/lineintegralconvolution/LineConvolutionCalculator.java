@@ -2,9 +2,12 @@ package mk.arsov.cartoonizer.lineintegralconvolution;
 
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
 import java.util.ArrayList;
 
+import mk.arsov.cartoonizer.util.ImagePlane;
+import mk.arsov.cartoonizer.util.ParallelExecutor;
+import mk.arsov.cartoonizer.util.VectorField;
+
 /**
  * Creates line integral convolution representation, based on an image and a vector field.
  */
@@ -19,50 +22,22 @@ public class LineConvolutionCalculator {
      * @param roundoff parameter used in the LIC calculation
      * @return image with calculated line integral convolution according to the tangent vectors at each point
      */
-    public BufferedImage calculate(final Point2D.Double[][] tangentVectors, final BufferedImage image,
+    public BufferedImage calculate(final VectorField tangentVectors, final BufferedImage image,
             final int kernelLength, final double roundoff) {
-        // resultant image
-        BufferedImage targetImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-        Raster raster = image.getData();
-
-        for (int i = 0; i < image.getHeight(); i++) {
-            for (int j = 0; j < image.getWidth(); j++) {
-                int sum = 0;
-
-                // get line segment at point (x, y) = (j, i)
-                ArrayList<Point2D.Double> lineSegmentPoints = getLineSegmentPoints(
-                        tangentVectors, new Point2D.Double(j, i), kernelLength, roundoff);
-
-                // calculate convolution along the line segment
-                if ((Math.abs(tangentVectors[i][j].getX()) == 0) && (Math.abs(tangentVectors[i][j].getY()) == 0)) {
-                    // if the LIC in this point is singularity, the output value is a mean value of the surrounding pixels.
-                    int summedPixels = 0;
-                    for (int i1 = 0; i1 < 3; i1++) {
-                        for (int j1 = 0; j1 < 3; j1++) {
-                            int col = j - 1 + j1;
-                            int row = i - 1 + i1;
-                            if ((col >= 0) && (row >= 0) && (col < image.getWidth()) && (row < image.getHeight())) {
-                                sum += raster.getSample(col, row, 0);
-                                summedPixels++;
-                            }
-                        }
-                    }
-
-                    sum = (int) Math.round(sum / summedPixels);
-                } else {
-                    // else calculate convolution along the line segment
-                    for (int k = 0; k < lineSegmentPoints.size(); k++) {
-                        sum += raster.getSample((int) lineSegmentPoints.get(k).getX(), (int) lineSegmentPoints.get(k).getY(), 0);
-                    }
-                    sum /= (int) Math.round(lineSegmentPoints.size());
-                }
-
-                // resulting grayscale pixel value
-                targetImage.setRGB(j, i, sum * 256 * 256 + sum * 256 + sum);
-            }
-        }
+        return calculate(createStreamlineTable(tangentVectors, kernelLength, roundoff), image);
+    }
 
-        return targetImage;
+    /**
+     * Calculate the line integral convolution for the given image, along precomputed streamlines.
+     *
+     * @param streamlines the streamlines of the vector field for the line integral convolution
+     * @param image the source image used for displaying purpose
+     * @return image with calculated line integral convolution according to the tangent vectors at each point
+     */
+    public BufferedImage calculate(final StreamlineTable streamlines, final BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        return convolve(streamlines, ImagePlane.band(image, 0), width, height);
     }
 
     /**
@@ -73,61 +48,109 @@ public class LineConvolutionCalculator {
      * @param roundoff parameter used in the LIC calculation
      * @return image with calculated line integral convolution according to the tangent vectors at each point
      */
-    public BufferedImage calculateOnWhiteNoise(final Point2D.Double[][] tangentVectors, final int kernelLength, final double roundoff) {
-        int imageHeight = tangentVectors.length;
-        int imageWidth = tangentVectors[0].length;
+    public BufferedImage calculateOnWhiteNoise(final VectorField tangentVectors, final int kernelLength, final double roundoff) {
+        int imageHeight = tangentVectors.getHeight();
+        int imageWidth = tangentVectors.getWidth();
 
         // white noise field
-        int[][] whiteNoise = new int[imageHeight][imageWidth];
-        for (int i = 0; i < imageHeight; i++) {
-            for (int j = 0; j < imageWidth; j++) {
-                whiteNoise[i][j] = (int)(Math.random() * 256.0);
-            }
+        byte[] whiteNoise = new byte[imageHeight * imageWidth];
+        for (int i = 0; i < whiteNoise.length; i++) {
+            whiteNoise[i] = (byte)(Math.random() * 256.0);
         }
 
+        return convolve(createStreamlineTable(tangentVectors, kernelLength, roundoff), whiteNoise, imageWidth, imageHeight);
+    }
+
+    /**
+     * Calculate the line integral convolution of the given values along the streamlines.
+     *
+     * @param streamlines the precomputed streamlines
+     * @param values the convolved values for each pixel, row-major, read as unsigned bytes
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return grayscale image with calculated line integral convolution
+     */
+    private BufferedImage convolve(final StreamlineTable streamlines, final byte[] values, final int width, final int height) {
         // resultant image
-        BufferedImage targetImage = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_3BYTE_BGR);
-
-        for (int i = 0; i < imageHeight; i++) {
-            for (int j = 0; j < imageWidth; j++) {
-                int sum = 0;
-
-                // get line segment at point (x, y) = (j, i)
-                ArrayList<Point2D.Double> lineSegmentPoints = getLineSegmentPoints(
-                        tangentVectors, new Point2D.Double(j, i), kernelLength, roundoff);
-
-                // calculate convolution along the line segment
-                if ((Math.abs(tangentVectors[i][j].getX()) == 0) && (Math.abs(tangentVectors[i][j].getY()) == 0)) {
-                    // if the LIC in this point is singularity, the output value is a mean value of the surrounding pixels.
-                    int summedPixels = 0;
-                    for (int i1 = 0; i1 < 3; i1++) {
-                        for (int j1 = 0; j1 < 3; j1++) {
-                            int col = j - 1 + j1;
-                            int row = i - 1 + i1;
-                            if ((col >= 0) && (row >= 0) && (col < imageWidth) && (row < imageHeight)) {
-                                sum += whiteNoise[row][col];
-                                summedPixels++;
+        final BufferedImage targetImage = ImagePlane.createGray(width, height);
+        final byte[] target = ImagePlane.grayData(targetImage);
+        final VectorField tangentVectors = streamlines.getVectorField();
+
+        ParallelExecutor.getDefault().forEachRow(height, (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                for (int j = 0; j < width; j++) {
+                    final int pixelIndex = i * width + j;
+                    int sum = 0;
+
+                    // calculate convolution along the line segment
+                    if (tangentVectors.isZero(i, j)) {
+                        // if the LIC in this point is singularity, the output value is a mean value of the surrounding pixels.
+                        int summedPixels = 0;
+                        for (int i1 = 0; i1 < 3; i1++) {
+                            for (int j1 = 0; j1 < 3; j1++) {
+                                int col = j - 1 + j1;
+                                int row = i - 1 + i1;
+                                if ((col >= 0) && (row >= 0) && (col < width) && (row < height)) {
+                                    sum += values[row * width + col] & 0xff;
+                                    summedPixels++;
+                                }
                             }
                         }
-                    }
 
-                    sum = (int) Math.round(sum / summedPixels);
-                } else {
-                    // else calculate convolution along the line segment
-                    for (int k = 0; k < lineSegmentPoints.size(); k++) {
-                        sum += whiteNoise[(int) lineSegmentPoints.get(k).getX()][(int) lineSegmentPoints.get(k).getY()];
+                        sum = (int) Math.round(sum / summedPixels);
+                    } else {
+                        // else calculate convolution along the line segment at point (x, y) = (j, i)
+                        final int length = streamlines.getLength(pixelIndex);
+                        for (int k = 0; k < length; k++) {
+                            sum += values[streamlines.getPointIndex(pixelIndex, k)] & 0xff;
+                        }
+                        sum /= length;
                     }
-                    sum /= (int) Math.round(lineSegmentPoints.size());
-                }
 
-                // resulting grayscale pixel value
-                targetImage.setRGB(j, i, sum * 256 * 256 + sum * 256 + sum);
+                    // resulting grayscale pixel value
+                    target[pixelIndex] = (byte) sum;
+                }
             }
-        }
+        });
 
         return targetImage;
     }
 
+    /**
+     * Trace the streamlines of all pixels in the vector field once, so they can be reused
+     * by all calculations that integrate along the flow.
+     *
+     * @param tangentVectorsField array with tangent vector for each point
+     * @param kernelLength the lent of the line segments
+     * @param roundoff parameter used in the LIC calculation
+     * @return table with the line segment points for each pixel
+     */
+    public StreamlineTable createStreamlineTable(final VectorField tangentVectorsField, final int kernelLength,
+            final double roundoff) {
+        // each step moves at most a cell diagonal (times the roundoff) away
+        if (Math.ceil(kernelLength * Math.sqrt(2) * Math.max(roundoff, 1)) > StreamlineTable.MAX_OFFSET) {
+            throw new IllegalArgumentException("Kernel length " + kernelLength + " is too large for a streamline table");
+        }
+
+        final StreamlineTable table = new StreamlineTable(tangentVectorsField, kernelLength, roundoff);
+
+        ParallelExecutor.getDefault().forEachRow(tangentVectorsField.getHeight(), (fromRow, toRow) -> {
+            // the temporary storage is per band of rows, so the bands can be traced concurrently
+            final int[] columns = new int[table.getStride()];
+            final int[] rows = new int[table.getStride()];
+            final double[] scratch = new double[4 * kernelLength];
+
+            for (int i = fromRow; i < toRow; i++) {
+                for (int j = 0; j < tangentVectorsField.getWidth(); j++) {
+                    final int length = traceLineSegment(tangentVectorsField, j, i, kernelLength, roundoff, columns, rows, scratch);
+                    table.setLineSegment(tangentVectorsField.index(i, j), columns, rows, length);
+                }
+            }
+        });
+
+        return table;
+    }
+
     /**
      * Calculate points in line segment with center in point x, and length 2*kernelLength.
      *
@@ -137,90 +160,112 @@ public class LineConvolutionCalculator {
      * @param roundoff parameter used in the LIC calculation
      * @return list with points in the line segment
      */
-    public ArrayList<Point2D.Double> getLineSegmentPoints(final Point2D.Double[][] tangentVectorsField, final Point2D.Double x,
+    public ArrayList<Point2D.Double> getLineSegmentPoints(final VectorField tangentVectorsField, final Point2D.Double x,
             final int kernelLength, final double roundoff) {
 
-        ArrayList<Point2D.Double> pointsInLine = new ArrayList<Point2D.Double>();
-        ArrayList<Point2D.Double> rightPoints = new ArrayList<Point2D.Double>();
-        ArrayList<Point2D.Double> leftPoints = new ArrayList<Point2D.Double>();
-        pointsInLine.add(new Point2D.Double(x.getX() + 0.5, x.getY() + 0.5));
+        final int[] columns = new int[2 * kernelLength + 1];
+        final int[] rows = new int[2 * kernelLength + 1];
+        final int length = traceLineSegment(tangentVectorsField, x.getX(), x.getY(), kernelLength, roundoff,
+            columns, rows, new double[4 * kernelLength]);
 
-        Point2D.Double currentPoint = new Point2D.Double(x.getX() + 0.5, x.getY() + 0.5);
-        Point2D.Double currentVector = new Point2D.Double();
-        // find points in negative direction
-        for (int k = 0; k < kernelLength; k++) {
-            // index of current point
-            final double px = currentPoint.getX();
-            final double py = currentPoint.getY();
+        ArrayList<Point2D.Double> pointsInLine = new ArrayList<Point2D.Double>(length);
+        for (int k = 0; k < length; k++) {
+            pointsInLine.add(new Point2D.Double(columns[k], rows[k]));
+        }
 
-            // get vector on current location
-            currentVector.setLocation(tangentVectorsField[(int) Math.floor(py)][(int) Math.floor(px)]);
-            currentVector.setLocation(-currentVector.getX(), -currentVector.getY());
+        return pointsInLine;
+    }
 
-            // normalize tangent vector
-            final double vectorMagnitude =
-                Math.sqrt(currentVector.getX() * currentVector.getX() + currentVector.getY() * currentVector.getY());
-            Point2D.Double unitVector;
-            if (vectorMagnitude != 0) {
-                unitVector = new Point2D.Double(currentVector.getX() / vectorMagnitude, currentVector.getY() / vectorMagnitude);
-            } else {
-                unitVector = new Point2D.Double(currentVector.getX(), currentVector.getY());
-            }
+    /**
+     * Trace the line segment with center in point (x, y) along the vector field, in both directions.
+     * The center point is stored first, followed by the points from the negative and the positive direction
+     * in alternating order. Both directions are truncated to the same number of points.
+     *
+     * @param tangentVectorsField array with tangent vector for each point
+     * @param x x coordinate of the center point
+     * @param y y coordinate of the center point
+     * @param kernelLength the lent of the line segments
+     * @param roundoff parameter used in the LIC calculation
+     * @param columns output, the columns of the points in the line segment
+     * @param rows output, the rows of the points in the line segment
+     * @param scratch temporary storage of size 4 * kernelLength
+     * @return number of points in the line segment
+     */
+    protected int traceLineSegment(final VectorField tangentVectorsField, final double x, final double y,
+            final int kernelLength, final double roundoff, final int[] columns, final int[] rows, final double[] scratch) {
 
-            double deltaS = shortestDistanceToCellEdge(currentVector, px, py);
-            deltaS *= roundoff;
+        // scratch holds the points in negative direction at [0, 2L) and in positive direction at [2L, 4L)
+        final int rightPoints = traceDirection(tangentVectorsField, x, y, -1, kernelLength, roundoff, scratch, 0);
+        final int leftPoints = traceDirection(tangentVectorsField, x, y, 1, kernelLength, roundoff, scratch, 2 * kernelLength);
 
-            double newX = px + unitVector.getX() * deltaS;
-            double newY = py + unitVector.getY() * deltaS;
-            if ((newX >= 0) && (newX < tangentVectorsField[0].length) && (newY >= 0) && (newY < tangentVectorsField.length)) {
-                rightPoints.add(new Point2D.Double(newX, newY));
-                currentPoint.setLocation(newX, newY);
-            }
+        columns[0] = (int) (x + 0.5);
+        rows[0] = (int) (y + 0.5);
+
+        // add the right and left points to the points list in parallel, truncate to the smaller set
+        final int pointsInSegment = Math.min(rightPoints, leftPoints);
+        for (int i = 0; i < pointsInSegment; i++) {
+            columns[2 * i + 1] = (int) scratch[2 * i];
+            rows[2 * i + 1] = (int) scratch[2 * i + 1];
+            columns[2 * i + 2] = (int) scratch[2 * kernelLength + 2 * i];
+            rows[2 * i + 2] = (int) scratch[2 * kernelLength + 2 * i + 1];
         }
 
-        currentPoint = new Point2D.Double(x.getX() + 0.5, x.getY() + 0.5);
-        // find points in positive direction
-        for (int k = 0; k < kernelLength; k++) {
-            // index of current point
-            final double px = currentPoint.getX();
-            final double py = currentPoint.getY();
+        return 2 * pointsInSegment + 1;
+    }
 
+    /**
+     * Follow the vector field from the center of pixel (x, y) in one direction.
+     *
+     * @param tangentVectorsField array with tangent vector for each point
+     * @param x x coordinate of the starting pixel
+     * @param y y coordinate of the starting pixel
+     * @param direction 1 to follow the vectors, -1 to follow the inverted vectors
+     * @param kernelLength maximum number of points
+     * @param roundoff parameter used in the LIC calculation
+     * @param points output, (x, y) pairs of the points found
+     * @param offset position in the output array of the first point
+     * @return number of points found
+     */
+    private int traceDirection(final VectorField tangentVectorsField, final double x, final double y, final int direction,
+            final int kernelLength, final double roundoff, final double[] points, final int offset) {
+
+        final int fieldWidth = tangentVectorsField.getWidth();
+        final int fieldHeight = tangentVectorsField.getHeight();
+        int found = 0;
+
+        double px = x + 0.5;
+        double py = y + 0.5;
+        for (int k = 0; k < kernelLength; k++) {
             // get vector on current location
-            currentVector = tangentVectorsField[(int) Math.floor(py)][(int) Math.floor(px)];
+            final int row = (int) Math.floor(py);
+            final int column = (int) Math.floor(px);
+            final double vectorX = direction * tangentVectorsField.getX(row, column);
+            final double vectorY = direction * tangentVectorsField.getY(row, column);
 
             // normalize tangent vector
-            final double vectorMagnitude = Math.sqrt(currentVector.getX() * currentVector.getX() + currentVector.getY() * currentVector.getY());
-            Point2D.Double unitVector;
+            final double vectorMagnitude = Math.sqrt(vectorX * vectorX + vectorY * vectorY);
+            double unitX = vectorX;
+            double unitY = vectorY;
             if (vectorMagnitude != 0) {
-                unitVector = new Point2D.Double(currentVector.getX() / vectorMagnitude, currentVector.getY() / vectorMagnitude);
-            } else {
-                unitVector = new Point2D.Double(currentVector.getX(), currentVector.getY());
+                unitX = vectorX / vectorMagnitude;
+                unitY = vectorY / vectorMagnitude;
             }
 
-            double deltaS = shortestDistanceToCellEdge(currentVector, px, py);
+            double deltaS = shortestDistanceToCellEdge(vectorX, vectorY, px, py);
             deltaS *= roundoff;
 
-            double newX = px + unitVector.getX() * deltaS;
-            double newY = py + unitVector.getY() * deltaS;
-            if ((newX >= 0) && (newX < tangentVectorsField[0].length) && (newY >= 0) && (newY < tangentVectorsField.length)) {
-                leftPoints.add(new Point2D.Double(newX, newY));
-                currentPoint.setLocation(newX, newY);
+            double newX = px + unitX * deltaS;
+            double newY = py + unitY * deltaS;
+            if ((newX >= 0) && (newX < fieldWidth) && (newY >= 0) && (newY < fieldHeight)) {
+                points[offset + 2 * found] = newX;
+                points[offset + 2 * found + 1] = newY;
+                found++;
+                px = newX;
+                py = newY;
             }
         }
 
-        // add the right and left points to the points list in parallel, truncate to the smaller set
-        final int pointsInSegment = Math.min(rightPoints.size(), leftPoints.size());
-        for (int i = 0; i < pointsInSegment; i++) {
-            pointsInLine.add(rightPoints.get(i));
-            pointsInLine.add(leftPoints.get(i));
-        }
-
-        // turn to integer points
-        for (Point2D.Double point : pointsInLine) {
-            point.setLocation((int) point.getX(), (int) point.getY());
-        }
-
-        return pointsInLine;
+        return found;
     }
 
     /**
@@ -233,20 +278,33 @@ public class LineConvolutionCalculator {
      * @return the distance to the closest edge from point (x, y)
      */
     protected double shortestDistanceToCellEdge(final Point2D.Double vector, final double x, final double y) {
+        return shortestDistanceToCellEdge(vector.getX(), vector.getY(), x, y);
+    }
+
+    /**
+     * Calculate the shortest distance from point (x, y) to one of the four surrounding edges of the cell, along the vector direction.
+     *
+     * @param vectorX x component of the vector at location (x, y).
+     * @param vectorY y component of the vector at location (x, y).
+     * @param x x coordinate of the point.
+     * @param y y coordinate of the point.
+     * @return the distance to the closest edge from point (x, y)
+     */
+    protected double shortestDistanceToCellEdge(final double vectorX, final double vectorY, final double x, final double y) {
 
         double minValue = Double.MAX_VALUE;
         double distance = 0;
 
         // distance to top edge
-        if (vector.getY() > 0) {
+        if (vectorY > 0) {
             double edgeValue = Math.ceil(y);
 
             // angle from horizontal line
             double angle;
-            if (vector.getX() == 0) {
+            if (vectorX == 0) {
                 angle = Math.PI / 2.0D;
             } else {
-                angle = Math.atan(vector.getY() / vector.getX());
+                angle = Math.atan(vectorY / vectorX);
             }
 
             distance = Math.abs((edgeValue - y) / Math.sin(angle));
@@ -256,14 +314,14 @@ public class LineConvolutionCalculator {
         }
 
         // distance to bottom edge
-        if (vector.getY() < 0) {
+        if (vectorY < 0) {
             double edgeValue = Math.floor(y);
 
             double angle;
-            if (vector.getX() == 0) {
+            if (vectorX == 0) {
                 angle = -Math.PI / 2.0D;
             } else {
-                angle = Math.atan(vector.getY() / vector.getX());
+                angle = Math.atan(vectorY / vectorX);
             }
 
             distance = Math.abs((edgeValue - y) / Math.sin(angle));
@@ -273,14 +331,14 @@ public class LineConvolutionCalculator {
         }
 
         // distance to left edge
-        if (vector.getX() < 0) {
+        if (vectorX < 0) {
             double edgeValue = Math.floor(x);
 
             double angle;
-            if (vector.getX() == 0) {
+            if (vectorX == 0) {
                 angle = Math.PI / 2.0D;
             } else {
-                angle = Math.atan(vector.getY() / vector.getX());
+                angle = Math.atan(vectorY / vectorX);
             }
 
             distance = Math.abs((edgeValue - x) / Math.cos(angle));
@@ -290,14 +348,14 @@ public class LineConvolutionCalculator {
         }
 
         // distance to right edge
-        if (vector.getX() > 0) {
+        if (vectorX > 0) {
             double edgeValue = Math.ceil(x);
 
             double angle;
-            if (vector.getX() == 0) {
+            if (vectorX == 0) {
                 angle = Math.PI / 2.0D;
             } else {
-                angle = Math.atan(vector.getY() / vector.getX());
+                angle = Math.atan(vectorY / vectorX);
             }
 
             distance = Math.abs((edgeValue - x) / Math.cos(angle));
@@ -0,0 +1,300 @@
+package mk.arsov.cartoonizer.lineintegralconvolution;
+
+import java.awt.image.BufferedImage;
+
+import mk.arsov.cartoonizer.util.ImagePlane;
+import mk.arsov.cartoonizer.util.ImageUtils;
+
+/**
+ * Grayscale, separable gaussian blur and Sobel gradient calculated row by row, while the rows of the source
+ * image arrive.
+ *
+ * Instead of a whole image between the stages, the stages are chained through ring buffers: the horizontal
+ * blur pass keeps the last 2 * r + 1 rows, and the Sobel operator the last 3 blurred rows. A row of gradients
+ * is given to the {@link RowConsumer} as soon as the source rows it depends on are pushed, r + 1 rows after it.
+ * The values are the same as from {@link ImageUtils#toGrayscale}, {@link ImageUtils#blur} in separable mode and
+ * {@link SobelGradient#calculatePlanes}.
+ *
+ * The rows are calculated on the calling thread, the class is not thread safe.
+ */
+public class ScanlineGradient {
+
+    /**
+     * Receives the gradients of one row.
+     */
+    public interface RowConsumer {
+
+        /**
+         * One row of gradients. The arrays are reused for the next row, they should be copied if needed later.
+         *
+         * @param row the row of the image
+         * @param gradientX sobel gradient in x direction
+         * @param gradientY sobel gradient in y direction
+         * @param magnitude the gradient magnitude
+         */
+        void accept(int row, double[] gradientX, double[] gradientY, double[] magnitude);
+    }
+
+    private final int width;
+    private final int height;
+    private final int blurKernelRadius;
+    private final double[] kernel;
+    private final RowConsumer consumer;
+
+    /** Horizontally blurred rows, row y is at y % (2 * r + 1). */
+    private final double[][] horizontal;
+
+    /** Blurred rows, row y is at y % 3. */
+    private final int[][] blurred;
+
+    private final double[] line;
+    private final double[] vertical;
+    private final double[] gradientX;
+    private final double[] gradientY;
+    private final double[] magnitude;
+
+    /** Number of source rows pushed so far. */
+    private int sourceRows;
+
+    /** Next row of the blurred image. */
+    private int blurredRow;
+
+    /** Next row of the gradients. */
+    private int gradientRow;
+
+    /**
+     * Create scanline gradient calculation.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param blurKernelRadius radius for the blur operation
+     * @param blurSigma
+     * @param consumer receives the rows of gradients, in order
+     */
+    public ScanlineGradient(final int width, final int height, final int blurKernelRadius, final double blurSigma,
+            final RowConsumer consumer) {
+        if ((width < 1) || (height < 1) || (blurKernelRadius < 0)) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height
+                + " or kernel radius " + blurKernelRadius);
+        }
+        this.width = width;
+        this.height = height;
+        this.blurKernelRadius = blurKernelRadius;
+        this.kernel = ImageUtils.gaussianKernel(blurKernelRadius, blurSigma);
+        this.consumer = consumer;
+
+        this.horizontal = new double[Math.min(kernel.length, height)][width];
+        this.blurred = new int[Math.min(3, height)][width];
+        this.line = new double[width];
+        this.vertical = new double[width];
+        this.gradientX = new double[width];
+        this.gradientY = new double[width];
+        this.magnitude = new double[width];
+    }
+
+    /**
+     * Calculate the gradients of the whole image at once, row by row.
+     *
+     * @param sourceImage the color or grayscale source image
+     * @param blurKernelRadius radius for the blur operation
+     * @param blurSigma
+     * @return the gradient and magnitude planes
+     */
+    public static SobelPlanes calculatePlanes(final BufferedImage sourceImage, final int blurKernelRadius,
+            final double blurSigma) {
+        final int width = sourceImage.getWidth();
+        final double[] gradientXPlane = new double[width * sourceImage.getHeight()];
+        final double[] gradientYPlane = new double[width * sourceImage.getHeight()];
+        final double[] magnitudePlane = new double[width * sourceImage.getHeight()];
+
+        final ScanlineGradient scanlineGradient = new ScanlineGradient(width, sourceImage.getHeight(),
+            blurKernelRadius, blurSigma, (row, gradientX, gradientY, magnitude) -> {
+                System.arraycopy(gradientX, 0, gradientXPlane, row * width, width);
+                System.arraycopy(gradientY, 0, gradientYPlane, row * width, width);
+                System.arraycopy(magnitude, 0, magnitudePlane, row * width, width);
+            });
+        scanlineGradient.push(sourceImage);
+
+        return new SobelPlanes(width, sourceImage.getHeight(), gradientXPlane, gradientYPlane, magnitudePlane);
+    }
+
+    /**
+     * Push the next rows of the source image, all rows of the strip are taken, from top to bottom.
+     * The gradient rows which can be calculated from the rows pushed so far are given to the consumer
+     * before this method returns.
+     *
+     * @param strip the next rows of the color or grayscale source image, with the width of the image
+     */
+    public void push(final BufferedImage strip) {
+        if (strip.getWidth() != width) {
+            throw new IllegalArgumentException("Strip width " + strip.getWidth() + " should be " + width);
+        }
+        if (sourceRows + strip.getHeight() > height) {
+            throw new IllegalStateException("More than " + height + " rows pushed");
+        }
+
+        // the bands as the whole frame stages read them, samples which don't have 8 bits are scaled
+        final boolean color = strip.getColorModel().getNumComponents() >= 3;
+        final byte[] red = ImagePlane.band(strip, 0);
+        final byte[] green = color ? ImagePlane.band(strip, 1) : null;
+        final byte[] blue = color ? ImagePlane.band(strip, 2) : null;
+        for (int i = 0; i < strip.getHeight(); i++) {
+            final int rowOffset = i * width;
+            if (color) {
+                for (int j = 0; j < width; j++) {
+                    line[j] = grayscale(red[rowOffset + j] & 0xff, green[rowOffset + j] & 0xff,
+                        blue[rowOffset + j] & 0xff);
+                }
+            } else {
+                // grayscale images are blurred as they are
+                for (int j = 0; j < width; j++) {
+                    line[j] = red[rowOffset + j] & 0xff;
+                }
+            }
+
+            pushGrayscaleRow();
+        }
+    }
+
+    /**
+     * Whether all the rows of the image were pushed and all the gradient rows were given to the consumer.
+     *
+     * @return true if the image is complete
+     */
+    public boolean isComplete() {
+        return gradientRow == height;
+    }
+
+    /**
+     * The value of the pixel in the one byte grayscale image from {@link ImageUtils#toGrayscale}.
+     */
+    private static int grayscale(final int red, final int green, final int blue) {
+        return (int) Math.round(red * 0.3 + green * 0.59 + blue * 0.11);
+    }
+
+    /**
+     * Horizontal blur pass of the grayscale row in {@link #line}, and the blurred rows which can be completed
+     * with it.
+     */
+    private void pushGrayscaleRow() {
+        final double[] row = horizontal[sourceRows % horizontal.length];
+        for (int j = 0; j < width; j++) {
+            final int from = Math.max(0, j - blurKernelRadius);
+            final int to = Math.min(width - 1, j + blurKernelRadius);
+            double sum = 0;
+            for (int x = from; x <= to; x++) {
+                sum += line[x] * kernel[x - j + blurKernelRadius];
+            }
+            row[j] = sum;
+        }
+        sourceRows++;
+
+        while ((blurredRow < height) && (Math.min(height - 1, blurredRow + blurKernelRadius) < sourceRows)) {
+            blurRow(blurredRow);
+            blurredRow++;
+        }
+    }
+
+    /**
+     * Vertical blur pass of one row, the rows it needs are in the ring buffer.
+     * The rows are added from top to bottom, in the same order as in the separable blur.
+     */
+    private void blurRow(final int i) {
+        final int from = Math.max(0, i - blurKernelRadius);
+        final int to = Math.min(height - 1, i + blurKernelRadius);
+        for (int j = 0; j < width; j++) {
+            vertical[j] = 0;
+        }
+        for (int y = from; y <= to; y++) {
+            final double[] row = horizontal[y % horizontal.length];
+            final double weight = kernel[y - i + blurKernelRadius];
+            for (int j = 0; j < width; j++) {
+                vertical[j] += row[j] * weight;
+            }
+        }
+
+        final int[] result = blurred[i % blurred.length];
+        for (int j = 0; j < width; j++) {
+            result[j] = Math.min(255, Math.max(0, (int) vertical[j]));
+        }
+
+        while ((gradientRow < height) && (Math.min(height - 1, gradientRow + 1) <= i)) {
+            gradientRow(gradientRow);
+            gradientRow++;
+        }
+    }
+
+    /**
+     * Sobel gradients of one row, the blurred rows around it are in the ring buffer.
+     */
+    private void gradientRow(final int i) {
+        final int[] above = (i > 0) ? blurred[(i - 1) % blurred.length] : null;
+        final int[] center = blurred[i % blurred.length];
+        final int[] below = (i < height - 1) ? blurred[(i + 1) % blurred.length] : null;
+
+        if ((above == null) || (below == null)) {
+            for (int j = 0; j < width; j++) {
+                borderPixel(above, center, below, j);
+            }
+            consumer.accept(i, gradientX, gradientY, magnitude);
+            return;
+        }
+
+        borderPixel(above, center, below, 0);
+
+        // interior, the same as in SobelGradient#calculatePlanes
+        for (int j = 1; j < width - 1; j++) {
+            final int topLeft = above[j - 1];
+            final int top = above[j];
+            final int topRight = above[j + 1];
+            final int left = center[j - 1];
+            final int right = center[j + 1];
+            final int bottomLeft = below[j - 1];
+            final int bottom = below[j];
+            final int bottomRight = below[j + 1];
+
+            final int sumX = topLeft + 2 * left + bottomLeft - topRight - 2 * right - bottomRight;
+            final int sumY = bottomLeft + 2 * bottom + bottomRight - topLeft - 2 * top - topRight;
+
+            final double gx = SobelGradient.roundedNinth(sumX);
+            final double gy = SobelGradient.roundedNinth(sumY);
+            gradientX[j] = gx;
+            gradientY[j] = gy;
+            magnitude[j] = Math.sqrt(gy * gy + gx * gx);
+        }
+
+        if (width > 1) {
+            borderPixel(above, center, below, width - 1);
+        }
+        consumer.accept(i, gradientX, gradientY, magnitude);
+    }
+
+    /**
+     * Sobel gradients of one pixel, leaving out the neighbours outside of the image.
+     *
+     * @param above the row above, null for the first row
+     * @param center the row of the pixel
+     * @param below the row below, null for the last row
+     * @param j the column of the pixel
+     */
+    private void borderPixel(final int[] above, final int[] center, final int[] below, final int j) {
+        final int[][] rows = {above, center, below};
+        int sumX = 0;
+        int sumY = 0;
+        for (int i1 = 0; i1 < 3; i1++) {
+            for (int j1 = 0; j1 < 3; j1++) {
+                final int x = j - (3 / 2) + j1;
+                if ((rows[i1] != null) && (x >= 0) && (x < width)) {
+                    sumX += rows[i1][x] * SobelGradient.GX_INTEGER[i1][j1];
+                    sumY += rows[i1][x] * SobelGradient.GY_INTEGER[i1][j1];
+                }
+            }
+        }
+
+        final double gx = SobelGradient.roundedNinth(sumX);
+        final double gy = SobelGradient.roundedNinth(sumY);
+        gradientX[j] = gx;
+        gradientY[j] = gy;
+        magnitude[j] = Math.sqrt(gy * gy + gx * gx);
+    }
+}
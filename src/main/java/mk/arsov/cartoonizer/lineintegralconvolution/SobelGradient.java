@@ -1,9 +1,12 @@
 package mk.arsov.cartoonizer.lineintegralconvolution;
 
-import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
 
+import mk.arsov.cartoonizer.util.ImagePlane;
+import mk.arsov.cartoonizer.util.ParallelExecutor;
+import mk.arsov.cartoonizer.util.VectorField;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,45 +29,153 @@ public class SobelGradient {
         {0.0F / 9.0F,  0.0F / 9.0F,  0.0F / 9.0F},
         {1.0F / 9.0F,  2.0F / 9.0F,  1.0F / 9.0F}};
 
+    /** Sobel gradient X kernel times 9, for the integer sums. */
+    static final int[][] GX_INTEGER = {
+        {1, 0, -1},
+        {2, 0, -2},
+        {1, 0, -1}};
+
+    /** Sobel gradient Y kernel times 9, for the integer sums. */
+    static final int[][] GY_INTEGER = {
+        {-1, -2, -1},
+        {0, 0, 0},
+        {1, 2, 1}};
+
     /**
      * Calculate tangent vector fields.
      * Tangent vectors are vectors normal to the gradient vectors. For each point
      * in the image, the tangent vector is a counterclockwise vector perpendicular to the
      * gradient vector at that point.
      *
+     * Vector components are calculated in right-hand coordinate system whereas image coordinates are
+     * given in left-hand coordinate system. Therefore the y coordinate from the gradient vector should
+     * be inverted so we get the gradient vector in left-hand coordinate system.
+     *
+     * Also tangent vector is normal to gradient vector, so the vector should be rotated counterclockwise.
+     * Counterclockwise normal vector to (x, y) is (-y, x), plus inversion of the y coordinate we get (y, x).
+     *
      * @param sourceImage the input image.
      * @return vector field representing the tangents of the gradient vectors in each pixel.
      */
-    public Point2D.Double[][] calculateTangentVectorField(final BufferedImage sourceImage) {
+    public VectorField calculateTangentVectorField(final BufferedImage sourceImage) {
+        return calculatePlanes(sourceImage).getTangentVectorField();
+    }
+
+    /**
+     * Calculate the x and y gradients and the gradient magnitude in a single pass over the image.
+     * The first band of the image is read only once, and the interior pixels are calculated without
+     * bounds checks. The gradients are integer sums, see {@link #roundedNinth}, and the values are the same
+     * as from {@link #calculateGradientX} and {@link #calculateGradientY}.
+     *
+     * @param grayscaleImage the input image in grayscale format
+     * @return the gradient and magnitude planes
+     */
+    public SobelPlanes calculatePlanes(final BufferedImage grayscaleImage) {
         long sobelStartTime = System.currentTimeMillis();
 
         // This gets rid of exception for not using native acceleration
         System.setProperty("com.sun.media.jai.disableMediaLib", "true");
 
-        // BufferedImage grayscaleImage = imageUtils.toGrayscale(sourceImage);
-        BufferedImage grayscaleImage = sourceImage;
-
-        // gradient x and y matrices, as defined in Sobel gradient algorithm
-        double[][] gradientX = calculateGradientX(grayscaleImage.getData());
-        double[][] gradientY = calculateGradientY(grayscaleImage.getData());
-
-        // Compose tangent vector field.
-        // Vector components are calculated in right-hand coordinate system whereas image coordinates are
-        // given in left-hand coordinate system. Therefore the y coordinate from the gradient vector should
-        // be inverted so we get the gradient vector in left-hand coordinate system.
-        //
-        // Also tangent vector is normal to gradient vector, so the vector should be rotated counterclockwise.
-        // Counterclockwise normal vector to (x, y) is (-y, x), plus inversion of the y coordinate we get (y, x).
-        Point2D.Double[][] tangentVectorField = new Point2D.Double[sourceImage.getHeight()][sourceImage.getWidth()];
-        for (int i = 0; i < sourceImage.getHeight(); i++) {
-            for (int j = 0; j < sourceImage.getWidth(); j++) {
-                final Point2D.Double tangentVector = new Point2D.Double(gradientY[i][j], gradientX[i][j]);
-                tangentVectorField[i][j] = tangentVector;
+        final int width = grayscaleImage.getWidth();
+        final int height = grayscaleImage.getHeight();
+        final byte[] samples = ImagePlane.band(grayscaleImage, 0);
+
+        final double[] gradientX = new double[width * height];
+        final double[] gradientY = new double[width * height];
+        final double[] magnitude = new double[width * height];
+
+        ParallelExecutor.getDefault().forEachRow(height, (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                if ((i == 0) || (i == height - 1)) {
+                    for (int j = 0; j < width; j++) {
+                        calculateBorderPixel(samples, width, height, i, j, gradientX, gradientY, magnitude);
+                    }
+                    continue;
+                }
+
+                calculateBorderPixel(samples, width, height, i, 0, gradientX, gradientY, magnitude);
+
+                // interior, all 3x3 neighbours are inside of the image
+                // the taps with zero weight are skipped, the integer sums don't depend on the order
+                final int above = (i - 1) * width;
+                final int center = i * width;
+                final int below = (i + 1) * width;
+                for (int j = 1; j < width - 1; j++) {
+                    final int topLeft = samples[above + j - 1] & 0xff;
+                    final int top = samples[above + j] & 0xff;
+                    final int topRight = samples[above + j + 1] & 0xff;
+                    final int left = samples[center + j - 1] & 0xff;
+                    final int right = samples[center + j + 1] & 0xff;
+                    final int bottomLeft = samples[below + j - 1] & 0xff;
+                    final int bottom = samples[below + j] & 0xff;
+                    final int bottomRight = samples[below + j + 1] & 0xff;
+
+                    final int sumX = topLeft + 2 * left + bottomLeft - topRight - 2 * right - bottomRight;
+                    final int sumY = bottomLeft + 2 * bottom + bottomRight - topLeft - 2 * top - topRight;
+
+                    final int index = center + j;
+                    final double gx = roundedNinth(sumX);
+                    final double gy = roundedNinth(sumY);
+                    gradientX[index] = gx;
+                    gradientY[index] = gy;
+                    magnitude[index] = Math.sqrt(gy * gy + gx * gx);
+                }
+
+                if (width > 1) {
+                    calculateBorderPixel(samples, width, height, i, width - 1, gradientX, gradientY, magnitude);
+                }
+            }
+        });
+
+        logger.info("Sobel gradient calculation finished in {} ms", System.currentTimeMillis() - sobelStartTime);
+        return new SobelPlanes(width, height, gradientX, gradientY, magnitude);
+    }
+
+    /**
+     * Calculate the gradients and the magnitude of one pixel, leaving out the neighbours outside of the image.
+     *
+     * @param samples the image values, row-major
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param i the row of the pixel
+     * @param j the column of the pixel
+     * @param gradientX output, x gradient plane
+     * @param gradientY output, y gradient plane
+     * @param magnitude output, gradient magnitude plane
+     */
+    private void calculateBorderPixel(final byte[] samples, final int width, final int height, final int i, final int j,
+            final double[] gradientX, final double[] gradientY, final double[] magnitude) {
+        int sumX = 0;
+        int sumY = 0;
+        for (int i1 = 0; i1 < 3; i1++) {
+            for (int j1 = 0; j1 < 3; j1++) {
+                final int y = i - (3 / 2) + i1;
+                final int x = j - (3 / 2) + j1;
+                if ((x >= 0) && (y >= 0) && (x < width) && (y < height)) {
+                    sumX += (samples[y * width + x] & 0xff) * GX_INTEGER[i1][j1];
+                    sumY += (samples[y * width + x] & 0xff) * GY_INTEGER[i1][j1];
+                }
             }
         }
 
-        logger.info("Sobel gradient calculation finished in {} seconds", (System.currentTimeMillis() - sobelStartTime) / 1000);
-        return tangentVectorField;
+        final int index = i * width + j;
+        final double gx = roundedNinth(sumX);
+        final double gy = roundedNinth(sumY);
+        gradientX[index] = gx;
+        gradientY[index] = gy;
+        magnitude[index] = Math.sqrt(gy * gy + gx * gx);
+    }
+
+    /**
+     * Divide an integer Sobel sum by 9 and round it to the nearest integer. This is the same as Math.round of
+     * the sum with the float weights of GX and GY: a sum divided by 9 is never halfway between two integers,
+     * and the sums of 8 bit samples are small enough that the float weights don't change the rounding.
+     *
+     * @param sum the sum of the samples times the weights of GX_INTEGER or GY_INTEGER
+     * @return the rounded gradient
+     */
+    static int roundedNinth(final int sum) {
+        return Math.floorDiv(sum + 4, 9);
     }
 
     /**
@@ -74,26 +185,28 @@ public class SobelGradient {
      * @return array of x values from sobel operator
      */
     protected double[][] calculateGradientX(final Raster grayscaleImage) {
-        double[][] result = new double[grayscaleImage.getHeight()][grayscaleImage.getWidth()];
+        final double[][] result = new double[grayscaleImage.getHeight()][grayscaleImage.getWidth()];
 
         // convolution, gradient x
-        for (int i = 0; i < grayscaleImage.getHeight(); i++) {
-            for (int j = 0; j < grayscaleImage.getWidth(); j++) {
-                double sum = 0;
-
-                for (int i1 = 0; i1 < 3; i1++) {
-                    for (int j1 = 0; j1 < 3; j1++) {
-                        final int y = i - (3 / 2) + i1;
-                        final int x = j - (3 / 2) + j1;
-                        if ((x >= 0) && (y >= 0) && (x < grayscaleImage.getWidth()) && (y < grayscaleImage.getHeight())) {
-                            sum += grayscaleImage.getSample(x, y, 0) * GX[i1][j1];
+        ParallelExecutor.getDefault().forEachRow(grayscaleImage.getHeight(), (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                for (int j = 0; j < grayscaleImage.getWidth(); j++) {
+                    double sum = 0;
+
+                    for (int i1 = 0; i1 < 3; i1++) {
+                        for (int j1 = 0; j1 < 3; j1++) {
+                            final int y = i - (3 / 2) + i1;
+                            final int x = j - (3 / 2) + j1;
+                            if ((x >= 0) && (y >= 0) && (x < grayscaleImage.getWidth()) && (y < grayscaleImage.getHeight())) {
+                                sum += grayscaleImage.getSample(x, y, 0) * GX[i1][j1];
+                            }
                         }
                     }
-                }
 
-                result[i][j] = Math.round(sum);
+                    result[i][j] = Math.round(sum);
+                }
             }
-        }
+        });
 
         return result;
     }
@@ -105,26 +218,28 @@ public class SobelGradient {
      * @return array of y values from sobel operator
      */
     protected double[][] calculateGradientY(final Raster grayscaleImage) {
-        double[][] result = new double[grayscaleImage.getHeight()][grayscaleImage.getWidth()];
+        final double[][] result = new double[grayscaleImage.getHeight()][grayscaleImage.getWidth()];
 
         // convolution, gradient y
-        for (int i = 0; i < grayscaleImage.getHeight(); i++) {
-            for (int j = 0; j < grayscaleImage.getWidth(); j++) {
-                double sum = 0;
-
-                for (int i1 = 0; i1 < 3; i1++) {
-                    for (int j1 = 0; j1 < 3; j1++) {
-                        final int y = i - (3 / 2) + i1;
-                        final int x = j - (3 / 2) + j1;
-                        if ((x >= 0) && (y >= 0) && (x < grayscaleImage.getWidth()) && (y < grayscaleImage.getHeight())) {
-                            sum += grayscaleImage.getSample(x, y, 0) * GY[i1][j1];
+        ParallelExecutor.getDefault().forEachRow(grayscaleImage.getHeight(), (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                for (int j = 0; j < grayscaleImage.getWidth(); j++) {
+                    double sum = 0;
+
+                    for (int i1 = 0; i1 < 3; i1++) {
+                        for (int j1 = 0; j1 < 3; j1++) {
+                            final int y = i - (3 / 2) + i1;
+                            final int x = j - (3 / 2) + j1;
+                            if ((x >= 0) && (y >= 0) && (x < grayscaleImage.getWidth()) && (y < grayscaleImage.getHeight())) {
+                                sum += grayscaleImage.getSample(x, y, 0) * GY[i1][j1];
+                            }
                         }
                     }
-                }
 
-                result[i][j] = Math.round(sum);
+                    result[i][j] = Math.round(sum);
+                }
             }
-        }
+        });
 
         return result;
     }
@@ -0,0 +1,79 @@
+package mk.arsov.cartoonizer.lineintegralconvolution;
+
+import java.awt.Rectangle;
+
+import mk.arsov.cartoonizer.util.VectorField;
+
+/**
+ * Result of the Sobel operator for the whole image: the x and y gradient and the gradient magnitude
+ * for each pixel, in row-major planes (index = row * width + column).
+ */
+public class SobelPlanes {
+
+    private final int width;
+    private final int height;
+
+    /** Sobel gradient in x direction. */
+    private final double[] gradientX;
+
+    /** Sobel gradient in y direction. */
+    private final double[] gradientY;
+
+    /** Length of the gradient vectors. */
+    private final double[] magnitude;
+
+    SobelPlanes(final int width, final int height, final double[] gradientX, final double[] gradientY,
+            final double[] magnitude) {
+        this.width = width;
+        this.height = height;
+        this.gradientX = gradientX;
+        this.gradientY = gradientY;
+        this.magnitude = magnitude;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double[] getGradientX() {
+        return gradientX;
+    }
+
+    public double[] getGradientY() {
+        return gradientY;
+    }
+
+    /**
+     * Gradient magnitude, sqrt(gx * gx + gy * gy), which is also the length of the tangent vectors.
+     *
+     * @return the magnitude plane
+     */
+    public double[] getMagnitude() {
+        return magnitude;
+    }
+
+    /**
+     * The tangent vectors (gy, gx), see {@link SobelGradient#calculateTangentVectorField}.
+     * The vector field is backed by the gradient planes, they are not copied.
+     *
+     * @return the tangent vector field
+     */
+    public VectorField getTangentVectorField() {
+        return new VectorField(width, height, gradientY, gradientX);
+    }
+
+    /**
+     * Copy of a part of the planes.
+     *
+     * @param region the part, inside of the planes
+     * @return the planes of the part
+     */
+    public SobelPlanes region(final Rectangle region) {
+        return new SobelPlanes(region.width, region.height, VectorField.region(gradientX, width, region),
+            VectorField.region(gradientY, width, region), VectorField.region(magnitude, width, region));
+    }
+}
@@ -0,0 +1,143 @@
+package mk.arsov.cartoonizer.lineintegralconvolution;
+
+import mk.arsov.cartoonizer.util.VectorField;
+
+/**
+ * Precomputed streamlines for each pixel of a vector field.
+ *
+ * For each pixel the points of the line segment returned by
+ * {@link LineConvolutionCalculator#getLineSegmentPoints} are stored, in the same order: the center
+ * pixel first, followed by the points on both sides of the center in alternating order. The
+ * streamlines depend only on the vector field, the kernel length and the roundoff, so one table
+ * can be shared by the FDoG He(x) integral, the Ce(x) bilateral filter and the LIC rendering,
+ * and reused across iterations.
+ *
+ * Each point is stored as a 16 bit offset from the center pixel (8 bits for the column offset and
+ * 8 bits for the row offset), with a fixed number of 2 * kernelLength + 1 slots per pixel.
+ */
+public class StreamlineTable {
+
+    /** Largest column or row offset that fits in the packed representation. */
+    static final int MAX_OFFSET = 127;
+
+    private final VectorField vectorField;
+    private final int kernelLength;
+    private final double roundoff;
+    private final int width;
+    private final int stride;
+
+    /** Packed (column, row) offsets, stride slots for each pixel. */
+    private final short[] offsets;
+
+    /** Number of points in the line segment of each pixel. */
+    private final short[] lengths;
+
+    StreamlineTable(final VectorField vectorField, final int kernelLength, final double roundoff) {
+        this.vectorField = vectorField;
+        this.kernelLength = kernelLength;
+        this.roundoff = roundoff;
+        this.width = vectorField.getWidth();
+        this.stride = 2 * kernelLength + 1;
+        this.offsets = new short[vectorField.getWidth() * vectorField.getHeight() * stride];
+        this.lengths = new short[vectorField.getWidth() * vectorField.getHeight()];
+    }
+
+    /**
+     * Number of points in the line segment of the given pixel.
+     *
+     * @param pixelIndex row-major index of the pixel
+     * @return number of points, at most 2 * kernelLength + 1
+     */
+    public int getLength(final int pixelIndex) {
+        return lengths[pixelIndex];
+    }
+
+    /**
+     * Number of points in the line segment of the given pixel, for a kernel length shorter than the one of the table.
+     * The points are stored alternating from the center, so the first 2 * segmentLength + 1 points are the same
+     * line segment that would be traced with the shorter kernel length.
+     *
+     * @param pixelIndex row-major index of the pixel
+     * @param segmentLength number of points in one direction, not larger than {@link #getKernelLength()}
+     * @return number of points, at most 2 * segmentLength + 1
+     */
+    public int getLength(final int pixelIndex, final int segmentLength) {
+        if (segmentLength > kernelLength) {
+            throw new IllegalArgumentException("Streamline table was built for length " + kernelLength
+                + ", requested " + segmentLength);
+        }
+        return Math.min(lengths[pixelIndex], 2 * segmentLength + 1);
+    }
+
+    /**
+     * Row-major index of the k-th point in the line segment of the given pixel.
+     *
+     * @param pixelIndex row-major index of the center pixel
+     * @param k index of the point in the line segment
+     * @return row-major index of the point
+     */
+    public int getPointIndex(final int pixelIndex, final int k) {
+        final short packed = offsets[pixelIndex * stride + k];
+        return pixelIndex + ((byte) packed) * width + (packed >> 8);
+    }
+
+    /**
+     * Row-major index of the k-th point in the line segment of the given pixel.
+     *
+     * @param row the row of the center pixel
+     * @param column the column of the center pixel
+     * @param k index of the point in the line segment
+     * @return row-major index of the point
+     */
+    public int getPointIndex(final int row, final int column, final int k) {
+        return getPointIndex(row * width + column, k);
+    }
+
+    /**
+     * Maximum number of points in one line segment.
+     *
+     * @return 2 * kernelLength + 1
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    public VectorField getVectorField() {
+        return vectorField;
+    }
+
+    public int getKernelLength() {
+        return kernelLength;
+    }
+
+    public double getRoundoff() {
+        return roundoff;
+    }
+
+    public int getWidth() {
+        return vectorField.getWidth();
+    }
+
+    public int getHeight() {
+        return vectorField.getHeight();
+    }
+
+    /**
+     * Store the line segment of a pixel.
+     *
+     * @param pixelIndex row-major index of the center pixel
+     * @param columns columns of the points in the line segment
+     * @param rows rows of the points in the line segment
+     * @param length number of points in the line segment
+     */
+    void setLineSegment(final int pixelIndex, final int[] columns, final int[] rows, final int length) {
+        final int centerColumn = pixelIndex % width;
+        final int centerRow = pixelIndex / width;
+        for (int k = 0; k < length; k++) {
+            final int columnOffset = columns[k] - centerColumn;
+            final int rowOffset = rows[k] - centerRow;
+            offsets[pixelIndex * stride + k] = (short) ((columnOffset << 8) | (rowOffset & 0xFF));
+        }
+        lengths[pixelIndex] = (short) length;
+    }
+}
@@ -0,0 +1,356 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import mk.arsov.cartoonizer.config.BatchConfiguration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cartoonizes all images in a directory.
+ *
+ * The work is split in three phases, decoding, cartoonizing and encoding, each with it's own threads.
+ * The phases are connected with bounded queues, so reading and writing the files overlaps with the
+ * calculations, and a slow phase only stops the phase before it when the queue between them is full.
+ * The results are written as png files with the name of the source image. Of the images whose results would
+ * have the same name, for example a.jpg and a.png, only the first one by name is cartoonized, the others are
+ * counted as failed instead of overwriting it's result.
+ */
+public class BatchProcessor {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** Number of finished images between two progress reports. */
+    private static final int PROGRESS_INTERVAL = 100;
+
+    /** Marks the end of the images in a queue, each thread of the next phase takes one. */
+    private static final Job END = new Job(null, null);
+
+    private final CartoonizerPipeline pipeline;
+    private final int decodeThreads;
+    private final int computeThreads;
+    private final int encodeThreads;
+    private final int queueCapacity;
+
+    /**
+     * Create batch processor with the parameters from the configuration.
+     *
+     * @param pipeline the pipeline for each image
+     */
+    public BatchProcessor(final CartoonizerPipeline pipeline) {
+        this(pipeline, BatchConfiguration.DECODE_THREADS, BatchConfiguration.COMPUTE_THREADS,
+            BatchConfiguration.ENCODE_THREADS, BatchConfiguration.QUEUE_CAPACITY);
+    }
+
+    /**
+     * Create batch processor.
+     *
+     * @param pipeline the pipeline for each image
+     * @param decodeThreads number of threads decoding the source images
+     * @param computeThreads number of images cartoonized at the same time
+     * @param encodeThreads number of threads encoding the results
+     * @param queueCapacity number of images waiting between two phases
+     */
+    public BatchProcessor(final CartoonizerPipeline pipeline, final int decodeThreads, final int computeThreads,
+            final int encodeThreads, final int queueCapacity) {
+        if ((decodeThreads < 1) || (computeThreads < 1) || (encodeThreads < 1) || (queueCapacity < 1)) {
+            throw new IllegalArgumentException("Number of threads and queue capacity should be positive");
+        }
+        this.pipeline = pipeline;
+        this.decodeThreads = decodeThreads;
+        this.computeThreads = computeThreads;
+        this.encodeThreads = encodeThreads;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Cartoonize all images in the input directory.
+     *
+     * @param inputDirectory directory with the source images, files which are not images are skipped
+     * @param outputDirectory directory for the results, created if it doesn't exist
+     * @return statistics of the run
+     * @throws IOException if a directory can't be read or created
+     * @throws InterruptedException if the thread is interrupted while waiting for the images
+     */
+    public BatchResult process(final File inputDirectory, final File outputDirectory)
+            throws IOException, InterruptedException {
+        final File[] images = listImages(inputDirectory);
+        final File[] files = withUniqueOutputNames(images);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Cannot create output directory " + outputDirectory);
+        }
+        logger.info("Cartoonizing {} images from {} into {}", new Object[] {files.length, inputDirectory, outputDirectory});
+
+        final long startTime = System.currentTimeMillis();
+        final BlockingQueue<Job> decoded = new ArrayBlockingQueue<Job>(queueCapacity);
+        final BlockingQueue<Job> computed = new ArrayBlockingQueue<Job>(queueCapacity);
+        final AtomicInteger nextFile = new AtomicInteger();
+        final AtomicInteger runningDecoders = new AtomicInteger(decodeThreads);
+        final AtomicInteger runningComputers = new AtomicInteger(computeThreads);
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger(images.length - files.length);
+        final AtomicLong decodeMillis = new AtomicLong();
+        final AtomicLong computeMillis = new AtomicLong();
+        final AtomicLong encodeMillis = new AtomicLong();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(decodeThreads + computeThreads + encodeThreads,
+            runnable -> {
+                final Thread thread = new Thread(runnable, "cartoonizer-batch");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        try {
+            for (int i = 0; i < decodeThreads; i++) {
+                executor.execute(() -> {
+                    try {
+                        for (int index = nextFile.getAndIncrement(); index < files.length; index = nextFile.getAndIncrement()) {
+                            final long phaseStartTime = System.currentTimeMillis();
+                            final BufferedImage image = decode(files[index]);
+                            decodeMillis.addAndGet(System.currentTimeMillis() - phaseStartTime);
+                            if (image == null) {
+                                failed.incrementAndGet();
+                            } else {
+                                decoded.put(new Job(files[index], image));
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        finish(runningDecoders, decoded, computeThreads);
+                    }
+                });
+            }
+
+            for (int i = 0; i < computeThreads; i++) {
+                executor.execute(() -> {
+                    try {
+                        for (Job job = decoded.take(); job != END; job = decoded.take()) {
+                            final long phaseStartTime = System.currentTimeMillis();
+                            final BufferedImage cartoon = compute(job);
+                            computeMillis.addAndGet(System.currentTimeMillis() - phaseStartTime);
+                            if (cartoon == null) {
+                                failed.incrementAndGet();
+                            } else {
+                                computed.put(new Job(job.file, cartoon));
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        finish(runningComputers, computed, encodeThreads);
+                    }
+                });
+            }
+
+            for (int i = 0; i < encodeThreads; i++) {
+                executor.execute(() -> {
+                    try {
+                        for (Job job = computed.take(); job != END; job = computed.take()) {
+                            final long phaseStartTime = System.currentTimeMillis();
+                            final boolean written = encode(job.image, new File(outputDirectory, outputName(job.file)));
+                            encodeMillis.addAndGet(System.currentTimeMillis() - phaseStartTime);
+                            if (!written) {
+                                failed.incrementAndGet();
+                            } else if (processed.incrementAndGet() % PROGRESS_INTERVAL == 0) {
+                                final long elapsed = System.currentTimeMillis() - startTime;
+                                logger.info("Cartoonized {} of {} images, {} images/s", new Object[] {processed.get(),
+                                    files.length, String.format(Locale.ENGLISH, "%.2f", processed.get() * 1000.0 / Math.max(1, elapsed))});
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.info("Waiting for the batch, {} of {} images finished", processed.get() + failed.get(),
+                    files.length);
+            }
+        } finally {
+            // only stops the threads when the waiting was interrupted
+            executor.shutdownNow();
+        }
+
+        final BatchResult result = new BatchResult(processed.get(), failed.get(), System.currentTimeMillis() - startTime,
+            decodeMillis.get(), computeMillis.get(), encodeMillis.get());
+        logger.info("Batch finished, {}", result);
+        return result;
+    }
+
+    /**
+     * Called when a thread of a phase is done, the last one tells the threads of the next phase that
+     * there are no more images.
+     *
+     * @param running number of running threads in the phase
+     * @param queue the queue to the next phase
+     * @param consumers number of threads in the next phase
+     */
+    private void finish(final AtomicInteger running, final BlockingQueue<Job> queue, final int consumers) {
+        if (running.decrementAndGet() == 0) {
+            try {
+                for (int i = 0; i < consumers; i++) {
+                    queue.put(END);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The files in the directory which can be read as images, by name.
+     *
+     * @param directory the directory
+     * @return the image files
+     * @throws IOException if the directory can't be read
+     */
+    static File[] listImages(final File directory) throws IOException {
+        final Set<String> suffixes = new HashSet<String>();
+        for (String suffix : ImageIO.getReaderFileSuffixes()) {
+            suffixes.add(suffix.toLowerCase(Locale.ENGLISH));
+        }
+
+        final File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+                final String name = file.getName();
+                final int dot = name.lastIndexOf('.');
+                return file.isFile() && (dot >= 0) && suffixes.contains(name.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+            }
+        });
+        if (files == null) {
+            throw new IOException("Cannot read input directory " + directory);
+        }
+
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * The images without those whose result has the same name as the result of an earlier image. The names are
+     * compared ignoring the case, the results would overwrite each other on case insensitive file systems.
+     *
+     * @param images the images, by name
+     * @return the images with distinct result names
+     */
+    private File[] withUniqueOutputNames(final File[] images) {
+        final Map<String, File> byOutputName = new LinkedHashMap<String, File>();
+        for (File image : images) {
+            final String outputName = outputName(image).toLowerCase(Locale.ENGLISH);
+            final File previous = byOutputName.get(outputName);
+            if (previous == null) {
+                byOutputName.put(outputName, image);
+            } else {
+                logger.error("Image {} has the same result name {} as {}, skipped", new Object[] {image,
+                    outputName(image), previous});
+            }
+        }
+
+        return byOutputName.values().toArray(new File[byOutputName.size()]);
+    }
+
+    /**
+     * Read the image from the file.
+     *
+     * @param file the image file
+     * @return the image, or null if it can't be read
+     */
+    private BufferedImage decode(final File file) {
+        try {
+            final BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                logger.error("Unknown image format {}", file);
+            }
+            return image;
+        } catch (IOException e) {
+            logger.error("Cannot read image " + file, e);
+        } catch (RuntimeException e) {
+            logger.error("Cannot decode image " + file, e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Cartoonize the decoded image.
+     *
+     * @param job the decoded image
+     * @return the cartoonized image, or null if the calculation fails
+     */
+    private BufferedImage compute(final Job job) {
+        try {
+            return pipeline.process(job.image).getImage();
+        } catch (RuntimeException e) {
+            logger.error("Cannot cartoonize image " + job.file, e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Write the image as png.
+     *
+     * @param image the image
+     * @param file the png file
+     * @return true if the image is written
+     */
+    private boolean encode(final BufferedImage image, final File file) {
+        try {
+            return ImageIO.write(image, "PNG", file);
+        } catch (IOException e) {
+            logger.error("Cannot write image " + file, e);
+        } catch (RuntimeException e) {
+            logger.error("Cannot encode image " + file, e);
+        }
+
+        return false;
+    }
+
+    /**
+     * Name of the result, the name of the source image with png extension.
+     *
+     * @param source the source image
+     * @return the name of the png file
+     */
+    static String outputName(final File source) {
+        final String name = source.getName();
+        final int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + ".png";
+    }
+
+    /**
+     * An image on it's way through the phases.
+     */
+    private static final class Job {
+
+        private final File file;
+        private final BufferedImage image;
+
+        private Job(final File file, final BufferedImage image) {
+            this.file = file;
+            this.image = image;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.util.Locale;
+
+/**
+ * Statistics of one run of the {@link BatchProcessor}.
+ */
+public class BatchResult {
+
+    private final int processed;
+    private final int failed;
+    private final long elapsedMillis;
+    private final long decodeMillis;
+    private final long computeMillis;
+    private final long encodeMillis;
+
+    BatchResult(final int processed, final int failed, final long elapsedMillis, final long decodeMillis,
+            final long computeMillis, final long encodeMillis) {
+        this.processed = processed;
+        this.failed = failed;
+        this.elapsedMillis = elapsedMillis;
+        this.decodeMillis = decodeMillis;
+        this.computeMillis = computeMillis;
+        this.encodeMillis = encodeMillis;
+    }
+
+    /**
+     * Number of images which were cartoonized and written.
+     *
+     * @return the number of images
+     */
+    public int getProcessed() {
+        return processed;
+    }
+
+    /**
+     * Number of images which couldn't be read, cartoonized or written.
+     *
+     * @return the number of images
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Time spent decoding, summed over all decoding threads.
+     *
+     * @return the time in milliseconds
+     */
+    public long getDecodeMillis() {
+        return decodeMillis;
+    }
+
+    /**
+     * Time spent cartoonizing, summed over all compute threads.
+     *
+     * @return the time in milliseconds
+     */
+    public long getComputeMillis() {
+        return computeMillis;
+    }
+
+    /**
+     * Time spent encoding, summed over all encoding threads.
+     *
+     * @return the time in milliseconds
+     */
+    public long getEncodeMillis() {
+        return encodeMillis;
+    }
+
+    /**
+     * Throughput of the whole run.
+     *
+     * @return processed images per second of elapsed time
+     */
+    public double getImagesPerSecond() {
+        return elapsedMillis == 0 ? 0 : processed * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%d images (%d failed) in %d ms, %.2f images/s, decode %d ms, compute %d ms, encode %d ms",
+            processed, failed, elapsedMillis, getImagesPerSecond(), decodeMillis, computeMillis, encodeMillis);
+    }
+}
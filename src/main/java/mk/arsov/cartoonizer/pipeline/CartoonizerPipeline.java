@@ -0,0 +1,565 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+import mk.arsov.cartoonizer.abstraction.EdgeDetection;
+import mk.arsov.cartoonizer.abstraction.EdgeTangentFlow;
+import mk.arsov.cartoonizer.abstraction.EtfMode;
+import mk.arsov.cartoonizer.abstraction.FlowBilateralFilter;
+import mk.arsov.cartoonizer.cache.StageCache;
+import mk.arsov.cartoonizer.config.ProcessingPlan;
+import mk.arsov.cartoonizer.config.ProcessingPlanLoader;
+import mk.arsov.cartoonizer.lineintegralconvolution.LineConvolutionCalculator;
+import mk.arsov.cartoonizer.lineintegralconvolution.SobelGradient;
+import mk.arsov.cartoonizer.lineintegralconvolution.SobelPlanes;
+import mk.arsov.cartoonizer.lineintegralconvolution.StreamlineTable;
+import mk.arsov.cartoonizer.util.FlowUtils;
+import mk.arsov.cartoonizer.util.GradientStencilTable;
+import mk.arsov.cartoonizer.util.ImagePlane;
+import mk.arsov.cartoonizer.util.ImageUtils;
+import mk.arsov.cartoonizer.util.ParallelExecutor;
+import mk.arsov.cartoonizer.util.VectorField;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the whole cartoonization of an image: the edge tangent flow, the edge detection, the region smoothing
+ * and the final composite.
+ *
+ * The stages form the dependency graph described by {@link PipelineStage}. Each stage is started as soon as
+ * the stages it depends on are finished, so the edge detection and the region smoothing run concurrently
+ * on the same edge tangent flow. The per-pixel work of each stage runs on the {@link ParallelExecutor}.
+ * All parameters and kernel weights are taken from a {@link ProcessingPlan}.
+ *
+ * With a {@link StageCache}, the edge tangent flow, the edge response, the edges, the smoothed image and the
+ * final image are cached by the content of the source image and the parameters of the stage and the stages
+ * before it. Only the stages needed for the missing results are calculated, for example with only a new fdog.tau
+ * the edge tangent flow, the response of the first fdog iteration and the smoothed image are taken from the cache,
+ * and the stages before them are skipped.
+ * The cached results are shared between the runs and must not be modified.
+ */
+public class CartoonizerPipeline {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** Threads waiting for and starting the stages, the calculations themselves run on the parallel executor. */
+    private static final ExecutorService STAGE_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "cartoonizer-stage");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Stages with cached results, the other stages are cheap to calculate from them or too large to cache. */
+    private static final Set<PipelineStage> CACHED_STAGES = EnumSet.of(PipelineStage.ETF, PipelineStage.EDGE_RESPONSE,
+        PipelineStage.EDGES, PipelineStage.SMOOTHING, PipelineStage.COMPOSITE);
+
+    /** Stages whose results are in the {@link PipelineResult} getters, the others are calculated only when needed. */
+    private static final Set<PipelineStage> RESULT_STAGES =
+        EnumSet.of(PipelineStage.ETF, PipelineStage.EDGES, PipelineStage.SMOOTHING, PipelineStage.COMPOSITE);
+
+    private final ProcessingPlan plan;
+    private final Executor stageExecutor;
+    private final StageCache cache;
+    private final SobelGradient sobelGradient;
+    private final EdgeTangentFlow edgeTangentFlow;
+    private final LineConvolutionCalculator lineConvolutionCalculator;
+    private final EdgeDetection edgeDetection;
+    private final FlowBilateralFilter flowBilateralFilter;
+
+    /**
+     * Create pipeline with the plan from application.yml.
+     */
+    public CartoonizerPipeline() {
+        this(ProcessingPlanLoader.loadDefault());
+    }
+
+    /**
+     * Create pipeline with the given plan.
+     *
+     * @param plan the processing plan
+     */
+    public CartoonizerPipeline(final ProcessingPlan plan) {
+        this(plan, STAGE_EXECUTOR);
+    }
+
+    /**
+     * Create pipeline which starts the stages on the given executor.
+     *
+     * @param plan the processing plan
+     * @param stageExecutor executor for the stages, should have at least two threads for the branches to overlap
+     */
+    public CartoonizerPipeline(final ProcessingPlan plan, final Executor stageExecutor) {
+        this(plan, stageExecutor, null);
+    }
+
+    /**
+     * Create pipeline which takes the results from the cache when they are already calculated.
+     *
+     * @param plan the processing plan
+     * @param cache the cache
+     */
+    public CartoonizerPipeline(final ProcessingPlan plan, final StageCache cache) {
+        this(plan, STAGE_EXECUTOR, cache);
+    }
+
+    /**
+     * Create pipeline.
+     *
+     * @param plan the processing plan
+     * @param stageExecutor executor for the stages, should have at least two threads for the branches to overlap
+     * @param cache the cache, null to calculate all stages
+     */
+    public CartoonizerPipeline(final ProcessingPlan plan, final Executor stageExecutor, final StageCache cache) {
+        this.plan = plan;
+        this.stageExecutor = stageExecutor;
+        this.cache = cache;
+        this.sobelGradient = new SobelGradient();
+        this.edgeTangentFlow = new EdgeTangentFlow();
+        this.lineConvolutionCalculator = new LineConvolutionCalculator();
+        this.edgeDetection = new EdgeDetection(lineConvolutionCalculator, edgeTangentFlow, sobelGradient);
+        this.flowBilateralFilter = new FlowBilateralFilter(lineConvolutionCalculator);
+    }
+
+    public ProcessingPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * Cartoonize the image.
+     *
+     * @param sourceImage the source image, it is not modified
+     * @return results of all stages, with a cache only of the stages which were needed
+     */
+    public PipelineResult process(final BufferedImage sourceImage) {
+        if (cache == null) {
+            return process(sourceImage, null, Double.NaN, null);
+        }
+
+        // the same image with the same parameters, which is already being processed, is processed only once
+        final Map<PipelineStage, String> keys = stageKeys(sourceImage);
+        return cache.coalesce(StageCache.key(keys.get(PipelineStage.COMPOSITE), "process"),
+            () -> process(sourceImage, keys, Double.NaN, null));
+    }
+
+    /**
+     * Cartoonize the image, unless the calculation is cancelled. Cancellation is checked before each stage,
+     * a stage which is already running is finished. The runs are not coalesced, so a cancelled run doesn't
+     * cancel other runs of the same image, but the cache is used for the single stages.
+     *
+     * @param sourceImage the source image, it is not modified
+     * @param cancelled true when the result is no longer needed
+     * @return results of the stages
+     * @throws CancellationException if the calculation was cancelled
+     */
+    public PipelineResult process(final BufferedImage sourceImage, final BooleanSupplier cancelled) {
+        return process(sourceImage, (cache == null) ? null : stageKeys(sourceImage), Double.NaN, cancelled);
+    }
+
+    /**
+     * Cartoonize a part of an image, with the gradient magnitude normalized over the whole image.
+     * The cache is not used.
+     *
+     * @param sourceImage the part of the image
+     * @param gradientMagnitudeSum sum of the gradient magnitude of the whole image
+     * @return results of all stages
+     */
+    PipelineResult processPart(final BufferedImage sourceImage, final double gradientMagnitudeSum) {
+        return process(sourceImage, null, gradientMagnitudeSum, null);
+    }
+
+    /**
+     * Calculate some of the stages of a part of an image, from already calculated results of the part. The known
+     * results are used instead of calculating those stages and the stages before them, and only the stages needed
+     * for the requested ones are calculated. The cache is not used.
+     *
+     * @param sourceImage the part of the image
+     * @param gradientMagnitudeSum sum of the gradient magnitude of the whole image, NaN for the sum over the part
+     * @param knownResults results of the part which are already calculated, they are not modified
+     * @param stages the requested stages
+     * @return results of the requested stages and the stages they depend on
+     */
+    PipelineResult processPart(final BufferedImage sourceImage, final double gradientMagnitudeSum,
+            final Map<PipelineStage, Object> knownResults, final Set<PipelineStage> stages) {
+        final Run run = new Run(sourceImage, null, gradientMagnitudeSum, null);
+        run.knownResults = knownResults;
+        run.stages = stages;
+        return process(run);
+    }
+
+    /**
+     * Cartoonize the next frame of a video, starting the edge tangent flow from the edge tangent flow of the
+     * previous frame. Only {@link EdgeTangentFlow#calculate(VectorField, double[], double, VectorField, int, int, EtfMode)
+     * the given number of iterations} are calculated. The cache is not used, the result depends on the previous frames.
+     *
+     * @param sourceImage the frame, it is not modified
+     * @param initialEtf the edge tangent flow of the previous frame, of the same size as the frame
+     * @param etfIterations number of etf iterations from the initial field
+     * @return results of all stages
+     */
+    PipelineResult processWarm(final BufferedImage sourceImage, final VectorField initialEtf, final int etfIterations) {
+        final Run run = new Run(sourceImage, null, Double.NaN, null);
+        run.initialEtf = initialEtf;
+        run.warmIterations = etfIterations;
+        return process(run);
+    }
+
+    /**
+     * Cartoonize the image, with the results of all stages kept in the cache, not only the results of the
+     * stages which are usually cached. Used by the {@link ParameterSweep}, where pipelines with different plans
+     * share one cache, and each stage is calculated once for all plans with the same parameters of the stage
+     * and the stages before it.
+     *
+     * @param sourceImage the source image, it is not modified
+     * @param imageKey the key of the source image, from {@link StageCache#key(Object...)}
+     * @return results of the default stages, and of the stages which were calculated
+     */
+    PipelineResult processMemoized(final BufferedImage sourceImage, final String imageKey) {
+        if (cache == null) {
+            throw new IllegalStateException("Memoized processing needs a cache");
+        }
+
+        final Run run = new Run(sourceImage, stageKeys(imageKey), Double.NaN, null);
+        run.memoized = true;
+        return process(run);
+    }
+
+    /**
+     * Cartoonize the image.
+     *
+     * @param sourceImage the source image, it is not modified
+     * @param keys the cache keys of the stages, null without cache
+     * @param gradientMagnitudeSum sum of the gradient magnitude used in the edge tangent flow, NaN for the sum
+     *        over the source image
+     * @param cancelled true when the result is no longer needed, null if the run can't be cancelled
+     * @return results of the stages
+     */
+    private PipelineResult process(final BufferedImage sourceImage, final Map<PipelineStage, String> keys,
+            final double gradientMagnitudeSum, final BooleanSupplier cancelled) {
+        return process(new Run(sourceImage, keys, gradientMagnitudeSum, cancelled));
+    }
+
+    /**
+     * Calculate the stages of the run.
+     *
+     * @param run the source image and the options of the run
+     * @return results of the stages
+     */
+    private PipelineResult process(final Run run) {
+        long startTime = System.currentTimeMillis();
+
+        for (final PipelineStage stage : PipelineStage.values()) {
+            final boolean requested = (run.stages != null)
+                ? run.stages.contains(stage) : ((run.keys == null) || RESULT_STAGES.contains(stage));
+            if (requested) {
+                schedule(stage, run);
+            }
+        }
+
+        final Map<PipelineStage, Object> results = new EnumMap<PipelineStage, Object>(PipelineStage.class);
+        try {
+            for (final PipelineStage stage : PipelineStage.values()) {
+                if (run.futures.containsKey(stage)) {
+                    results.put(stage, run.futures.get(stage).join());
+                }
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+
+        logger.info("Cartoonization finished in {} ms", System.currentTimeMillis() - startTime);
+        return new PipelineResult(results, run.durations, run.calculated);
+    }
+
+    /**
+     * Start the calculation of the stage when it's dependencies are finished, and the calculation of the
+     * dependencies. Stages with cached results are finished right away, without their dependencies.
+     *
+     * @param stage the stage
+     * @param run the run, with the already scheduled stages
+     * @return the result of the stage
+     */
+    private CompletableFuture<Object> schedule(final PipelineStage stage, final Run run) {
+        CompletableFuture<Object> future = run.futures.get(stage);
+        if (future != null) {
+            return future;
+        }
+
+        final boolean cached = (run.keys != null) && (run.memoized || CACHED_STAGES.contains(stage));
+        final Object cachedResult = cached ? cache.getIfPresent(run.keys.get(stage), Object.class) : null;
+        if ((run.knownResults != null) && run.knownResults.containsKey(stage)) {
+            run.durations.put(stage, 0L);
+            future = CompletableFuture.completedFuture(run.knownResults.get(stage));
+        } else if (cachedResult != null) {
+            logger.info("Stage {} taken from the cache", stage);
+            run.durations.put(stage, 0L);
+            future = CompletableFuture.completedFuture(cachedResult);
+        } else {
+            final CompletableFuture<?>[] dependencies = new CompletableFuture<?>[stage.getDependencies().size()];
+            for (int i = 0; i < dependencies.length; i++) {
+                dependencies[i] = schedule(stage.getDependencies().get(i), run);
+            }
+
+            future = CompletableFuture.allOf(dependencies).thenApplyAsync(ignored -> {
+                if ((run.cancelled != null) && run.cancelled.getAsBoolean()) {
+                    throw new CancellationException("Cartoonization cancelled before stage " + stage);
+                }
+                long stageStartTime = System.currentTimeMillis();
+                final Object result = cached
+                    ? cache.get(run.keys.get(stage), Object.class, () -> calculateStage(stage, run))
+                    : calculateStage(stage, run);
+                run.durations.put(stage, System.currentTimeMillis() - stageStartTime);
+                logger.info("Stage {} finished in {} ms", stage, run.durations.get(stage));
+                return result;
+            }, stageExecutor);
+        }
+
+        run.futures.put(stage, future);
+        return future;
+    }
+
+    /**
+     * Cache keys of all stages. The key of a stage is a digest of the keys of it's dependencies and the
+     * parameters of the stage, the first stage starts from the content of the source image.
+     *
+     * @param sourceImage the source image
+     * @return the keys
+     */
+    private Map<PipelineStage, String> stageKeys(final BufferedImage sourceImage) {
+        return stageKeys(StageCache.key(sourceImage));
+    }
+
+    /**
+     * Cache keys of all stages, from an already calculated key of the source image.
+     *
+     * @param imageKey the key of the source image
+     * @return the keys
+     */
+    private Map<PipelineStage, String> stageKeys(final String imageKey) {
+        // the stages are declared in dependency order
+        final Map<PipelineStage, String> keys = new EnumMap<PipelineStage, String>(PipelineStage.class);
+        for (PipelineStage stage : PipelineStage.values()) {
+            final Object[] parts = new Object[stage.getDependencies().size() + 3];
+            parts[0] = imageKey;
+            parts[1] = stage;
+            parts[2] = stageParameters(stage);
+            for (int i = 0; i < stage.getDependencies().size(); i++) {
+                parts[i + 3] = keys.get(stage.getDependencies().get(i));
+            }
+            keys.put(stage, StageCache.key(parts));
+        }
+
+        return keys;
+    }
+
+    /**
+     * The parameters used by the stage, with the kernel lengths as calculated by the plan.
+     *
+     * @param stage the stage
+     * @return the parameters
+     */
+    private String stageParameters(final PipelineStage stage) {
+        switch (stage) {
+            case BLUR:
+                return Arrays.asList(plan.getBlurKernelRadius(), plan.getBlurSigma(), plan.getBlurMode()).toString();
+            case ETF:
+                return Arrays.asList(plan.getEtfIterations(), plan.getEtfKernelRadius(), plan.getEtfMode(),
+                    plan.getEtfPyramidLevels(), Arrays.toString(plan.getEtfPyramidIterations()),
+                    plan.getEtfPyramidRefinement()).toString();
+            case STREAMLINES:
+                return Arrays.asList(plan.getStreamlineLength(), plan.getLicRoundoff()).toString();
+            case GRADIENT_STENCILS:
+                return Arrays.asList(plan.getGradientStencilLength()).toString();
+            case EDGE_RESPONSE:
+                return Arrays.asList(plan.getFdogSigmaM(), plan.getFdogSigmaC(), plan.getFdogSigmaS(), plan.getFdogRo(),
+                    plan.getFdogT(), plan.getFdogS()).toString();
+            case EDGES:
+                // the weights are in the key of the response, the edge detection blurs the image again between
+                // the iterations
+                return Arrays.asList(plan.getFdogIterations(), plan.getFdogMode(), plan.getFdogTau(),
+                    plan.getBlurKernelRadius(), plan.getBlurSigma(), plan.getBlurMode()).toString();
+            case SMOOTHING:
+                return Arrays.asList(plan.getFblIterations(), plan.getFblMode(), plan.getFblSigmaE(), plan.getFblRe(),
+                    plan.getFblS(), plan.getFblSigmaG(), plan.getFblRg(), plan.getFblT()).toString();
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Calculate one stage, from the already calculated results of it's dependencies.
+     *
+     * @param stage the stage
+     * @param run the run, with the results of the dependencies
+     * @return the result of the stage
+     */
+    private Object calculateStage(final PipelineStage stage, final Run run) {
+        final Map<PipelineStage, CompletableFuture<Object>> futures = run.futures;
+        run.calculated.add(stage);
+        switch (stage) {
+            case GRAYSCALE:
+                return ImageUtils.toGrayscale(run.sourceImage);
+            case BLUR:
+                return ImageUtils.blur(result(futures, PipelineStage.GRAYSCALE, BufferedImage.class),
+                    plan.getBlurKernelRadius(), plan.getBlurSigma(), plan.getBlurMode());
+            case SOBEL:
+                return sobelGradient.calculatePlanes(result(futures, PipelineStage.BLUR, BufferedImage.class));
+            case ETF:
+                final SobelPlanes sobelPlanes = result(futures, PipelineStage.SOBEL, SobelPlanes.class);
+                if (run.initialEtf != null) {
+                    return edgeTangentFlow.calculate(sobelPlanes.getTangentVectorField(), sobelPlanes.getMagnitude(),
+                        run.gradientMagnitudeSum, run.initialEtf, run.warmIterations, plan.getEtfKernelRadius(),
+                        plan.getEtfMode());
+                }
+                return edgeTangentFlow.calculate(sobelPlanes.getTangentVectorField(), sobelPlanes.getMagnitude(),
+                    run.gradientMagnitudeSum, plan);
+            case STREAMLINES:
+                // long enough for both branches, each of them uses only the part it needs
+                return lineConvolutionCalculator.createStreamlineTable(result(futures, PipelineStage.ETF, VectorField.class),
+                    plan.getStreamlineLength(), plan.getLicRoundoff());
+            case GRADIENT_STENCILS:
+                return FlowUtils.createGradientStencilTable(result(futures, PipelineStage.ETF, VectorField.class),
+                    plan.getGradientStencilLength());
+            case EDGE_RESPONSE:
+                return edgeDetection.calculateResponse(result(futures, PipelineStage.GRAYSCALE, BufferedImage.class),
+                    result(futures, PipelineStage.STREAMLINES, StreamlineTable.class),
+                    result(futures, PipelineStage.GRADIENT_STENCILS, GradientStencilTable.class), plan);
+            case EDGES:
+                // the edge detection draws on the image, so it gets it's own copy
+                return edgeDetection.calculate(ImageUtils.copy(result(futures, PipelineStage.GRAYSCALE, BufferedImage.class)),
+                    result(futures, PipelineStage.STREAMLINES, StreamlineTable.class),
+                    result(futures, PipelineStage.GRADIENT_STENCILS, GradientStencilTable.class),
+                    result(futures, PipelineStage.EDGE_RESPONSE, double[][].class), plan);
+            case SMOOTHING:
+                return smooth(ImageUtils.toColor(run.sourceImage), result(futures, PipelineStage.STREAMLINES, StreamlineTable.class),
+                    result(futures, PipelineStage.GRADIENT_STENCILS, GradientStencilTable.class));
+            case COMPOSITE:
+                return composite(result(futures, PipelineStage.SMOOTHING, BufferedImage.class),
+                    result(futures, PipelineStage.EDGES, BufferedImage.class));
+            default:
+                throw new IllegalStateException("Unknown stage " + stage);
+        }
+    }
+
+    /**
+     * Region smoothing, Ce(x) followed by Cg(x) in each iteration.
+     *
+     * @param colorImage the color source image
+     * @param streamlines line segments along the etf vectors
+     * @param gradientStencils points in the gradient direction
+     * @return the smoothed image
+     */
+    private BufferedImage smooth(final BufferedImage colorImage, final StreamlineTable streamlines,
+            final GradientStencilTable gradientStencils) {
+        BufferedImage result = colorImage;
+        for (int iteration = 0; iteration < plan.getFblIterations(); iteration++) {
+            result = flowBilateralFilter.calculateCex(result, streamlines, plan.getFblFlowPlan(), plan.getFlowRangeWeights(),
+                plan.getFblMode());
+            result = flowBilateralFilter.calculateCgx(result, gradientStencils, plan.getFblGradientPlan(),
+                plan.getGradientRangeWeights(), plan.getFblMode());
+        }
+
+        return result;
+    }
+
+    /**
+     * Draw the black edge pixels over the smoothed image.
+     *
+     * @param smoothedImage the smoothed image, it is not modified
+     * @param edgeImage the edges, black on white
+     * @return the combined image
+     */
+    private BufferedImage composite(final BufferedImage smoothedImage, final BufferedImage edgeImage) {
+        final BufferedImage result = ImageUtils.copy(smoothedImage);
+        final int width = result.getWidth();
+        final byte[] edges = ImagePlane.band(edgeImage, 0);
+        // the smoothed image is a three byte image, unless there are no smoothing iterations
+        final byte[] resultData = ImagePlane.isColor(result) ? ImagePlane.colorData(result) : null;
+
+        ParallelExecutor.getDefault().forEachRow(result.getHeight(), (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                for (int j = 0; j < width; j++) {
+                    if (edges[i * width + j] == 0) {
+                        if (resultData != null) {
+                            ImagePlane.setColor(resultData, i * width + j, 0, 0, 0);
+                        } else {
+                            result.setRGB(j, i, 0);
+                        }
+                    }
+                }
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Result of an already finished stage.
+     *
+     * @param futures the results of the stages
+     * @param stage the stage
+     * @param type the type of the result
+     * @return the result of the stage
+     */
+    private static <T> T result(final Map<PipelineStage, CompletableFuture<Object>> futures, final PipelineStage stage,
+            final Class<T> type) {
+        return type.cast(futures.get(stage).join());
+    }
+
+    /**
+     * The source image and the options of one run, and the results of it's stages.
+     */
+    private static final class Run {
+
+        private final BufferedImage sourceImage;
+        /** The cache keys of the stages, null without cache. */
+        private final Map<PipelineStage, String> keys;
+        /** Sum of the gradient magnitude for the edge tangent flow, NaN for the own sum. */
+        private final double gradientMagnitudeSum;
+        /** True when the result is no longer needed, null if the run can't be cancelled. */
+        private final BooleanSupplier cancelled;
+        private final Map<PipelineStage, CompletableFuture<Object>> futures =
+            new ConcurrentHashMap<PipelineStage, CompletableFuture<Object>>();
+        private final Map<PipelineStage, Long> durations = new ConcurrentHashMap<PipelineStage, Long>();
+        /** The stages which were calculated, not taken from the cache or the known results. */
+        private final Set<PipelineStage> calculated = Collections.synchronizedSet(EnumSet.noneOf(PipelineStage.class));
+
+        /** Already calculated results, null to calculate all stages. */
+        private Map<PipelineStage, Object> knownResults;
+        /** The stages to calculate, with the stages they depend on, null for the default stages. */
+        private Set<PipelineStage> stages;
+        /** Whether the results of all stages are cached, not only of the usually cached stages. */
+        private boolean memoized;
+        /** The edge tangent flow to start from, null to start from the tangent vectors. */
+        private VectorField initialEtf;
+        private int warmIterations;
+
+        private Run(final BufferedImage sourceImage, final Map<PipelineStage, String> keys,
+                final double gradientMagnitudeSum, final BooleanSupplier cancelled) {
+            this.sourceImage = sourceImage;
+            this.keys = keys;
+            this.gradientMagnitudeSum = gradientMagnitudeSum;
+            this.cancelled = cancelled;
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import mk.arsov.cartoonizer.config.FrameDiffConfiguration;
+import mk.arsov.cartoonizer.config.ProcessingPlan;
+import mk.arsov.cartoonizer.lineintegralconvolution.SobelPlanes;
+import mk.arsov.cartoonizer.util.ImagePlane;
+import mk.arsov.cartoonizer.util.ImageUtils;
+import mk.arsov.cartoonizer.util.VectorField;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cartoonizes consecutive frames which change only in some places, for example from a webcam or a screen
+ * capture, by recalculating only the regions around the changes.
+ *
+ * The results of the stages of the previous frame are kept. The frame is compared with the previous one in blocks,
+ * band by band with the same samples which the stages read, and the changed blocks are recalculated in three
+ * steps: the sobel gradient, the edge tangent flow, and the edges with the smoothed image and the final image.
+ * Each step covers the blocks of the previous step expanded by it's own reach from the {@link ProcessingPlan},
+ * and calculates them with a halo of the same reach, from the already updated results of the previous step.
+ * The new results are copied into the kept results, so the time of a frame depends on the size of the changes
+ * instead of the size of the frame. The frame is kept for the next comparison only in the blocks whose gradients
+ * were recalculated, so the changes below the threshold are compared with the frame from which the results were
+ * calculated, and can't add up unnoticed.
+ *
+ * The edge tangent flow of the recalculated regions is normalized with the gradient magnitude sum of the last
+ * frame which was calculated whole, so the result is the same as the calculation of the whole frame with that sum.
+ * The whole frame is calculated again when too many blocks change, when the sum changes by more than the
+ * tolerance, and when the size, the type or the number of bands of the frames changes.
+ *
+ * The processor keeps the state of the previous frame, it is not thread safe.
+ */
+public class FrameDiffProcessor {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final CartoonizerPipeline pipeline;
+    private final int blockSize;
+    private final int changeThreshold;
+    private final double maxChangedFraction;
+    private final double sumTolerance;
+
+    private int width;
+    private int height;
+    private int type;
+    private byte[][] previousBands;
+    private double gradientMagnitudeSum;
+    private double[] rowSums;
+    private BufferedImage grayscale;
+    private SobelPlanes sobelPlanes;
+    private VectorField edgeTangentFlow;
+    private BufferedImage edges;
+    private BufferedImage smoothed;
+    private BufferedImage image;
+
+    private int fullFrames;
+    private int incrementalFrames;
+    private double recalculatedFraction;
+
+    /**
+     * Create processor with the parameters from the configuration.
+     *
+     * @param pipeline the pipeline for the frames and the regions
+     */
+    public FrameDiffProcessor(final CartoonizerPipeline pipeline) {
+        this(pipeline, FrameDiffConfiguration.BLOCK_SIZE, FrameDiffConfiguration.CHANGE_THRESHOLD,
+            FrameDiffConfiguration.MAX_CHANGED_FRACTION, FrameDiffConfiguration.SUM_TOLERANCE);
+    }
+
+    /**
+     * Create processor.
+     *
+     * @param pipeline the pipeline for the frames and the regions
+     * @param blockSize width and height of the compared blocks
+     * @param changeThreshold largest difference of a color component which is not a change
+     * @param maxChangedFraction part of the blocks which can change before the whole frame is calculated
+     * @param sumTolerance largest relative change of the gradient magnitude sum before the whole frame is calculated
+     */
+    public FrameDiffProcessor(final CartoonizerPipeline pipeline, final int blockSize, final int changeThreshold,
+            final double maxChangedFraction, final double sumTolerance) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size should be positive");
+        }
+        this.pipeline = pipeline;
+        // the regions of the edge tangent flow should start at the pixels of the coarsest pyramid level
+        final int pyramidBlock = pipeline.getPlan().getPyramidBlock();
+        this.blockSize = (blockSize + pyramidBlock - 1) / pyramidBlock * pyramidBlock;
+        this.changeThreshold = changeThreshold;
+        this.maxChangedFraction = maxChangedFraction;
+        this.sumTolerance = sumTolerance;
+    }
+
+    /**
+     * Cartoonize the next frame.
+     *
+     * @param frame the frame, it is not modified
+     * @return the cartoonized frame
+     */
+    public BufferedImage process(final BufferedImage frame) {
+        final byte[][] bands = bands(frame);
+        if ((previousBands == null) || (frame.getWidth() != width) || (frame.getHeight() != height)
+                || (frame.getType() != type) || (bands.length != previousBands.length)) {
+            processWhole(frame, bands);
+        } else if (!processChanges(frame, bands)) {
+            processWhole(frame, bands);
+        }
+
+        return ImageUtils.copy(image);
+    }
+
+    /**
+     * Number of frames which were calculated whole.
+     *
+     * @return the number of frames
+     */
+    public int getFullFrames() {
+        return fullFrames;
+    }
+
+    /**
+     * Number of frames of which only the changed regions were calculated, including the unchanged frames.
+     *
+     * @return the number of frames
+     */
+    public int getIncrementalFrames() {
+        return incrementalFrames;
+    }
+
+    /**
+     * Part of the last frame which was recalculated, from 0 to 1.
+     *
+     * @return the recalculated part of the final image
+     */
+    public double getRecalculatedFraction() {
+        return recalculatedFraction;
+    }
+
+    /**
+     * Sum of the gradient magnitude used for the edge tangent flow, the sum of the last frame calculated whole.
+     *
+     * @return the sum
+     */
+    public double getGradientMagnitudeSum() {
+        return gradientMagnitudeSum;
+    }
+
+    /**
+     * Cartoonize the frames in the input directory, in the order of their names, and write them as png
+     * into the output directory.
+     *
+     * @param inputDirectory directory with the frames, files which are not images are skipped
+     * @param outputDirectory directory for the results, created if it doesn't exist
+     * @return number of frames
+     * @throws IOException if a frame can't be read or written
+     */
+    public int process(final File inputDirectory, final File outputDirectory) throws IOException {
+        final int frames = FrameSequenceProcessor.processFrames(inputDirectory, outputDirectory, this::process);
+        logger.info("{} frames calculated whole, {} in the changed regions", fullFrames, incrementalFrames);
+        return frames;
+    }
+
+    /**
+     * Calculate the whole frame, and keep the results of the stages.
+     */
+    private void processWhole(final BufferedImage frame, final byte[][] bands) {
+        final PipelineResult result = pipeline.processPart(frame, Double.NaN);
+        width = frame.getWidth();
+        height = frame.getHeight();
+        type = frame.getType();
+        previousBands = bands;
+        // the grayscale and the smoothed image can be the frame itself, the kept results are modified later
+        grayscale = own((BufferedImage) result.getResult(PipelineStage.GRAYSCALE), frame);
+        sobelPlanes = (SobelPlanes) result.getResult(PipelineStage.SOBEL);
+        edgeTangentFlow = result.getEdgeTangentFlow();
+        edges = result.getEdges();
+        smoothed = own(result.getSmoothed(), frame);
+        image = result.getImage();
+
+        // the rows are summed in the same order as in the edge tangent flow, so the sum is exactly the same
+        rowSums = new double[height];
+        for (int i = 0; i < height; i++) {
+            rowSums[i] = rowSum(i);
+        }
+        gradientMagnitudeSum = sum(rowSums);
+
+        fullFrames++;
+        recalculatedFraction = 1;
+    }
+
+    /**
+     * Calculate the regions around the changed blocks, and copy them into the results of the previous frame.
+     *
+     * @return false if the whole frame should be calculated instead
+     */
+    private boolean processChanges(final BufferedImage frame, final byte[][] bands) {
+        final boolean[][] changed = changedBlocks(bands);
+        int changedCount = 0;
+        for (boolean[] blockRow : changed) {
+            for (boolean block : blockRow) {
+                changedCount += block ? 1 : 0;
+            }
+        }
+        if (changedCount > maxChangedFraction * changed.length * changed[0].length) {
+            logger.info("{} of {} blocks changed, calculating the whole frame", changedCount,
+                changed.length * changed[0].length);
+            return false;
+        }
+        if (changedCount == 0) {
+            incrementalFrames++;
+            recalculatedFraction = 0;
+            return true;
+        }
+
+        final ProcessingPlan plan = pipeline.getPlan();
+
+        // the gradients, from the frame
+        final boolean[][] gradientBlocks = expand(changed, plan.getGradientReach());
+        final double[] newRowSums = rowSums.clone();
+        final List<Rectangle> gradientRegions = regions(gradientBlocks);
+        for (Rectangle region : gradientRegions) {
+            final Rectangle halo = halo(region, plan.getGradientReach());
+            final PipelineResult result = pipeline.processPart(part(frame, halo), gradientMagnitudeSum,
+                null, EnumSet.of(PipelineStage.SOBEL));
+            copy((BufferedImage) result.getResult(PipelineStage.GRAYSCALE), halo, region, grayscale);
+            final SobelPlanes planes = (SobelPlanes) result.getResult(PipelineStage.SOBEL);
+            copy(planes.getGradientX(), halo, region, sobelPlanes.getGradientX());
+            copy(planes.getGradientY(), halo, region, sobelPlanes.getGradientY());
+            copy(planes.getMagnitude(), halo, region, sobelPlanes.getMagnitude());
+            for (int i = region.y; i < region.y + region.height; i++) {
+                newRowSums[i] = rowSum(i);
+            }
+        }
+
+        rowSums = newRowSums;
+        final double newSum = sum(rowSums);
+        if (Math.abs(newSum - gradientMagnitudeSum) > sumTolerance * gradientMagnitudeSum) {
+            logger.info("Gradient magnitude sum changed from {} to {}, calculating the whole frame",
+                gradientMagnitudeSum, newSum);
+            return false;
+        }
+
+        // the edge tangent flow, from the gradients
+        final boolean[][] flowBlocks = expand(gradientBlocks, plan.getEtfReach());
+        for (Rectangle region : regions(flowBlocks)) {
+            final Rectangle halo = halo(region, plan.getEtfReach());
+            final Map<PipelineStage, Object> known = new EnumMap<PipelineStage, Object>(PipelineStage.class);
+            known.put(PipelineStage.SOBEL, sobelPlanes.region(halo));
+            // the source image is not needed for the edge tangent flow
+            final PipelineResult result = pipeline.processPart(null, gradientMagnitudeSum, known,
+                EnumSet.of(PipelineStage.ETF));
+            final VectorField flow = result.getEdgeTangentFlow();
+            copy(flow.getXPlane(), halo, region, edgeTangentFlow.getXPlane());
+            copy(flow.getYPlane(), halo, region, edgeTangentFlow.getYPlane());
+        }
+
+        // the edges, the smoothed image and the final image, from the edge tangent flow and the frame
+        final boolean[][] imageBlocks = expand(flowBlocks, plan.getAbstractionReach());
+        int recalculated = 0;
+        for (Rectangle region : regions(imageBlocks)) {
+            final Rectangle halo = halo(region, plan.getAbstractionReach());
+            final Map<PipelineStage, Object> known = new EnumMap<PipelineStage, Object>(PipelineStage.class);
+            known.put(PipelineStage.GRAYSCALE, part(grayscale, halo));
+            known.put(PipelineStage.ETF, edgeTangentFlow.region(halo));
+            final PipelineResult result = pipeline.processPart(part(frame, halo), gradientMagnitudeSum, known,
+                EnumSet.of(PipelineStage.COMPOSITE));
+            copy(result.getEdges(), halo, region, edges);
+            copy(result.getSmoothed(), halo, region, smoothed);
+            copy(result.getImage(), halo, region, image);
+            recalculated += region.width * region.height;
+        }
+
+        // everything in the gradient regions is calculated from this frame, the rest from the earlier frames
+        for (Rectangle region : gradientRegions) {
+            for (int band = 0; band < bands.length; band++) {
+                for (int i = region.y; i < region.y + region.height; i++) {
+                    System.arraycopy(bands[band], i * width + region.x, previousBands[band], i * width + region.x,
+                        region.width);
+                }
+            }
+        }
+        incrementalFrames++;
+        recalculatedFraction = (double) recalculated / (width * height);
+        logger.info("{} of {} blocks changed, recalculated {}% of the frame", new Object[] {changedCount,
+            changed.length * changed[0].length, Math.round(recalculatedFraction * 100)});
+        return true;
+    }
+
+    /**
+     * The blocks with at least one changed pixel.
+     *
+     * @param bands the bands of the frame
+     * @return the changed blocks, by block row and block column
+     */
+    private boolean[][] changedBlocks(final byte[][] bands) {
+        final boolean[][] changed = new boolean[(height + blockSize - 1) / blockSize][(width + blockSize - 1) / blockSize];
+        for (int band = 0; band < bands.length; band++) {
+            final byte[] values = bands[band];
+            final byte[] previousValues = previousBands[band];
+            for (int i = 0; i < height; i++) {
+                final boolean[] blockRow = changed[i / blockSize];
+                for (int j = 0; j < width; j++) {
+                    final int index = i * width + j;
+                    if ((values[index] != previousValues[index]) && !blockRow[j / blockSize]
+                            && (Math.abs((values[index] & 0xff) - (previousValues[index] & 0xff)) > changeThreshold)) {
+                        blockRow[j / blockSize] = true;
+                    }
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * The bands of the frame as the stages read them, without the color conversion of getRGB, which merges some
+     * of the gray levels of the grayscale frames.
+     *
+     * @param frame the frame
+     * @return the values of each band, row-major
+     */
+    private static byte[][] bands(final BufferedImage frame) {
+        final byte[][] bands = new byte[frame.getRaster().getNumBands()][];
+        for (int band = 0; band < bands.length; band++) {
+            // the band of a grayscale frame is it's data array, the caller can reuse the frame for the next one
+            final byte[] values = ImagePlane.band(frame, band);
+            bands[band] = ImagePlane.isGray(frame) ? values.clone() : values;
+        }
+
+        return bands;
+    }
+
+    /**
+     * The blocks which are at most the given distance from the marked blocks.
+     *
+     * @param blocks the marked blocks
+     * @param reach the distance in pixels
+     * @return the expanded blocks
+     */
+    private boolean[][] expand(final boolean[][] blocks, final int reach) {
+        final int distance = (reach + blockSize - 1) / blockSize;
+        final boolean[][] result = new boolean[blocks.length][blocks[0].length];
+        for (int i = 0; i < blocks.length; i++) {
+            for (int j = 0; j < blocks[i].length; j++) {
+                if (blocks[i][j]) {
+                    for (int i1 = Math.max(0, i - distance); i1 <= Math.min(blocks.length - 1, i + distance); i1++) {
+                        for (int j1 = Math.max(0, j - distance); j1 <= Math.min(blocks[i].length - 1, j + distance); j1++) {
+                            result[i1][j1] = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Bounding rectangles of the connected groups of marked blocks, in pixels inside of the frame.
+     *
+     * @param blocks the marked blocks
+     * @return the regions
+     */
+    private List<Rectangle> regions(final boolean[][] blocks) {
+        final List<Rectangle> regions = new ArrayList<Rectangle>();
+        final boolean[][] visited = new boolean[blocks.length][blocks[0].length];
+        final int[] stack = new int[blocks.length * blocks[0].length];
+        for (int i = 0; i < blocks.length; i++) {
+            for (int j = 0; j < blocks[i].length; j++) {
+                if (!blocks[i][j] || visited[i][j]) {
+                    continue;
+                }
+
+                int fromRow = i;
+                int toRow = i;
+                int fromColumn = j;
+                int toColumn = j;
+                int size = 0;
+                stack[size++] = i * blocks[i].length + j;
+                visited[i][j] = true;
+                while (size > 0) {
+                    final int row = stack[--size] / blocks[i].length;
+                    final int column = stack[size] % blocks[i].length;
+                    fromRow = Math.min(fromRow, row);
+                    toRow = Math.max(toRow, row);
+                    fromColumn = Math.min(fromColumn, column);
+                    toColumn = Math.max(toColumn, column);
+                    for (int i1 = Math.max(0, row - 1); i1 <= Math.min(blocks.length - 1, row + 1); i1++) {
+                        for (int j1 = Math.max(0, column - 1); j1 <= Math.min(blocks[i].length - 1, column + 1); j1++) {
+                            if (blocks[i1][j1] && !visited[i1][j1]) {
+                                visited[i1][j1] = true;
+                                stack[size++] = i1 * blocks[i].length + j1;
+                            }
+                        }
+                    }
+                }
+
+                final int x = fromColumn * blockSize;
+                final int y = fromRow * blockSize;
+                regions.add(new Rectangle(x, y, Math.min(width, (toColumn + 1) * blockSize) - x,
+                    Math.min(height, (toRow + 1) * blockSize) - y));
+            }
+        }
+
+        return regions;
+    }
+
+    /**
+     * The region with the halo around it, inside of the frame.
+     */
+    private Rectangle halo(final Rectangle region, final int reach) {
+        final int fromX = Math.max(0, region.x - reach);
+        final int fromY = Math.max(0, region.y - reach);
+        final int toX = Math.min(width, region.x + region.width + reach);
+        final int toY = Math.min(height, region.y + region.height + reach);
+        return new Rectangle(fromX, fromY, toX - fromX, toY - fromY);
+    }
+
+    private double rowSum(final int row) {
+        final double[] magnitude = sobelPlanes.getMagnitude();
+        double rowSum = 0;
+        for (int index = row * width; index < (row + 1) * width; index++) {
+            rowSum += magnitude[index];
+        }
+        return rowSum;
+    }
+
+    private static double sum(final double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static BufferedImage own(final BufferedImage result, final BufferedImage frame) {
+        return (result == frame) ? ImageUtils.copy(frame) : result;
+    }
+
+    /**
+     * Copy of a part of the image, with it's own pixel data.
+     */
+    private static BufferedImage part(final BufferedImage source, final Rectangle region) {
+        return ImageUtils.copy(source.getSubimage(region.x, region.y, region.width, region.height));
+    }
+
+    /**
+     * Copy the region from the result of a part of the frame into the image of the whole frame.
+     *
+     * @param partImage the result of the part
+     * @param part the part of the frame
+     * @param region the region, inside of the part
+     * @param target the image of the whole frame, of the same type as the result of the part
+     */
+    private static void copy(final BufferedImage partImage, final Rectangle part, final Rectangle region,
+            final BufferedImage target) {
+        target.getRaster().setDataElements(region.x, region.y, region.width, region.height, partImage.getRaster()
+            .getDataElements(region.x - part.x, region.y - part.y, region.width, region.height, null));
+    }
+
+    /**
+     * Copy the region from a row-major plane of a part of the frame into the plane of the whole frame.
+     */
+    private void copy(final double[] partPlane, final Rectangle part, final Rectangle region, final double[] target) {
+        for (int i = region.y; i < region.y + region.height; i++) {
+            System.arraycopy(partPlane, (i - part.y) * part.width + region.x - part.x, target, i * width + region.x,
+                region.width);
+        }
+    }
+}
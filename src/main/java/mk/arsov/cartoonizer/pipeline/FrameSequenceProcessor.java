@@ -0,0 +1,206 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Function;
+
+import javax.imageio.ImageIO;
+
+import mk.arsov.cartoonizer.config.SequenceConfiguration;
+import mk.arsov.cartoonizer.util.ImageUtils;
+import mk.arsov.cartoonizer.util.VectorField;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cartoonizes the frames of a video in order. The edge tangent flow of each frame is the starting field of
+ * the edge tangent flow of the next frame, so only a few etf iterations are calculated for each frame after
+ * the first one, and the edges of consecutive frames follow the same flow, which reduces the flicker.
+ *
+ * The frame after a scene cut starts from it's own tangent vectors, with all iterations of the plan.
+ * A scene cut is detected when the small grayscale thumbnails of two consecutive frames differ by more than
+ * {@link SequenceConfiguration#SCENE_CUT_THRESHOLD}, and also when the size of the frames changes.
+ *
+ * The processor keeps the state of the previous frame, it is not thread safe.
+ */
+public class FrameSequenceProcessor {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final CartoonizerPipeline pipeline;
+    private final int warmIterations;
+    private final double sceneCutThreshold;
+
+    private VectorField previousEtf;
+    private double[] previousThumbnail;
+    private int warmFrames;
+    private int coldFrames;
+
+    /**
+     * Create processor with the parameters from the configuration.
+     *
+     * @param pipeline the pipeline for the frames
+     */
+    public FrameSequenceProcessor(final CartoonizerPipeline pipeline) {
+        this(pipeline, SequenceConfiguration.WARM_ITERATIONS, SequenceConfiguration.SCENE_CUT_THRESHOLD);
+    }
+
+    /**
+     * Create processor.
+     *
+     * @param pipeline the pipeline for the frames
+     * @param warmIterations number of etf iterations of the frames which start from the previous frame
+     * @param sceneCutThreshold mean absolute difference of the thumbnails, from 0 to 1, above which a frame
+     *        starts from the beginning
+     */
+    public FrameSequenceProcessor(final CartoonizerPipeline pipeline, final int warmIterations,
+            final double sceneCutThreshold) {
+        if (warmIterations < 0) {
+            throw new IllegalArgumentException("Number of warm iterations should not be negative");
+        }
+        this.pipeline = pipeline;
+        this.warmIterations = warmIterations;
+        this.sceneCutThreshold = sceneCutThreshold;
+    }
+
+    /**
+     * Cartoonize the next frame of the sequence.
+     *
+     * @param frame the frame, it is not modified
+     * @return results of the stages
+     */
+    public PipelineResult process(final BufferedImage frame) {
+        final double[] thumbnail = thumbnail(frame);
+
+        final PipelineResult result;
+        if (isContinued(frame, thumbnail)) {
+            result = pipeline.processWarm(frame, previousEtf, warmIterations);
+            warmFrames++;
+        } else {
+            logger.info("Frame {} starts a new scene", warmFrames + coldFrames);
+            result = pipeline.process(frame);
+            coldFrames++;
+        }
+
+        previousEtf = result.getEdgeTangentFlow();
+        previousThumbnail = thumbnail;
+        return result;
+    }
+
+    /**
+     * Cartoonize the frames in the input directory, in the order of their names, and write them as png
+     * into the output directory.
+     *
+     * @param inputDirectory directory with the frames, files which are not images are skipped
+     * @param outputDirectory directory for the results, created if it doesn't exist
+     * @return number of frames
+     * @throws IOException if a frame can't be read or written
+     */
+    public int process(final File inputDirectory, final File outputDirectory) throws IOException {
+        final int frames = processFrames(inputDirectory, outputDirectory, frame -> process(frame).getImage());
+        logger.info("{} frames continued from the previous frame, {} started from the beginning", warmFrames, coldFrames);
+        return frames;
+    }
+
+    /**
+     * Cartoonize the frames in the input directory one by one, in the order of their names, and write them as png
+     * into the output directory.
+     *
+     * @param inputDirectory directory with the frames, files which are not images are skipped
+     * @param outputDirectory directory for the results, created if it doesn't exist
+     * @param processor cartoonizes the next frame
+     * @return number of frames
+     * @throws IOException if a frame can't be read or written
+     */
+    static int processFrames(final File inputDirectory, final File outputDirectory,
+            final Function<BufferedImage, BufferedImage> processor) throws IOException {
+        final File[] files = BatchProcessor.listImages(inputDirectory);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Cannot create output directory " + outputDirectory);
+        }
+        LoggerFactory.getLogger(FrameSequenceProcessor.class).info("Cartoonizing {} frames from {} into {}",
+            new Object[] {files.length, inputDirectory, outputDirectory});
+
+        for (File file : files) {
+            final BufferedImage frame = ImageIO.read(file);
+            if (frame == null) {
+                throw new IOException("Unknown image format " + file);
+            }
+
+            final File outputFile = new File(outputDirectory, BatchProcessor.outputName(file));
+            if (!ImageIO.write(processor.apply(frame), "PNG", outputFile)) {
+                throw new IOException("Cannot write image " + outputFile);
+            }
+        }
+
+        return files.length;
+    }
+
+    /**
+     * Forget the previous frame, the next frame starts a new scene.
+     */
+    public void reset() {
+        previousEtf = null;
+        previousThumbnail = null;
+    }
+
+    /**
+     * Number of frames which started from the edge tangent flow of the previous frame.
+     *
+     * @return the number of frames
+     */
+    public int getWarmFrames() {
+        return warmFrames;
+    }
+
+    /**
+     * Number of frames which started from the beginning, the first frame and the frames after the scene cuts.
+     *
+     * @return the number of frames
+     */
+    public int getColdFrames() {
+        return coldFrames;
+    }
+
+    /**
+     * Whether the frame continues the scene of the previous frame.
+     *
+     * @param frame the frame
+     * @param thumbnail the thumbnail of the frame
+     * @return true if the edge tangent flow of the previous frame can be used
+     */
+    private boolean isContinued(final BufferedImage frame, final double[] thumbnail) {
+        if ((previousEtf == null) || (previousEtf.getWidth() != frame.getWidth())
+                || (previousEtf.getHeight() != frame.getHeight())) {
+            return false;
+        }
+
+        double difference = 0;
+        for (int i = 0; i < thumbnail.length; i++) {
+            difference += Math.abs(thumbnail[i] - previousThumbnail[i]);
+        }
+        difference /= thumbnail.length;
+        logger.debug("Difference from the previous frame {}", difference);
+
+        return difference <= sceneCutThreshold;
+    }
+
+    /**
+     * Grayscale values of the frame scaled to the thumbnail size, from 0 to 1.
+     */
+    private static double[] thumbnail(final BufferedImage frame) {
+        final int size = SequenceConfiguration.THUMBNAIL_SIZE;
+        final Raster raster = ImageUtils.toGrayscale(ImageUtils.resize(frame, size, size)).getRaster();
+        final double[] thumbnail = new double[size * size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                thumbnail[i * size + j] = raster.getSample(j, i, 0) / 255.0;
+            }
+        }
+
+        return thumbnail;
+    }
+}
@@ -0,0 +1,101 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import mk.arsov.cartoonizer.cache.StageCache;
+import mk.arsov.cartoonizer.config.ProcessingPlan;
+import mk.arsov.cartoonizer.config.ProcessingPlanLoader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cartoonizes one image with many sets of parameters, for tuning a style.
+ *
+ * Each stage is calculated once for each distinct set of the parameters it depends on, the parameters of the
+ * stage and of the stages before it, as in the cache keys of the {@link CartoonizerPipeline}. The results of
+ * all stages are kept for the whole sweep, and the later parameter sets start from them. For example in a sweep
+ * over fdog.tau with one fdog iteration the edge tangent flow and the response He(x) are calculated once, and
+ * only the threshold and the composite for each value of tau. A sweep over fdog.ro or fdog.sigmaC calculates
+ * the response again, but not the edge tangent flow or the smoothing, and a sweep over fbl.re only the smoothing.
+ */
+public class ParameterSweep {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final Map<String, Object> baseParameters;
+
+    /**
+     * Create sweep from the plan in application.yml.
+     */
+    public ParameterSweep() {
+        this(ProcessingPlanLoader.loadDefault());
+    }
+
+    /**
+     * Create sweep.
+     *
+     * @param basePlan the plan with the parameters which are not in the parameter sets
+     */
+    public ParameterSweep(final ProcessingPlan basePlan) {
+        this.baseParameters = basePlan.getParameters();
+    }
+
+    /**
+     * Cartoonize the image with each parameter set.
+     *
+     * @param sourceImage the source image, it is not modified
+     * @param parameterSets the parameters which differ from the base plan, "section.key" to value
+     * @return results in the order of the parameter sets, the results of the same stage are shared between them
+     *         and must not be modified
+     * @throws IllegalArgumentException if a parameter set has an unknown or invalid parameter
+     */
+    public List<PipelineResult> run(final BufferedImage sourceImage, final List<? extends Map<String, ?>> parameterSets) {
+        long startTime = System.currentTimeMillis();
+
+        // all results of the sweep are kept, an evicted stage would be calculated again
+        final StageCache memo = new StageCache(Long.MAX_VALUE, null);
+        final String imageKey = StageCache.key(sourceImage);
+
+        final List<PipelineResult> results = new ArrayList<PipelineResult>(parameterSets.size());
+        for (Map<String, ?> parameterSet : parameterSets) {
+            final Map<String, Object> parameters = new LinkedHashMap<String, Object>(baseParameters);
+            parameters.putAll(parameterSet);
+            final CartoonizerPipeline pipeline = new CartoonizerPipeline(ProcessingPlanLoader.fromParameters(parameters), memo);
+            results.add(pipeline.processMemoized(sourceImage, imageKey));
+        }
+
+        logger.info("Sweep of {} parameter sets finished in {} ms, {} stages calculated, {} reused",
+            new Object[] {parameterSets.size(), System.currentTimeMillis() - startTime, memo.getMisses(), memo.getHits()});
+        return results;
+    }
+
+    /**
+     * All combinations of the parameter values, the first parameter changes the slowest.
+     *
+     * @param values the values of each parameter, "section.key" to the list of values
+     * @return the parameter sets, one set without parameters if no values are given
+     */
+    public static List<Map<String, Object>> grid(final Map<String, ? extends List<?>> values) {
+        List<Map<String, Object>> parameterSets = new ArrayList<Map<String, Object>>();
+        parameterSets.add(new LinkedHashMap<String, Object>());
+
+        for (Map.Entry<String, ? extends List<?>> parameter : values.entrySet()) {
+            final List<Map<String, Object>> expanded = new ArrayList<Map<String, Object>>();
+            for (Map<String, Object> parameterSet : parameterSets) {
+                for (Object value : parameter.getValue()) {
+                    final Map<String, Object> combination = new LinkedHashMap<String, Object>(parameterSet);
+                    combination.put(parameter.getKey(), value);
+                    expanded.add(combination);
+                }
+            }
+            parameterSets = expanded;
+        }
+
+        return parameterSets;
+    }
+}
@@ -0,0 +1,93 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import mk.arsov.cartoonizer.util.VectorField;
+
+/**
+ * Results of all stages of one run of the {@link CartoonizerPipeline}.
+ */
+public class PipelineResult {
+
+    private final Map<PipelineStage, Object> results;
+    private final Map<PipelineStage, Long> durations;
+    private final Set<PipelineStage> calculated;
+
+    PipelineResult(final Map<PipelineStage, Object> results, final Map<PipelineStage, Long> durations,
+            final Set<PipelineStage> calculated) {
+        this.results = Collections.unmodifiableMap(new EnumMap<PipelineStage, Object>(results));
+        this.durations = Collections.unmodifiableMap(new EnumMap<PipelineStage, Long>(durations));
+        final Set<PipelineStage> stages = EnumSet.noneOf(PipelineStage.class);
+        synchronized (calculated) {
+            stages.addAll(calculated);
+        }
+        this.calculated = Collections.unmodifiableSet(stages);
+    }
+
+    /**
+     * The cartoonized image, the edges drawn over the smoothed image.
+     *
+     * @return the final image
+     */
+    public BufferedImage getImage() {
+        return (BufferedImage) results.get(PipelineStage.COMPOSITE);
+    }
+
+    /**
+     * The edges, black on white.
+     *
+     * @return the edge image
+     */
+    public BufferedImage getEdges() {
+        return (BufferedImage) results.get(PipelineStage.EDGES);
+    }
+
+    /**
+     * The source image after the flow based bilateral filter.
+     *
+     * @return the smoothed image
+     */
+    public BufferedImage getSmoothed() {
+        return (BufferedImage) results.get(PipelineStage.SMOOTHING);
+    }
+
+    public VectorField getEdgeTangentFlow() {
+        return (VectorField) results.get(PipelineStage.ETF);
+    }
+
+    /**
+     * The result of any stage.
+     *
+     * @param stage the stage
+     * @return the result of the stage, null if it was skipped because the later stages were cached
+     */
+    public Object getResult(final PipelineStage stage) {
+        return results.get(stage);
+    }
+
+    /**
+     * Time spent in one stage.
+     *
+     * @param stage the stage
+     * @return duration in milliseconds, 0 for stages taken from the cache or skipped
+     */
+    public long getDuration(final PipelineStage stage) {
+        final Long duration = durations.get(stage);
+        return duration == null ? 0 : duration;
+    }
+
+    /**
+     * Whether the stage was calculated in this run.
+     *
+     * @param stage the stage
+     * @return false for stages taken from the cache, already known or skipped
+     */
+    public boolean isCalculated(final PipelineStage stage) {
+        return calculated.contains(stage);
+    }
+}
@@ -0,0 +1,60 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stages of the cartoonization, with the stages each of them depends on.
+ *
+ * The stages are declared in dependency order, a stage only depends on stages declared before it.
+ * The edge tangent flow and the tables derived from it are calculated once and shared by the
+ * edge detection and the region smoothing branch, which don't depend on each other.
+ */
+public enum PipelineStage {
+
+    /** Grayscale version of the source image. */
+    GRAYSCALE,
+
+    /** Gaussian blur of the grayscale image, the input of the gradient calculation. */
+    BLUR(GRAYSCALE),
+
+    /** Sobel gradients and gradient magnitude. */
+    SOBEL(BLUR),
+
+    /** Edge tangent flow. */
+    ETF(SOBEL),
+
+    /** Line segments along the edge tangent flow, for He(x) and Ce(x). */
+    STREAMLINES(ETF),
+
+    /** Line segments in the gradient direction, for Hg(x) and Cg(x). */
+    GRADIENT_STENCILS(ETF),
+
+    /** He(x) of the first edge detection iteration, the flow based difference of gaussians before the threshold. */
+    EDGE_RESPONSE(GRAYSCALE, STREAMLINES, GRADIENT_STENCILS),
+
+    /** Flow based difference of gaussians edges, thresholded from the first response and the further iterations. */
+    EDGES(GRAYSCALE, STREAMLINES, GRADIENT_STENCILS, EDGE_RESPONSE),
+
+    /** Flow based bilateral filter of the color image. */
+    SMOOTHING(STREAMLINES, GRADIENT_STENCILS),
+
+    /** The edges drawn over the smoothed image. */
+    COMPOSITE(EDGES, SMOOTHING);
+
+    private final List<PipelineStage> dependencies;
+
+    PipelineStage(final PipelineStage... dependencies) {
+        this.dependencies = Collections.unmodifiableList(Arrays.asList(dependencies));
+    }
+
+    /**
+     * The stages whose results are needed to calculate this stage.
+     *
+     * @return the direct dependencies of the stage
+     */
+    public List<PipelineStage> getDependencies() {
+        return dependencies;
+    }
+}
@@ -0,0 +1,291 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+import mk.arsov.cartoonizer.config.PreviewConfiguration;
+import mk.arsov.cartoonizer.util.ImageUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Progressive cartoonization for interactive use. A request first cartoonizes a downscaled copy of the image,
+ * small enough to be ready within the time budget, and returns it as the preview. The full resolution, and
+ * optionally some resolutions between the preview and the full one, are then calculated in the background and
+ * given to the {@link Listener}.
+ *
+ * Requests belong to sessions, for example one for each open image in the user interface. A new request of a
+ * session cancels the calculation of the previous one, it's higher resolutions are no longer calculated or
+ * delivered.
+ *
+ * The size of the preview is chosen from the measured time per pixel of the earlier previews, the first previews
+ * use the estimate from the configuration. When the estimate is wrong and the budget runs out, the preview is
+ * cancelled before it's next stage and calculated again at half the scale or less, with a new budget. A stage which is
+ * already running is finished, so the preview can be late by the time of one stage. The preview of the smallest
+ * size is not cancelled. The preview is calculated with the same parameters as the full image, so the kernels
+ * cover a larger part of the downscaled image and the preview looks coarser.
+ */
+public class ProgressiveRenderer {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** Threads calculating the higher resolutions. */
+    private static final ExecutorService REFINEMENT_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "cartoonizer-refinement");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Receives the results at higher resolutions than the preview.
+     */
+    public interface Listener {
+
+        /**
+         * A result of the rendering, called on the refinement thread, with increasing resolution.
+         *
+         * @param rendering the rendering
+         * @param image the cartoonized image
+         * @param scale size of the image relative to the source image, 1 for the full resolution result
+         */
+        void resultReady(ProgressiveRendering rendering, BufferedImage image, double scale);
+    }
+
+    private final CartoonizerPipeline pipeline;
+    private final Executor executor;
+    private final long budgetMillis;
+    private final int intermediateResolutions;
+    private final ConcurrentMap<String, ProgressiveRendering> sessions =
+        new ConcurrentHashMap<String, ProgressiveRendering>();
+
+    /** Measured cartoonization time per pixel of the previews. */
+    private volatile double nanosPerPixel = PreviewConfiguration.INITIAL_NANOS_PER_PIXEL;
+
+    /**
+     * Create renderer with the parameters from the configuration.
+     *
+     * @param pipeline the pipeline for all resolutions
+     */
+    public ProgressiveRenderer(final CartoonizerPipeline pipeline) {
+        this(pipeline, REFINEMENT_EXECUTOR, PreviewConfiguration.BUDGET_MILLIS,
+            PreviewConfiguration.INTERMEDIATE_RESOLUTIONS);
+    }
+
+    /**
+     * Create renderer.
+     *
+     * @param pipeline the pipeline for all resolutions
+     * @param executor executor for the higher resolutions
+     * @param budgetMillis time in which the preview should be ready
+     * @param intermediateResolutions number of resolutions between the preview and the full resolution
+     */
+    public ProgressiveRenderer(final CartoonizerPipeline pipeline, final Executor executor, final long budgetMillis,
+            final int intermediateResolutions) {
+        if ((budgetMillis < 1) || (intermediateResolutions < 0)) {
+            throw new IllegalArgumentException("Time budget should be positive and intermediate resolutions not negative");
+        }
+        this.pipeline = pipeline;
+        this.executor = executor;
+        this.budgetMillis = budgetMillis;
+        this.intermediateResolutions = intermediateResolutions;
+    }
+
+    /**
+     * Cartoonize the image progressively. Returns when the preview is ready, the higher resolutions are
+     * calculated in the background. The previous rendering of the session is cancelled.
+     *
+     * @param session the session
+     * @param sourceImage the source image, it should not be modified until the rendering is finished
+     * @param listener receives the higher resolutions, can be null if only the final result is needed
+     * @return the rendering, with the preview
+     */
+    public ProgressiveRendering render(final String session, final BufferedImage sourceImage, final Listener listener) {
+        final ProgressiveRendering rendering = new ProgressiveRendering(session);
+        final ProgressiveRendering previous = sessions.put(session, rendering);
+        if (previous != null) {
+            logger.info("Cancelling previous rendering of session {}", session);
+            previous.cancel();
+        }
+
+        final double minScale = minScale(sourceImage.getWidth(), sourceImage.getHeight());
+        double previewScale = previewScale(sourceImage.getWidth(), sourceImage.getHeight());
+
+        // the preview is returned even if a newer request of the session comes in the meantime
+        BufferedImage preview = null;
+        try {
+            while (preview == null) {
+                final long deadline = System.nanoTime() + budgetMillis * 1000000;
+                final BooleanSupplier late = (previewScale > minScale)
+                    ? () -> System.nanoTime() > deadline : () -> false;
+                try {
+                    preview = cartoonize(sourceImage, previewScale, late, true);
+                } catch (CancellationException e) {
+                    // the time of the cancelled preview is counted, so the next scale can be less than half
+                    logger.info("Preview at scale {} over the time budget, trying a smaller scale", previewScale);
+                    previewScale = Math.min(previewScale / 2,
+                        previewScale(sourceImage.getWidth(), sourceImage.getHeight()));
+                }
+            }
+        } catch (RuntimeException e) {
+            sessions.remove(session, rendering);
+            throw e;
+        }
+        rendering.setPreview(preview, previewScale);
+
+        final List<Double> scales = scales(previewScale);
+
+        if (scales.size() == 1) {
+            rendering.getResult().complete(preview);
+            sessions.remove(session, rendering);
+        } else {
+            executor.execute(() -> refine(rendering, sourceImage, scales.subList(1, scales.size()), listener));
+        }
+
+        return rendering;
+    }
+
+    /**
+     * Cancel the rendering of the session, if it's not finished yet.
+     *
+     * @param session the session
+     */
+    public void cancel(final String session) {
+        final ProgressiveRendering rendering = sessions.remove(session);
+        if (rendering != null) {
+            rendering.cancel();
+        }
+    }
+
+    /**
+     * Calculate the higher resolutions, until the rendering is cancelled.
+     *
+     * @param rendering the rendering
+     * @param sourceImage the source image
+     * @param scales the resolutions, the last one is the full resolution
+     * @param listener receives the results, can be null
+     */
+    private void refine(final ProgressiveRendering rendering, final BufferedImage sourceImage, final List<Double> scales,
+            final Listener listener) {
+        try {
+            for (double scale : scales) {
+                final BufferedImage result = cartoonize(sourceImage, scale, rendering::isCancelled, false);
+                if (rendering.isCancelled()) {
+                    throw new CancellationException();
+                }
+
+                if (scale == 1) {
+                    rendering.getResult().complete(result);
+                }
+                if (listener != null) {
+                    listener.resultReady(rendering, result, scale);
+                }
+            }
+        } catch (CancellationException e) {
+            logger.info("Rendering of session {} cancelled", rendering.getSession());
+        } catch (RuntimeException e) {
+            logger.error("Cannot cartoonize image of session " + rendering.getSession(), e);
+            rendering.getResult().completeExceptionally(e);
+        } finally {
+            sessions.remove(rendering.getSession(), rendering);
+        }
+    }
+
+    /**
+     * Cartoonize the image at the given scale.
+     *
+     * @param sourceImage the source image
+     * @param scale size relative to the source image
+     * @param cancelled true when the result is no longer needed
+     * @param measure whether to use the time for the size of the next previews
+     * @return the cartoonized image
+     */
+    private BufferedImage cartoonize(final BufferedImage sourceImage, final double scale,
+            final BooleanSupplier cancelled, final boolean measure) {
+        final BufferedImage scaled = (scale == 1) ? sourceImage : ImageUtils.resize(sourceImage,
+            scaledSize(sourceImage.getWidth(), scale), scaledSize(sourceImage.getHeight(), scale));
+
+        final long startTime = System.nanoTime();
+        final PipelineResult result;
+        try {
+            result = pipeline.process(scaled, cancelled);
+        } catch (CancellationException e) {
+            // the whole preview would take at least as long as the cancelled one
+            if (measure) {
+                nanosPerPixel = Math.max(nanosPerPixel,
+                    (double) (System.nanoTime() - startTime) / (scaled.getWidth() * scaled.getHeight()));
+            }
+            throw e;
+        }
+        final long elapsed = System.nanoTime() - startTime;
+
+        // only the calculations from the start are a measure of the speed, not the results from the cache
+        if (measure && (result.getResult(PipelineStage.SOBEL) != null)) {
+            nanosPerPixel = (nanosPerPixel + (double) elapsed / (scaled.getWidth() * scaled.getHeight())) / 2;
+            logger.info("Preview {}x{} in {} ms", new Object[] {scaled.getWidth(), scaled.getHeight(), elapsed / 1000000});
+        }
+
+        return result.getImage();
+    }
+
+    /**
+     * Scales of the preview, the intermediate resolutions and the full resolution.
+     *
+     * @param width the width of the source image
+     * @param height the height of the source image
+     * @return the scales, from the smallest to 1
+     */
+    List<Double> scales(final int width, final int height) {
+        return scales(previewScale(width, height));
+    }
+
+    /**
+     * Scales of the given preview, the intermediate resolutions and the full resolution.
+     *
+     * @param previewScale the scale of the preview
+     * @return the scales, from the smallest to 1
+     */
+    private List<Double> scales(final double previewScale) {
+        final List<Double> scales = new ArrayList<Double>();
+        scales.add(previewScale);
+        double scale = previewScale * 2;
+        for (int i = 0; (i < intermediateResolutions) && (scale < 1); i++) {
+            scales.add(scale);
+            scale *= 2;
+        }
+        if (previewScale < 1) {
+            scales.add(1.0);
+        }
+
+        return scales;
+    }
+
+    /**
+     * Scale of the preview which should be ready within the budget, from the measured time per pixel.
+     *
+     * @param width the width of the source image
+     * @param height the height of the source image
+     * @return the scale, not below the scale of the smallest preview
+     */
+    private double previewScale(final int width, final int height) {
+        final double pixels = (double) width * height;
+        final double budgetPixels = budgetMillis * 1000000.0 / nanosPerPixel;
+        return Math.max(minScale(width, height), Math.min(1, Math.sqrt(budgetPixels / pixels)));
+    }
+
+    private static double minScale(final int width, final int height) {
+        return Math.min(1, (double) PreviewConfiguration.MIN_SIZE / Math.min(width, height));
+    }
+
+    private static int scaledSize(final int size, final double scale) {
+        return Math.max(1, (int) Math.round(size * scale));
+    }
+}
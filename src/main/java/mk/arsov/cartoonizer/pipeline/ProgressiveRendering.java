@@ -0,0 +1,71 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One request of a {@link ProgressiveRenderer}: the preview, which is ready when the request returns,
+ * and the full resolution result, which is calculated later.
+ */
+public class ProgressiveRendering {
+
+    private final String session;
+    private final CompletableFuture<BufferedImage> result = new CompletableFuture<BufferedImage>();
+    private volatile BufferedImage preview;
+    private volatile double previewScale;
+    private volatile boolean cancelled;
+
+    ProgressiveRendering(final String session) {
+        this.session = session;
+    }
+
+    public String getSession() {
+        return session;
+    }
+
+    /**
+     * The cartoonized downscaled image.
+     *
+     * @return the preview, of the size of the source image times {@link #getPreviewScale()}
+     */
+    public BufferedImage getPreview() {
+        return preview;
+    }
+
+    /**
+     * Size of the preview relative to the source image.
+     *
+     * @return the scale, 1 if the whole image could be calculated as the preview
+     */
+    public double getPreviewScale() {
+        return previewScale;
+    }
+
+    /**
+     * The full resolution result. The future is cancelled when the rendering is cancelled, and completes
+     * exceptionally if the cartoonization fails.
+     *
+     * @return the result
+     */
+    public CompletableFuture<BufferedImage> getResult() {
+        return result;
+    }
+
+    /**
+     * Stop the calculation of the higher resolutions, the stage which is already running is finished
+     * and then nothing more is calculated or delivered.
+     */
+    public void cancel() {
+        cancelled = true;
+        result.cancel(false);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void setPreview(final BufferedImage preview, final double previewScale) {
+        this.preview = preview;
+        this.previewScale = previewScale;
+    }
+}
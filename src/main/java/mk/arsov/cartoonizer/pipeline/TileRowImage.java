@@ -0,0 +1,207 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Vector;
+
+/**
+ * Image made of rows of tiles which are calculated when they are read, so an image writer can encode
+ * an image which is never whole in memory.
+ *
+ * The image has one tile for each row of tiles, as wide as the image. Only the last calculated row is kept,
+ * so the rows should be read from top to bottom, like the png writer reads them. Reading a row again
+ * calculates it again.
+ */
+class TileRowImage implements RenderedImage {
+
+    /**
+     * Calculates the rows of the image.
+     */
+    interface RowSource {
+
+        /**
+         * The row of tiles.
+         *
+         * @param fromY the first pixel row
+         * @param height the number of pixel rows
+         * @return the image of the rows, as wide as the image, with three bytes per pixel
+         */
+        BufferedImage calculate(int fromY, int height);
+    }
+
+    private final int width;
+    private final int height;
+    private final int rowHeight;
+    private final RowSource source;
+    private final ColorModel colorModel;
+    private final SampleModel sampleModel;
+
+    /** Index of the last calculated row, -1 before the first one. */
+    private int currentRow = -1;
+
+    /** The last calculated row, at it's position in the image. */
+    private Raster currentRaster;
+
+    /**
+     * Create image.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param rowHeight the height of the rows of tiles, the last row can be lower
+     * @param source calculates the rows
+     */
+    TileRowImage(final int width, final int height, final int rowHeight, final RowSource source) {
+        this.width = width;
+        this.height = height;
+        this.rowHeight = rowHeight;
+        this.source = source;
+        final BufferedImage prototype = new BufferedImage(1, 1, BufferedImage.TYPE_3BYTE_BGR);
+        this.colorModel = prototype.getColorModel();
+        this.sampleModel = prototype.getSampleModel().createCompatibleSampleModel(width, rowHeight);
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(final String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return (height + rowHeight - 1) / rowHeight;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return width;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return rowHeight;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    @Override
+    public Raster getTile(final int tileX, final int tileY) {
+        return row(tileY);
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public Raster getData(final Rectangle region) {
+        final WritableRaster raster = Raster.createWritableRaster(
+            sampleModel.createCompatibleSampleModel(region.width, region.height), new Point(region.x, region.y));
+        return copyData(raster);
+    }
+
+    @Override
+    public WritableRaster copyData(final WritableRaster raster) {
+        final WritableRaster target = (raster == null)
+            ? Raster.createWritableRaster(sampleModel.createCompatibleSampleModel(width, height), null) : raster;
+
+        final int fromRow = Math.max(0, target.getMinY()) / rowHeight;
+        final int toRow = Math.min(height - 1, target.getMinY() + target.getHeight() - 1) / rowHeight;
+        for (int row = fromRow; row <= toRow; row++) {
+            final Raster rowRaster = row(row);
+            final Rectangle part = rowRaster.getBounds().intersection(target.getBounds());
+            if (!part.isEmpty()) {
+                target.setPixels(part.x, part.y, part.width, part.height,
+                    rowRaster.getPixels(part.x, part.y, part.width, part.height, (int[]) null));
+            }
+        }
+
+        return target;
+    }
+
+    /**
+     * The row of tiles, calculated unless it's the last calculated row.
+     *
+     * @param row the index of the row
+     * @return the raster of the row, at it's position in the image
+     */
+    private synchronized Raster row(final int row) {
+        if (row != currentRow) {
+            final int fromY = row * rowHeight;
+            final BufferedImage image = source.calculate(fromY, Math.min(rowHeight, height - fromY));
+            currentRaster = image.getRaster().createTranslatedChild(0, fromY);
+            currentRow = row;
+        }
+
+        return currentRaster;
+    }
+}
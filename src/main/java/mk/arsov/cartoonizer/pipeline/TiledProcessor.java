@@ -0,0 +1,321 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import mk.arsov.cartoonizer.config.ProcessingPlan;
+import mk.arsov.cartoonizer.config.TileConfiguration;
+import mk.arsov.cartoonizer.lineintegralconvolution.ScanlineGradient;
+import mk.arsov.cartoonizer.lineintegralconvolution.SobelGradient;
+import mk.arsov.cartoonizer.util.BlurMode;
+import mk.arsov.cartoonizer.util.ImageUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cartoonizes large images in tiles, so the memory for the calculations depends on the tile size
+ * instead of the image size.
+ *
+ * Each tile is calculated together with a halo of {@link ProcessingPlan#getReach()} pixels around it,
+ * so the pixels of the tile are the same as when the whole image is calculated at once, and the tiles
+ * fit together without seams. The only value which depends on the whole image, the sum of the gradient
+ * magnitude used by the edge tangent flow, is calculated first in a separate pass over the image, in strips
+ * of rows with the separable blur and in tiles otherwise.
+ *
+ * The images read from files are decoded one tile at a time, and the png is written one row of tiles at a
+ * time, while the next row of tiles is not calculated yet, so only one row of tiles of the result is in memory.
+ * The images in memory are cartoonized into a whole result image.
+ */
+public class TiledProcessor {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * Source of the tiles.
+     */
+    private interface TileSource {
+
+        /**
+         * The part of the source image.
+         *
+         * @param region the part, inside of the image
+         * @return the image of the part
+         * @throws IOException if the part can't be read
+         */
+        BufferedImage read(Rectangle region) throws IOException;
+    }
+
+    private final CartoonizerPipeline pipeline;
+    private final int tileSize;
+    private final SobelGradient sobelGradient = new SobelGradient();
+
+    /**
+     * Create tiled processor with the tile size from the configuration.
+     *
+     * @param pipeline the pipeline for each tile
+     */
+    public TiledProcessor(final CartoonizerPipeline pipeline) {
+        this(pipeline, TileConfiguration.TILE_SIZE);
+    }
+
+    /**
+     * Create tiled processor.
+     *
+     * @param pipeline the pipeline for each tile
+     * @param tileSize width and height of the tiles, without the halo, in pyramid mode rounded up to a multiple
+     *        of the size of the coarsest etf pixels
+     */
+    public TiledProcessor(final CartoonizerPipeline pipeline, final int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("Tile size should be positive");
+        }
+        this.pipeline = pipeline;
+        // the tiles should start at the pixels of the coarsest pyramid level
+        final int pyramidBlock = pipeline.getPlan().getPyramidBlock();
+        this.tileSize = (tileSize + pyramidBlock - 1) / pyramidBlock * pyramidBlock;
+    }
+
+    /**
+     * Cartoonize the image in tiles.
+     *
+     * @param sourceImage the source image, it is not modified
+     * @return the cartoonized image
+     */
+    public BufferedImage process(final BufferedImage sourceImage) {
+        try {
+            return process(sourceImage.getWidth(), sourceImage.getHeight(),
+                region -> sourceImage.getSubimage(region.x, region.y, region.width, region.height));
+        } catch (IOException e) {
+            // the tiles of an image in memory are never read from a file
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Cartoonize the image from the input file in tiles, and write it as png.
+     *
+     * @param input the source image file
+     * @param output the png file
+     * @throws IOException if the image can't be read or written
+     */
+    public void process(final File input, final File output) throws IOException {
+        final ImageInputStream stream = ImageIO.createImageInputStream(input);
+        if (stream == null) {
+            throw new IOException("Cannot open image " + input);
+        }
+
+        try {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException("Unknown image format " + input);
+            }
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, false, true);
+                final long startTime = System.currentTimeMillis();
+                final int width = reader.getWidth(0);
+                final int height = reader.getHeight(0);
+                final TileSource source = region -> {
+                    final ImageReadParam parameters = reader.getDefaultReadParam();
+                    parameters.setSourceRegion(region);
+                    return reader.read(0, parameters);
+                };
+                final double gradientMagnitudeSum = start(width, height, source);
+
+                // the writer reads the rows from top to bottom, each row of tiles is calculated when it's reached
+                final TileRowImage result = new TileRowImage(width, height, tileSize, (fromY, rowHeight) -> {
+                    try {
+                        return processRow(width, height, source, gradientMagnitudeSum, fromY);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                try {
+                    if (!ImageIO.write(result, "PNG", output)) {
+                        throw new IOException("No png writer");
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                logger.info("Tiled cartoonization finished in {} ms", System.currentTimeMillis() - startTime);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Cartoonize the image in tiles.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param source the tiles of the source image
+     * @return the cartoonized image
+     * @throws IOException if a tile can't be read
+     */
+    private BufferedImage process(final int width, final int height, final TileSource source) throws IOException {
+        final long startTime = System.currentTimeMillis();
+        final double gradientMagnitudeSum = start(width, height, source);
+
+        final BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int tileY = 0; tileY < height; tileY += tileSize) {
+            result.getRaster().setRect(0, tileY,
+                processRow(width, height, source, gradientMagnitudeSum, tileY).getRaster());
+        }
+
+        logger.info("Tiled cartoonization finished in {} ms", System.currentTimeMillis() - startTime);
+        return result;
+    }
+
+    /**
+     * Log the start of the cartoonization and calculate the sum of the gradient magnitude.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param source the tiles of the source image
+     * @return the sum of the gradient magnitude of the whole image
+     * @throws IOException if a tile can't be read
+     */
+    private double start(final int width, final int height, final TileSource source) throws IOException {
+        final ProcessingPlan plan = pipeline.getPlan();
+        logger.info("Cartoonizing {}x{} image in tiles of {} pixels with halo of {} pixels",
+            new Object[] {width, height, tileSize, plan.getReach()});
+
+        return gradientMagnitudeSum(width, height, source, plan);
+    }
+
+    /**
+     * Cartoonize one row of tiles.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param source the tiles of the source image
+     * @param gradientMagnitudeSum the sum of the gradient magnitude of the whole image
+     * @param tileY the first pixel row of the tiles
+     * @return the cartoonized rows, as wide as the image
+     * @throws IOException if a tile can't be read
+     */
+    private BufferedImage processRow(final int width, final int height, final TileSource source,
+            final double gradientMagnitudeSum, final int tileY) throws IOException {
+        final int reach = pipeline.getPlan().getReach();
+        final BufferedImage row = new BufferedImage(width, Math.min(tileSize, height - tileY),
+            BufferedImage.TYPE_3BYTE_BGR);
+        for (int tileX = 0; tileX < width; tileX += tileSize) {
+            final Rectangle tile = tile(tileX, tileY, width, height);
+            final Rectangle region = halo(tile, reach, width, height);
+
+            final BufferedImage cartoon = pipeline.processPart(source.read(region), gradientMagnitudeSum).getImage();
+            row.setRGB(tile.x, 0, tile.width, tile.height,
+                cartoon.getRGB(tile.x - region.x, tile.y - region.y, tile.width, tile.height, null, 0, tile.width),
+                0, tile.width);
+        }
+
+        return row;
+    }
+
+    /**
+     * Sum of the gradient magnitude of the whole image, calculated in tiles. The magnitudes in each row are
+     * added from left to right across the tiles and the rows are added from top to bottom, the same order
+     * as in {@link mk.arsov.cartoonizer.abstraction.EdgeTangentFlow}, so the sum is exactly the same.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param source the tiles of the source image
+     * @param plan the processing plan
+     * @return the sum
+     * @throws IOException if a tile can't be read
+     */
+    private double gradientMagnitudeSum(final int width, final int height, final TileSource source,
+            final ProcessingPlan plan) throws IOException {
+        if (plan.getBlurMode() == BlurMode.SEPARABLE) {
+            return streamedGradientMagnitudeSum(width, height, source, plan);
+        }
+
+        // the sobel kernel reaches one pixel further than the blur
+        final int reach = plan.getBlurKernelRadius() + 1;
+        final double[] rowSums = new double[height];
+
+        for (int tileY = 0; tileY < height; tileY += tileSize) {
+            for (int tileX = 0; tileX < width; tileX += tileSize) {
+                final Rectangle tile = tile(tileX, tileY, width, height);
+                final Rectangle region = halo(tile, reach, width, height);
+
+                final BufferedImage blurred = ImageUtils.blur(ImageUtils.toGrayscale(source.read(region)),
+                    plan.getBlurKernelRadius(), plan.getBlurSigma(), plan.getBlurMode());
+                final double[] magnitude = sobelGradient.calculatePlanes(blurred).getMagnitude();
+
+                for (int i = tile.y; i < tile.y + tile.height; i++) {
+                    final int rowStart = (i - region.y) * region.width - region.x;
+                    double rowSum = rowSums[i];
+                    for (int j = tile.x; j < tile.x + tile.width; j++) {
+                        rowSum += magnitude[rowStart + j];
+                    }
+                    rowSums[i] = rowSum;
+                }
+            }
+        }
+
+        double sum = 0;
+        for (int i = 0; i < height; i++) {
+            sum += rowSums[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Sum of the gradient magnitude of the whole image, with the separable blur. The image is read in strips
+     * of whole rows and the gradients are calculated while the strips are read, only a few rows are kept.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param source the tiles of the source image
+     * @param plan the processing plan
+     * @return the sum
+     * @throws IOException if a strip can't be read
+     */
+    private double streamedGradientMagnitudeSum(final int width, final int height, final TileSource source,
+            final ProcessingPlan plan) throws IOException {
+        final double[] sum = new double[1];
+        final ScanlineGradient scanlineGradient = new ScanlineGradient(width, height, plan.getBlurKernelRadius(),
+            plan.getBlurSigma(), (row, gradientX, gradientY, magnitude) -> {
+                double rowSum = 0;
+                for (int j = 0; j < width; j++) {
+                    rowSum += magnitude[j];
+                }
+                sum[0] += rowSum;
+            });
+
+        for (int stripY = 0; stripY < height; stripY += tileSize) {
+            scanlineGradient.push(source.read(new Rectangle(0, stripY, width, Math.min(tileSize, height - stripY))));
+        }
+
+        return sum[0];
+    }
+
+    private Rectangle tile(final int tileX, final int tileY, final int width, final int height) {
+        return new Rectangle(tileX, tileY, Math.min(tileSize, width - tileX), Math.min(tileSize, height - tileY));
+    }
+
+    /**
+     * The tile with the halo around it, inside of the image.
+     */
+    private static Rectangle halo(final Rectangle tile, final int reach, final int width, final int height) {
+        final int fromX = Math.max(0, tile.x - reach);
+        final int fromY = Math.max(0, tile.y - reach);
+        final int toX = Math.min(width, tile.x + tile.width + reach);
+        final int toY = Math.min(height, tile.y + tile.height + reach);
+        return new Rectangle(fromX, fromY, toX - fromX, toY - fromY);
+    }
+}
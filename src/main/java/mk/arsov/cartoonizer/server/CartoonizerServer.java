@@ -0,0 +1,570 @@
+package mk.arsov.cartoonizer.server;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import mk.arsov.cartoonizer.cache.StageCache;
+import mk.arsov.cartoonizer.config.ProcessingPlan;
+import mk.arsov.cartoonizer.config.ProcessingPlanLoader;
+import mk.arsov.cartoonizer.config.ServerConfiguration;
+import mk.arsov.cartoonizer.pipeline.CartoonizerPipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Http service which cartoonizes uploaded images.
+ *
+ * POST /cartoonize with the image as the request body returns the cartoonized image as png. The query
+ * parameters override the style parameters of the plan, with the names from application.yml, for example
+ * /cartoonize?fdog.tau=0.7&amp;etf.mode=separable. Only the parameters in {@link #STYLE_PARAMETERS} can be
+ * overridden, their values are clamped to the maximums given there and rejected below the minimums, so a request
+ * can't make the server allocate huge tables, calculate for hours or fail in the calculation. GET /health returns the state of the compute queue.
+ *
+ * The requests are handled on virtual threads when the runtime has them, otherwise on a cached thread pool.
+ * The cartoonization itself runs on a fixed number of compute threads behind a bounded queue. A request takes
+ * one of the compute threads + queue capacity slots before it's body is read, and keeps it until it's image is
+ * cartoonized, so requests which don't fit are rejected right away with 503, and at most that many uploads are
+ * in memory at the same time. A request which times out cancels it's calculation, which stops at the next stage
+ * and frees the slot. The size of the image is read from it's header, and images with more pixels than
+ * allowed are rejected before they are decoded. Repeated images and parameters are served from a
+ * {@link StageCache}.
+ */
+public class CartoonizerServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(CartoonizerServer.class);
+
+    /** Seconds a rejected client should wait before trying again. */
+    private static final String RETRY_AFTER = "1";
+
+    /**
+     * Accepted values of a numeric style parameter.
+     */
+    static final class Range {
+
+        private final boolean integer;
+        private final double minimum;
+        private final boolean positive;
+        private final double maximum;
+        private final boolean auto;
+
+        private Range(final boolean integer, final double minimum, final boolean positive, final double maximum,
+                final boolean auto) {
+            this.integer = integer;
+            this.minimum = minimum;
+            this.positive = positive;
+            this.maximum = maximum;
+            this.auto = auto;
+        }
+
+        /** Integer from the minimum to the maximum. */
+        static Range integer(final int minimum, final int maximum) {
+            return new Range(true, minimum, false, maximum, false);
+        }
+
+        /** Kernel length from 1 to the maximum, or "auto". */
+        static Range length(final int maximum) {
+            return new Range(true, 1, false, maximum, true);
+        }
+
+        /** Finite number larger than 0, up to the maximum. */
+        static Range positive(final double maximum) {
+            return new Range(false, 0, true, maximum, false);
+        }
+
+        /** Finite number from 0 to the maximum. */
+        static Range fraction(final double maximum) {
+            return new Range(false, 0, false, maximum, false);
+        }
+
+        /**
+         * The accepted value.
+         *
+         * @param key the parameter
+         * @param value the value from the query, Long, Double or String
+         * @return the value, or the maximum if the value is larger
+         * @throws IllegalArgumentException if the value is below the minimum, not finite or of the wrong type
+         */
+        Object accept(final String key, final Object value) {
+            if (value instanceof String) {
+                if (auto && ProcessingPlan.AUTO.equalsIgnoreCase((String) value)) {
+                    return value;
+                }
+            } else if (integer && (value instanceof Long)) {
+                if ((Long) value >= minimum) {
+                    return Math.min((Long) value, (long) maximum);
+                }
+            } else if (!integer && (value instanceof Number)) {
+                final double number = ((Number) value).doubleValue();
+                if (!Double.isNaN(number) && !Double.isInfinite(number) && (number >= minimum)
+                        && (!positive || (number > 0))) {
+                    return Math.min(number, maximum);
+                }
+            }
+
+            throw new IllegalArgumentException("Invalid value " + value + " for style parameter " + key);
+        }
+    }
+
+    /**
+     * The parameters which a request can override, with the range of accepted values, null for the modes.
+     * Values larger than the maximum are replaced by the maximum, the values below the minimum, the numbers
+     * which are not finite and the values of the wrong type are rejected. The kernel lengths can also be "auto",
+     * which is derived from the sigma of the kernel. The other parameters of the plan, like
+     * etf.pyramidIterations, kernel.epsilon and the parallel section, are fixed by the configuration of the server.
+     * <ul>
+     * <li>blur.sigma (0, 5], blur.kernelRadius [1, 15], blur.mode</li>
+     * <li>etf.kernelRadius [1, 8], etf.numberofiterations [0, 5], etf.mode, etf.pyramidLevels [1, 6],
+     * etf.pyramidRefinement [0, 5]</li>
+     * <li>fdog.iterations [0, 5], fdog.mode, fdog.sigmaM (0, 10], fdog.sigmaC (0, 5], fdog.sigmaS (0, 8],
+     * fdog.ro [0, 1], fdog.t [1, 30], fdog.s [1, 40], fdog.tau [0, 1]</li>
+     * <li>fbl.iterations [0, 5], fbl.mode, fbl.sigmaE (0, 10], fbl.re (0, 255], fbl.s [1, 30], fbl.sigmaG (0, 10],
+     * fbl.rg (0, 255], fbl.t [1, 30]</li>
+     * </ul>
+     */
+    static final Map<String, Range> STYLE_PARAMETERS;
+
+    static {
+        final Map<String, Range> parameters = new LinkedHashMap<String, Range>();
+        parameters.put("blur.sigma", Range.positive(5));
+        parameters.put("blur.kernelRadius", Range.length(15));
+        parameters.put("blur.mode", null);
+        parameters.put("etf.kernelRadius", Range.integer(1, 8));
+        parameters.put("etf.numberofiterations", Range.integer(0, 5));
+        parameters.put("etf.mode", null);
+        parameters.put("etf.pyramidLevels", Range.integer(1, 6));
+        parameters.put("etf.pyramidRefinement", Range.integer(0, 5));
+        parameters.put("fdog.iterations", Range.integer(0, 5));
+        parameters.put("fdog.mode", null);
+        parameters.put("fdog.sigmaM", Range.positive(10));
+        parameters.put("fdog.sigmaC", Range.positive(5));
+        parameters.put("fdog.sigmaS", Range.positive(8));
+        parameters.put("fdog.ro", Range.fraction(1));
+        parameters.put("fdog.t", Range.length(30));
+        parameters.put("fdog.s", Range.length(40));
+        parameters.put("fdog.tau", Range.fraction(1));
+        parameters.put("fbl.iterations", Range.integer(0, 5));
+        parameters.put("fbl.mode", null);
+        parameters.put("fbl.sigmaE", Range.positive(10));
+        parameters.put("fbl.re", Range.positive(255));
+        parameters.put("fbl.s", Range.length(30));
+        parameters.put("fbl.sigmaG", Range.positive(10));
+        parameters.put("fbl.rg", Range.positive(255));
+        parameters.put("fbl.t", Range.length(30));
+        STYLE_PARAMETERS = Collections.unmodifiableMap(parameters);
+    }
+
+    private final ProcessingPlan plan;
+    private final StageCache cache;
+    private final int maxUploadBytes;
+    private final long maxPixels;
+    private final long timeoutSeconds;
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    private final ThreadPoolExecutor computeExecutor;
+
+    /** Requests being read, decoded, waiting for or running on a compute thread. */
+    private final Semaphore slots;
+
+    /**
+     * Create server with the parameters from the configuration.
+     *
+     * @param plan the plan, requests override it's parameters
+     * @throws IOException if the server can't be bound to the port
+     */
+    public CartoonizerServer(final ProcessingPlan plan) throws IOException {
+        this(plan, new StageCache(), ServerConfiguration.PORT, ServerConfiguration.COMPUTE_THREADS,
+            ServerConfiguration.QUEUE_CAPACITY, ServerConfiguration.MAX_UPLOAD_BYTES, ServerConfiguration.MAX_PIXELS,
+            ServerConfiguration.TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Create server.
+     *
+     * @param plan the plan, requests override it's parameters
+     * @param cache cache of the stage results, null to calculate each request from scratch
+     * @param port the port, 0 for any free port
+     * @param computeThreads number of images cartoonized at the same time
+     * @param queueCapacity number of requests waiting for a compute thread
+     * @param maxUploadBytes largest accepted image upload
+     * @param maxPixels largest accepted number of pixels of the image
+     * @param timeoutSeconds longest time a request waits for it's image
+     * @throws IOException if the server can't be bound to the port
+     */
+    public CartoonizerServer(final ProcessingPlan plan, final StageCache cache, final int port,
+            final int computeThreads, final int queueCapacity, final int maxUploadBytes, final long maxPixels,
+            final long timeoutSeconds) throws IOException {
+        if ((computeThreads < 1) || (queueCapacity < 1) || (maxUploadBytes < 1) || (maxPixels < 1)
+                || (timeoutSeconds < 1)) {
+            throw new IllegalArgumentException(
+                "Number of threads, queue capacity, upload size, number of pixels and timeout should be positive");
+        }
+        this.plan = plan;
+        this.cache = cache;
+        this.maxUploadBytes = maxUploadBytes;
+        this.maxPixels = maxPixels;
+        this.timeoutSeconds = timeoutSeconds;
+        this.slots = new Semaphore(computeThreads + queueCapacity);
+        this.requestExecutor = createRequestExecutor();
+        this.computeExecutor = new ThreadPoolExecutor(computeThreads, computeThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(queueCapacity), runnable -> {
+                final Thread thread = new Thread(runnable, "cartoonizer-compute");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.setExecutor(requestExecutor);
+        this.server.createContext("/cartoonize", new CartoonizeHandler());
+        this.server.createContext("/health", new HealthHandler());
+    }
+
+    /**
+     * Start accepting requests.
+     */
+    public void start() {
+        server.start();
+        logger.info("Cartoonizer server listening on port {}", getPort());
+    }
+
+    /**
+     * Stop accepting requests and stop the threads, the running calculations are interrupted.
+     */
+    public void stop() {
+        server.stop(0);
+        computeExecutor.shutdownNow();
+        requestExecutor.shutdownNow();
+        logger.info("Cartoonizer server stopped");
+    }
+
+    /**
+     * The port on which the server listens, useful when it's created with port 0.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * The executor of the calculations.
+     *
+     * @return the compute executor
+     */
+    ThreadPoolExecutor getComputeExecutor() {
+        return computeExecutor;
+    }
+
+    /**
+     * Cartoonize the uploaded image.
+     */
+    private class CartoonizeHandler implements HttpHandler {
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            try {
+                if (!"POST".equals(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().set("Allow", "POST");
+                    sendText(exchange, 405, "Use POST with the image as request body");
+                    return;
+                }
+
+                final ProcessingPlan requestPlan;
+                try {
+                    requestPlan = requestPlan(exchange.getRequestURI().getRawQuery());
+                } catch (IllegalArgumentException e) {
+                    sendText(exchange, 400, e.getMessage());
+                    return;
+                }
+
+                if (!slots.tryAcquire()) {
+                    rejectBusy(exchange);
+                    return;
+                }
+                boolean submitted = false;
+                try {
+                    final byte[] upload = readBody(exchange.getRequestBody());
+                    if (upload == null) {
+                        sendText(exchange, 413, "Image larger than " + maxUploadBytes + " bytes");
+                        return;
+                    }
+                    final BufferedImage sourceImage;
+                    try {
+                        sourceImage = readImage(upload);
+                    } catch (IllegalArgumentException e) {
+                        sendText(exchange, 413, e.getMessage());
+                        return;
+                    } catch (IOException e) {
+                        sendText(exchange, 400, "Cannot read image");
+                        return;
+                    }
+                    if (sourceImage == null) {
+                        sendText(exchange, 400, "Unknown image format");
+                        return;
+                    }
+
+                    final long startTime = System.currentTimeMillis();
+                    final AtomicBoolean cancelled = new AtomicBoolean();
+                    // the slot is released by the calculation when it starts, or by the handler when it times out
+                    // before the calculation started
+                    final AtomicBoolean started = new AtomicBoolean();
+                    final Future<BufferedImage> cartoon;
+                    try {
+                        cartoon = computeExecutor.submit(() -> {
+                            if (!started.compareAndSet(false, true)) {
+                                throw new CancellationException("Request timed out before the calculation started");
+                            }
+                            try {
+                                return new CartoonizerPipeline(requestPlan, cache).process(sourceImage, cancelled::get)
+                                    .getImage();
+                            } finally {
+                                slots.release();
+                            }
+                        });
+                        submitted = true;
+                    } catch (RejectedExecutionException e) {
+                        rejectBusy(exchange);
+                        return;
+                    }
+
+                    final BufferedImage result;
+                    try {
+                        result = cartoon.get(timeoutSeconds, TimeUnit.SECONDS);
+                    } catch (TimeoutException e) {
+                        logger.warn("Image not cartoonized in {} seconds, cancelling", timeoutSeconds);
+                        cancelled.set(true);
+                        cartoon.cancel(true);
+                        if (started.compareAndSet(false, true)) {
+                            slots.release();
+                        }
+                        sendText(exchange, 503, "Cartoonization timed out");
+                        return;
+                    }
+
+                    final ByteArrayOutputStream png = new ByteArrayOutputStream();
+                    ImageIO.write(result, "PNG", png);
+
+                    exchange.getResponseHeaders().set("Content-Type", "image/png");
+                    exchange.getResponseHeaders().set("X-Processing-Millis",
+                        Long.toString(System.currentTimeMillis() - startTime));
+                    send(exchange, 200, png.toByteArray());
+                } finally {
+                    if (!submitted) {
+                        slots.release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                sendText(exchange, 503, "Server stopping");
+            } catch (ExecutionException e) {
+                logger.error("Cannot cartoonize image", e.getCause());
+                sendText(exchange, 500, "Cannot cartoonize image");
+            } catch (RuntimeException e) {
+                logger.error("Cannot handle request", e);
+                sendText(exchange, 500, "Cannot handle request");
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * State of the compute queue.
+     */
+    private class HealthHandler implements HttpHandler {
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            try {
+                sendText(exchange, 200, "active " + computeExecutor.getActiveCount() + ", queued "
+                    + computeExecutor.getQueue().size() + ", free " + slots.availablePermits());
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * The plan of the server with the style parameters from the query, clamped to their maximums.
+     *
+     * @param rawQuery the query, not decoded
+     * @return the plan
+     * @throws IllegalArgumentException if a parameter is not a style parameter or has a value outside of it's
+     *         range, see {@link #STYLE_PARAMETERS}
+     */
+    ProcessingPlan requestPlan(final String rawQuery) {
+        if ((rawQuery == null) || rawQuery.isEmpty()) {
+            return plan;
+        }
+
+        final Map<String, Object> parameters = new LinkedHashMap<String, Object>(plan.getParameters());
+        for (String parameter : rawQuery.split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+            final int equals = parameter.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Missing value of parameter " + decode(parameter));
+            }
+            final String key = decode(parameter.substring(0, equals));
+            if (!STYLE_PARAMETERS.containsKey(key)) {
+                throw new IllegalArgumentException("Unknown style parameter [" + key + "]");
+            }
+            final Object value = parseValue(decode(parameter.substring(equals + 1)));
+            final Range range = STYLE_PARAMETERS.get(key);
+            parameters.put(key, (range == null) ? value : range.accept(key, value));
+        }
+
+        return ProcessingPlanLoader.fromParameters(parameters);
+    }
+
+    /**
+     * The value of a query parameter as a number when it is one, the plan loader checks the types.
+     *
+     * @param value the value
+     * @return Long, Double or the value itself
+     */
+    private static Object parseValue(final String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // not an integer
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            // not a number
+        }
+
+        return value;
+    }
+
+    private static String decode(final String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decode the uploaded image, after it's size is read from the header.
+     *
+     * @param upload the uploaded bytes
+     * @return the image, or null if the format is unknown
+     * @throws IllegalArgumentException if the image has more pixels than allowed
+     * @throws IOException if the image can't be decoded
+     */
+    private BufferedImage readImage(final byte[] upload) throws IOException {
+        final ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(upload));
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            return null;
+        }
+
+        final ImageReader reader = readers.next();
+        try {
+            reader.setInput(input, true, true);
+            final long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+            if (pixels > maxPixels) {
+                throw new IllegalArgumentException("Image has more than " + maxPixels + " pixels");
+            }
+            return reader.read(0);
+        } finally {
+            reader.dispose();
+            input.close();
+        }
+    }
+
+    private static void rejectBusy(final HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER);
+        sendText(exchange, 503, "Server busy, try again later");
+    }
+
+    /**
+     * Read the request body.
+     *
+     * @param input the request body
+     * @return the bytes, or null if there are more than the allowed upload size
+     * @throws IOException if the body can't be read
+     */
+    private byte[] readBody(final InputStream input) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[64 * 1024];
+        for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+            if (body.size() + read > maxUploadBytes) {
+                return null;
+            }
+            body.write(buffer, 0, read);
+        }
+
+        return body.toByteArray();
+    }
+
+    private static void sendText(final HttpExchange exchange, final int status, final String text) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        send(exchange, status, (text + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        final OutputStream output = exchange.getResponseBody();
+        output.write(body);
+        output.flush();
+    }
+
+    /**
+     * Executor for the requests, one virtual thread per request when the runtime has them (java 21 and later).
+     * Request threads mostly wait for the compute threads, so there can be many of them.
+     *
+     * @return the executor
+     */
+    private static ExecutorService createRequestExecutor() {
+        try {
+            final ExecutorService executor =
+                (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            logger.info("Handling requests on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            logger.info("Virtual threads are not available, handling requests on a cached thread pool");
+        }
+
+        return Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "cartoonizer-request");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,31 @@
+package mk.arsov.cartoonizer.util;
+
+/**
+ * Algorithm used for the gaussian blur.
+ */
+public enum BlurMode {
+
+    /**
+     * Full two dimensional (2r+1)x(2r+1) kernel, cost grows with r^2.
+     */
+    FULL,
+
+    /**
+     * The same gaussian kernel applied as a horizontal and a vertical one dimensional pass,
+     * cost grows with r. Results match FULL up to floating point rounding.
+     */
+    SEPARABLE,
+
+    /**
+     * Recursive (IIR) approximation of the gaussian, as described in "Young, van Vliet - Recursive
+     * implementation of the Gaussian filter, 1995". The kernel radius is ignored, the cost per
+     * pixel is constant regardless of sigma.
+     */
+    RECURSIVE,
+
+    /**
+     * The separable passes in fixed-point arithmetic: the kernel is scaled to integers and the horizontal
+     * pass is kept in a plane of shorts. Results are within one gray level of SEPARABLE.
+     */
+    FIXED_POINT
+}
@@ -0,0 +1,34 @@
+package mk.arsov.cartoonizer.util;
+
+/**
+ * Fixed-point weights for the integer versions of the filters. A weight w is stored as the integer
+ * round(w * {@link #ONE}), so with 8 bit samples a sum of up to a few hundred weighted samples fits into an int.
+ */
+public final class FixedPoint {
+
+    /** Number of fraction bits of the weights. */
+    public static final int FRACTION_BITS = 14;
+
+    /** The weight 1.0. */
+    public static final int ONE = 1 << FRACTION_BITS;
+
+    private FixedPoint() {
+
+    }
+
+    /**
+     * Convert the weights into fixed-point.
+     *
+     * @param weights the weights
+     * @param scale factor applied to the weights before they are converted
+     * @return round(weight * scale * ONE) for each weight
+     */
+    public static int[] toFixedPoint(final double[] weights, final double scale) {
+        final int[] result = new int[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            result[i] = (int) Math.round(weights[i] * scale * ONE);
+        }
+
+        return result;
+    }
+}
@@ -35,36 +35,113 @@ public class FlowUtils {
             final int imageHeight,
             final int t) {
 
-        final ArrayList<Point2D.Double> points = new ArrayList<Point2D.Double>();
-        // add the center point as first point
+        final int[] columns = new int[2 * t + 1];
+        final int[] rows = new int[2 * t + 1];
+        final int length = traceGradientPoints((int) x.getX(), (int) x.getY(), gradientVector.getX(), gradientVector.getY(),
+            imageWidth, imageHeight, t, columns, rows);
+
+        final ArrayList<Point2D.Double> points = new ArrayList<Point2D.Double>(length);
+        // the center point is the given point, as is
         points.add(x);
+        for (int k = 1; k < length; k++) {
+            points.add(new Point2D.Double(columns[k], rows[k]));
+        }
+
+        return points;
+    }
+
+    /**
+     * Calculate the points in the gradient direction for each pixel of the tangent vector field.
+     * The gradient vector in each pixel is the tangent vector rotated clockwise, (y, -x).
+     *
+     * @param tangentVectors the (edge tangent flow) vector field
+     * @param t number of points in one direction
+     * @return table with the points in gradient direction for each pixel
+     */
+    public static GradientStencilTable createGradientStencilTable(final VectorField tangentVectors, final int t) {
+        final int width = tangentVectors.getWidth();
+        final int height = tangentVectors.getHeight();
+        final GradientStencilTable table = new GradientStencilTable(width, height, t);
+
+        ParallelExecutor.getDefault().forEachRow(height, (fromRow, toRow) -> {
+            final int[] columns = new int[2 * t + 1];
+            final int[] rows = new int[2 * t + 1];
+
+            for (int i = fromRow; i < toRow; i++) {
+                for (int j = 0; j < width; j++) {
+                    final int length = traceGradientPoints(j, i, tangentVectors.getY(i, j), -tangentVectors.getX(i, j),
+                        width, height, t, columns, rows);
+                    table.setStencil(tangentVectors.index(i, j), columns, rows, length);
+                }
+            }
+        });
+
+        return table;
+    }
 
-        // find points in one direction
-        List<Point2D.Double> pointsRight = findPointsInVectorDirection(x, gradientVector, t);
-
-        // the points in the other direction are the same points only symmetrical
-        // relative to the center point
-        // skip the first point as it's the center point and it's already added
-        for (int i = 0; i < pointsRight.size(); i++) {
-            final Point2D.Double point = pointsRight.get(i);
-            final double newX = x.getX() - (point.getX() - x.getX());
-            final double newY = x.getY() - (point.getY() - x.getY());
-
-            // check if the point considered or the symetrical point is out of the
-            // image bounds
-            // if it is then don't put any more points
-            if ((point.getX() >= imageWidth) || (point.getX() < 0) || (point.getY() >= imageHeight)
-                    || (point.getY() < 0) || (newX >= imageWidth) || (newX < 0) || (newY >= imageHeight)
-                    || (newY < 0)) {
+    /**
+     * Calculate the points in line parallel to the gradient in pixel (x, y), without allocating any objects.
+     * Same as {@link #calculateGradientPoints}: the center point first, followed by pairs of symmetrical points,
+     * stopping at the first pair with a point outside of the image.
+     *
+     * @param x column of the center pixel
+     * @param y row of the center pixel
+     * @param vectorX x component of the gradient vector
+     * @param vectorY y component of the gradient vector
+     * @param imageWidth width of the image, for boundary calculation
+     * @param imageHeight height of the image, for boundary calculation
+     * @param t number of points in one direction
+     * @param columns output, columns of the points
+     * @param rows output, rows of the points
+     * @return number of points, at most 2t+1
+     */
+    static int traceGradientPoints(final int x, final int y, final double vectorX, final double vectorY,
+            final int imageWidth, final int imageHeight, final int t, final int[] columns, final int[] rows) {
+
+        columns[0] = x;
+        rows[0] = y;
+        int length = 1;
+
+        // no points for a zero length vector, and no way to step along an undefined one
+        if (((vectorX == 0) && (vectorY == 0)) || Double.isNaN(vectorX) || Double.isNaN(vectorY)) {
+            return length;
+        }
+
+        // the current point the line is at, the same stepping as in findPointsInVectorDirection
+        double currentX = x + 0.5;
+        double currentY = y + 0.5;
+        double otherX = currentX;
+        double otherY = currentY;
+        for (int k = 0; k < t; k++) {
+            // if the other point is still in the same pixel, add the vector
+            while (((int) otherX == (int) currentX) && ((int) otherY == (int) currentY)) {
+                otherX += vectorX;
+                otherY += vectorY;
+            }
+            currentX = otherX;
+            currentY = otherY;
+
+            // the points in the other direction are symmetrical relative to the center point
+            final int pointX = (int) otherX;
+            final int pointY = (int) otherY;
+            final int newX = x - (pointX - x);
+            final int newY = y - (pointY - y);
+
+            // if the point considered or the symetrical point is out of the image bounds, don't put any more points
+            if ((pointX >= imageWidth) || (pointX < 0) || (pointY >= imageHeight) || (pointY < 0)
+                    || (newX >= imageWidth) || (newX < 0) || (newY >= imageHeight) || (newY < 0)) {
                 break;
             }
 
             // add the original point and the symetrical point
-            points.add(point);
-            points.add(new Point2D.Double(newX, newY));
+            columns[length] = pointX;
+            rows[length] = pointY;
+            columns[length + 1] = newX;
+            rows[length + 1] = newY;
+            length += 2;
         }
 
-        return points;
+        return length;
     }
 
     /**
@@ -109,6 +186,18 @@ public class FlowUtils {
         return points;
     }
 
+    /**
+     * The parameter of the k-th point in a line segment (in the flow or in the gradient direction),
+     * it's signed position relative to the center. The center point is first, followed by the points
+     * on both sides of it in alternating order, so the parameters are 0, 1, -1, 2, -2, ...
+     *
+     * @param k index of the point in the line segment
+     * @return the signed distance from the center in number of points
+     */
+    public static int segmentParameter(final int k) {
+        return k % 2 == 0 ? -((k + 1) / 2) : ((k + 1) / 2);
+    }
+
     /**
      * Calculate difference of gausians function.
      *
@@ -0,0 +1,106 @@
+package mk.arsov.cartoonizer.util;
+
+/**
+ * Precomputed points in the gradient direction for each pixel of an edge tangent flow field.
+ *
+ * For each pixel the points returned by {@link FlowUtils#calculateGradientPoints} for the gradient
+ * vector (normal to the tangent vector) are stored in the same order: the center pixel first, followed
+ * by pairs of points symmetrical to the center. The points for a shorter segment length are a prefix of
+ * the points for a longer one, so a table built for length t can be used by any calculation with a
+ * length up to t, like Hg(x) in the edge detection and Cg(x) in the bilateral filter.
+ *
+ * Each point is stored as an int, the column offset from the center in the upper 16 bits and the row
+ * offset in the lower 16 bits, with a fixed number of 2t + 1 slots per pixel.
+ */
+public class GradientStencilTable {
+
+    private final int width;
+    private final int height;
+    private final int t;
+    private final int stride;
+
+    /** Packed (column, row) offsets, stride slots for each pixel. */
+    private final int[] offsets;
+
+    /** Number of points in the stencil of each pixel. */
+    private final short[] lengths;
+
+    GradientStencilTable(final int width, final int height, final int t) {
+        this.width = width;
+        this.height = height;
+        this.t = t;
+        this.stride = 2 * t + 1;
+        this.offsets = new int[width * height * stride];
+        this.lengths = new short[width * height];
+    }
+
+    /**
+     * Number of points in the stencil of the given pixel.
+     *
+     * @param pixelIndex row-major index of the pixel
+     * @return number of points, at most 2t + 1
+     */
+    public int getLength(final int pixelIndex) {
+        return lengths[pixelIndex];
+    }
+
+    /**
+     * Number of points in the stencil of the given pixel, for a segment length shorter than the one of the table.
+     *
+     * @param pixelIndex row-major index of the pixel
+     * @param segmentLength number of points in one direction, not larger than {@link #getT()}
+     * @return number of points, at most 2 * segmentLength + 1
+     */
+    public int getLength(final int pixelIndex, final int segmentLength) {
+        if (segmentLength > t) {
+            throw new IllegalArgumentException("Stencil table was built for length " + t + ", requested " + segmentLength);
+        }
+        return Math.min(lengths[pixelIndex], 2 * segmentLength + 1);
+    }
+
+    /**
+     * Row-major index of the k-th point in the stencil of the given pixel.
+     *
+     * @param pixelIndex row-major index of the center pixel
+     * @param k index of the point in the stencil
+     * @return row-major index of the point
+     */
+    public int getPointIndex(final int pixelIndex, final int k) {
+        final int packed = offsets[pixelIndex * stride + k];
+        return pixelIndex + ((short) packed) * width + (packed >> 16);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Length of the segments in one direction the table was built for.
+     *
+     * @return number of points in one direction
+     */
+    public int getT() {
+        return t;
+    }
+
+    /**
+     * Store the stencil of a pixel.
+     *
+     * @param pixelIndex row-major index of the center pixel
+     * @param columns columns of the points in the stencil
+     * @param rows rows of the points in the stencil
+     * @param length number of points in the stencil
+     */
+    void setStencil(final int pixelIndex, final int[] columns, final int[] rows, final int length) {
+        final int centerColumn = pixelIndex % width;
+        final int centerRow = pixelIndex / width;
+        for (int k = 0; k < length; k++) {
+            offsets[pixelIndex * stride + k] = ((columns[k] - centerColumn) << 16) | ((rows[k] - centerRow) & 0xFFFF);
+        }
+        lengths[pixelIndex] = (short) length;
+    }
+}
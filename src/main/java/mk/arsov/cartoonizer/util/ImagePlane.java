@@ -0,0 +1,209 @@
+package mk.arsov.cartoonizer.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Access to the pixel data of images through their data arrays, without the copy of the whole raster made by
+ * getData() and without the color model conversion of getRGB and setRGB.
+ *
+ * The grayscale intermediates (grayscale, blurred, line integral convolution and edge images) are one byte per
+ * pixel images, created with {@link #createGray}, and their data array is read and written directly. The bands of
+ * the other images are read from the data array when the pixels are interleaved bytes (TYPE_3BYTE_BGR,
+ * TYPE_4BYTE_ABGR, also the subimages of them) or packed ints (TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_INT_BGR), and
+ * through the raster of the image otherwise.
+ *
+ * Note that getRGB of a TYPE_BYTE_GRAY image converts the gray value from linear into sRGB, so the values of the
+ * grayscale images are read with this class or with the getSample methods of the raster.
+ */
+public final class ImagePlane {
+
+    private ImagePlane() {
+
+    }
+
+    /**
+     * Create a grayscale image with one byte per pixel.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return the image, all pixels are black
+     */
+    public static BufferedImage createGray(final int width, final int height) {
+        return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+    }
+
+    /**
+     * Whether the image is a grayscale image with one byte per pixel, and the data array holds only the pixels
+     * of the image, row by row. Such images are created by {@link #createGray}.
+     *
+     * @param image the image
+     * @return true if the data array of the image can be used with {@link #grayData}
+     */
+    public static boolean isGray(final BufferedImage image) {
+        return (image.getType() == BufferedImage.TYPE_BYTE_GRAY) && isPacked(image, 1);
+    }
+
+    /**
+     * Whether the image is a TYPE_3BYTE_BGR image, and the data array holds only the pixels of the image,
+     * row by row.
+     *
+     * @param image the image
+     * @return true if the data array of the image can be used with {@link #colorData}
+     */
+    public static boolean isColor(final BufferedImage image) {
+        return (image.getType() == BufferedImage.TYPE_3BYTE_BGR) && isPacked(image, 3);
+    }
+
+    /**
+     * The data array of a grayscale image, one value for each pixel, row-major. Changes of the array are changes
+     * of the image.
+     *
+     * @param image the image
+     * @return the data array of the image
+     * @throws IllegalArgumentException if the image is not a grayscale image as described in {@link #isGray}
+     */
+    public static byte[] grayData(final BufferedImage image) {
+        if (!isGray(image)) {
+            throw new IllegalArgumentException("Image is not a one byte grayscale image");
+        }
+
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * The data array of a TYPE_3BYTE_BGR image, the blue, green and red value of each pixel, row-major. Changes
+     * of the array are changes of the image.
+     *
+     * @param image the image
+     * @return the data array of the image
+     * @throws IllegalArgumentException if the image is not a color image as described in {@link #isColor}
+     */
+    public static byte[] colorData(final BufferedImage image) {
+        if (!isColor(image)) {
+            throw new IllegalArgumentException("Image is not a three byte color image");
+        }
+
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Set the color of one pixel in the data array of a color image.
+     *
+     * @param data the data array from {@link #colorData}
+     * @param pixelIndex row-major index of the pixel
+     * @param red the red value, from 0 to 255
+     * @param green the green value, from 0 to 255
+     * @param blue the blue value, from 0 to 255
+     */
+    public static void setColor(final byte[] data, final int pixelIndex, final int red, final int green,
+            final int blue) {
+        final int offset = pixelIndex * 3;
+        data[offset] = (byte) blue;
+        data[offset + 1] = (byte) green;
+        data[offset + 2] = (byte) red;
+    }
+
+    /**
+     * The values of one band of the image, row-major. The values are read as unsigned bytes, value & 0xff.
+     * Samples which don't have 8 bits, like the ones of 16 bit grayscale images, are scaled to 0 - 255.
+     *
+     * @param image the image
+     * @param band the band, 0 for the red band of the rgb images and for the grayscale images
+     * @return the data array itself for the grayscale images described in {@link #isGray}, it must not be
+     *         modified, otherwise a new array
+     */
+    public static byte[] band(final BufferedImage image, final int band) {
+        if ((band == 0) && isGray(image)) {
+            return grayData(image);
+        }
+
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final byte[] result = new byte[width * height];
+
+        final WritableRaster raster = image.getRaster();
+        final SampleModel sampleModel = raster.getSampleModel();
+        final DataBuffer dataBuffer = raster.getDataBuffer();
+        if ((sampleModel instanceof ComponentSampleModel) && (dataBuffer instanceof DataBufferByte)
+                && (dataBuffer.getNumBanks() == 1)) {
+            final ComponentSampleModel componentModel = (ComponentSampleModel) sampleModel;
+            final byte[] data = ((DataBufferByte) dataBuffer).getData();
+            final int pixelStride = componentModel.getPixelStride();
+            final int scanlineStride = componentModel.getScanlineStride();
+            // the raster of a subimage starts inside of the data of the parent
+            final int offset = dataBuffer.getOffset() + componentModel.getBandOffsets()[band]
+                - raster.getSampleModelTranslateY() * scanlineStride - raster.getSampleModelTranslateX() * pixelStride;
+
+            ParallelExecutor.getDefault().forEachRow(height, (fromRow, toRow) -> {
+                for (int i = fromRow; i < toRow; i++) {
+                    int sourceIndex = offset + i * scanlineStride;
+                    for (int j = 0; j < width; j++) {
+                        result[i * width + j] = data[sourceIndex];
+                        sourceIndex += pixelStride;
+                    }
+                }
+            });
+        } else if ((sampleModel instanceof SinglePixelPackedSampleModel) && (dataBuffer instanceof DataBufferInt)
+                && ((((SinglePixelPackedSampleModel) sampleModel).getBitMasks()[band]
+                    >>> ((SinglePixelPackedSampleModel) sampleModel).getBitOffsets()[band]) == 0xff)) {
+            final SinglePixelPackedSampleModel packedModel = (SinglePixelPackedSampleModel) sampleModel;
+            final int[] data = ((DataBufferInt) dataBuffer).getData();
+            final int mask = packedModel.getBitMasks()[band];
+            final int shift = packedModel.getBitOffsets()[band];
+            final int scanlineStride = packedModel.getScanlineStride();
+            final int offset = dataBuffer.getOffset() - raster.getSampleModelTranslateY() * scanlineStride
+                - raster.getSampleModelTranslateX();
+
+            ParallelExecutor.getDefault().forEachRow(height, (fromRow, toRow) -> {
+                for (int i = fromRow; i < toRow; i++) {
+                    final int rowOffset = offset + i * scanlineStride;
+                    for (int j = 0; j < width; j++) {
+                        result[i * width + j] = (byte) ((data[rowOffset + j] & mask) >>> shift);
+                    }
+                }
+            });
+        } else {
+            final int[] samples = raster.getSamples(raster.getMinX(), raster.getMinY(), width, height, band,
+                (int[]) null);
+            final int sampleSize = sampleModel.getSampleSize(band);
+            if (sampleSize == 8) {
+                for (int i = 0; i < samples.length; i++) {
+                    result[i] = (byte) samples[i];
+                }
+            } else {
+                // for example 16 bit gray or 5 bit rgb, scaled to 0 - 255
+                final long maximum = (1L << sampleSize) - 1;
+                for (int i = 0; i < samples.length; i++) {
+                    result[i] = (byte) (((samples[i] & maximum) * 255 + maximum / 2) / maximum);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Whether the raster of the image has one bank of bytes with the given number of bytes per pixel, and starts
+     * at the beginning of it, without gaps between the rows.
+     */
+    private static boolean isPacked(final BufferedImage image, final int pixelStride) {
+        final WritableRaster raster = image.getRaster();
+        if (!(raster.getSampleModel() instanceof ComponentSampleModel)
+                || !(raster.getDataBuffer() instanceof DataBufferByte)) {
+            return false;
+        }
+
+        final ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        return (raster.getDataBuffer().getNumBanks() == 1) && (raster.getDataBuffer().getOffset() == 0)
+            && (raster.getSampleModelTranslateX() == 0) && (raster.getSampleModelTranslateY() == 0)
+            && (sampleModel.getPixelStride() == pixelStride)
+            && (sampleModel.getScanlineStride() == image.getWidth() * pixelStride);
+    }
+}
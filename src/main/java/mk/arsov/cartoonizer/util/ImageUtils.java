@@ -1,13 +1,17 @@
 package mk.arsov.cartoonizer.util;
 
-import java.awt.geom.Point2D;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 
 import javax.imageio.ImageIO;
 
+import mk.arsov.cartoonizer.config.BlurConfiguration;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,6 +23,21 @@ public class ImageUtils {
     /** Logger. */
     private static final Logger logger = LoggerFactory.getLogger(ImageUtils.class);
 
+    /** Linear RGB value, scaled to [0, 100], for each 8 bit sRGB value. Same values as in rgbToXYZ. */
+    private static final double[] SRGB_TO_LINEAR = new double[256];
+
+    static {
+        for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+            double value = i / 255.0D;
+            if (value > 0.04045) {
+                value = Math.pow(((value + 0.055) / 1.055), 2.4);
+            } else {
+                value = value / 12.92;
+            }
+            SRGB_TO_LINEAR[i] = value * 100;
+        }
+    }
+
     private ImageUtils() {
 
     }
@@ -30,9 +49,9 @@ public class ImageUtils {
      * @param height the height of the vector field
      * @return array containing vector for each pixel
      */
-    public static Point2D.Double[][] createCircularVectorField(final int width, final int height) {
+    public static VectorField createCircularVectorField(final int width, final int height) {
 
-        Point2D.Double[][] vectorField = new Point2D.Double[height][width];
+        VectorField vectorField = new VectorField(width, height);
 
         int centerRow = height / 2;
         int centerCol = width / 2;
@@ -43,7 +62,7 @@ public class ImageUtils {
                 final double y = -(i - centerRow);
 
                 final double tangentMagnitude = Math.sqrt(x * x + y * y);
-                vectorField[i][j] = new Point2D.Double(-y / tangentMagnitude, x / tangentMagnitude);
+                vectorField.set(i, j, -y / tangentMagnitude, x / tangentMagnitude);
             }
         }
 
@@ -51,33 +70,108 @@ public class ImageUtils {
     }
 
     /**
-     * Converts a colored BufferedImage into a grayscale BufferedImage.
+     * Converts a colored BufferedImage into a grayscale BufferedImage, with one byte per pixel.
      *
      * @param source the source image.
-     * @return grayscaled image of the original image
+     * @return grayscaled image of the original image, the source image if it has less than three components
      */
     public static BufferedImage toGrayscale(final BufferedImage source) {
 
-        BufferedImage result = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-
         if (source.getColorModel().getNumComponents() < 3) {
             return source;
         }
 
-        Raster raster = source.getData();
-        for (int i = 0; i < source.getHeight(); i++) {
-            for (int j = 0; j < source.getWidth(); j++) {
-                final int value = (int) Math.round(raster.getSample(j, i, 0) * 0.3
-                    + raster.getSample(j, i, 1) * 0.59 + raster.getSample(j, i, 2) * 0.11);
-                result.setRGB(j, i, value * 256 * 256 + value * 256 + value);
+        final int width = source.getWidth();
+        final BufferedImage result = ImagePlane.createGray(width, source.getHeight());
+        final byte[] gray = ImagePlane.grayData(result);
+        final byte[] red = ImagePlane.band(source, 0);
+        final byte[] green = ImagePlane.band(source, 1);
+        final byte[] blue = ImagePlane.band(source, 2);
+        ParallelExecutor.getDefault().forEachRow(source.getHeight(), (fromRow, toRow) -> {
+            for (int i = fromRow * width; i < toRow * width; i++) {
+                gray[i] = (byte) Math.round((red[i] & 0xff) * 0.3 + (green[i] & 0xff) * 0.59 + (blue[i] & 0xff) * 0.11);
             }
+        });
+
+        return result;
+    }
+
+    /**
+     * Create a copy of the image, with it's own pixel data.
+     *
+     * @param source the source image
+     * @return copy of the image
+     */
+    public static BufferedImage copy(final BufferedImage source) {
+        // a raster of the size of the image, the raster of a subimage starts inside of the raster of the parent
+        final WritableRaster raster = source.getColorModel().createCompatibleWritableRaster(source.getWidth(),
+            source.getHeight());
+        return new BufferedImage(source.getColorModel(), source.copyData(raster), source.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Convert the image into a three band rgb image, if it has less than three bands. The gray value of
+     * a grayscale image is copied into the three color components as it is, drawImage would convert it from
+     * linear gray into sRGB and brighten the image.
+     *
+     * @param source the source image
+     * @return the source image if it has at least three bands, otherwise the image converted into rgb
+     */
+    public static BufferedImage toColor(final BufferedImage source) {
+        if (source.getRaster().getNumBands() >= 3) {
+            return source;
         }
 
+        final BufferedImage result = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+        if (source.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_GRAY) {
+            final byte[] gray = ImagePlane.band(source, 0);
+            final byte[] data = ImagePlane.colorData(result);
+            ParallelExecutor.getDefault().forEachRow(source.getHeight(), (fromRow, toRow) -> {
+                for (int index = fromRow * source.getWidth(); index < toRow * source.getWidth(); index++) {
+                    data[index * 3] = gray[index];
+                    data[index * 3 + 1] = gray[index];
+                    data[index * 3 + 2] = gray[index];
+                }
+            });
+            return result;
+        }
+
+        // indexed images, the colors are in the color model
+        final Graphics2D graphics = result.createGraphics();
+        graphics.drawImage(source, 0, 0, null);
+        graphics.dispose();
+
         return result;
     }
 
     /**
-     * Gaussian blur the source image.
+     * Scale the image into a three band rgb image of the given size. When the image gets smaller it is halved
+     * with bilinear interpolation until it's less than twice the size, so all source pixels contribute to the
+     * result.
+     *
+     * @param source the source image
+     * @param width the width of the result
+     * @param height the height of the result
+     * @return the scaled image
+     */
+    public static BufferedImage resize(final BufferedImage source, final int width, final int height) {
+        BufferedImage result = source;
+        do {
+            final int stepWidth = Math.max(width, result.getWidth() / 2);
+            final int stepHeight = Math.max(height, result.getHeight() / 2);
+            final BufferedImage step = new BufferedImage(stepWidth, stepHeight, BufferedImage.TYPE_3BYTE_BGR);
+            final Graphics2D graphics = step.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(result, 0, 0, stepWidth, stepHeight, null);
+            graphics.dispose();
+            result = step;
+        } while ((result.getWidth() != width) || (result.getHeight() != height));
+
+        return result;
+    }
+
+    /**
+     * Gaussian blur the source image, using the blur mode from the configuration.
      *
      * @param sourceImage the image to be blured
      * @param blurKernelRadius radius for the blur operation
@@ -85,13 +179,52 @@ public class ImageUtils {
      * @return blurred image
      */
     public static BufferedImage blur(final BufferedImage sourceImage, final int blurKernelRadius, final double blurSigma) {
+        return blur(sourceImage, blurKernelRadius, blurSigma, BlurConfiguration.MODE);
+    }
 
-        logger.info("Calculating blurred image from the input image");
-        BufferedImage blurredImage = new BufferedImage(sourceImage.getWidth(), sourceImage.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+    /**
+     * Gaussian blur the source image.
+     *
+     * @param sourceImage the image to be blured
+     * @param blurKernelRadius radius for the blur operation, not used in recursive mode
+     * @param blurSigma
+     * @param mode the blur algorithm
+     * @return blurred image
+     */
+    public static BufferedImage blur(final BufferedImage sourceImage, final int blurKernelRadius, final double blurSigma,
+            final BlurMode mode) {
+
+        logger.info("Calculating blurred image from the input image, mode {}", mode);
+        switch (mode) {
+            case SEPARABLE:
+                return toImage(blurSeparable(sourceImage, blurKernelRadius, blurSigma),
+                    sourceImage.getWidth(), sourceImage.getHeight());
+            case RECURSIVE:
+                return toImage(blurRecursive(sourceImage, blurSigma), sourceImage.getWidth(), sourceImage.getHeight());
+            case FIXED_POINT:
+                return blurFixedPoint(sourceImage, blurKernelRadius, blurSigma);
+            default:
+                return blurFull(sourceImage, blurKernelRadius, blurSigma);
+        }
+    }
+
+    /**
+     * Gaussian blur with the full two dimensional kernel.
+     *
+     * @param sourceImage the image to be blured
+     * @param blurKernelRadius radius for the blur operation
+     * @param blurSigma
+     * @return blurred image
+     */
+    protected static BufferedImage blurFull(final BufferedImage sourceImage, final int blurKernelRadius, final double blurSigma) {
+
+        final int width = sourceImage.getWidth();
+        final int height = sourceImage.getHeight();
+        final BufferedImage blurredImage = ImagePlane.createGray(width, height);
 
         // calculate kernel
         int kernelSize = blurKernelRadius * 2 + 1;
-        double[][] kernel = new double[kernelSize][kernelSize];
+        final double[][] kernel = new double[kernelSize][kernelSize];
         for (int i = 0; i < kernelSize; i++) {
             for (int j = 0; j < kernelSize; j++) {
                 final int x = j - blurKernelRadius;
@@ -102,29 +235,298 @@ public class ImageUtils {
         }
 
         // calculate the blurred image
-        Raster raster = sourceImage.getData();
-        for (int i = 0; i < sourceImage.getHeight(); i++) {
-            for (int j = 0; j < sourceImage.getWidth(); j++) {
-                double sum = 0;
-                int points = 0;
-
-                for (int y = i - blurKernelRadius; y <= i + blurKernelRadius; y++) {
-                    for (int x = j - blurKernelRadius; x <= j + blurKernelRadius; x++) {
-                        if ((x >= 0) && (y >= 0) && (x < sourceImage.getWidth()) && (y < sourceImage.getHeight())) {
-                            sum += raster.getSample(x, y, 0) * kernel[y - i + blurKernelRadius][x - j + blurKernelRadius];
-                            points++;
+        final byte[] source = ImagePlane.band(sourceImage, 0);
+        final byte[] blurred = ImagePlane.grayData(blurredImage);
+        ParallelExecutor.getDefault().forEachRow(height, (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                for (int j = 0; j < width; j++) {
+                    double sum = 0;
+
+                    for (int y = i - blurKernelRadius; y <= i + blurKernelRadius; y++) {
+                        for (int x = j - blurKernelRadius; x <= j + blurKernelRadius; x++) {
+                            if ((x >= 0) && (y >= 0) && (x < width) && (y < height)) {
+                                sum += (source[y * width + x] & 0xff) * kernel[y - i + blurKernelRadius][x - j + blurKernelRadius];
+                            }
                         }
                     }
+
+                    blurred[i * width + j] = (byte) Math.min(255, (int) (sum));
                 }
+            }
+        });
 
-                final int value = (int) (sum);
-                blurredImage.setRGB(j, i, value * 256 * 256 + value * 256 + value);
+        return blurredImage;
+    }
+
+    /**
+     * Gaussian blur with two one dimensional passes, first along the rows and then along the columns.
+     * Pixels outside of the image are treated as zero, same as in the full kernel.
+     *
+     * @param sourceImage the image to be blured
+     * @param blurKernelRadius radius for the blur operation
+     * @param blurSigma
+     * @return blurred values for each pixel, row-major
+     */
+    protected static double[] blurSeparable(final BufferedImage sourceImage, final int blurKernelRadius, final double blurSigma) {
+        final int width = sourceImage.getWidth();
+        final int height = sourceImage.getHeight();
+
+        // the 2D kernel is the product of two of these
+        final double[] kernel = gaussianKernel(blurKernelRadius, blurSigma);
+
+        final byte[] source = ImagePlane.band(sourceImage, 0);
+        final double[] horizontal = new double[width * height];
+        final double[] result = new double[width * height];
+
+        // horizontal pass
+        ParallelExecutor.getDefault().forEachRow(height, (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                final int rowOffset = i * width;
+                for (int j = 0; j < width; j++) {
+                    final int from = Math.max(0, j - blurKernelRadius);
+                    final int to = Math.min(width - 1, j + blurKernelRadius);
+                    double sum = 0;
+                    for (int x = from; x <= to; x++) {
+                        sum += (source[rowOffset + x] & 0xff) * kernel[x - j + blurKernelRadius];
+                    }
+                    horizontal[rowOffset + j] = sum;
+                }
+            }
+        });
+
+        // vertical pass
+        ParallelExecutor.getDefault().forEachRow(height, (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                final int from = Math.max(0, i - blurKernelRadius);
+                final int to = Math.min(height - 1, i + blurKernelRadius);
+                for (int j = 0; j < width; j++) {
+                    double sum = 0;
+                    for (int y = from; y <= to; y++) {
+                        sum += horizontal[y * width + j] * kernel[y - i + blurKernelRadius];
+                    }
+                    result[i * width + j] = sum;
+                }
             }
+        });
+
+        return result;
+    }
+
+    /**
+     * Separable gaussian blur in fixed-point arithmetic. The kernel is converted with {@link FixedPoint}, the
+     * horizontal pass is kept in a plane of shorts, shifted right so that the largest possible value fits, and
+     * the vertical pass is summed in ints and truncated like the separable blur. The rounding of the weights
+     * and of the horizontal values changes the sums by less than 0.1, so the values are within one gray level
+     * of the separable blur. Kernels whose weights add up to more than 4, with sigma below about 0.1, would
+     * overflow the sums and are calculated with the separable blur.
+     *
+     * @param sourceImage the image to be blured
+     * @param blurKernelRadius radius for the blur operation
+     * @param blurSigma
+     * @return blurred image
+     */
+    protected static BufferedImage blurFixedPoint(final BufferedImage sourceImage, final int blurKernelRadius,
+            final double blurSigma) {
+        final int width = sourceImage.getWidth();
+        final int height = sourceImage.getHeight();
+
+        final int[] kernel = FixedPoint.toFixedPoint(gaussianKernel(blurKernelRadius, blurSigma), 1);
+        long kernelSum = 0;
+        for (int weight : kernel) {
+            kernelSum += weight;
+        }
+        if (Short.MAX_VALUE * kernelSum > Integer.MAX_VALUE) {
+            return toImage(blurSeparable(sourceImage, blurKernelRadius, blurSigma), width, height);
         }
 
+        int shift = 0;
+        while (((255 * kernelSum + roundingOffset(shift)) >> shift) > Short.MAX_VALUE) {
+            shift++;
+        }
+        final int horizontalShift = shift;
+        final int horizontalRounding = roundingOffset(shift);
+        final int verticalShift = 2 * FixedPoint.FRACTION_BITS - shift;
+
+        final byte[] source = ImagePlane.band(sourceImage, 0);
+        final short[] horizontal = new short[width * height];
+        final BufferedImage blurredImage = ImagePlane.createGray(width, height);
+        final byte[] blurred = ImagePlane.grayData(blurredImage);
+
+        // horizontal pass
+        ParallelExecutor.getDefault().forEachRow(height, (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                final int rowOffset = i * width;
+                for (int j = 0; j < width; j++) {
+                    final int from = Math.max(0, j - blurKernelRadius);
+                    final int to = Math.min(width - 1, j + blurKernelRadius);
+                    int sum = 0;
+                    for (int x = from; x <= to; x++) {
+                        sum += (source[rowOffset + x] & 0xff) * kernel[x - j + blurKernelRadius];
+                    }
+                    horizontal[rowOffset + j] = (short) ((sum + horizontalRounding) >> horizontalShift);
+                }
+            }
+        });
+
+        // vertical pass
+        ParallelExecutor.getDefault().forEachRow(height, (fromRow, toRow) -> {
+            for (int i = fromRow; i < toRow; i++) {
+                final int from = Math.max(0, i - blurKernelRadius);
+                final int to = Math.min(height - 1, i + blurKernelRadius);
+                for (int j = 0; j < width; j++) {
+                    int sum = 0;
+                    for (int y = from; y <= to; y++) {
+                        sum += horizontal[y * width + j] * kernel[y - i + blurKernelRadius];
+                    }
+                    blurred[i * width + j] = (byte) Math.min(255, sum >> verticalShift);
+                }
+            }
+        });
+
         return blurredImage;
     }
 
+    /**
+     * Value added before a right shift, so that the shift rounds to the nearest integer.
+     */
+    private static int roundingOffset(final int shift) {
+        return (shift > 0) ? 1 << (shift - 1) : 0;
+    }
+
+    /**
+     * One dimensional gaussian kernel, the kernel of the separable blur.
+     *
+     * @param blurKernelRadius radius of the kernel
+     * @param blurSigma
+     * @return the 2 * radius + 1 weights, not normalized
+     */
+    public static double[] gaussianKernel(final int blurKernelRadius, final double blurSigma) {
+        final double[] kernel = new double[blurKernelRadius * 2 + 1];
+        for (int i = 0; i < kernel.length; i++) {
+            final int x = i - blurKernelRadius;
+            kernel[i] = 1 / (Math.sqrt(2 * Math.PI) * blurSigma) * Math.exp(-(x * x) / (2 * blurSigma * blurSigma));
+        }
+
+        return kernel;
+    }
+
+    /**
+     * Recursive gaussian blur (Young - van Vliet). Each row and then each column is filtered with a causal
+     * and an anti-causal third order IIR filter, so the number of operations per pixel does not depend on sigma.
+     * The filter starts from zero state at the image borders.
+     *
+     * @param sourceImage the image to be blured
+     * @param blurSigma
+     * @return blurred values for each pixel, row-major
+     */
+    protected static double[] blurRecursive(final BufferedImage sourceImage, final double blurSigma) {
+        final int width = sourceImage.getWidth();
+        final int height = sourceImage.getHeight();
+
+        // filter coefficients, the approximation is only valid for sigma >= 0.5
+        final double sigma = Math.max(blurSigma, 0.5);
+        final double q;
+        if (sigma >= 2.5) {
+            q = 0.98711 * sigma - 0.96330;
+        } else {
+            q = 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+        }
+        final double b0 = 1.57825 + 2.44413 * q + 1.4281 * q * q + 0.422205 * q * q * q;
+        final double[] b = {
+            (2.44413 * q + 2.85619 * q * q + 1.26661 * q * q * q) / b0,
+            -(1.4281 * q * q + 1.26661 * q * q * q) / b0,
+            (0.422205 * q * q * q) / b0};
+        final double gain = 1 - (b[0] + b[1] + b[2]);
+
+        final byte[] source = ImagePlane.band(sourceImage, 0);
+        final double[] values = new double[width * height];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = source[i] & 0xff;
+        }
+        final ParallelExecutor executor = ParallelExecutor.getDefault();
+
+        // rows
+        executor.forEachRow(height, (fromRow, toRow) -> {
+            final double[] line = new double[width];
+            for (int i = fromRow; i < toRow; i++) {
+                System.arraycopy(values, i * width, line, 0, width);
+                recursiveGaussianLine(line, width, gain, b);
+                System.arraycopy(line, 0, values, i * width, width);
+            }
+        });
+
+        // columns, split in bands the same way as the rows
+        executor.forEachRow(width, (fromColumn, toColumn) -> {
+            final double[] line = new double[height];
+            for (int j = fromColumn; j < toColumn; j++) {
+                for (int i = 0; i < height; i++) {
+                    line[i] = values[i * width + j];
+                }
+                recursiveGaussianLine(line, height, gain, b);
+                for (int i = 0; i < height; i++) {
+                    values[i * width + j] = line[i];
+                }
+            }
+        });
+
+        return values;
+    }
+
+    /**
+     * Apply the forward and backward recursive gaussian filter to one line of values, in place.
+     *
+     * @param line the values
+     * @param length number of values in the line
+     * @param gain normalization coefficient B
+     * @param b the feedback coefficients b1/b0, b2/b0 and b3/b0
+     */
+    private static void recursiveGaussianLine(final double[] line, final int length, final double gain, final double[] b) {
+        // forward (causal) pass
+        double w1 = 0;
+        double w2 = 0;
+        double w3 = 0;
+        for (int n = 0; n < length; n++) {
+            final double w = gain * line[n] + b[0] * w1 + b[1] * w2 + b[2] * w3;
+            line[n] = w;
+            w3 = w2;
+            w2 = w1;
+            w1 = w;
+        }
+
+        // backward (anti-causal) pass
+        w1 = 0;
+        w2 = 0;
+        w3 = 0;
+        for (int n = length - 1; n >= 0; n--) {
+            final double w = gain * line[n] + b[0] * w1 + b[1] * w2 + b[2] * w3;
+            line[n] = w;
+            w3 = w2;
+            w2 = w1;
+            w1 = w;
+        }
+    }
+
+    /**
+     * Create a grayscale image from the given values. The values are truncated to integers
+     * and limited to the [0, 255] range.
+     *
+     * @param values row-major values for each pixel
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return the grayscale image, one byte per pixel
+     */
+    private static BufferedImage toImage(final double[] values, final int width, final int height) {
+        final BufferedImage image = ImagePlane.createGray(width, height);
+        final byte[] data = ImagePlane.grayData(image);
+        ParallelExecutor.getDefault().forEachRow(height, (fromRow, toRow) -> {
+            for (int i = fromRow * width; i < toRow * width; i++) {
+                data[i] = (byte) Math.min(255, Math.max(0, (int) values[i]));
+            }
+        });
+
+        return image;
+    }
+
     /**
      * Transform and rgb value into CIEL*ab space.
      *
@@ -139,6 +541,41 @@ public class ImageUtils {
         return lab;
     }
 
+    /**
+     * Transform the whole image into CIEL*ab space. The first three bands of the image are used as
+     * the r, g and b values.
+     *
+     * @param image the rgb image
+     * @return array with the L, a and b planes, each with one row-major value for each pixel
+     */
+    public static float[][] toLabPlanes(final BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final byte[] red = ImagePlane.band(image, 0);
+        final byte[] green = ImagePlane.band(image, 1);
+        final byte[] blue = ImagePlane.band(image, 2);
+
+        final float[][] lab = new float[3][width * height];
+        ParallelExecutor.getDefault().forEachRow(height, (fromRow, toRow) -> {
+            final double[] pixelLab = new double[3];
+            for (int i = fromRow * width; i < toRow * width; i++) {
+                final double newR = SRGB_TO_LINEAR[red[i] & 0xff];
+                final double newG = SRGB_TO_LINEAR[green[i] & 0xff];
+                final double newB = SRGB_TO_LINEAR[blue[i] & 0xff];
+
+                xyzToLab(newR * 0.4124 + newG * 0.3576 + newB * 0.1805,
+                    newR * 0.2126 + newG * 0.7152 + newB * 0.0722,
+                    newR * 0.0193 + newG * 0.1192 + newB * 0.9505, pixelLab);
+
+                lab[0][i] = (float) pixelLab[0];
+                lab[1][i] = (float) pixelLab[1];
+                lab[2][i] = (float) pixelLab[2];
+            }
+        });
+
+        return lab;
+    }
+
     /**
      * Saves the given image on disk with the given file name.
      *
@@ -202,9 +639,24 @@ public class ImageUtils {
      * @return array representing the Lab values
      */
     protected static double[] xyzToLab(final double[] xyz) {
-        double newX = xyz[0] / 95.047;
-        double newY = xyz[1] / 100.0;
-        double newZ = xyz[2] / 108.883;
+        double[] lab = new double[3];
+        xyzToLab(xyz[0], xyz[1], xyz[2], lab);
+
+        return lab;
+    }
+
+    /**
+     * Transform an xyz value into CIEL*ab space.
+     *
+     * @param x the x value
+     * @param y the y value
+     * @param z the z value
+     * @param lab output, array for the L*ab values
+     */
+    private static void xyzToLab(final double x, final double y, final double z, final double[] lab) {
+        double newX = x / 95.047;
+        double newY = y / 100.0;
+        double newZ = z / 108.883;
 
         if (newX > 0.008856) {
             newX = Math.pow(newX, (double) (1.0 / 3.0));
@@ -222,11 +674,8 @@ public class ImageUtils {
             newZ = (7.787 * newZ) + (double) (16.0 / 116.0);
         }
 
-        double[] lab = new double[3];
         lab[0] = (116 * newY) - 16;
         lab[1] = 500 * (newX - newY);
         lab[2] = 200 * (newY - newZ);
-
-        return lab;
     }
 }
@@ -0,0 +1,111 @@
+package mk.arsov.cartoonizer.util;
+
+/**
+ * Precomputed weights of a one dimensional kernel evaluated along a line segment.
+ *
+ * The weights are stored in the order of the points in the line segments (see
+ * {@link FlowUtils#segmentParameter(int)}): the weight for the center point first, followed by
+ * the weights for the points on both sides of it. Integrals along the flow or the gradient
+ * direction can then look up the weight of the k-th point instead of evaluating the
+ * gaussian function for every sample.
+ */
+public class KernelPlan {
+
+    /** Upper limit for the lengths calculated by {@link #truncatedLength(double, double)}. */
+    public static final int MAX_TRUNCATED_LENGTH = 64;
+
+    /** Number of points on one side of the center. */
+    private final int length;
+
+    /** Weight for each point of the segment, 2 * length + 1 values. */
+    private final double[] weights;
+
+    private KernelPlan(final int length, final double[] weights) {
+        this.length = length;
+        this.weights = weights;
+    }
+
+    /**
+     * Create plan for the gaussian function.
+     *
+     * @param sigma sigma value in gausian function
+     * @param length number of points on one side of the center
+     * @return the plan
+     */
+    public static KernelPlan gaussian(final double sigma, final int length) {
+        final double[] weights = new double[2 * length + 1];
+        for (int k = 0; k < weights.length; k++) {
+            weights[k] = FlowUtils.calculateGausian(FlowUtils.segmentParameter(k), sigma);
+        }
+
+        return new KernelPlan(length, weights);
+    }
+
+    /**
+     * Create plan for the difference of gaussians function.
+     *
+     * @param sigmaC controls the size of the center interval
+     * @param sigmaS controls the size of the surrounding interval (sigmaS ~ 1.6 * sigmaC)
+     * @param ro controls the level of noise detected
+     * @param length number of points on one side of the center
+     * @return the plan
+     */
+    public static KernelPlan differenceOfGaussians(final double sigmaC, final double sigmaS, final double ro,
+            final int length) {
+        final double[] weights = new double[2 * length + 1];
+        for (int k = 0; k < weights.length; k++) {
+            weights[k] = FlowUtils.calculateDog(FlowUtils.segmentParameter(k), sigmaC, sigmaS, ro);
+        }
+
+        return new KernelPlan(length, weights);
+    }
+
+    /**
+     * Smallest segment length at which the gaussian function falls below epsilon, the same rule
+     * used to choose the length of the gradient segments T from sigma.s in the edge detection.
+     *
+     * @param sigma sigma value in gausian function
+     * @param epsilon the largest value of the gaussian function left out of the segment
+     * @return number of points on one side of the center, at least 1 and at most {@link #MAX_TRUNCATED_LENGTH}
+     */
+    public static int truncatedLength(final double sigma, final double epsilon) {
+        if (epsilon <= 0) {
+            throw new IllegalArgumentException("Epsilon must be positive, was " + epsilon);
+        }
+
+        int length = 1;
+        while ((length < MAX_TRUNCATED_LENGTH) && (FlowUtils.calculateGausian(length, sigma) >= epsilon)) {
+            length++;
+        }
+
+        return length;
+    }
+
+    /**
+     * The weight for the k-th point in the segment.
+     *
+     * @param k index of the point in the segment
+     * @return the weight
+     */
+    public double getWeight(final int k) {
+        return weights[k];
+    }
+
+    /**
+     * Direct access to the weights, for use in tight loops.
+     *
+     * @return the weights, 2 * length + 1 values
+     */
+    public double[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * Number of points on one side of the center.
+     *
+     * @return the segment length
+     */
+    public int getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,206 @@
+package mk.arsov.cartoonizer.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import mk.arsov.cartoonizer.config.ParallelConfiguration;
+
+/**
+ * Runs per-pixel calculations in parallel, split into bands of rows on a fork/join pool.
+ *
+ * The split into bands depends only on the number of rows and the band size, never on the
+ * number of threads, and every row is calculated by exactly the same code as in a sequential
+ * loop. Stages that write only to their own rows therefore produce bit-identical results for
+ * any pool size. Sums over the whole image are done per row and then added in row order,
+ * see {@link #sumRows(int, RowSum)}.
+ */
+public class ParallelExecutor {
+
+    /**
+     * Calculation over a band of rows.
+     */
+    public interface RowTask {
+
+        /**
+         * Calculate the rows in [fromRow, toRow).
+         *
+         * @param fromRow first row, inclusive
+         * @param toRow last row, exclusive
+         */
+        void run(int fromRow, int toRow);
+    }
+
+    /**
+     * Calculation of a partial sum for one row.
+     */
+    public interface RowSum {
+
+        /**
+         * Calculate the row and return it's partial sum.
+         *
+         * @param row the row
+         * @return the partial sum for the row
+         */
+        double sum(int row);
+    }
+
+    /** Executor used by all stages, created from the configuration on first use. */
+    private static volatile ParallelExecutor defaultExecutor;
+
+    /** The pool, or null when the rows are calculated on the calling thread. */
+    private final ForkJoinPool pool;
+
+    /** Number of rows calculated in one task. */
+    private final int rowsPerTask;
+
+    /**
+     * Create executor which runs on the given pool.
+     *
+     * @param pool the pool, null to run everything on the calling thread
+     * @param rowsPerTask number of rows calculated in one task
+     */
+    public ParallelExecutor(final ForkJoinPool pool, final int rowsPerTask) {
+        if (rowsPerTask < 1) {
+            throw new IllegalArgumentException("Rows per task must be positive, was " + rowsPerTask);
+        }
+        this.pool = pool;
+        this.rowsPerTask = rowsPerTask;
+    }
+
+    /**
+     * Executor which calculates all rows on the calling thread.
+     *
+     * @return sequential executor
+     */
+    public static ParallelExecutor sequential() {
+        return new ParallelExecutor(null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The executor used by all stages. By default it's a new pool with
+     * {@link ParallelConfiguration#THREADS} threads (all processors if not positive), or
+     * the calling thread if the configuration asks for a single thread.
+     *
+     * @return the default executor
+     */
+    public static ParallelExecutor getDefault() {
+        ParallelExecutor executor = defaultExecutor;
+        if (executor == null) {
+            synchronized (ParallelExecutor.class) {
+                if (defaultExecutor == null) {
+                    defaultExecutor = fromConfiguration(ParallelConfiguration.THREADS, ParallelConfiguration.ROWS_PER_TASK);
+                }
+                executor = defaultExecutor;
+            }
+        }
+
+        return executor;
+    }
+
+    /**
+     * Replace the executor used by all stages.
+     *
+     * @param executor the new default executor, null to create it again from the configuration
+     */
+    public static void setDefault(final ParallelExecutor executor) {
+        synchronized (ParallelExecutor.class) {
+            defaultExecutor = executor;
+        }
+    }
+
+    /**
+     * Create executor with the given number of threads.
+     *
+     * @param threads number of threads, all available processors if not positive
+     * @param rowsPerTask number of rows calculated in one task
+     * @return executor, sequential if there is only one thread
+     */
+    public static ParallelExecutor fromConfiguration(final int threads, final int rowsPerTask) {
+        final int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        if (parallelism == 1) {
+            return new ParallelExecutor(null, rowsPerTask);
+        }
+
+        return new ParallelExecutor(new ForkJoinPool(parallelism), rowsPerTask);
+    }
+
+    /**
+     * Calculate all rows in [0, height), in bands of rows.
+     *
+     * @param height number of rows
+     * @param task the calculation
+     */
+    public void forEachRow(final int height, final RowTask task) {
+        if ((pool == null) || (height <= rowsPerTask)) {
+            for (int fromRow = 0; fromRow < height; fromRow += rowsPerTask) {
+                task.run(fromRow, (int) Math.min((long) fromRow + rowsPerTask, height));
+            }
+        } else {
+            pool.invoke(new RowBandAction(task, 0, height));
+        }
+    }
+
+    /**
+     * Calculate all rows in [0, height) and sum the partial sums of the rows.
+     * The rows are calculated in parallel, but the partial sums are always added in row order,
+     * so the result doesn't depend on the number of threads.
+     *
+     * @param height number of rows
+     * @param rowSum the calculation
+     * @return sum of the partial sums of all rows
+     */
+    public double sumRows(final int height, final RowSum rowSum) {
+        final double[] partialSums = new double[height];
+        forEachRow(height, (fromRow, toRow) -> {
+            for (int row = fromRow; row < toRow; row++) {
+                partialSums[row] = rowSum.sum(row);
+            }
+        });
+
+        double sum = 0;
+        for (int row = 0; row < height; row++) {
+            sum += partialSums[row];
+        }
+
+        return sum;
+    }
+
+    /**
+     * Number of threads the calculations run on.
+     *
+     * @return the parallelism of the pool, 1 for the calling thread
+     */
+    public int getParallelism() {
+        return pool == null ? 1 : pool.getParallelism();
+    }
+
+    /**
+     * Splits the rows in halves until they fit in one band.
+     */
+    private class RowBandAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RowTask task;
+        private final int fromRow;
+        private final int toRow;
+
+        RowBandAction(final RowTask task, final int fromRow, final int toRow) {
+            this.task = task;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            final int bands = (toRow - fromRow + rowsPerTask - 1) / rowsPerTask;
+            if (bands <= 1) {
+                task.run(fromRow, toRow);
+            } else {
+                // split at a band boundary, so the bands are the same as in the sequential loop
+                final int middle = fromRow + (bands / 2) * rowsPerTask;
+                invokeAll(new RowBandAction(task, fromRow, middle), new RowBandAction(task, middle, toRow));
+            }
+        }
+    }
+}
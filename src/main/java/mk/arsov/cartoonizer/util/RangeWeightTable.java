@@ -0,0 +1,113 @@
+package mk.arsov.cartoonizer.util;
+
+/**
+ * Lookup table for the gaussian function of a non-negative distance, used for the color range
+ * weights in the bilateral filters.
+ *
+ * The function is tabulated in steps of sigma / {@link #STEPS_PER_SIGMA} up to {@link #MAX_SIGMAS}
+ * times sigma and linearly interpolated in between. The relative error is below 1e-4; past the end of
+ * the table the function value is less than 1e-13 of it's maximum and is returned as zero.
+ *
+ * For the fixed-point filters the function divided by it's maximum, exp(-d^2 / (2 * sigma^2)), is tabulated
+ * by the squared distance, so the distance doesn't need a square root, and the weights are calculated in
+ * integers from distances with {@link #DISTANCE_FRACTION_BITS} fraction bits. As a function of the squared
+ * distance it's the same exponential for every sigma, so there is only one fixed-point table.
+ */
+public class RangeWeightTable {
+
+    /** Number of table entries per sigma. */
+    static final int STEPS_PER_SIGMA = 64;
+
+    /** Distance, in number of sigmas, covered by the table. */
+    static final int MAX_SIGMAS = 8;
+
+    /** Number of fraction bits of the fixed-point distances. */
+    public static final int DISTANCE_FRACTION_BITS = 4;
+
+    /** Number of fixed-point table entries per sigma squared. */
+    static final int STEPS_PER_SQUARED_SIGMA = 64;
+
+    /** exp(-i / (2 * STEPS_PER_SQUARED_SIGMA)) in fixed-point, up to MAX_SIGMAS^2 times sigma squared. */
+    private static final int[] FIXED_POINT_VALUES;
+
+    static {
+        final double[] values = new double[STEPS_PER_SQUARED_SIGMA * MAX_SIGMAS * MAX_SIGMAS + 2];
+        for (int i = 0; i < values.length - 1; i++) {
+            values[i] = Math.exp(-i / (2.0 * STEPS_PER_SQUARED_SIGMA));
+        }
+        FIXED_POINT_VALUES = FixedPoint.toFixedPoint(values, 1);
+    }
+
+    private final double[] values;
+
+    /** Converts a distance into a (fractional) table index. */
+    private final double scale;
+
+    /** Converts a fixed-point squared distance into a fixed-point table index, with 32 fraction bits. */
+    private final long squaredScale;
+
+    /** Fixed-point squared distances from this one on are past the end of the table. */
+    private final long squaredLimit;
+
+    /**
+     * Create the table for the given sigma.
+     *
+     * @param sigma sigma value in gausian function
+     */
+    public RangeWeightTable(final double sigma) {
+        this.values = new double[STEPS_PER_SIGMA * MAX_SIGMAS + 2];
+        if (sigma == 0) {
+            // same as FlowUtils.calculateGausian, always zero
+            this.scale = 0;
+            this.squaredScale = 0;
+            this.squaredLimit = 0;
+            return;
+        }
+
+        this.scale = STEPS_PER_SIGMA / sigma;
+        final double squaredOne = 1 << (2 * DISTANCE_FRACTION_BITS);
+        this.squaredScale = Math.round(STEPS_PER_SQUARED_SIGMA / (sigma * sigma) / squaredOne * (1L << 32));
+        this.squaredLimit = (long) Math.floor((FIXED_POINT_VALUES.length - 2) * squaredOne * sigma * sigma
+            / STEPS_PER_SQUARED_SIGMA);
+        for (int i = 0; i < values.length - 1; i++) {
+            values[i] = FlowUtils.calculateGausian(i / scale, sigma);
+        }
+    }
+
+    /**
+     * The gaussian function value for the given distance.
+     *
+     * @param distance non-negative distance
+     * @return interpolated value of the gaussian function
+     */
+    public double weight(final double distance) {
+        final double position = distance * scale;
+        final int index = (int) position;
+        if (index >= values.length - 2) {
+            return 0;
+        }
+
+        final double fraction = position - index;
+        return values[index] + (values[index + 1] - values[index]) * fraction;
+    }
+
+    /**
+     * The gaussian function value for the given squared distance divided by the maximum, in fixed-point.
+     * Only the ratios of these weights are the same as the ratios of {@link #weight}, for the filters which
+     * divide by the sum of the weights. The error is below 2 / {@link FixedPoint#ONE}.
+     *
+     * @param squaredDistance non-negative squared distance, with 2 * {@link #DISTANCE_FRACTION_BITS} fraction bits
+     * @return interpolated value, from 0 to {@link FixedPoint#ONE}
+     */
+    public int fixedPointWeight(final int squaredDistance) {
+        if (squaredDistance >= squaredLimit) {
+            return 0;
+        }
+
+        final long position = squaredDistance * squaredScale;
+        final int index = (int) (position >>> 32);
+        final int fraction = (int) (position >>> (32 - FixedPoint.FRACTION_BITS)) & (FixedPoint.ONE - 1);
+        return FIXED_POINT_VALUES[index]
+            + (((FIXED_POINT_VALUES[index + 1] - FIXED_POINT_VALUES[index]) * fraction) >> FixedPoint.FRACTION_BITS);
+    }
+}
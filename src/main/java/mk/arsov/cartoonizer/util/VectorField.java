@@ -0,0 +1,158 @@
+package mk.arsov.cartoonizer.util;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Two dimensional vector field with one vector for each pixel of an image.
+ *
+ * The x and y components are kept in two flat primitive arrays with row-major indexing
+ * (index = row * width + column), so a whole field is only two heap objects regardless
+ * of the image size.
+ */
+public class VectorField {
+
+    private final int width;
+    private final int height;
+
+    /** X components of the vectors, row-major. */
+    private final double[] x;
+
+    /** Y components of the vectors, row-major. */
+    private final double[] y;
+
+    /**
+     * Create a vector field with all vectors set to zero.
+     *
+     * @param width the width of the field
+     * @param height the height of the field
+     */
+    public VectorField(final int width, final int height) {
+        this(width, height, new double[width * height], new double[width * height]);
+    }
+
+    /**
+     * Create a vector field backed by the given component arrays.
+     *
+     * @param width the width of the field
+     * @param height the height of the field
+     * @param x x components, row-major, of length width * height
+     * @param y y components, row-major, of length width * height
+     */
+    public VectorField(final int width, final int height, final double[] x, final double[] y) {
+        if ((x.length != width * height) || (y.length != width * height)) {
+            throw new IllegalArgumentException("Component arrays do not match field size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.x = x;
+        this.y = y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Index of the vector at the given location in the component arrays.
+     *
+     * @param row the row (y coordinate) of the pixel
+     * @param column the column (x coordinate) of the pixel
+     * @return row-major index
+     */
+    public int index(final int row, final int column) {
+        return row * width + column;
+    }
+
+    public double getX(final int row, final int column) {
+        return x[row * width + column];
+    }
+
+    public double getY(final int row, final int column) {
+        return y[row * width + column];
+    }
+
+    /**
+     * Set the vector at the given location.
+     *
+     * @param row the row (y coordinate) of the pixel
+     * @param column the column (x coordinate) of the pixel
+     * @param vectorX x component of the vector
+     * @param vectorY y component of the vector
+     */
+    public void set(final int row, final int column, final double vectorX, final double vectorY) {
+        final int index = row * width + column;
+        x[index] = vectorX;
+        y[index] = vectorY;
+    }
+
+    /**
+     * Direct access to the x components, for use in tight loops.
+     *
+     * @return the backing array of x components
+     */
+    public double[] getXPlane() {
+        return x;
+    }
+
+    /**
+     * Direct access to the y components, for use in tight loops.
+     *
+     * @return the backing array of y components
+     */
+    public double[] getYPlane() {
+        return y;
+    }
+
+    /**
+     * Check if the vector at the given location is the zero vector.
+     *
+     * @param row the row (y coordinate) of the pixel
+     * @param column the column (x coordinate) of the pixel
+     * @return true if both components are zero
+     */
+    public boolean isZero(final int row, final int column) {
+        final int index = row * width + column;
+        return (x[index] == 0) && (y[index] == 0);
+    }
+
+    /**
+     * Create a deep copy of this field.
+     *
+     * @return new vector field with the same values
+     */
+    public VectorField copy() {
+        return new VectorField(width, height, Arrays.copyOf(x, x.length), Arrays.copyOf(y, y.length));
+    }
+
+    /**
+     * Copy of a part of the field.
+     *
+     * @param region the part, inside of the field
+     * @return new vector field of the size of the part
+     */
+    public VectorField region(final Rectangle region) {
+        return new VectorField(region.width, region.height, region(x, width, region), region(y, width, region));
+    }
+
+    /**
+     * Copy of a part of a row-major plane.
+     *
+     * @param plane the plane
+     * @param planeWidth the width of the plane
+     * @param region the part, inside of the plane
+     * @return the values of the part, row-major
+     */
+    public static double[] region(final double[] plane, final int planeWidth, final Rectangle region) {
+        final double[] result = new double[region.width * region.height];
+        for (int i = 0; i < region.height; i++) {
+            System.arraycopy(plane, (region.y + i) * planeWidth + region.x, result, i * region.width, region.width);
+        }
+
+        return result;
+    }
+}
@@ -1,15 +1,29 @@
 package mk.arsov.cartoonizer.abstraction;
 
-import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
+import javax.imageio.ImageIO;
 import javax.media.jai.JAI;
 import javax.media.jai.PlanarImage;
 
+import mk.arsov.cartoonizer.config.ProcessingPlan;
+import mk.arsov.cartoonizer.config.ProcessingPlanLoader;
 import mk.arsov.cartoonizer.lineintegralconvolution.LineConvolutionCalculator;
 import mk.arsov.cartoonizer.lineintegralconvolution.SobelGradient;
+import mk.arsov.cartoonizer.lineintegralconvolution.StreamlineTable;
+import mk.arsov.cartoonizer.pipeline.CartoonizerPipeline;
+import mk.arsov.cartoonizer.pipeline.PipelineResult;
+import mk.arsov.cartoonizer.pipeline.PipelineStage;
+import mk.arsov.cartoonizer.util.FlowUtils;
+import mk.arsov.cartoonizer.util.GradientStencilTable;
 import mk.arsov.cartoonizer.util.ImageUtils;
+import mk.arsov.cartoonizer.util.KernelPlan;
+import mk.arsov.cartoonizer.util.VectorField;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -49,20 +63,21 @@ public class EdgeDetectionTest {
         PlanarImage sourceImage = JAI.create("fileload", "src/test/resources/images/slika.bmp");
         BufferedImage grayscaleImage = ImageUtils.toGrayscale(sourceImage.getAsBufferedImage());
 
-        Point2D.Double[][] tangentVectors = sobelGradient.calculateTangentVectorField(grayscaleImage);
+        VectorField tangentVectors = sobelGradient.calculateTangentVectorField(grayscaleImage);
 
         // normalize tangent vectors
-        for (int i = 0; i < tangentVectors.length; i++) {
-            for (int j = 0; j < tangentVectors[0].length; j++) {
-                Point2D.Double vector = tangentVectors[i][j];
-                double length = Math.sqrt(vector.getX() * vector.getX() + vector.getY() * vector.getY());
+        for (int i = 0; i < tangentVectors.getHeight(); i++) {
+            for (int j = 0; j < tangentVectors.getWidth(); j++) {
+                final double x = tangentVectors.getX(i, j);
+                final double y = tangentVectors.getY(i, j);
+                double length = Math.sqrt(x * x + y * y);
 
-                tangentVectors[i][j].setLocation((vector.getX() == 0 ? 0 : vector.getX() / length),
-                        (vector.getY() == 0 ? 0 : vector.getY() / length));
+                tangentVectors.set(i, j, (x == 0 ? 0 : x / length), (y == 0 ? 0 : y / length));
             }
         }
 
-        double[][] integralValues = edgeDetection.calculateHgxIntegral(sourceImage.getAsBufferedImage(), tangentVectors, 1, 1.6, 0.997, 4);
+        double[][] integralValues = edgeDetection.calculateHgxIntegral(sourceImage.getAsBufferedImage(),
+                FlowUtils.createGradientStencilTable(tangentVectors, 4), KernelPlan.differenceOfGaussians(1, 1.6, 0.997, 4));
 
         BufferedImage image =
                 new BufferedImage(sourceImage.getWidth(), sourceImage.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
@@ -97,4 +112,118 @@ public class EdgeDetectionTest {
 //        PlanarImage combinedImage = JAI.create("and", pb);
         ImageUtils.saveImage(edgeImage, "target/cone_edge_1_3_1_997_0.5.png");
     }
+
+    /**
+     * The incremental iterations give the same edges as calculating all pixels again on the source image with
+     * the edges of the previous iterations, and the first iteration is the same as in exact mode.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCalculateIncremental() throws Exception {
+        BufferedImage sourceImage = ImageIO.read(new File("src/test/resources/images/butterfly.jpg"))
+            .getSubimage(40, 30, 160, 120);
+        Map<String, Object> parameters = new HashMap<String, Object>(ProcessingPlanLoader.loadDefault().getParameters());
+        parameters.put("etf.numberofiterations", 1);
+        parameters.put("fdog.mode", "incremental");
+        ProcessingPlan plan = ProcessingPlanLoader.fromParameters(parameters);
+        PipelineResult result = new CartoonizerPipeline(plan).process(sourceImage);
+        BufferedImage grayscaleImage = (BufferedImage) result.getResult(PipelineStage.GRAYSCALE);
+        StreamlineTable streamlines = (StreamlineTable) result.getResult(PipelineStage.STREAMLINES);
+        GradientStencilTable gradientStencils = (GradientStencilTable) result.getResult(PipelineStage.GRADIENT_STENCILS);
+
+        BufferedImage expected = ImageUtils.copy(grayscaleImage);
+        BufferedImage edgeImage = null;
+        for (int iteration = 0; iteration < plan.getFdogIterations(); iteration++) {
+            double[][] response = edgeDetection.calculateResponse(expected, streamlines, gradientStencils, plan);
+            edgeImage = new BufferedImage(expected.getWidth(), expected.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+            for (int i = 0; i < expected.getHeight(); i++) {
+                for (int j = 0; j < expected.getWidth(); j++) {
+                    edgeImage.setRGB(j, i, edgeDetection.thresholdedValue(response[i][j], plan.getFdogTau()) * 16777215);
+                    if (edgeDetection.thresholdedValue(response[i][j], plan.getFdogTau()) == 0) {
+                        expected.setRGB(j, i, 0);
+                    }
+                }
+            }
+        }
+        assertSameImage(edgeImage, result.getEdges());
+
+        parameters.put("fdog.iterations", 1);
+        BufferedImage incremental = edgeDetection.calculate(ImageUtils.copy(grayscaleImage), streamlines,
+            gradientStencils, ProcessingPlanLoader.fromParameters(parameters));
+        parameters.put("fdog.mode", "exact");
+        BufferedImage exact = edgeDetection.calculate(ImageUtils.copy(grayscaleImage), streamlines,
+            gradientStencils, ProcessingPlanLoader.fromParameters(parameters));
+        assertSameImage(exact, incremental);
+    }
+
+    /**
+     * With more iterations the incremental mode should stay within the documented tolerance of the exact mode:
+     * less than 8 percent of the pixels differ, at least 9 of 10 of them next to an exact edge, and the number
+     * of edge pixels differs by less than 6 percent.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCalculateIncrementalTolerance() throws Exception {
+        BufferedImage sourceImage = ImageIO.read(new File("src/test/resources/images/butterfly.jpg"))
+            .getSubimage(40, 30, 160, 120);
+        Map<String, Object> parameters = new HashMap<String, Object>(ProcessingPlanLoader.loadDefault().getParameters());
+        parameters.put("fdog.iterations", 3);
+        BufferedImage exact = new CartoonizerPipeline(ProcessingPlanLoader.fromParameters(parameters))
+            .process(sourceImage).getEdges();
+        parameters.put("fdog.mode", "incremental");
+        BufferedImage incremental = new CartoonizerPipeline(ProcessingPlanLoader.fromParameters(parameters))
+            .process(sourceImage).getEdges();
+
+        int width = exact.getWidth();
+        int height = exact.getHeight();
+        int different = 0;
+        int nearEdge = 0;
+        int exactEdges = 0;
+        int incrementalEdges = 0;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                int exactValue = exact.getRaster().getSample(j, i, 0);
+                int incrementalValue = incremental.getRaster().getSample(j, i, 0);
+                exactEdges += (exactValue == 0) ? 1 : 0;
+                incrementalEdges += (incrementalValue == 0) ? 1 : 0;
+                if (exactValue != incrementalValue) {
+                    different++;
+                    if (hasEdgeAround(exact, j, i, 2)) {
+                        nearEdge++;
+                    }
+                }
+            }
+        }
+
+        Assert.assertTrue("iterations should change the edges", different > 0);
+        Assert.assertTrue(different + " different pixels", different < 0.08 * width * height);
+        Assert.assertTrue(nearEdge + " of " + different + " next to an edge", nearEdge >= 0.9 * different);
+        Assert.assertTrue(exactEdges + " and " + incrementalEdges + " edge pixels",
+            Math.abs(exactEdges - incrementalEdges) < 0.06 * exactEdges);
+    }
+
+    /**
+     * Whether there is an edge pixel other than the given one at most the distance away.
+     */
+    private static boolean hasEdgeAround(final BufferedImage edges, final int x, final int y, final int distance) {
+        for (int i = Math.max(0, y - distance); i <= Math.min(edges.getHeight() - 1, y + distance); i++) {
+            for (int j = Math.max(0, x - distance); j <= Math.min(edges.getWidth() - 1, x + distance); j++) {
+                if (((i != y) || (j != x)) && (edges.getRaster().getSample(j, i, 0) == 0)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static void assertSameImage(final BufferedImage expected, final BufferedImage actual) {
+        for (int i = 0; i < expected.getHeight(); i++) {
+            for (int j = 0; j < expected.getWidth(); j++) {
+                Assert.assertEquals("pixel " + j + ", " + i, expected.getRGB(j, i), actual.getRGB(j, i));
+            }
+        }
+    }
 }
@@ -2,13 +2,23 @@ package mk.arsov.cartoonizer.abstraction;
 
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import javax.imageio.ImageIO;
 import javax.media.jai.JAI;
 import javax.media.jai.PlanarImage;
 
+import mk.arsov.cartoonizer.config.EdgeTangentFlowConfiguration;
+import mk.arsov.cartoonizer.config.ProcessingPlanLoader;
 import mk.arsov.cartoonizer.lineintegralconvolution.LineConvolutionCalculator;
 import mk.arsov.cartoonizer.lineintegralconvolution.SobelGradient;
+import mk.arsov.cartoonizer.lineintegralconvolution.SobelPlanes;
 import mk.arsov.cartoonizer.util.ImageUtils;
+import mk.arsov.cartoonizer.util.VectorField;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -31,7 +41,7 @@ public class EdgeTangentFlowTest {
     }
 
     /**
-     * Test method for {@link EdgeTangentFlow#calculate(Point2D.Double[][], int, int)}.
+     * Test method for {@link EdgeTangentFlow#calculate(VectorField, int, int)}.
      */
     @Test
     public void testCalculate() {
@@ -39,7 +49,7 @@ public class EdgeTangentFlowTest {
         BufferedImage bluredImage = ImageUtils.blur(image.getAsBufferedImage(), 9, 1);
         PlanarImage whiteNoiseImage = JAI.create("fileload", "src/test/resources/images/whitenoise.bmp");
 
-        Point2D.Double[][] vectorField = sobelGradient.calculateTangentVectorField(bluredImage);
+        VectorField vectorField = sobelGradient.calculateTangentVectorField(bluredImage);
         vectorField = edgeTangentFlow.calculate(vectorField, 1, 5);
 
         // display on white noise image
@@ -48,6 +58,163 @@ public class EdgeTangentFlowTest {
         ImageUtils.saveImage(resultImage, "target/slika_etf_1_5_blur.png");
     }
 
+    /**
+     * The separable mode should give unit vectors with almost the same direction as the exact mode.
+     */
+    @Test
+    public void testCalculateSeparable() {
+        // slowly rotating vectors with different gradient magnitudes, so the magnitude weights matter
+        VectorField vectorField = new VectorField(64, 48);
+        for (int i = 0; i < 48; i++) {
+            for (int j = 0; j < 64; j++) {
+                final double angle = (i + j) / 20.0;
+                final double scale = 1 + ((i * 64 + j) * 7) % 13;
+                vectorField.set(i, j, Math.cos(angle) * scale, Math.sin(angle) * scale);
+            }
+        }
+
+        VectorField exact = edgeTangentFlow.calculate(vectorField, 2, 5, EtfMode.EXACT);
+        VectorField separable = edgeTangentFlow.calculate(vectorField, 2, 5, EtfMode.SEPARABLE);
+
+        double dotSum = 0;
+        for (int i = 0; i < exact.getXPlane().length; i++) {
+            final double x = separable.getXPlane()[i];
+            final double y = separable.getYPlane()[i];
+            if ((x != 0) || (y != 0)) {
+                Assert.assertEquals(1, Math.sqrt(x * x + y * y), 1e-9);
+            }
+            dotSum += Math.abs(x * exact.getXPlane()[i] + y * exact.getYPlane()[i]);
+        }
+        Assert.assertTrue(dotSum / exact.getXPlane().length > 0.95);
+    }
+
+    /**
+     * The pyramid mode should follow the edges of the test images in almost the same direction as the exact mode.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCalculatePyramid() throws Exception {
+        for (String name : new String[] {"vlatko.jpg", "butterfly.jpg", "skull.jpg"}) {
+            BufferedImage image = ImageIO.read(new File("src/test/resources/images/" + name));
+            SobelPlanes sobelPlanes = sobelGradient.calculatePlanes(ImageUtils.blur(ImageUtils.toGrayscale(image), 4, 1));
+            double[] magnitude = sobelPlanes.getMagnitude();
+
+            VectorField exact = edgeTangentFlow.calculate(sobelPlanes.getTangentVectorField(), magnitude,
+                Double.NaN, 3, 5, EtfMode.EXACT, 3, 1);
+            VectorField pyramid = edgeTangentFlow.calculate(sobelPlanes.getTangentVectorField(), magnitude,
+                Double.NaN, 3, 5, EtfMode.PYRAMID, 3, 1);
+
+            // the direction matters on the edges, in flat regions both modes are close to random
+            double dotSum = 0;
+            double magnitudeSum = 0;
+            for (int i = 0; i < magnitude.length; i++) {
+                final double x = pyramid.getXPlane()[i];
+                final double y = pyramid.getYPlane()[i];
+                if ((x != 0) || (y != 0)) {
+                    Assert.assertEquals(1, Math.sqrt(x * x + y * y), 1e-9);
+                }
+                dotSum += Math.abs(x * exact.getXPlane()[i] + y * exact.getYPlane()[i]) * magnitude[i];
+                magnitudeSum += magnitude[i];
+            }
+            Assert.assertTrue(name, dotSum / magnitudeSum > 0.95);
+        }
+    }
+
+    /**
+     * A pyramid with one level is only the refinement iterations of the exact mode.
+     */
+    @Test
+    public void testCalculatePyramidOneLevel() {
+        VectorField vectorField = new VectorField(20, 15);
+        double[] magnitude = new double[20 * 15];
+        for (int i = 0; i < 15; i++) {
+            for (int j = 0; j < 20; j++) {
+                vectorField.set(i, j, Math.cos(i * j / 30.0) * (1 + j % 3), Math.sin(i * j / 30.0));
+                magnitude[i * 20 + j] = Math.hypot(vectorField.getX(i, j), vectorField.getY(i, j));
+            }
+        }
+
+        VectorField exact = edgeTangentFlow.calculate(vectorField, magnitude, 2, 4, EtfMode.EXACT);
+        VectorField pyramid = edgeTangentFlow.calculate(vectorField, magnitude, Double.NaN, 5, 4, EtfMode.PYRAMID, 1, 2);
+        Assert.assertArrayEquals(exact.getXPlane(), pyramid.getXPlane(), 0);
+        Assert.assertArrayEquals(exact.getYPlane(), pyramid.getYPlane(), 0);
+
+        Assert.assertEquals(4, EdgeTangentFlow.pyramidKernelRadius(4, 0));
+        Assert.assertEquals(2, EdgeTangentFlow.pyramidKernelRadius(4, 1));
+        Assert.assertEquals(2, EdgeTangentFlow.pyramidKernelRadius(4, 3));
+        Assert.assertEquals(3, EdgeTangentFlow.pyramidKernelRadius(9, 2));
+    }
+
+    /**
+     * The iterations of the pyramid levels from the plan, the same as the number of iterations when they are all
+     * equal to it.
+     */
+    @Test
+    public void testCalculatePyramidLevelIterations() {
+        VectorField vectorField = new VectorField(40, 30);
+        double[] magnitude = new double[40 * 30];
+        for (int i = 0; i < 30; i++) {
+            for (int j = 0; j < 40; j++) {
+                vectorField.set(i, j, Math.cos(i * j / 30.0) * (1 + j % 3), Math.sin(i * j / 30.0));
+                magnitude[i * 40 + j] = Math.hypot(vectorField.getX(i, j), vectorField.getY(i, j));
+            }
+        }
+
+        Map<String, Object> parameters = new HashMap<String, Object>(ProcessingPlanLoader.loadDefault().getParameters());
+        parameters.put("etf.mode", "pyramid");
+        parameters.put("etf.pyramidLevels", 3);
+        parameters.put("etf.numberofiterations", 2);
+        parameters.put("etf.pyramidIterations", Arrays.asList(2, 2));
+        VectorField same = edgeTangentFlow.calculate(vectorField, magnitude, Double.NaN,
+            ProcessingPlanLoader.fromParameters(parameters));
+        VectorField expected = edgeTangentFlow.calculate(vectorField, magnitude, Double.NaN, 2, 5, EtfMode.PYRAMID, 3, 1);
+        Assert.assertArrayEquals(expected.getXPlane(), same.getXPlane(), 0);
+        Assert.assertArrayEquals(expected.getYPlane(), same.getYPlane(), 0);
+
+        parameters.put("etf.pyramidIterations", Arrays.asList(2, 0));
+        VectorField different = edgeTangentFlow.calculate(vectorField, magnitude, Double.NaN,
+            ProcessingPlanLoader.fromParameters(parameters));
+        Assert.assertFalse(Arrays.equals(expected.getXPlane(), different.getXPlane()));
+    }
+
+    /**
+     * The iterations of the pyramid levels from the configuration should be used without a plan.
+     */
+    @Test
+    public void testCalculatePyramidConfiguredIterations() {
+        VectorField vectorField = new VectorField(40, 30);
+        double[] magnitude = new double[40 * 30];
+        for (int i = 0; i < 30; i++) {
+            for (int j = 0; j < 40; j++) {
+                vectorField.set(i, j, Math.cos(i * j / 30.0) * (1 + j % 3), Math.sin(i * j / 30.0));
+                magnitude[i * 40 + j] = Math.hypot(vectorField.getX(i, j), vectorField.getY(i, j));
+            }
+        }
+
+        VectorField expected = edgeTangentFlow.calculate(vectorField, magnitude, Double.NaN, 2, 5, EtfMode.PYRAMID, 3, 1);
+
+        List<Integer> pyramidIterations = EdgeTangentFlowConfiguration.PYRAMID_ITERATIONS;
+        try {
+            EdgeTangentFlowConfiguration.PYRAMID_ITERATIONS = Arrays.asList(2, 0);
+            VectorField different = edgeTangentFlow.calculate(vectorField, magnitude, Double.NaN, 2, 5, EtfMode.PYRAMID,
+                3, 1);
+            Assert.assertFalse(Arrays.equals(expected.getXPlane(), different.getXPlane()));
+
+            Map<String, Object> parameters = new HashMap<String, Object>(ProcessingPlanLoader.loadDefault().getParameters());
+            parameters.put("etf.mode", "pyramid");
+            parameters.put("etf.pyramidLevels", 3);
+            parameters.put("etf.numberofiterations", 2);
+            parameters.put("etf.pyramidIterations", Arrays.asList(2, 0));
+            VectorField same = edgeTangentFlow.calculate(vectorField, magnitude, Double.NaN,
+                ProcessingPlanLoader.fromParameters(parameters));
+            Assert.assertArrayEquals(same.getXPlane(), different.getXPlane(), 0);
+            Assert.assertArrayEquals(same.getYPlane(), different.getYPlane(), 0);
+        } finally {
+            EdgeTangentFlowConfiguration.PYRAMID_ITERATIONS = pyramidIterations;
+        }
+    }
+
     /**
      * Test ETF fi function.
      */
@@ -1,6 +1,5 @@
 package mk.arsov.cartoonizer.abstraction;
 
-import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 
 import javax.media.jai.JAI;
@@ -8,8 +7,15 @@ import javax.media.jai.PlanarImage;
 
 import mk.arsov.cartoonizer.lineintegralconvolution.LineConvolutionCalculator;
 import mk.arsov.cartoonizer.lineintegralconvolution.SobelGradient;
+import mk.arsov.cartoonizer.lineintegralconvolution.StreamlineTable;
+import mk.arsov.cartoonizer.util.FlowUtils;
+import mk.arsov.cartoonizer.util.GradientStencilTable;
 import mk.arsov.cartoonizer.util.ImageUtils;
+import mk.arsov.cartoonizer.util.KernelPlan;
+import mk.arsov.cartoonizer.util.RangeWeightTable;
+import mk.arsov.cartoonizer.util.VectorField;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -40,8 +46,8 @@ public class FlowBilateralFilterTest {
         PlanarImage sourceImage = JAI.create("fileload", "src/test/resources/images/slika.bmp");
         BufferedImage grayscaleImage = ImageUtils.toGrayscale(sourceImage.getAsBufferedImage());
         BufferedImage blurredImage = ImageUtils.blur(grayscaleImage, 9, 1);
-        final Point2D.Double[][] tangentVectors = sobelGradient.calculateTangentVectorField(blurredImage);
-        final Point2D.Double[][] etfVectors = edgeTangentFlow.calculate(tangentVectors, 3, 5);
+        final VectorField tangentVectors = sobelGradient.calculateTangentVectorField(blurredImage);
+        final VectorField etfVectors = edgeTangentFlow.calculate(tangentVectors, 3, 5);
 
         BufferedImage resultImage = flowBilateralFilter.calculateCex(sourceImage.getAsBufferedImage(), etfVectors, 10, 1.1, 2, 50);
 
@@ -57,8 +63,8 @@ public class FlowBilateralFilterTest {
         PlanarImage sourceImage = JAI.create("fileload", "src/test/resources/images/slika.bmp");
         BufferedImage grayscaleImage = ImageUtils.toGrayscale(sourceImage.getAsBufferedImage());
         BufferedImage blurredImage = ImageUtils.blur(grayscaleImage, 9, 1);
-        final Point2D.Double[][] tangentVectors = sobelGradient.calculateTangentVectorField(blurredImage);
-        final Point2D.Double[][] etfVectors = edgeTangentFlow.calculate(tangentVectors, 3, 5);
+        final VectorField tangentVectors = sobelGradient.calculateTangentVectorField(blurredImage);
+        final VectorField etfVectors = edgeTangentFlow.calculate(tangentVectors, 3, 5);
 
         BufferedImage resultImage = flowBilateralFilter.calculateCgx(sourceImage.getAsBufferedImage(), etfVectors, 4, 2, 10);
 
@@ -74,18 +80,54 @@ public class FlowBilateralFilterTest {
         PlanarImage sourceImage = JAI.create("fileload", "src/test/resources/images/vlatko_big.jpg");
         BufferedImage grayscaleImage = ImageUtils.toGrayscale(sourceImage.getAsBufferedImage());
         BufferedImage blurredImage = ImageUtils.blur(grayscaleImage, 9, 1);
-        final Point2D.Double[][] tangentVectors = sobelGradient.calculateTangentVectorField(blurredImage);
-        final Point2D.Double[][] etfVectors = edgeTangentFlow.calculate(tangentVectors, 3, 5);
+        final VectorField tangentVectors = sobelGradient.calculateTangentVectorField(blurredImage);
+        final VectorField etfVectors = edgeTangentFlow.calculate(tangentVectors, 3, 5);
+        final StreamlineTable streamlines = lineConvolutionCalculator.createStreamlineTable(etfVectors, 10, 1.1);
 
-        BufferedImage resultImage = flowBilateralFilter.calculateCex(sourceImage.getAsBufferedImage(), etfVectors, 10, 1.1, 2, 50);
+        BufferedImage resultImage = flowBilateralFilter.calculateCex(sourceImage.getAsBufferedImage(), streamlines, 2, 50);
         resultImage = flowBilateralFilter.calculateCgx(resultImage, etfVectors, 4, 2, 10);
 
-        resultImage = flowBilateralFilter.calculateCex(sourceImage.getAsBufferedImage(), etfVectors, 10, 1.1, 2, 50);
+        resultImage = flowBilateralFilter.calculateCex(sourceImage.getAsBufferedImage(), streamlines, 2, 50);
         resultImage = flowBilateralFilter.calculateCgx(resultImage, etfVectors, 4, 2, 10);
 
-        resultImage = flowBilateralFilter.calculateCex(sourceImage.getAsBufferedImage(), etfVectors, 10, 1.1, 2, 50);
+        resultImage = flowBilateralFilter.calculateCex(sourceImage.getAsBufferedImage(), streamlines, 2, 50);
         resultImage = flowBilateralFilter.calculateCgx(resultImage, etfVectors, 4, 2, 10);
 
         ImageUtils.saveImage(resultImage, "target/vlatko_big_fbl.png");
     }
+
+    /**
+     * The fixed-point filters should be within a few levels of the exact filters.
+     */
+    @Test
+    public void testFixedPoint() {
+        BufferedImage sourceImage = JAI.create("fileload", "src/test/resources/images/eagle.bmp").getAsBufferedImage();
+        BufferedImage grayscaleImage = ImageUtils.toGrayscale(sourceImage);
+        BufferedImage blurredImage = ImageUtils.blur(grayscaleImage, 9, 1);
+        final VectorField tangentVectors = sobelGradient.calculateTangentVectorField(blurredImage);
+        final VectorField etfVectors = edgeTangentFlow.calculate(tangentVectors, 3, 1);
+        final StreamlineTable streamlines = lineConvolutionCalculator.createStreamlineTable(etfVectors, 6, 1);
+        final GradientStencilTable gradientStencils = FlowUtils.createGradientStencilTable(etfVectors, 6);
+        final KernelPlan flowPlan = KernelPlan.gaussian(2, 6);
+        final KernelPlan gradientPlan = KernelPlan.gaussian(2, 6);
+        final RangeWeightTable rangeWeights = new RangeWeightTable(50);
+
+        BufferedImage exact = flowBilateralFilter.calculateCex(sourceImage, streamlines, flowPlan, rangeWeights,
+            SmoothingMode.EXACT);
+        exact = flowBilateralFilter.calculateCgx(exact, gradientStencils, gradientPlan, rangeWeights,
+            SmoothingMode.EXACT);
+        BufferedImage fixedPoint = flowBilateralFilter.calculateCex(sourceImage, streamlines, flowPlan, rangeWeights,
+            SmoothingMode.FIXED_POINT);
+        fixedPoint = flowBilateralFilter.calculateCgx(fixedPoint, gradientStencils, gradientPlan, rangeWeights,
+            SmoothingMode.FIXED_POINT);
+
+        for (int i = 0; i < exact.getHeight(); i++) {
+            for (int j = 0; j < exact.getWidth(); j++) {
+                for (int band = 0; band < 3; band++) {
+                    Assert.assertEquals(exact.getRaster().getSample(j, i, band),
+                        fixedPoint.getRaster().getSample(j, i, band), 2);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,176 @@
+package mk.arsov.cartoonizer.cache;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mk.arsov.cartoonizer.util.VectorField;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for StageCache class.
+ */
+public class StageCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Keys depend on the pixel values, the image type and the parameters.
+     */
+    @Test
+    public void testKey() {
+        BufferedImage bgr = new BufferedImage(4, 3, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage other = new BufferedImage(4, 3, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage rgb = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB);
+        bgr.setRGB(1, 2, 0x123456);
+        other.setRGB(1, 2, 0x123456);
+        rgb.setRGB(1, 2, 0x123456);
+
+        Assert.assertEquals(StageCache.key(bgr, "tau", 0.5), StageCache.key(other, "tau", 0.5));
+        Assert.assertNotEquals(StageCache.key(bgr, "tau", 0.5), StageCache.key(rgb, "tau", 0.5));
+        Assert.assertNotEquals(StageCache.key(bgr, "tau", 0.5), StageCache.key(bgr, "tau", 0.6));
+        Assert.assertNotEquals(StageCache.key("ab", "c"), StageCache.key("a", "bc"));
+
+        other.setRGB(2, 2, 0x123456);
+        Assert.assertNotEquals(StageCache.key(bgr, "tau", 0.5), StageCache.key(other, "tau", 0.5));
+    }
+
+    /**
+     * Gray levels which getRGB converts into the same color should have different keys.
+     */
+    @Test
+    public void testGrayKey() {
+        BufferedImage first = new BufferedImage(2, 1, BufferedImage.TYPE_BYTE_GRAY);
+        BufferedImage second = new BufferedImage(2, 1, BufferedImage.TYPE_BYTE_GRAY);
+        first.getRaster().setSample(0, 0, 0, 75);
+        second.getRaster().setSample(0, 0, 0, 76);
+        Assert.assertEquals(first.getRGB(0, 0), second.getRGB(0, 0));
+
+        Assert.assertNotEquals(StageCache.key(first), StageCache.key(second));
+    }
+
+    /**
+     * Indexed images with the same indices and different palettes should have different keys.
+     */
+    @Test
+    public void testIndexedKey() {
+        IndexColorModel firstPalette = new IndexColorModel(8, 2, new byte[] {0, 10}, new byte[] {0, 20},
+            new byte[] {0, 30});
+        IndexColorModel secondPalette = new IndexColorModel(8, 2, new byte[] {0, 10}, new byte[] {0, 20},
+            new byte[] {0, 31});
+        BufferedImage first = new BufferedImage(2, 1, BufferedImage.TYPE_BYTE_INDEXED, firstPalette);
+        BufferedImage second = new BufferedImage(2, 1, BufferedImage.TYPE_BYTE_INDEXED, secondPalette);
+        BufferedImage same = new BufferedImage(2, 1, BufferedImage.TYPE_BYTE_INDEXED, firstPalette);
+        first.getRaster().setSample(1, 0, 0, 1);
+        second.getRaster().setSample(1, 0, 0, 1);
+        same.getRaster().setSample(1, 0, 0, 1);
+
+        Assert.assertNotEquals(StageCache.key(first), StageCache.key(second));
+        Assert.assertEquals(StageCache.key(first), StageCache.key(same));
+    }
+
+    /**
+     * The least recently used results should be dropped when the size is over the limit.
+     */
+    @Test
+    public void testEviction() {
+        // 10x10 vector fields are 1600 bytes
+        StageCache cache = new StageCache(4000, null);
+        cache.put("a", new VectorField(10, 10));
+        cache.put("b", new VectorField(10, 10));
+        Assert.assertNotNull(cache.getIfPresent("a", VectorField.class));
+
+        cache.put("c", new VectorField(10, 10));
+        Assert.assertNotNull(cache.getIfPresent("a", VectorField.class));
+        Assert.assertNull(cache.getIfPresent("b", VectorField.class));
+        Assert.assertNotNull(cache.getIfPresent("c", VectorField.class));
+        Assert.assertEquals(3200, cache.getMemoryBytes());
+
+        // too large for the memory
+        cache.put("d", new VectorField(20, 20));
+        Assert.assertNull(cache.getIfPresent("d", VectorField.class));
+        Assert.assertEquals(3200, cache.getMemoryBytes());
+    }
+
+    /**
+     * Results dropped from memory should be read from the disk.
+     */
+    @Test
+    public void testDisk() {
+        StageCache cache = new StageCache(0, folder.getRoot());
+        VectorField field = new VectorField(3, 2);
+        field.set(1, 2, 0.25, -0.5);
+        BufferedImage image = new BufferedImage(3, 2, BufferedImage.TYPE_3BYTE_BGR);
+        image.setRGB(2, 1, 0x102030);
+        cache.put("field", field);
+        cache.put("image", image);
+
+        VectorField cachedField = new StageCache(0, folder.getRoot()).getIfPresent("field", VectorField.class);
+        Assert.assertEquals(0.25, cachedField.getX(1, 2), 0);
+        Assert.assertEquals(-0.5, cachedField.getY(1, 2), 0);
+        BufferedImage cachedImage = cache.getIfPresent("image", BufferedImage.class);
+        Assert.assertEquals(0x102030, cachedImage.getRGB(2, 1) & 0xFFFFFF);
+        Assert.assertEquals(2, folder.getRoot().list().length);
+    }
+
+    /**
+     * Concurrent requests for the same missing key should be calculated only once.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSingleFlight() throws Exception {
+        final StageCache cache = new StageCache(1024 * 1024, null);
+        final AtomicInteger calculations = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<VectorField>> results = new ArrayList<Future<VectorField>>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(new Callable<VectorField>() {
+                    @Override
+                    public VectorField call() {
+                        return cache.get("key", VectorField.class, () -> {
+                            calculations.incrementAndGet();
+                            started.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            return new VectorField(2, 2);
+                        });
+                    }
+                }));
+            }
+
+            started.await();
+            // let the other threads reach the cache
+            Thread.sleep(100);
+            release.countDown();
+
+            for (Future<VectorField> result : results) {
+                Assert.assertSame(results.get(0).get(), result.get());
+            }
+            Assert.assertEquals(1, calculations.get());
+            Assert.assertEquals(1, cache.getMisses());
+            Assert.assertEquals(3, cache.getHits());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
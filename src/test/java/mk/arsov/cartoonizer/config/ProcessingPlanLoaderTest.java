@@ -0,0 +1,134 @@
+package mk.arsov.cartoonizer.config;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import mk.arsov.cartoonizer.abstraction.EtfMode;
+import mk.arsov.cartoonizer.abstraction.SmoothingMode;
+import mk.arsov.cartoonizer.util.BlurMode;
+import mk.arsov.cartoonizer.util.KernelPlan;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for ProcessingPlanLoader class.
+ */
+public class ProcessingPlanLoaderTest {
+
+    /**
+     * The application.yml on the classpath, with the blur radius derived from sigma.
+     */
+    @Test
+    public void testLoadDefault() {
+        ProcessingPlan plan = ProcessingPlanLoader.loadDefault();
+
+        Assert.assertEquals(1, plan.getBlurSigma(), 0);
+        Assert.assertEquals(4, plan.getBlurKernelRadius());
+        Assert.assertEquals(BlurMode.SEPARABLE, plan.getBlurMode());
+        Assert.assertEquals(EtfMode.EXACT, plan.getEtfMode());
+        Assert.assertEquals(SmoothingMode.EXACT, plan.getFblMode());
+        Assert.assertEquals(3, plan.getEtfPyramidLevels());
+        Assert.assertEquals(1, plan.getEtfPyramidRefinement());
+        Assert.assertArrayEquals(new int[] {3, 3}, plan.getEtfPyramidIterations());
+        Assert.assertEquals(4, plan.getFdogT());
+        Assert.assertEquals(15, plan.getFdogS());
+        Assert.assertEquals(15, plan.getStreamlineLength());
+        Assert.assertEquals(6, plan.getGradientStencilLength());
+        Assert.assertEquals(4, plan.getDogPlan().getLength());
+        Assert.assertEquals(6, plan.getFblFlowPlan().getLength());
+    }
+
+    /**
+     * Missing parameters get the default values, equal parameters give the same plan.
+     */
+    @Test
+    public void testLoad() {
+        final String yaml = "fdog:\n    tau: 0.7\n    t: auto\n    sigmaS: 1.6\netf:\n    mode: separable\n"
+            + "fbl:\n    mode: fixed_point\n";
+        ProcessingPlan plan = ProcessingPlanLoader.load(new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertEquals(0.7, plan.getFdogTau(), 0);
+        Assert.assertEquals(KernelPlan.truncatedLength(1.6, ProcessingPlanLoader.DEFAULT_EPSILON), plan.getFdogT());
+        Assert.assertEquals(EtfMode.SEPARABLE, plan.getEtfMode());
+        Assert.assertEquals(SmoothingMode.FIXED_POINT, plan.getFblMode());
+        Assert.assertEquals(EdgeDetectionConfiguration.ITERATIONS, plan.getFdogIterations());
+        Assert.assertEquals(ProcessingPlan.AUTO, plan.getParameters().get("fdog.t"));
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("fdog.tau", 0.7);
+        parameters.put("fdog.t", "AUTO");
+        parameters.put("etf.mode", EtfMode.SEPARABLE);
+        parameters.put("fbl.mode", "fixed_point");
+        Assert.assertSame(plan, ProcessingPlanLoader.fromParameters(parameters));
+        Assert.assertNotSame(plan, ProcessingPlanLoader.fromParameters(Collections.singletonMap("fdog.tau", 0.8)));
+    }
+
+    /**
+     * The iterations of the pyramid levels, the levels without a value get etf.numberofiterations.
+     */
+    @Test
+    public void testPyramidIterations() {
+        final String yaml = "etf:\n    mode: pyramid\n    pyramidLevels: 4\n    numberofiterations: 2\n"
+            + "    pyramidIterations: [1, 5]\n";
+        ProcessingPlan plan = ProcessingPlanLoader.load(new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8)));
+        Assert.assertArrayEquals(new int[] {1, 5, 2}, plan.getEtfPyramidIterations());
+
+        Map<String, Object> parameters = new HashMap<String, Object>(plan.getParameters());
+        parameters.put("etf.pyramidIterations", "1, 5");
+        Assert.assertSame(plan, ProcessingPlanLoader.fromParameters(parameters));
+
+        // more iterations on the coarse levels reach further
+        parameters.put("etf.pyramidIterations", "1, 5, 4");
+        Assert.assertTrue(ProcessingPlanLoader.fromParameters(parameters).getEtfReach() > plan.getEtfReach());
+
+        parameters.put("etf.pyramidIterations", Arrays.asList(1, -1));
+        try {
+            ProcessingPlanLoader.fromParameters(parameters);
+            Assert.fail("Negative number of iterations");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Unknown parameters and invalid values are rejected.
+     */
+    @Test
+    public void testInvalidParameters() {
+        try {
+            ProcessingPlanLoader.fromParameters(Collections.singletonMap("fdog.tua", 0.5));
+            Assert.fail("Unknown parameter accepted");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("fdog.tua"));
+        }
+
+        try {
+            ProcessingPlanLoader.fromParameters(Collections.singletonMap("fdog.iterations", 1.5));
+            Assert.fail("Invalid value accepted");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("fdog.iterations"));
+        }
+    }
+
+    /**
+     * Only the most recently used plans are kept.
+     */
+    @Test
+    public void testPlansBounded() {
+        ProcessingPlan first = ProcessingPlanLoader.fromParameters(Collections.singletonMap("fdog.tau", 0.123));
+        Assert.assertSame(first, ProcessingPlanLoader.fromParameters(Collections.singletonMap("fdog.tau", 0.123)));
+
+        for (int i = 0; i < ProcessingPlanLoader.MAX_PLANS; i++) {
+            ProcessingPlanLoader.fromParameters(Collections.singletonMap("fdog.tau", 0.2 + i * 0.001));
+        }
+
+        ProcessingPlan again = ProcessingPlanLoader.fromParameters(Collections.singletonMap("fdog.tau", 0.123));
+        Assert.assertNotSame(first, again);
+        Assert.assertEquals(first.getParameters(), again.getParameters());
+    }
+}
@@ -0,0 +1,107 @@
+package mk.arsov.cartoonizer.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import mk.arsov.cartoonizer.util.VectorField;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for PlaneFile class.
+ */
+public class PlaneFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A vector field and it's parameters should be read back unchanged.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testVectorField() throws IOException {
+        VectorField field = new VectorField(5, 3);
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 5; j++) {
+                field.set(i, j, Math.cos(i * 5 + j), -Math.sin(i * 5 + j) / 3);
+            }
+        }
+        Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+        parameters.put("etf.kernelRadius", 5);
+        parameters.put("etf.mode", "exact");
+
+        File file = folder.newFile("etf" + PlaneFile.SUFFIX);
+        PlaneFile.write(file, field, parameters);
+
+        MappedPlanes planes = PlaneFile.read(file);
+        Assert.assertEquals(PlaneFile.ElementType.DOUBLE, planes.getElementType());
+        Assert.assertEquals(5, planes.getWidth());
+        Assert.assertEquals(3, planes.getHeight());
+        Assert.assertEquals(2, planes.getComponents());
+        Assert.assertEquals("5", planes.getParameters().get("etf.kernelRadius"));
+        Assert.assertEquals("exact", planes.getParameters().get("etf.mode"));
+        Assert.assertEquals(field.getY(2, 4), planes.getDoubleBuffer(1).get(14), 0);
+
+        VectorField read = planes.toVectorField();
+        Assert.assertArrayEquals(field.getXPlane(), read.getXPlane(), 0);
+        Assert.assertArrayEquals(field.getYPlane(), read.getYPlane(), 0);
+    }
+
+    /**
+     * Float planes, and the header should be aligned so that the data starts at a multiple of 8 bytes.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testFloatPlanes() throws IOException {
+        float[][] lab = {{1.5f, 2.5f, 3.5f, 4.5f}, {-1, -2, -3, -4}, {0, 0.25f, 0.5f, 0.75f}};
+        File file = folder.newFile("lab" + PlaneFile.SUFFIX);
+        PlaneFile.write(file, 2, 2, lab, new LinkedHashMap<String, Object>());
+
+        Assert.assertEquals(32 + 3 * 4 * 4, file.length());
+        MappedPlanes planes = PlaneFile.read(file);
+        Assert.assertEquals(PlaneFile.ElementType.FLOAT, planes.getElementType());
+        Assert.assertTrue(planes.getParameters().isEmpty());
+        for (int c = 0; c < 3; c++) {
+            Assert.assertArrayEquals(lab[c], planes.toFloatArray(c), 0);
+        }
+    }
+
+    /**
+     * Files which are not plane files or are truncated should be rejected.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testInvalidFiles() throws IOException {
+        File file = folder.newFile("plane" + PlaneFile.SUFFIX);
+        PlaneFile.write(file, 4, 4, new double[][] {new double[16]}, new LinkedHashMap<String, Object>());
+
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        truncated.setLength(file.length() - 8);
+        truncated.close();
+        try {
+            PlaneFile.read(file);
+            Assert.fail("Truncated file accepted");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("truncated"));
+        }
+
+        File text = folder.newFile("text" + PlaneFile.SUFFIX);
+        VectorFieldText.write(text, new VectorField(10, 10));
+        try {
+            PlaneFile.read(text);
+            Assert.fail("Text file accepted");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("not a plane file"));
+        }
+    }
+}
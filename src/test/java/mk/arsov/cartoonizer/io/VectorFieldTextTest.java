@@ -0,0 +1,63 @@
+package mk.arsov.cartoonizer.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import mk.arsov.cartoonizer.util.VectorField;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for VectorFieldText class.
+ */
+public class VectorFieldTextTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test read() method with the vector field from the test resources.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testRead() throws IOException {
+        VectorField field = VectorFieldText.read(new File("src/test/resources/vectorfield.txt"));
+
+        Assert.assertEquals(10, field.getHeight());
+        Assert.assertEquals(10, field.getWidth());
+        Assert.assertEquals(-35.0, field.getX(0, 0), 0);
+        Assert.assertEquals(-45.0, field.getY(0, 0), 0);
+        Assert.assertEquals(12.0, field.getX(1, 0), 0);
+        Assert.assertEquals(-25.0, field.getY(1, 1), 0);
+    }
+
+    /**
+     * Written fields should be read back unchanged, rows of different length are rejected.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testWrite() throws IOException {
+        VectorField field = new VectorField(3, 2);
+        field.set(0, 1, 0.1, -2.5);
+        field.set(1, 2, 1e-7, 3);
+        File file = folder.newFile("field.txt");
+        VectorFieldText.write(file, field);
+
+        VectorField read = VectorFieldText.read(file);
+        Assert.assertArrayEquals(field.getXPlane(), read.getXPlane(), 0);
+        Assert.assertArrayEquals(field.getYPlane(), read.getYPlane(), 0);
+
+        try {
+            VectorFieldText.read(new StringReader("1 2;3 4\n5 6\n"));
+            Assert.fail("Rows of different length accepted");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("Row 1"));
+        }
+    }
+}
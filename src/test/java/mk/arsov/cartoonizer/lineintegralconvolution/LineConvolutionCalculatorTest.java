@@ -9,6 +9,7 @@ import javax.media.jai.JAI;
 import javax.media.jai.PlanarImage;
 
 import mk.arsov.cartoonizer.util.ImageUtils;
+import mk.arsov.cartoonizer.util.VectorField;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -29,7 +30,7 @@ public class LineConvolutionCalculatorTest {
     }
 
     /**
-     * Test method for {@link LineConvolutionCalculator#calculate(Point2D.Double[][], BufferedImage, int, double)}.
+     * Test method for {@link LineConvolutionCalculator#calculate(VectorField, BufferedImage, int, double)}.
      *
      * @throws IOException IOException
      */
@@ -53,14 +54,14 @@ public class LineConvolutionCalculatorTest {
         int kernelLength = 4;
         double roundoff = 1.1;
 
-        Point2D.Double[][] vectorField = sobelGradient.calculateTangentVectorField(planarImage.getAsBufferedImage());
+        VectorField vectorField = sobelGradient.calculateTangentVectorField(planarImage.getAsBufferedImage());
         BufferedImage resultImage = lineConvolutionCalculator.calculate(vectorField, planarImage.getAsBufferedImage(), kernelLength, roundoff);
 
-        Assert.assertEquals(172, ((resultImage.getRGB(3, 5) % 256) + 256) % 256);
+        Assert.assertEquals(172, resultImage.getRaster().getSample(3, 5, 0));
     }
 
     /**
-     * Test method for {@link LineConvolutionCalculator#calculate(Point2D.Double[][], BufferedImage, int, double)}.
+     * Test method for {@link LineConvolutionCalculator#calculate(VectorField, BufferedImage, int, double)}.
      *
      * @throws IOException IOException
      */
@@ -71,14 +72,14 @@ public class LineConvolutionCalculatorTest {
 
         int rows = 512;
         int cols = 512;
-        Point2D.Double[][] vectorField = new Point2D.Double[rows][cols];
+        VectorField vectorField = new VectorField(cols, rows);
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < cols; j++) {
                 // normal vector
                 double x = j - (cols/2);
                 double y = i - (rows/2);
                 double m = Math.sqrt(x*x + y*y);
-                vectorField[i][j] = new Point2D.Double(-y/m, x/m);
+                vectorField.set(i, j, -y/m, x/m);
             }
         }
         BufferedImage resultImage = lineConvolutionCalculator.calculateOnWhiteNoise(vectorField, kernelLength, roundoff);
@@ -96,7 +97,7 @@ public class LineConvolutionCalculatorTest {
         PlanarImage planarImage = JAI.create("fileload", "src/test/resources/images/test_lic_grayscale.png");
 
         // calculate tangent vectors
-        Point2D.Double[][] tangentVectors = sobelGradient.calculateTangentVectorField(planarImage.getAsBufferedImage());
+        VectorField tangentVectors = sobelGradient.calculateTangentVectorField(planarImage.getAsBufferedImage());
 
         ArrayList<Point2D.Double> pointsInLine = lineConvolutionCalculator.getLineSegmentPoints(tangentVectors, new Point2D.Double(3, 5), 4, 1.1D);
 
@@ -165,6 +166,30 @@ public class LineConvolutionCalculatorTest {
         Assert.assertEquals(point, pointsInLine.get(8));
     }
 
+    /**
+     * The streamline table should contain the same points as getLineSegmentPoints for every pixel.
+     */
+    @Test
+    public void testCreateStreamlineTable() {
+        VectorField vectorField = ImageUtils.createCircularVectorField(64, 48);
+        StreamlineTable streamlines = lineConvolutionCalculator.createStreamlineTable(vectorField, 10, 1.1);
+
+        Assert.assertEquals(21, streamlines.getStride());
+        for (int i = 0; i < vectorField.getHeight(); i++) {
+            for (int j = 0; j < vectorField.getWidth(); j++) {
+                ArrayList<Point2D.Double> pointsInLine =
+                    lineConvolutionCalculator.getLineSegmentPoints(vectorField, new Point2D.Double(j, i), 10, 1.1);
+
+                final int pixelIndex = vectorField.index(i, j);
+                Assert.assertEquals(pointsInLine.size(), streamlines.getLength(pixelIndex));
+                for (int k = 0; k < pointsInLine.size(); k++) {
+                    final int pointIndex = streamlines.getPointIndex(pixelIndex, k);
+                    Assert.assertEquals(pointsInLine.get(k), new Point2D.Double(pointIndex % 64, pointIndex / 64));
+                }
+            }
+        }
+    }
+
     /**
      * Test shortestDistanceToEdge method.
      */
@@ -0,0 +1,132 @@
+package mk.arsov.cartoonizer.lineintegralconvolution;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import mk.arsov.cartoonizer.util.BlurMode;
+import mk.arsov.cartoonizer.util.ImageUtils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for ScanlineGradient class.
+ */
+public class ScanlineGradientTest {
+
+    /**
+     * The row by row gradients are the same as the gradients of the whole blurred image.
+     */
+    @Test
+    public void testCalculatePlanes() {
+        final BufferedImage image = createImage(37, 29, BufferedImage.TYPE_3BYTE_BGR);
+
+        assertSamePlanes(expectedPlanes(image, 4, 1.5), ScanlineGradient.calculatePlanes(image, 4, 1.5));
+    }
+
+    /**
+     * Grayscale images are blurred without conversion, and images lower than the kernel have all rows in the ring.
+     */
+    @Test
+    public void testCalculatePlanesSmallImages() {
+        final BufferedImage gray = createImage(23, 17, BufferedImage.TYPE_BYTE_GRAY);
+        assertSamePlanes(expectedPlanes(gray, 3, 1), ScanlineGradient.calculatePlanes(gray, 3, 1));
+
+        for (int height = 1; height <= 4; height++) {
+            final BufferedImage image = createImage(9, height, BufferedImage.TYPE_INT_RGB);
+            assertSamePlanes(expectedPlanes(image, 5, 2), ScanlineGradient.calculatePlanes(image, 5, 2));
+        }
+    }
+
+    /**
+     * The 16 bit gray values are scaled the same as in the whole image, also when pushed in strips.
+     */
+    @Test
+    public void testCalculatePlanesUshortGray() {
+        final Random random = new Random(7);
+        final BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_USHORT_GRAY);
+        for (int i = 0; i < 30; i++) {
+            for (int j = 0; j < 40; j++) {
+                image.getRaster().setSample(j, i, 0, ((i / 6 + j / 8) % 2) * 40000 + random.nextInt(20000));
+            }
+        }
+        final SobelPlanes expected = expectedPlanes(image, 3, 1.2);
+        assertSamePlanes(expected, ScanlineGradient.calculatePlanes(image, 3, 1.2));
+
+        final double[] magnitude = new double[40 * 30];
+        final ScanlineGradient scanlineGradient = new ScanlineGradient(40, 30, 3, 1.2,
+            (row, gradientX, gradientY, rowMagnitude) -> System.arraycopy(rowMagnitude, 0, magnitude, row * 40, 40));
+        scanlineGradient.push(image.getSubimage(0, 0, 40, 11));
+        scanlineGradient.push(image.getSubimage(0, 11, 40, 19));
+        Assert.assertArrayEquals(expected.getMagnitude(), magnitude, 0);
+    }
+
+    /**
+     * Rows are given to the consumer in order, as soon as the source rows they depend on are pushed.
+     */
+    @Test
+    public void testPushStrips() {
+        final BufferedImage image = createImage(31, 40, BufferedImage.TYPE_3BYTE_BGR);
+        final SobelPlanes expected = expectedPlanes(image, 2, 1);
+        final int[] nextRow = new int[1];
+
+        final ScanlineGradient scanlineGradient = new ScanlineGradient(31, 40, 2, 1,
+            (row, gradientX, gradientY, magnitude) -> {
+                Assert.assertEquals(nextRow[0], row);
+                for (int j = 0; j < 31; j++) {
+                    Assert.assertEquals(expected.getMagnitude()[row * 31 + j], magnitude[j], 0);
+                    Assert.assertEquals(expected.getGradientX()[row * 31 + j], gradientX[j], 0);
+                    Assert.assertEquals(expected.getGradientY()[row * 31 + j], gradientY[j], 0);
+                }
+                nextRow[0]++;
+            });
+
+        // radius 2 for the blur and 1 for the sobel kernel
+        scanlineGradient.push(image.getSubimage(0, 0, 31, 7));
+        Assert.assertEquals(4, nextRow[0]);
+        scanlineGradient.push(image.getSubimage(0, 7, 31, 1));
+        Assert.assertEquals(5, nextRow[0]);
+        Assert.assertFalse(scanlineGradient.isComplete());
+
+        scanlineGradient.push(image.getSubimage(0, 8, 31, 32));
+        Assert.assertEquals(40, nextRow[0]);
+        Assert.assertTrue(scanlineGradient.isComplete());
+    }
+
+    /**
+     * Pushing more rows than the image has is an error.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testPushTooManyRows() {
+        final ScanlineGradient scanlineGradient = new ScanlineGradient(5, 3, 1, 1,
+            (row, gradientX, gradientY, magnitude) -> { });
+        scanlineGradient.push(createImage(5, 4, BufferedImage.TYPE_INT_RGB));
+    }
+
+    private static SobelPlanes expectedPlanes(final BufferedImage image, final int radius, final double sigma) {
+        return new SobelGradient().calculatePlanes(
+            ImageUtils.blur(ImageUtils.toGrayscale(image), radius, sigma, BlurMode.SEPARABLE));
+    }
+
+    private static void assertSamePlanes(final SobelPlanes expected, final SobelPlanes actual) {
+        Assert.assertEquals(expected.getWidth(), actual.getWidth());
+        Assert.assertEquals(expected.getHeight(), actual.getHeight());
+        Assert.assertArrayEquals(expected.getGradientX(), actual.getGradientX(), 0);
+        Assert.assertArrayEquals(expected.getGradientY(), actual.getGradientY(), 0);
+        Assert.assertArrayEquals(expected.getMagnitude(), actual.getMagnitude(), 0);
+    }
+
+    private static BufferedImage createImage(final int width, final int height, final int type) {
+        final Random random = new Random(width * 31 + height);
+        final BufferedImage image = new BufferedImage(width, height, type);
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                // smooth shapes with some noise, so there are strong and weak edges
+                final int value = ((i / 5 + j / 7) % 2) * 160 + random.nextInt(60);
+                image.setRGB(j, i, (value << 16) | ((255 - value) << 8) | (value / 2));
+            }
+        }
+
+        return image;
+    }
+}
@@ -1,6 +1,5 @@
 package mk.arsov.cartoonizer.lineintegralconvolution;
 
-import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
@@ -8,6 +7,8 @@ import java.io.PrintWriter;
 import javax.media.jai.JAI;
 import javax.media.jai.PlanarImage;
 
+import mk.arsov.cartoonizer.util.VectorField;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -103,19 +104,43 @@ public class SobelGradientTest {
             }
         }
 
-        Point2D.Double[][] tangentVectors = sobelGradient.calculateTangentVectorField(image);
+        VectorField tangentVectors = sobelGradient.calculateTangentVectorField(image);
+
+        Assert.assertEquals(-36, tangentVectors.getX(2, 2), 0.05);
+        Assert.assertEquals(-33, tangentVectors.getY(2, 2), 0.05);
 
-        Point2D.Double point = tangentVectors[2][2];
-        Assert.assertEquals(-36, point.getX(), 0.05);
-        Assert.assertEquals(-33, point.getY(), 0.05);
+        Assert.assertEquals(22, tangentVectors.getX(0, 0), 0.05);
+        Assert.assertEquals(-35, tangentVectors.getY(0, 0), 0.05);
+
+        Assert.assertEquals(-14, tangentVectors.getX(4, 2), 0.05);
+        Assert.assertEquals(-6, tangentVectors.getY(4, 2), 0.05);
+    }
+
+    /**
+     * The fused single pass should give the same values as the separate x and y convolutions.
+     */
+    @Test
+    public void testCalculatePlanes() {
+        BufferedImage image = new BufferedImage(9, 6, BufferedImage.TYPE_3BYTE_BGR);
+        for (int i = 0; i < 6; i++) {
+            for (int j = 0; j < 9; j++) {
+                final int value = (i * 37 + j * 91 + i * j * 13) % 256;
+                image.setRGB(j, i, value * 256 * 256 + value * 256 + value);
+            }
+        }
 
-        point = tangentVectors[0][0];
-        Assert.assertEquals(22, point.getX(), 0.05);
-        Assert.assertEquals(-35, point.getY(), 0.05);
+        SobelPlanes planes = sobelGradient.calculatePlanes(image);
+        double[][] gradientX = sobelGradient.calculateGradientX(image.getData());
+        double[][] gradientY = sobelGradient.calculateGradientY(image.getData());
 
-        point = tangentVectors[4][2];
-        Assert.assertEquals(-14, point.getX(), 0.05);
-        Assert.assertEquals(-6, point.getY(), 0.05);
+        for (int i = 0; i < 6; i++) {
+            for (int j = 0; j < 9; j++) {
+                final int index = i * 9 + j;
+                Assert.assertEquals(gradientX[i][j], planes.getGradientX()[index], 0);
+                Assert.assertEquals(gradientY[i][j], planes.getGradientY()[index], 0);
+                Assert.assertEquals(Math.hypot(gradientX[i][j], gradientY[i][j]), planes.getMagnitude()[index], 1e-9);
+            }
+        }
     }
 
     /**
@@ -130,13 +155,13 @@ public class SobelGradientTest {
         PlanarImage planarImage = JAI.create("fileload", "src/test/resources/images/slika1.bmp");
     
         // calculate tangent vectors
-        Point2D.Double[][] tangentVectors = sobelGradient.calculateTangentVectorField(planarImage.getAsBufferedImage());
+        VectorField tangentVectors = sobelGradient.calculateTangentVectorField(planarImage.getAsBufferedImage());
     
         // write to file
         PrintWriter out = new PrintWriter("tangent_field.txt");
-        for (int i = 0; i < tangentVectors.length; i++) {
-            for (int j = 0; j < tangentVectors[0].length; j++) {
-                out.print("(" + tangentVectors[i][j].getX() + ", " + tangentVectors[i][j].getY() + ");");
+        for (int i = 0; i < tangentVectors.getHeight(); i++) {
+            for (int j = 0; j < tangentVectors.getWidth(); j++) {
+                out.print("(" + tangentVectors.getX(i, j) + ", " + tangentVectors.getY(i, j) + ");");
             }
             out.println();
         }
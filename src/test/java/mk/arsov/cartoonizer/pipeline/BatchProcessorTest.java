@@ -0,0 +1,99 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for BatchProcessor class.
+ */
+public class BatchProcessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * All images should be written as png, broken images are counted as failed and other files are skipped.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testProcess() throws Exception {
+        final File input = folder.newFolder("input");
+        final File output = new File(folder.getRoot(), "output");
+
+        for (int n = 0; n < 5; n++) {
+            BufferedImage image = new BufferedImage(30 + n, 20, BufferedImage.TYPE_3BYTE_BGR);
+            for (int i = 0; i < 20; i++) {
+                for (int j = 0; j < 30 + n; j++) {
+                    image.setRGB(j, i, (i - 10) * (i - 10) + (j - 15) * (j - 15) < 36 + n * 4 ? 0x203080 : 0xE0D0A0);
+                }
+            }
+            ImageIO.write(image, n % 2 == 0 ? "png" : "bmp", new File(input, "image" + n + (n % 2 == 0 ? ".png" : ".bmp")));
+        }
+        write(new File(input, "broken.png"), "not an image");
+        write(new File(input, "notes.txt"), "not an image either");
+
+        BatchResult result = new BatchProcessor(new CartoonizerPipeline(), 2, 2, 1, 1).process(input, output);
+
+        Assert.assertEquals(5, result.getProcessed());
+        Assert.assertEquals(1, result.getFailed());
+        Assert.assertTrue(result.getImagesPerSecond() > 0);
+        for (int n = 0; n < 5; n++) {
+            BufferedImage cartoon = ImageIO.read(new File(output, "image" + n + ".png"));
+            Assert.assertEquals(30 + n, cartoon.getWidth());
+            Assert.assertEquals(20, cartoon.getHeight());
+        }
+        Assert.assertEquals(5, output.list().length);
+    }
+
+    /**
+     * Images whose results would have the same name should not overwrite each other, only the first one by name
+     * is cartoonized.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testOutputNameCollision() throws Exception {
+        final File input = folder.newFolder("input");
+        final File output = new File(folder.getRoot(), "output");
+        ImageIO.write(new BufferedImage(30, 20, BufferedImage.TYPE_3BYTE_BGR), "bmp", new File(input, "a.bmp"));
+        ImageIO.write(new BufferedImage(40, 20, BufferedImage.TYPE_3BYTE_BGR), "png", new File(input, "a.png"));
+        // the case differs in the name of a file with another extension, so the sources don't overwrite each other
+        // on case insensitive file systems
+        ImageIO.write(new BufferedImage(50, 20, BufferedImage.TYPE_3BYTE_BGR), "jpg", new File(input, "A.jpg"));
+
+        BatchResult result = new BatchProcessor(new CartoonizerPipeline(), 1, 1, 1, 1).process(input, output);
+
+        Assert.assertEquals(1, result.getProcessed());
+        Assert.assertEquals(2, result.getFailed());
+        Assert.assertEquals(1, output.list().length);
+    }
+
+    /**
+     * Test outputName() method.
+     */
+    @Test
+    public void testOutputName() {
+        Assert.assertEquals("photo.png", BatchProcessor.outputName(new File("dir/photo.jpg")));
+        Assert.assertEquals("photo.tar.png", BatchProcessor.outputName(new File("photo.tar.gif")));
+        Assert.assertEquals(".hidden.png", BatchProcessor.outputName(new File(".hidden")));
+    }
+
+    private static void write(final File file, final String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+
+import mk.arsov.cartoonizer.cache.StageCache;
+import mk.arsov.cartoonizer.config.ProcessingPlan;
+import mk.arsov.cartoonizer.config.ProcessingPlanLoader;
+import mk.arsov.cartoonizer.lineintegralconvolution.StreamlineTable;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for CartoonizerPipeline class.
+ */
+public class CartoonizerPipelineTest {
+
+    /**
+     * All stages should be calculated, and the edges should be black in the final image.
+     */
+    @Test
+    public void testProcess() {
+        BufferedImage image = createImage();
+
+        PipelineResult result = new CartoonizerPipeline().process(image);
+
+        for (PipelineStage stage : PipelineStage.values()) {
+            Assert.assertNotNull(stage.toString(), result.getResult(stage));
+            Assert.assertTrue(result.getDuration(stage) >= 0);
+        }
+        Assert.assertSame(result.getEdgeTangentFlow(),
+            ((StreamlineTable) result.getResult(PipelineStage.STREAMLINES)).getVectorField());
+
+        BufferedImage cartoon = result.getImage();
+        Assert.assertEquals(60, cartoon.getWidth());
+        Assert.assertEquals(40, cartoon.getHeight());
+
+        int edgePixels = 0;
+        for (int i = 0; i < 40; i++) {
+            for (int j = 0; j < 60; j++) {
+                if ((result.getEdges().getRGB(j, i) & 0xFFFFFF) == 0) {
+                    Assert.assertEquals(0, cartoon.getRGB(j, i) & 0xFFFFFF);
+                    edgePixels++;
+                } else {
+                    Assert.assertEquals(result.getSmoothed().getRGB(j, i), cartoon.getRGB(j, i));
+                }
+            }
+        }
+        Assert.assertTrue(edgePixels > 0);
+
+        // the source image is not changed
+        Assert.assertEquals(0xE0D0A0, image.getRGB(0, 0) & 0xFFFFFF);
+    }
+
+    /**
+     * Cached stages should be reused, and only the stages after a changed parameter calculated again,
+     * with the same results as without the cache.
+     */
+    @Test
+    public void testProcessCached() {
+        BufferedImage image = createImage();
+        StageCache cache = new StageCache(64 * 1024 * 1024, null);
+        ProcessingPlan plan = ProcessingPlanLoader.loadDefault();
+
+        PipelineResult first = new CartoonizerPipeline(plan, cache).process(image);
+        Assert.assertNotNull(first.getResult(PipelineStage.BLUR));
+
+        // the same image in another object
+        PipelineResult second = new CartoonizerPipeline(plan, cache).process(createImage());
+        Assert.assertSame(first.getImage(), second.getImage());
+        Assert.assertNull(second.getResult(PipelineStage.BLUR));
+        Assert.assertEquals(0, second.getDuration(PipelineStage.COMPOSITE));
+
+        Map<String, Object> parameters = new HashMap<String, Object>(plan.getParameters());
+        parameters.put("fdog.tau", plan.getFdogTau() + 0.3);
+        ProcessingPlan tauPlan = ProcessingPlanLoader.fromParameters(parameters);
+        PipelineResult third = new CartoonizerPipeline(tauPlan, cache).process(image);
+        Assert.assertSame(first.getEdgeTangentFlow(), third.getEdgeTangentFlow());
+        Assert.assertSame(first.getSmoothed(), third.getSmoothed());
+        Assert.assertNull(third.getResult(PipelineStage.SOBEL));
+        Assert.assertNotNull(third.getResult(PipelineStage.STREAMLINES));
+
+        PipelineResult uncached = new CartoonizerPipeline(tauPlan).process(image);
+        for (int i = 0; i < image.getHeight(); i++) {
+            for (int j = 0; j < image.getWidth(); j++) {
+                Assert.assertEquals(uncached.getImage().getRGB(j, i), third.getImage().getRGB(j, i));
+            }
+        }
+    }
+
+    /**
+     * Dark circle on a light background.
+     *
+     * @return the image
+     */
+    private static BufferedImage createImage() {
+        BufferedImage image = new BufferedImage(60, 40, BufferedImage.TYPE_3BYTE_BGR);
+        for (int i = 0; i < 40; i++) {
+            for (int j = 0; j < 60; j++) {
+                final boolean inside = (i - 20) * (i - 20) + (j - 30) * (j - 30) < 144;
+                image.setRGB(j, i, inside ? 0x203080 : 0xE0D0A0);
+            }
+        }
+
+        return image;
+    }
+}
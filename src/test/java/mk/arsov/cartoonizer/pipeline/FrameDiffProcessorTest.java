@@ -0,0 +1,167 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import mk.arsov.cartoonizer.config.ProcessingPlanLoader;
+import mk.arsov.cartoonizer.util.ImageUtils;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for FrameDiffProcessor class.
+ */
+public class FrameDiffProcessorTest {
+
+    private BufferedImage frame;
+
+    @Before
+    public void setUp() throws Exception {
+        frame = ImageUtils.copy(ImageIO.read(new File("src/test/resources/images/butterfly.jpg"))
+            .getSubimage(40, 30, 200, 160));
+    }
+
+    /**
+     * An unchanged frame is not calculated again.
+     */
+    @Test
+    public void testUnchangedFrame() {
+        FrameDiffProcessor processor = new FrameDiffProcessor(createPipeline("exact"));
+        BufferedImage first = processor.process(frame);
+        BufferedImage second = processor.process(ImageUtils.copy(frame));
+
+        Assert.assertEquals(1, processor.getFullFrames());
+        Assert.assertEquals(1, processor.getIncrementalFrames());
+        Assert.assertEquals(0, processor.getRecalculatedFraction(), 0);
+        assertSameImage(first, second);
+    }
+
+    /**
+     * Only the region around a small change is calculated, and the result is the same as the calculation
+     * of the whole frame with the same gradient magnitude sum.
+     */
+    @Test
+    public void testChangedRegion() {
+        for (String mode : new String[] {"exact", "pyramid"}) {
+            CartoonizerPipeline pipeline = createPipeline(mode);
+            FrameDiffProcessor processor = new FrameDiffProcessor(pipeline);
+            processor.process(frame);
+
+            BufferedImage changed = paint(frame, 150, 20);
+            BufferedImage result = processor.process(changed);
+            Assert.assertEquals(mode, 1, processor.getIncrementalFrames());
+            Assert.assertTrue(mode + " " + processor.getRecalculatedFraction(), processor.getRecalculatedFraction() < 0.9);
+            assertSameImage(pipeline.processPart(changed, processor.getGradientMagnitudeSum()).getImage(), result);
+
+            // the changes add up over the frames
+            changed = paint(changed, 20, 130);
+            result = processor.process(changed);
+            Assert.assertEquals(mode, 2, processor.getIncrementalFrames());
+            assertSameImage(pipeline.processPart(changed, processor.getGradientMagnitudeSum()).getImage(), result);
+        }
+    }
+
+    /**
+     * Gray levels which getRGB converts into the same color are a change of a grayscale frame.
+     */
+    @Test
+    public void testGrayFrame() {
+        CartoonizerPipeline pipeline = createPipeline("exact");
+        FrameDiffProcessor processor = new FrameDiffProcessor(pipeline);
+        BufferedImage gray = ImageUtils.toGrayscale(frame);
+        gray.getRaster().setSample(100, 80, 0, 75);
+        processor.process(gray);
+
+        BufferedImage changed = ImageUtils.copy(gray);
+        changed.getRaster().setSample(100, 80, 0, 76);
+        Assert.assertEquals(gray.getRGB(100, 80), changed.getRGB(100, 80));
+        processor.process(changed);
+        Assert.assertEquals(1, processor.getIncrementalFrames());
+        Assert.assertTrue(processor.getRecalculatedFraction() > 0);
+    }
+
+    /**
+     * Changes below the threshold are compared with the frame the results were calculated from, so they are
+     * found when they add up over the frames.
+     */
+    @Test
+    public void testSlowChange() {
+        FrameDiffProcessor processor = new FrameDiffProcessor(createPipeline("exact"), 16, 2, 0.5, 0.05);
+        processor.process(frame);
+
+        for (int step = 1; step <= 3; step++) {
+            BufferedImage changed = ImageUtils.copy(frame);
+            for (int i = 50; i < 60; i++) {
+                for (int j = 50; j < 60; j++) {
+                    for (int band = 0; band < 3; band++) {
+                        changed.getRaster().setSample(j, i, band,
+                            Math.min(255, frame.getRaster().getSample(j, i, band) + step));
+                    }
+                }
+            }
+            processor.process(changed);
+            Assert.assertEquals("step " + step, step == 3, processor.getRecalculatedFraction() > 0);
+        }
+    }
+
+    /**
+     * A large change, or a new size, calculates the whole frame.
+     */
+    @Test
+    public void testLargeChange() {
+        CartoonizerPipeline pipeline = createPipeline("exact");
+        FrameDiffProcessor processor = new FrameDiffProcessor(pipeline);
+        processor.process(frame);
+
+        BufferedImage changed = paint(ImageUtils.copy(frame), 0, 0);
+        Graphics2D graphics = changed.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 150, 160);
+        graphics.dispose();
+        assertSameImage(pipeline.process(changed).getImage(), processor.process(changed));
+        Assert.assertEquals(2, processor.getFullFrames());
+
+        processor.process(ImageUtils.copy(frame.getSubimage(0, 0, 100, 100)));
+        Assert.assertEquals(3, processor.getFullFrames());
+        Assert.assertEquals(0, processor.getIncrementalFrames());
+    }
+
+    private static CartoonizerPipeline createPipeline(final String etfMode) {
+        Map<String, Object> parameters = new HashMap<String, Object>(ProcessingPlanLoader.loadDefault().getParameters());
+        parameters.put("etf.numberofiterations", 1);
+        parameters.put("etf.mode", etfMode);
+        parameters.put("fdog.iterations", 1);
+        parameters.put("fbl.iterations", 1);
+        return new CartoonizerPipeline(ProcessingPlanLoader.fromParameters(parameters));
+    }
+
+    /**
+     * Copy of the image with a small dark square.
+     */
+    private static BufferedImage paint(final BufferedImage image, final int x, final int y) {
+        BufferedImage result = ImageUtils.copy(image);
+        Graphics2D graphics = result.createGraphics();
+        graphics.setColor(Color.DARK_GRAY);
+        graphics.fillRect(x, y, 6, 6);
+        graphics.dispose();
+        return result;
+    }
+
+    private static void assertSameImage(final BufferedImage expected, final BufferedImage actual) {
+        Assert.assertEquals(expected.getWidth(), actual.getWidth());
+        Assert.assertEquals(expected.getHeight(), actual.getHeight());
+        for (int i = 0; i < expected.getHeight(); i++) {
+            for (int j = 0; j < expected.getWidth(); j++) {
+                Assert.assertEquals("pixel " + j + ", " + i, expected.getRGB(j, i), actual.getRGB(j, i));
+            }
+        }
+    }
+}
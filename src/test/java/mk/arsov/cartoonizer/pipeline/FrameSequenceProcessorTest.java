@@ -0,0 +1,151 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import mk.arsov.cartoonizer.config.ProcessingPlan;
+import mk.arsov.cartoonizer.config.ProcessingPlanLoader;
+import mk.arsov.cartoonizer.util.VectorField;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for FrameSequenceProcessor class.
+ */
+public class FrameSequenceProcessorTest {
+
+    private CartoonizerPipeline pipeline;
+    private BufferedImage source;
+
+    @Before
+    public void setUp() throws Exception {
+        source = ImageIO.read(new File("src/test/resources/images/butterfly.jpg"));
+        Map<String, Object> parameters = new HashMap<String, Object>(ProcessingPlanLoader.loadDefault().getParameters());
+        parameters.put("fdog.iterations", 1);
+        parameters.put("fbl.iterations", 1);
+        ProcessingPlan plan = ProcessingPlanLoader.fromParameters(parameters);
+        pipeline = new CartoonizerPipeline(plan);
+    }
+
+    /**
+     * The frame after the first one starts from the previous edge tangent flow, and it's flow is close to the
+     * flow calculated from the beginning.
+     */
+    @Test
+    public void testWarmStart() {
+        FrameSequenceProcessor processor = new FrameSequenceProcessor(pipeline, 1, 0.1);
+        processor.process(createFrame(120, 100, 0, 0));
+        VectorField warm = processor.process(createFrame(120, 100, 1, 1)).getEdgeTangentFlow();
+        Assert.assertEquals(1, processor.getColdFrames());
+        Assert.assertEquals(1, processor.getWarmFrames());
+
+        VectorField cold = pipeline.process(createFrame(120, 100, 1, 1)).getEdgeTangentFlow();
+        Assert.assertEquals(cold.getWidth(), warm.getWidth());
+        Assert.assertEquals(cold.getHeight(), warm.getHeight());
+        double sum = 0;
+        for (int i = 0; i < cold.getHeight(); i++) {
+            for (int j = 0; j < cold.getWidth(); j++) {
+                sum += Math.abs(cold.getX(i, j) * warm.getX(i, j) + cold.getY(i, j) * warm.getY(i, j));
+            }
+        }
+        Assert.assertTrue("mean |dot| " + sum / (120 * 100), sum / (120 * 100) > 0.9);
+    }
+
+    /**
+     * An inverted image, or an image of a different size, starts from the beginning, as does the frame after
+     * a reset.
+     */
+    @Test
+    public void testSceneCut() {
+        FrameSequenceProcessor processor = new FrameSequenceProcessor(pipeline, 1, 0.1);
+        processor.process(createFrame(120, 100, 0, 0));
+        processor.process(invert(createFrame(120, 100, 0, 0)));
+        Assert.assertEquals(2, processor.getColdFrames());
+
+        processor.process(createFrame(100, 100, 0, 0));
+        Assert.assertEquals(3, processor.getColdFrames());
+
+        processor.reset();
+        processor.process(createFrame(100, 100, 0, 0));
+        Assert.assertEquals(4, processor.getColdFrames());
+        Assert.assertEquals(0, processor.getWarmFrames());
+    }
+
+    /**
+     * With noise between the frames, the edges of the frames continued from the previous one change less.
+     */
+    @Test
+    public void testLessFlicker() {
+        FrameSequenceProcessor processor = new FrameSequenceProcessor(pipeline, 1, 0.1);
+        BufferedImage previousWarm = null;
+        BufferedImage previousCold = null;
+        int warmChanges = 0;
+        int coldChanges = 0;
+        for (int frame = 0; frame < 4; frame++) {
+            BufferedImage image = createFrame(120, 100, frame / 2, frame);
+            BufferedImage warm = processor.process(image).getEdges();
+            BufferedImage cold = pipeline.process(image).getEdges();
+            if (previousWarm != null) {
+                warmChanges += changedPixels(previousWarm, warm);
+                coldChanges += changedPixels(previousCold, cold);
+            }
+            previousWarm = warm;
+            previousCold = cold;
+        }
+
+        Assert.assertEquals(3, processor.getWarmFrames());
+        Assert.assertTrue("warm " + warmChanges + ", cold " + coldChanges, warmChanges <= coldChanges);
+    }
+
+    private static int changedPixels(final BufferedImage first, final BufferedImage second) {
+        int changed = 0;
+        for (int i = 0; i < first.getHeight(); i++) {
+            for (int j = 0; j < first.getWidth(); j++) {
+                if (first.getRaster().getSample(j, i, 0) != second.getRaster().getSample(j, i, 0)) {
+                    changed++;
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    private static BufferedImage invert(final BufferedImage image) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+        for (int i = 0; i < image.getHeight(); i++) {
+            for (int j = 0; j < image.getWidth(); j++) {
+                result.setRGB(j, i, ~image.getRGB(j, i));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * A part of the test image moved by the offset, with noise.
+     */
+    private BufferedImage createFrame(final int width, final int height, final int offset, final long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                final int rgb = source.getRGB(j + 60 + offset, i + 40 + offset);
+                final int noise = random.nextInt(11) - 5;
+                int value = 0;
+                for (int shift = 0; shift < 24; shift += 8) {
+                    value |= Math.max(0, Math.min(255, ((rgb >> shift) & 0xff) + noise)) << shift;
+                }
+                image.setRGB(j, i, value);
+            }
+        }
+
+        return image;
+    }
+}
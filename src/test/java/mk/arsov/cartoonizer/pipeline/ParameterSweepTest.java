@@ -0,0 +1,108 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import mk.arsov.cartoonizer.config.ProcessingPlan;
+import mk.arsov.cartoonizer.config.ProcessingPlanLoader;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for ParameterSweep class.
+ */
+public class ParameterSweepTest {
+
+    private ProcessingPlan plan;
+    private BufferedImage image;
+
+    @Before
+    public void setUp() throws Exception {
+        image = ImageIO.read(new File("src/test/resources/images/butterfly.jpg")).getSubimage(40, 30, 160, 120);
+        Map<String, Object> parameters = new HashMap<String, Object>(ProcessingPlanLoader.loadDefault().getParameters());
+        parameters.put("etf.numberofiterations", 1);
+        parameters.put("fdog.iterations", 1);
+        parameters.put("fbl.iterations", 1);
+        plan = ProcessingPlanLoader.fromParameters(parameters);
+    }
+
+    /**
+     * A sweep over tau calculates the edge tangent flow and the response once, and only the edges for each tau.
+     * The results are the same as without the sweep.
+     */
+    @Test
+    public void testTauSweep() {
+        List<Map<String, Object>> parameterSets = ParameterSweep.grid(
+            singleParameter("fdog.tau", Arrays.<Object>asList(0.9, 0.95, 0.99)));
+        List<PipelineResult> results = new ParameterSweep(plan).run(image, parameterSets);
+        Assert.assertEquals(3, results.size());
+
+        for (int k = 0; k < results.size(); k++) {
+            PipelineResult result = results.get(k);
+            Assert.assertEquals(k == 0, result.isCalculated(PipelineStage.ETF));
+            Assert.assertEquals(k == 0, result.isCalculated(PipelineStage.EDGE_RESPONSE));
+            Assert.assertEquals(k == 0, result.isCalculated(PipelineStage.SMOOTHING));
+            Assert.assertTrue(result.isCalculated(PipelineStage.EDGES));
+            Assert.assertTrue(result.isCalculated(PipelineStage.COMPOSITE));
+
+            Map<String, Object> parameters = new HashMap<String, Object>(plan.getParameters());
+            parameters.putAll(parameterSets.get(k));
+            PipelineResult expected = new CartoonizerPipeline(ProcessingPlanLoader.fromParameters(parameters))
+                .process(image);
+            assertSameImage(expected.getImage(), result.getImage());
+        }
+    }
+
+    /**
+     * A sweep over a smoothing parameter calculates the edges once.
+     */
+    @Test
+    public void testSmoothingSweep() {
+        List<PipelineResult> results = new ParameterSweep(plan).run(image,
+            ParameterSweep.grid(singleParameter("fbl.re", Arrays.<Object>asList(5.0, 10.0))));
+
+        Assert.assertTrue(results.get(1).isCalculated(PipelineStage.SMOOTHING));
+        Assert.assertFalse(results.get(1).isCalculated(PipelineStage.EDGES));
+        Assert.assertSame(results.get(0).getEdges(), results.get(1).getEdges());
+    }
+
+    @Test
+    public void testGrid() {
+        Map<String, List<?>> values = new LinkedHashMap<String, List<?>>();
+        values.put("fdog.tau", Arrays.asList(0.9, 0.99));
+        values.put("fdog.ro", Arrays.asList(0.9, 0.95, 0.99));
+        List<Map<String, Object>> parameterSets = ParameterSweep.grid(values);
+
+        Assert.assertEquals(6, parameterSets.size());
+        Assert.assertEquals(0.9, parameterSets.get(0).get("fdog.tau"));
+        Assert.assertEquals(0.95, parameterSets.get(1).get("fdog.ro"));
+        Assert.assertEquals(0.99, parameterSets.get(5).get("fdog.tau"));
+        Assert.assertEquals(0.99, parameterSets.get(5).get("fdog.ro"));
+        Assert.assertEquals(1, ParameterSweep.grid(new LinkedHashMap<String, List<?>>()).size());
+    }
+
+    private static Map<String, List<?>> singleParameter(final String key, final List<?> values) {
+        Map<String, List<?>> parameter = new LinkedHashMap<String, List<?>>();
+        parameter.put(key, values);
+        return parameter;
+    }
+
+    private static void assertSameImage(final BufferedImage expected, final BufferedImage actual) {
+        Assert.assertEquals(expected.getWidth(), actual.getWidth());
+        Assert.assertEquals(expected.getHeight(), actual.getHeight());
+        for (int i = 0; i < expected.getHeight(); i++) {
+            for (int j = 0; j < expected.getWidth(); j++) {
+                Assert.assertEquals("pixel " + j + ", " + i, expected.getRGB(j, i), actual.getRGB(j, i));
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import mk.arsov.cartoonizer.config.PreviewConfiguration;
+import mk.arsov.cartoonizer.config.ProcessingPlan;
+import mk.arsov.cartoonizer.config.ProcessingPlanLoader;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for ProgressiveRenderer class.
+ */
+public class ProgressiveRendererTest {
+
+    private CartoonizerPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        Map<String, Object> parameters = new HashMap<String, Object>(ProcessingPlanLoader.loadDefault().getParameters());
+        parameters.put("etf.numberofiterations", 1);
+        parameters.put("fdog.iterations", 1);
+        parameters.put("fbl.iterations", 1);
+        ProcessingPlan plan = ProcessingPlanLoader.fromParameters(parameters);
+        pipeline = new CartoonizerPipeline(plan);
+    }
+
+    /**
+     * With a tiny budget the preview is small, and the listener gets the intermediate and the full resolution.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRender() throws Exception {
+        BufferedImage image = createImage(160, 128);
+        final List<Double> scales = new ArrayList<Double>();
+        ProgressiveRenderer renderer = new ProgressiveRenderer(pipeline, Runnable::run, 1, 1);
+
+        ProgressiveRendering rendering = renderer.render("session", image, (r, result, scale) -> {
+            Assert.assertEquals(Math.round(160 * scale), result.getWidth());
+            scales.add(scale);
+        });
+
+        Assert.assertEquals(0.25, rendering.getPreviewScale(), 0);
+        Assert.assertEquals(40, rendering.getPreview().getWidth());
+        Assert.assertEquals(32, rendering.getPreview().getHeight());
+        Assert.assertEquals(2, scales.size());
+        Assert.assertEquals(0.5, scales.get(0), 0);
+        Assert.assertEquals(1, scales.get(1), 0);
+
+        assertSameImage(pipeline.process(image).getImage(), rendering.getResult().get(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * When the whole image fits in the budget, the preview is the final result.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRenderWithinBudget() throws Exception {
+        ProgressiveRenderer renderer = new ProgressiveRenderer(pipeline, Runnable::run, 60000, 1);
+        Assert.assertEquals(1, renderer.scales(40, 30).size());
+
+        ProgressiveRendering rendering = renderer.render("session", createImage(40, 30), null);
+        Assert.assertEquals(1, rendering.getPreviewScale(), 0);
+        Assert.assertTrue(rendering.getResult().isDone());
+        Assert.assertSame(rendering.getPreview(), rendering.getResult().get());
+    }
+
+    /**
+     * When the estimated time per pixel is far too low, the first preview of a large image would be the whole
+     * image. It's cancelled when the budget runs out and calculated at smaller scales, so it's ready long before
+     * the whole image would be.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFirstPreviewWithinBudget() throws Exception {
+        final double initialNanosPerPixel = PreviewConfiguration.INITIAL_NANOS_PER_PIXEL;
+        PreviewConfiguration.INITIAL_NANOS_PER_PIXEL = 1;
+        final ProgressiveRenderer renderer;
+        try {
+            renderer = new ProgressiveRenderer(pipeline, ignored -> { }, 100, 1);
+        } finally {
+            PreviewConfiguration.INITIAL_NANOS_PER_PIXEL = initialNanosPerPixel;
+        }
+        Assert.assertEquals(1, renderer.scales(1600, 1200).size());
+
+        long startTime = System.nanoTime();
+        ProgressiveRendering rendering = renderer.render("session", createImage(1600, 1200), null);
+        long previewTime = System.nanoTime() - startTime;
+        Assert.assertTrue(rendering.getPreviewScale() < 1);
+        Assert.assertEquals(Math.round(1600 * rendering.getPreviewScale()), rendering.getPreview().getWidth());
+        Assert.assertFalse(rendering.getResult().isDone());
+
+        // the time of the cancelled previews is measured, the next preview is small from the start
+        Assert.assertTrue(renderer.scales(1600, 1200).get(0) < 1);
+
+        // the preview can be late by one stage, but it's ready long before the whole image
+        startTime = System.nanoTime();
+        pipeline.process(createImage(1599, 1200));
+        Assert.assertTrue(previewTime < System.nanoTime() - startTime);
+    }
+
+    /**
+     * A new request of the same session cancels the refinement of the previous one, other sessions are not affected.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCancelPreviousRendering() throws Exception {
+        final List<Runnable> refinements = new ArrayList<Runnable>();
+        final List<ProgressiveRendering> delivered = new ArrayList<ProgressiveRendering>();
+        ProgressiveRenderer renderer = new ProgressiveRenderer(pipeline, refinements::add, 1, 0);
+        ProgressiveRenderer.Listener listener = (rendering, result, scale) -> delivered.add(rendering);
+
+        ProgressiveRendering first = renderer.render("session", createImage(96, 64), listener);
+        ProgressiveRendering other = renderer.render("other", createImage(96, 64), listener);
+        ProgressiveRendering second = renderer.render("session", createImage(96, 64), listener);
+        Assert.assertNotNull(first.getPreview());
+        Assert.assertTrue(first.isCancelled());
+        Assert.assertTrue(first.getResult().isCancelled());
+        Assert.assertFalse(other.isCancelled());
+
+        for (Runnable refinement : refinements) {
+            refinement.run();
+        }
+        Assert.assertEquals(2, delivered.size());
+        Assert.assertTrue(delivered.contains(other));
+        Assert.assertTrue(delivered.contains(second));
+        Assert.assertNotNull(second.getResult().get());
+        Assert.assertNotNull(other.getResult().get());
+
+        renderer.render("other", createImage(96, 64), listener);
+        renderer.cancel("other");
+        refinements.get(refinements.size() - 1).run();
+        Assert.assertEquals(2, delivered.size());
+    }
+
+    private static void assertSameImage(final BufferedImage expected, final BufferedImage actual) {
+        Assert.assertEquals(expected.getWidth(), actual.getWidth());
+        Assert.assertEquals(expected.getHeight(), actual.getHeight());
+        for (int i = 0; i < expected.getHeight(); i++) {
+            for (int j = 0; j < expected.getWidth(); j++) {
+                Assert.assertEquals("pixel " + j + ", " + i, expected.getRGB(j, i), actual.getRGB(j, i));
+            }
+        }
+    }
+
+    /**
+     * A dark disc on a light gradient.
+     */
+    private static BufferedImage createImage(final int width, final int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                final boolean inside = (i - height / 2) * (i - height / 2) + (j - width / 3) * (j - width / 3)
+                    < height * height / 9;
+                final int value = inside ? 40 : 120 + (i + j) % 100;
+                image.setRGB(j, i, (value << 16) | ((value / 2) << 8) | (255 - value));
+            }
+        }
+
+        return image;
+    }
+}
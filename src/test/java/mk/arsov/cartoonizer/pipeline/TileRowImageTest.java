@@ -0,0 +1,60 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for TileRowImage class.
+ */
+public class TileRowImageTest {
+
+    /**
+     * The png writer should read each row of tiles once, from top to bottom.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWritePng() throws Exception {
+        final List<Integer> calculated = new ArrayList<Integer>();
+        TileRowImage image = new TileRowImage(50, 23, 10, (fromY, height) -> {
+            calculated.add(fromY);
+            BufferedImage row = new BufferedImage(50, height, BufferedImage.TYPE_3BYTE_BGR);
+            for (int i = 0; i < height; i++) {
+                for (int j = 0; j < 50; j++) {
+                    row.setRGB(j, i, color(j, fromY + i));
+                }
+            }
+            return row;
+        });
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        Assert.assertTrue(ImageIO.write(image, "png", png));
+        Assert.assertEquals(Arrays.asList(0, 10, 20), calculated);
+
+        BufferedImage written = ImageIO.read(new ByteArrayInputStream(png.toByteArray()));
+        Assert.assertEquals(50, written.getWidth());
+        Assert.assertEquals(23, written.getHeight());
+        for (int i = 0; i < 23; i++) {
+            for (int j = 0; j < 50; j++) {
+                Assert.assertEquals("pixel " + j + ", " + i, color(j, i), written.getRGB(j, i));
+            }
+        }
+
+        // regions across the rows are copied from each of them
+        Assert.assertEquals((color(7, 19) >> 8) & 0xFF, image.getData(new Rectangle(5, 8, 10, 14)).getSample(7, 19, 1));
+    }
+
+    private static int color(final int x, final int y) {
+        return 0xFF000000 | (x * 5 << 16) | (y * 11 << 8) | ((x + y) % 256);
+    }
+}
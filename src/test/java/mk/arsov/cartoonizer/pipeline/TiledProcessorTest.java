@@ -0,0 +1,162 @@
+package mk.arsov.cartoonizer.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import mk.arsov.cartoonizer.config.ProcessingPlan;
+import mk.arsov.cartoonizer.config.ProcessingPlanLoader;
+import mk.arsov.cartoonizer.util.BlurMode;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for TiledProcessor class.
+ */
+public class TiledProcessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The tiles should fit together into the same image as the one calculated at once.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testProcess() throws Exception {
+        Map<String, Object> parameters = new HashMap<String, Object>(ProcessingPlanLoader.loadDefault().getParameters());
+        parameters.put("blur.kernelRadius", 2);
+        parameters.put("etf.kernelRadius", 3);
+        parameters.put("etf.numberofiterations", 2);
+        parameters.put("fdog.iterations", 2);
+        parameters.put("fdog.s", 5);
+        parameters.put("fdog.t", 3);
+        parameters.put("fbl.iterations", 1);
+        parameters.put("fbl.s", 3);
+        parameters.put("fbl.t", 3);
+        ProcessingPlan plan = ProcessingPlanLoader.fromParameters(parameters);
+        Assert.assertTrue(plan.getReach() < 40);
+
+        BufferedImage image = createImage(110, 90);
+        CartoonizerPipeline pipeline = new CartoonizerPipeline(plan);
+        BufferedImage expected = pipeline.process(image).getImage();
+
+        assertSameImage(expected, new TiledProcessor(pipeline, 32).process(image));
+
+        File input = folder.newFile("source.png");
+        File output = new File(folder.getRoot(), "cartoon.png");
+        ImageIO.write(image, "png", input);
+        new TiledProcessor(pipeline, 45).process(input, output);
+        assertSameImage(expected, ImageIO.read(output));
+    }
+
+    /**
+     * The tiles of a 16 bit grayscale image should fit together the same, the gradient magnitude sum streamed in
+     * strips should scale the samples as the whole image does.
+     */
+    @Test
+    public void testProcessUshortGray() {
+        Map<String, Object> parameters = new HashMap<String, Object>(ProcessingPlanLoader.loadDefault().getParameters());
+        parameters.put("blur.kernelRadius", 2);
+        parameters.put("etf.kernelRadius", 3);
+        parameters.put("etf.numberofiterations", 2);
+        parameters.put("fdog.iterations", 2);
+        parameters.put("fdog.s", 5);
+        parameters.put("fdog.t", 3);
+        parameters.put("fbl.iterations", 1);
+        parameters.put("fbl.s", 3);
+        parameters.put("fbl.t", 3);
+        ProcessingPlan plan = ProcessingPlanLoader.fromParameters(parameters);
+        Assert.assertEquals(BlurMode.SEPARABLE, plan.getBlurMode());
+
+        BufferedImage color = createImage(110, 90);
+        BufferedImage image = new BufferedImage(110, 90, BufferedImage.TYPE_USHORT_GRAY);
+        for (int i = 0; i < 90; i++) {
+            for (int j = 0; j < 110; j++) {
+                // the low byte differs from the scaled value
+                image.getRaster().setSample(j, i, 0, (color.getRGB(j, i) & 0xFF) * 257 + (i * 7 + j * 13) % 200);
+            }
+        }
+
+        CartoonizerPipeline pipeline = new CartoonizerPipeline(plan);
+        assertSameImage(pipeline.process(image).getImage(), new TiledProcessor(pipeline, 32).process(image));
+    }
+
+    /**
+     * In pyramid mode the tiles are downsampled the same as the whole image, the tile size is rounded up to
+     * a multiple of the coarsest pixels.
+     */
+    @Test
+    public void testProcessPyramid() {
+        Map<String, Object> parameters = new HashMap<String, Object>(ProcessingPlanLoader.loadDefault().getParameters());
+        parameters.put("blur.kernelRadius", 2);
+        parameters.put("etf.mode", "pyramid");
+        parameters.put("etf.kernelRadius", 3);
+        parameters.put("etf.numberofiterations", 1);
+        parameters.put("fdog.iterations", 1);
+        parameters.put("fdog.s", 4);
+        parameters.put("fdog.t", 2);
+        parameters.put("fbl.iterations", 1);
+        parameters.put("fbl.s", 3);
+        parameters.put("fbl.t", 2);
+        ProcessingPlan plan = ProcessingPlanLoader.fromParameters(parameters);
+        Assert.assertEquals(0, plan.getReach() % 4);
+
+        BufferedImage image = createImage(110, 90);
+        CartoonizerPipeline pipeline = new CartoonizerPipeline(plan);
+        assertSameImage(pipeline.process(image).getImage(), new TiledProcessor(pipeline, 36).process(image));
+        assertSameImage(pipeline.process(image).getImage(), new TiledProcessor(pipeline, 37).process(image));
+    }
+
+    /**
+     * The reach should grow with the kernels and the iterations.
+     */
+    @Test
+    public void testReach() {
+        ProcessingPlan plan = ProcessingPlanLoader.loadDefault();
+        Map<String, Object> parameters = new HashMap<String, Object>(plan.getParameters());
+        parameters.put("etf.numberofiterations", plan.getEtfIterations() + 1);
+
+        Assert.assertEquals(plan.getReach() + plan.getEtfKernelRadius(),
+            ProcessingPlanLoader.fromParameters(parameters).getReach());
+    }
+
+    private static void assertSameImage(final BufferedImage expected, final BufferedImage actual) {
+        Assert.assertEquals(expected.getWidth(), actual.getWidth());
+        Assert.assertEquals(expected.getHeight(), actual.getHeight());
+        for (int i = 0; i < expected.getHeight(); i++) {
+            for (int j = 0; j < expected.getWidth(); j++) {
+                Assert.assertEquals("pixel " + j + ", " + i, expected.getRGB(j, i), actual.getRGB(j, i));
+            }
+        }
+    }
+
+    /**
+     * Circles on a color gradient with some noise.
+     */
+    private static BufferedImage createImage(final int width, final int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        int noise = 12345;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                noise = noise * 1103515245 + 12345;
+                final int offset = (noise >>> 16) % 24;
+                final boolean inside = ((i - 30) * (i - 30) + (j - 40) * (j - 40) < 400)
+                    || ((i - 60) * (i - 60) + (j - 80) * (j - 80) < 225);
+                final int red = inside ? 40 + offset : 200 - j + offset;
+                final int green = inside ? 60 + offset : 120 + i / 2 + offset;
+                final int blue = inside ? 160 - offset : 90 + offset;
+                image.setRGB(j, i, (red << 16) | (green << 8) | blue);
+            }
+        }
+
+        return image;
+    }
+}
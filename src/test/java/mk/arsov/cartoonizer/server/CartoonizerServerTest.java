@@ -0,0 +1,215 @@
+package mk.arsov.cartoonizer.server;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+
+import javax.imageio.ImageIO;
+
+import mk.arsov.cartoonizer.config.ProcessingPlan;
+import mk.arsov.cartoonizer.config.ProcessingPlanLoader;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for CartoonizerServer class.
+ */
+public class CartoonizerServerTest {
+
+    private CartoonizerServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new CartoonizerServer(ProcessingPlanLoader.loadDefault(), null, 0, 1, 1, 1024 * 1024, 100 * 100, 3);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * The uploaded image should be returned cartoonized, with the parameters from the query.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCartoonize() throws Exception {
+        HttpURLConnection connection = post("/cartoonize?fdog.tau=0.7&etf.mode=separable&fbl.iterations=1", createImage());
+
+        Assert.assertEquals(200, connection.getResponseCode());
+        Assert.assertEquals("image/png", connection.getContentType());
+        BufferedImage cartoon = ImageIO.read(connection.getInputStream());
+        Assert.assertEquals(40, cartoon.getWidth());
+        Assert.assertEquals(30, cartoon.getHeight());
+    }
+
+    /**
+     * Invalid requests should be rejected with 4xx status.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidRequests() throws Exception {
+        Assert.assertEquals(400, post("/cartoonize?fdog.tua=0.7", createImage()).getResponseCode());
+        Assert.assertEquals(400, post("/cartoonize?fdog.iterations=1.5", createImage()).getResponseCode());
+        Assert.assertEquals(400, post("/cartoonize?parallel.threads=64", createImage()).getResponseCode());
+        Assert.assertEquals(400, post("/cartoonize?kernel.epsilon=0.0000001", createImage()).getResponseCode());
+        Assert.assertEquals(400, post("/cartoonize?fdog.s=-1", createImage()).getResponseCode());
+        Assert.assertEquals(400, post("/cartoonize?fbl.re=NaN", createImage()).getResponseCode());
+        Assert.assertEquals(400, post("/cartoonize", "not an image".getBytes("UTF-8")).getResponseCode());
+        Assert.assertEquals(413, post("/cartoonize", new byte[2 * 1024 * 1024]).getResponseCode());
+        Assert.assertEquals(413, post("/cartoonize", createImage(200, 100)).getResponseCode());
+
+        HttpURLConnection connection = (HttpURLConnection) url("/cartoonize").openConnection();
+        Assert.assertEquals(405, connection.getResponseCode());
+    }
+
+    /**
+     * The style parameters should be clamped to their maximums, the values below the minimums, the numbers which
+     * are not finite and the values of the wrong type rejected, as well as the other parameters.
+     */
+    @Test
+    public void testRequestPlan() {
+        ProcessingPlan plan = server.requestPlan("fdog.s=100000&etf.kernelRadius=2000&etf.numberofiterations=1000"
+            + "&fdog.tau=0.7&blur.sigma=50&fbl.t=auto");
+
+        Assert.assertEquals(40, plan.getFdogS());
+        Assert.assertEquals(8, plan.getEtfKernelRadius());
+        Assert.assertEquals(5, plan.getEtfIterations());
+        Assert.assertEquals(0.7, plan.getFdogTau(), 0);
+        Assert.assertEquals(5, plan.getBlurSigma(), 0);
+        Assert.assertEquals(ProcessingPlan.AUTO, plan.getParameters().get("fbl.t"));
+
+        for (String query : new String[] {"parallel.rowsPerTask=1", "etf.pyramidIterations=100", "lic.kernelLength=9",
+                "blur.kernelRadius=-5", "fdog.s=-1", "fdog.t=0", "fbl.re=-5.0", "etf.kernelRadius=-2",
+                "fdog.iterations=-1", "blur.sigma=0", "fbl.rg=NaN", "fdog.sigmaM=Infinity", "fdog.tau=-0.1",
+                "etf.numberofiterations=2.5", "fbl.s=abc", "etf.mode=fast"}) {
+            try {
+                server.requestPlan(query);
+                Assert.fail("Parameter accepted: " + query);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * When the compute thread and the queue are taken, requests should be rejected right away with 503.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBusy() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Runnable blocking = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        server.getComputeExecutor().execute(blocking);
+        server.getComputeExecutor().execute(blocking);
+
+        try {
+            HttpURLConnection connection = post("/cartoonize", createImage());
+            Assert.assertEquals(503, connection.getResponseCode());
+            Assert.assertEquals("1", connection.getHeaderField("Retry-After"));
+        } finally {
+            release.countDown();
+        }
+
+        while ((server.getComputeExecutor().getActiveCount() > 0) || !server.getComputeExecutor().getQueue().isEmpty()) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(200, post("/cartoonize", createImage()).getResponseCode());
+    }
+
+    /**
+     * A request which waits too long should be answered with 503, and it's slot should be free again when the
+     * image is cartoonized.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        server.getComputeExecutor().execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        try {
+            Assert.assertEquals(503, post("/cartoonize", createImage()).getResponseCode());
+        } finally {
+            release.countDown();
+        }
+
+        while ((server.getComputeExecutor().getActiveCount() > 0) || !server.getComputeExecutor().getQueue().isEmpty()) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(200, post("/cartoonize", createImage()).getResponseCode());
+        Assert.assertEquals(200, post("/cartoonize", createImage()).getResponseCode());
+    }
+
+    private URL url(final String path) throws IOException {
+        return new URL("http://localhost:" + server.getPort() + path);
+    }
+
+    private HttpURLConnection post(final String path, final byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url(path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        OutputStream output = connection.getOutputStream();
+        try {
+            output.write(body);
+        } catch (IOException e) {
+            // the server may answer before the whole body is sent
+        } finally {
+            try {
+                output.close();
+            } catch (IOException e) {
+                // same as above
+            }
+        }
+
+        // read the response, so the status is available
+        connection.getResponseCode();
+        InputStream input = connection.getErrorStream();
+        if (input != null) {
+            input.close();
+        }
+        return connection;
+    }
+
+    private static byte[] createImage() throws IOException {
+        return createImage(40, 30);
+    }
+
+    private static byte[] createImage(final int width, final int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                image.setRGB(j, i, (i - 15) * (i - 15) + (j - 20) * (j - 20) < 64 ? 0x203080 : 0xE0D0A0);
+            }
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        return png.toByteArray();
+    }
+}
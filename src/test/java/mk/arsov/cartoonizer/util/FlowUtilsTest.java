@@ -3,6 +3,7 @@ package mk.arsov.cartoonizer.util;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -112,6 +113,50 @@ public class FlowUtilsTest {
         Assert.assertEquals(7, (int) points.get(4).getY());
     }
 
+    @Test
+    public void testCreateGradientStencilTable() {
+        VectorField tangentVectors = new VectorField(20, 15);
+        Random random = new Random(3);
+        for (int i = 0; i < 15; i++) {
+            for (int j = 0; j < 20; j++) {
+                final double angle = random.nextDouble() * 2 * Math.PI;
+                tangentVectors.set(i, j, Math.cos(angle), Math.sin(angle));
+            }
+        }
+        tangentVectors.set(7, 7, 0, 0);
+
+        GradientStencilTable stencils = FlowUtils.createGradientStencilTable(tangentVectors, 5);
+
+        for (int i = 0; i < 15; i++) {
+            for (int j = 0; j < 20; j++) {
+                Point2D.Double gradientVector = new Point2D.Double(tangentVectors.getY(i, j), -tangentVectors.getX(i, j));
+                final int pixelIndex = tangentVectors.index(i, j);
+
+                // shorter segments are a prefix of the stencil
+                for (int t = 1; t <= 5; t++) {
+                    ArrayList<Point2D.Double> points =
+                        FlowUtils.calculateGradientPoints(new Point2D.Double(j, i), gradientVector, 20, 15, t);
+
+                    Assert.assertEquals(points.size(), stencils.getLength(pixelIndex, t));
+                    for (int k = 0; k < points.size(); k++) {
+                        final int pointIndex = stencils.getPointIndex(pixelIndex, k);
+                        Assert.assertEquals(points.get(k), new Point2D.Double(pointIndex % 20, pointIndex / 20));
+                    }
+                }
+            }
+        }
+        Assert.assertEquals(1, stencils.getLength(tangentVectors.index(7, 7)));
+    }
+
+    @Test
+    public void testSegmentParameter() {
+        Assert.assertEquals(0, FlowUtils.segmentParameter(0));
+        Assert.assertEquals(1, FlowUtils.segmentParameter(1));
+        Assert.assertEquals(-1, FlowUtils.segmentParameter(2));
+        Assert.assertEquals(2, FlowUtils.segmentParameter(3));
+        Assert.assertEquals(-2, FlowUtils.segmentParameter(4));
+    }
+
     @Test
     public void testGausian() {
         double x = 100;
@@ -0,0 +1,97 @@
+package mk.arsov.cartoonizer.util;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for ImagePlane class.
+ */
+public class ImagePlaneTest {
+
+    /**
+     * The bands read from the data arrays are the same as the samples of the raster, also for subimages.
+     * The samples which don't have 8 bits are scaled.
+     */
+    @Test
+    public void testBand() {
+        final int[] types = {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_USHORT_565_RGB};
+        for (int type : types) {
+            final BufferedImage image = new BufferedImage(20, 15, type);
+            for (int i = 0; i < image.getHeight(); i++) {
+                for (int j = 0; j < image.getWidth(); j++) {
+                    image.setRGB(j, i, 0xFF000000 | (i * 12) << 16 | (j * 11) << 8 | (i * j % 256));
+                }
+            }
+
+            for (BufferedImage part : new BufferedImage[] {image, image.getSubimage(3, 4, 10, 9)}) {
+                for (int band = 0; band < 3; band++) {
+                    final byte[] values = ImagePlane.band(part, band);
+                    final int maximum = (1 << part.getSampleModel().getSampleSize(band)) - 1;
+                    for (int i = 0; i < part.getHeight(); i++) {
+                        for (int j = 0; j < part.getWidth(); j++) {
+                            Assert.assertEquals("type " + type + " band " + band,
+                                (part.getRaster().getSample(j, i, band) * 255 + maximum / 2) / maximum,
+                                values[i * part.getWidth() + j] & 0xff);
+                        }
+                    }
+                }
+            }
+            Assert.assertFalse(ImagePlane.isColor(image.getSubimage(3, 4, 10, 9)));
+        }
+    }
+
+    /**
+     * The 16 bit gray values should be scaled to 8 bits, not cut to their low byte.
+     */
+    @Test
+    public void testBandUshortGray() {
+        final BufferedImage image = new BufferedImage(4, 3, BufferedImage.TYPE_USHORT_GRAY);
+        image.getRaster().setSample(0, 0, 0, 65535);
+        image.getRaster().setSample(1, 0, 0, 0x8000);
+        image.getRaster().setSample(2, 1, 0, 0x00FF);
+        image.getRaster().setSample(3, 2, 0, 0x1234);
+
+        for (BufferedImage part : new BufferedImage[] {image, image.getSubimage(0, 0, 4, 3)}) {
+            final byte[] values = ImagePlane.band(part, 0);
+            Assert.assertEquals(255, values[0] & 0xff);
+            Assert.assertEquals(128, values[1] & 0xff);
+            Assert.assertEquals(1, values[1 * 4 + 2] & 0xff);
+            Assert.assertEquals(18, values[2 * 4 + 3] & 0xff);
+            Assert.assertEquals(0, values[1 * 4] & 0xff);
+        }
+    }
+
+    /**
+     * The data array of a grayscale image is the image.
+     */
+    @Test
+    public void testGray() {
+        final BufferedImage image = ImagePlane.createGray(7, 5);
+        Assert.assertTrue(ImagePlane.isGray(image));
+        Assert.assertFalse(ImagePlane.isGray(image.getSubimage(1, 1, 3, 3)));
+        Assert.assertFalse(ImagePlane.isColor(image));
+
+        ImagePlane.grayData(image)[2 * 7 + 3] = (byte) 200;
+        Assert.assertEquals(200, image.getRaster().getSample(3, 2, 0));
+        Assert.assertSame(ImagePlane.grayData(image), ImagePlane.band(image, 0));
+        Assert.assertEquals(200, ImagePlane.band(image.getSubimage(2, 1, 3, 3), 0)[1 * 3 + 1] & 0xff);
+    }
+
+    /**
+     * The colors written into the data array of a color image.
+     */
+    @Test
+    public void testSetColor() {
+        final BufferedImage image = new BufferedImage(4, 3, BufferedImage.TYPE_3BYTE_BGR);
+        ImagePlane.setColor(ImagePlane.colorData(image), 1 * 4 + 2, 10, 20, 230);
+        Assert.assertEquals(0x0A14E6, image.getRGB(2, 1) & 0xFFFFFF);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGrayDataOfColorImage() {
+        ImagePlane.grayData(new BufferedImage(4, 3, BufferedImage.TYPE_3BYTE_BGR));
+    }
+}
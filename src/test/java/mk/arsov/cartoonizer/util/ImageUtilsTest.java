@@ -1,6 +1,7 @@
 package mk.arsov.cartoonizer.util;
 
 import java.awt.image.BufferedImage;
+import java.util.Random;
 
 import javax.media.jai.JAI;
 import javax.media.jai.PlanarImage;
@@ -36,6 +37,93 @@ public class ImageUtilsTest {
         ImageUtils.saveImage(blurredImage, "target/vlatko_big_blured_1.png");
     }
 
+    /**
+     * The separable blur should give the same result as the full 2D kernel.
+     */
+    @Test
+    public void testBlurSeparable() {
+        BufferedImage image = createNoiseImage(40, 30);
+
+        BufferedImage full = ImageUtils.blur(image, 4, 1.5, BlurMode.FULL);
+        BufferedImage separable = ImageUtils.blur(image, 4, 1.5, BlurMode.SEPARABLE);
+
+        for (int i = 0; i < image.getHeight(); i++) {
+            for (int j = 0; j < image.getWidth(); j++) {
+                Assert.assertEquals(full.getRaster().getSample(j, i, 0), separable.getRaster().getSample(j, i, 0), 1);
+            }
+        }
+    }
+
+    /**
+     * The fixed-point blur should be within one gray level of the separable blur, and kernels which would
+     * overflow the integer sums should be calculated with the separable blur.
+     */
+    @Test
+    public void testBlurFixedPoint() {
+        BufferedImage image = createNoiseImage(40, 30);
+
+        for (double sigma : new double[] {0.5, 1.5, 4}) {
+            final int radius = KernelPlan.truncatedLength(sigma, 0.001);
+            BufferedImage separable = ImageUtils.blur(image, radius, sigma, BlurMode.SEPARABLE);
+            BufferedImage fixedPoint = ImageUtils.blur(image, radius, sigma, BlurMode.FIXED_POINT);
+
+            for (int i = 0; i < image.getHeight(); i++) {
+                for (int j = 0; j < image.getWidth(); j++) {
+                    Assert.assertEquals("sigma " + sigma, separable.getRaster().getSample(j, i, 0),
+                        fixedPoint.getRaster().getSample(j, i, 0), 1);
+                }
+            }
+        }
+
+        // the weights of this kernel add up to about 8
+        BufferedImage separable = ImageUtils.blur(image, 9, 0.05, BlurMode.SEPARABLE);
+        BufferedImage fixedPoint = ImageUtils.blur(image, 9, 0.05, BlurMode.FIXED_POINT);
+        for (int i = 0; i < image.getHeight(); i++) {
+            for (int j = 0; j < image.getWidth(); j++) {
+                Assert.assertEquals(separable.getRaster().getSample(j, i, 0), fixedPoint.getRaster().getSample(j, i, 0));
+            }
+        }
+    }
+
+    /**
+     * The recursive blur should preserve a constant region, away from the borders.
+     */
+    @Test
+    public void testBlurRecursive() {
+        BufferedImage image = new BufferedImage(60, 60, BufferedImage.TYPE_3BYTE_BGR);
+        for (int i = 0; i < 60; i++) {
+            for (int j = 0; j < 60; j++) {
+                image.setRGB(j, i, 100 * 256 * 256 + 100 * 256 + 100);
+            }
+        }
+
+        BufferedImage blurred = ImageUtils.blur(image, 0, 2, BlurMode.RECURSIVE);
+
+        Assert.assertEquals(100, blurred.getRaster().getSample(30, 30, 0), 1);
+        Assert.assertTrue(blurred.getRaster().getSample(0, 0, 0) < 100);
+    }
+
+    /**
+     * The gray values should be copied into the color components without conversion.
+     */
+    @Test
+    public void testToColor() {
+        BufferedImage gray = ImagePlane.createGray(3, 2);
+        gray.getRaster().setSample(1, 1, 0, 75);
+        BufferedImage color = ImageUtils.toColor(gray);
+        for (int band = 0; band < 3; band++) {
+            Assert.assertEquals(75, color.getRaster().getSample(1, 1, band));
+            Assert.assertEquals(0, color.getRaster().getSample(0, 1, band));
+        }
+
+        BufferedImage wide = new BufferedImage(3, 2, BufferedImage.TYPE_USHORT_GRAY);
+        wide.getRaster().setSample(2, 0, 0, 65535);
+        Assert.assertEquals(0xFFFFFF, ImageUtils.toColor(wide).getRGB(2, 0) & 0xFFFFFF);
+
+        BufferedImage rgb = new BufferedImage(3, 2, BufferedImage.TYPE_3BYTE_BGR);
+        Assert.assertSame(rgb, ImageUtils.toColor(rgb));
+    }
+
     /**
      * Test the rgbToLab() method.
      */
@@ -55,4 +143,38 @@ public class ImageUtilsTest {
         Assert.assertEquals(67.37251404455225, lab2[1], 0);
         Assert.assertEquals(28.112959746331732, lab2[2], 0);
     }
+
+    /**
+     * Test the toLabPlanes() method against rgbToLab().
+     */
+    @Test
+    public void testToLabPlanes() {
+        BufferedImage image = new BufferedImage(2, 1, BufferedImage.TYPE_3BYTE_BGR);
+        image.setRGB(0, 0, 223 * 256 * 256 + 39 * 256 + 39);
+        image.setRGB(1, 0, 0xcc113d);
+
+        float[][] lab = ImageUtils.toLabPlanes(image);
+
+        double[] expected = ImageUtils.rgbToLab(new double[] {223, 39, 39});
+        Assert.assertEquals(expected[0], lab[0][0], 0.0001);
+        Assert.assertEquals(expected[1], lab[1][0], 0.0001);
+        Assert.assertEquals(expected[2], lab[2][0], 0.0001);
+
+        expected = ImageUtils.rgbToLab(new double[] {0xcc, 0x11, 0x3d});
+        Assert.assertEquals(expected[0], lab[0][1], 0.0001);
+        Assert.assertEquals(expected[1], lab[1][1], 0.0001);
+        Assert.assertEquals(expected[2], lab[2][1], 0.0001);
+    }
+
+    private BufferedImage createNoiseImage(final int width, final int height) {
+        Random random = new Random(7);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                final int value = random.nextInt(256);
+                image.setRGB(j, i, value * 256 * 256 + value * 256 + value);
+            }
+        }
+        return image;
+    }
 }
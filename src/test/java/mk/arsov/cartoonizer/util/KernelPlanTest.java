@@ -0,0 +1,48 @@
+package mk.arsov.cartoonizer.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for KernelPlan class.
+ */
+public class KernelPlanTest {
+
+    /**
+     * The weights are in the order of the points in a segment: 0, 1, -1, 2, -2, ...
+     */
+    @Test
+    public void testGaussian() {
+        KernelPlan plan = KernelPlan.gaussian(2, 3);
+
+        Assert.assertEquals(3, plan.getLength());
+        Assert.assertEquals(7, plan.getWeights().length);
+        Assert.assertEquals(FlowUtils.calculateGausian(0, 2), plan.getWeight(0), 0);
+        Assert.assertEquals(FlowUtils.calculateGausian(1, 2), plan.getWeight(1), 0);
+        Assert.assertEquals(FlowUtils.calculateGausian(-1, 2), plan.getWeight(2), 0);
+        Assert.assertEquals(FlowUtils.calculateGausian(-3, 2), plan.getWeight(6), 0);
+    }
+
+    @Test
+    public void testDifferenceOfGaussians() {
+        KernelPlan plan = KernelPlan.differenceOfGaussians(1, 1.6, 0.997, 4);
+
+        Assert.assertEquals(9, plan.getWeights().length);
+        for (int k = 0; k < 9; k++) {
+            Assert.assertEquals(FlowUtils.calculateDog(FlowUtils.segmentParameter(k), 1, 1.6, 0.997), plan.getWeight(k), 0);
+        }
+    }
+
+    /**
+     * The truncated length is the first point where the gaussian falls below epsilon.
+     */
+    @Test
+    public void testTruncatedLength() {
+        Assert.assertEquals(4, KernelPlan.truncatedLength(1, 0.001));
+        Assert.assertEquals(6, KernelPlan.truncatedLength(1.6, 0.001));
+
+        final int length = KernelPlan.truncatedLength(3, 0.0001);
+        Assert.assertTrue(FlowUtils.calculateGausian(length, 3) < 0.0001);
+        Assert.assertTrue(FlowUtils.calculateGausian(length - 1, 3) >= 0.0001);
+    }
+}
@@ -0,0 +1,79 @@
+package mk.arsov.cartoonizer.util;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import mk.arsov.cartoonizer.abstraction.EdgeTangentFlow;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for ParallelExecutor class.
+ */
+public class ParallelExecutorTest {
+
+    @After
+    public void tearDown() {
+        ParallelExecutor.setDefault(null);
+    }
+
+    /**
+     * Each row should be calculated exactly once, in bands of the given size.
+     */
+    @Test
+    public void testForEachRow() {
+        final ParallelExecutor executor = new ParallelExecutor(new ForkJoinPool(4), 3);
+        final AtomicIntegerArray calculated = new AtomicIntegerArray(100);
+        executor.forEachRow(100, (fromRow, toRow) -> {
+            Assert.assertEquals(0, fromRow % 3);
+            Assert.assertTrue(toRow - fromRow <= 3);
+            for (int row = fromRow; row < toRow; row++) {
+                calculated.incrementAndGet(row);
+            }
+        });
+
+        for (int row = 0; row < 100; row++) {
+            Assert.assertEquals(1, calculated.get(row));
+        }
+    }
+
+    /**
+     * The sum should not depend on the number of threads.
+     */
+    @Test
+    public void testSumRows() {
+        final double[] values = new double[1000];
+        final Random random = new Random(11);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble() * Math.pow(10, random.nextInt(10));
+        }
+
+        final double sequential = ParallelExecutor.sequential().sumRows(values.length, row -> values[row]);
+        final double parallel = new ParallelExecutor(new ForkJoinPool(4), 7).sumRows(values.length, row -> values[row]);
+        Assert.assertEquals(Double.doubleToLongBits(sequential), Double.doubleToLongBits(parallel));
+    }
+
+    /**
+     * The edge tangent flow should be bit-identical with one and with several threads.
+     */
+    @Test
+    public void testDeterministicEdgeTangentFlow() {
+        final VectorField field = new VectorField(61, 47);
+        final Random random = new Random(5);
+        for (int i = 0; i < field.getXPlane().length; i++) {
+            field.getXPlane()[i] = random.nextInt(200) - 100;
+            field.getYPlane()[i] = random.nextInt(200) - 100;
+        }
+
+        ParallelExecutor.setDefault(ParallelExecutor.sequential());
+        final VectorField sequential = new EdgeTangentFlow().calculate(field, 2, 3);
+        ParallelExecutor.setDefault(new ParallelExecutor(new ForkJoinPool(4), 2));
+        final VectorField parallel = new EdgeTangentFlow().calculate(field, 2, 3);
+
+        Assert.assertArrayEquals(sequential.getXPlane(), parallel.getXPlane(), 0);
+        Assert.assertArrayEquals(sequential.getYPlane(), parallel.getYPlane(), 0);
+    }
+}
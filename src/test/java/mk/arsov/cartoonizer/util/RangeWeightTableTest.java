@@ -0,0 +1,54 @@
+package mk.arsov.cartoonizer.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for RangeWeightTable class.
+ */
+public class RangeWeightTableTest {
+
+    /**
+     * Interpolated values should be close to the gaussian function.
+     */
+    @Test
+    public void testWeight() {
+        for (double sigma : new double[] {10, 50}) {
+            RangeWeightTable table = new RangeWeightTable(sigma);
+            final double maximum = FlowUtils.calculateGausian(0, sigma);
+            for (double distance = 0; distance < 10 * sigma; distance += sigma / 7.3) {
+                Assert.assertEquals(FlowUtils.calculateGausian(distance, sigma), table.weight(distance), maximum * 1e-4);
+            }
+        }
+    }
+
+    /**
+     * Fixed-point values should be close to the gaussian function divided by it's maximum.
+     */
+    @Test
+    public void testFixedPointWeight() {
+        final double squaredOne = 1 << (2 * RangeWeightTable.DISTANCE_FRACTION_BITS);
+        for (double sigma : new double[] {2.5, 10, 50}) {
+            RangeWeightTable table = new RangeWeightTable(sigma);
+            final double maximum = FlowUtils.calculateGausian(0, sigma);
+            for (double distance = 0; distance < 10 * sigma; distance += sigma / 7.3) {
+                final int squaredDistance = (int) Math.round(distance * distance * squaredOne);
+                final double expected = FlowUtils.calculateGausian(Math.sqrt(squaredDistance / squaredOne), sigma)
+                    / maximum;
+                Assert.assertEquals(expected * FixedPoint.ONE, table.fixedPointWeight(squaredDistance), 2);
+            }
+        }
+        Assert.assertEquals(FixedPoint.ONE, new RangeWeightTable(10).fixedPointWeight(0));
+    }
+
+    /**
+     * Far away and zero sigma weights are zero.
+     */
+    @Test
+    public void testZeroWeights() {
+        Assert.assertEquals(0, new RangeWeightTable(10).weight(1000), 0);
+        Assert.assertEquals(0, new RangeWeightTable(0).weight(1), 0);
+        Assert.assertEquals(0, new RangeWeightTable(10).fixedPointWeight(1000 * 1000 * 256));
+        Assert.assertEquals(0, new RangeWeightTable(0).fixedPointWeight(0));
+    }
+}
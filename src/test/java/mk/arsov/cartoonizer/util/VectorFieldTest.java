@@ -0,0 +1,50 @@
+package mk.arsov.cartoonizer.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for VectorField class.
+ */
+public class VectorFieldTest {
+
+    /**
+     * Test that vectors are stored in row-major order.
+     */
+    @Test
+    public void testRowMajorIndexing() {
+        VectorField field = new VectorField(4, 3);
+        field.set(2, 1, 0.5, -0.25);
+
+        Assert.assertEquals(9, field.index(2, 1));
+        Assert.assertEquals(0.5, field.getXPlane()[9], 0);
+        Assert.assertEquals(-0.25, field.getYPlane()[9], 0);
+        Assert.assertEquals(0.5, field.getX(2, 1), 0);
+        Assert.assertEquals(-0.25, field.getY(2, 1), 0);
+        Assert.assertTrue(field.isZero(1, 2));
+        Assert.assertFalse(field.isZero(2, 1));
+    }
+
+    /**
+     * Test that a copy does not share the component arrays.
+     */
+    @Test
+    public void testCopy() {
+        VectorField field = new VectorField(2, 2);
+        field.set(0, 1, 1, 2);
+
+        VectorField copy = field.copy();
+        field.set(0, 1, 3, 4);
+
+        Assert.assertEquals(1, copy.getX(0, 1), 0);
+        Assert.assertEquals(2, copy.getY(0, 1), 0);
+    }
+
+    /**
+     * Component arrays with the wrong size are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new VectorField(2, 2, new double[4], new double[3]);
+    }
+}